@@ -20,10 +20,14 @@ import com.google.inject.Singleton;
 import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
 import com.netflix.dynomitemanager.dynomite.DynomiteYamlTuneTask;
 import com.netflix.dynomitemanager.dynomite.IDynomiteProcess;
+import com.netflix.dynomitemanager.identity.HeartbeatTask;
 import com.netflix.dynomitemanager.identity.InstanceIdentity;
+import com.netflix.dynomitemanager.monitoring.MemcachedStatsMetricsTask;
 import com.netflix.dynomitemanager.monitoring.RedisInfoMetricsTask;
 import com.netflix.dynomitemanager.monitoring.ServoMetricsTask;
 import com.netflix.dynomitemanager.sidecore.aws.UpdateSecuritySettings;
+import com.netflix.dynomitemanager.sidecore.backup.BackupSlotCoordinator;
+import com.netflix.dynomitemanager.sidecore.backup.IncrementalBackupTask;
 import com.netflix.dynomitemanager.sidecore.backup.SnapshotTask;
 import com.netflix.dynomitemanager.sidecore.backup.RestoreTask;
 import com.netflix.dynomitemanager.sidecore.scheduler.TaskScheduler;
@@ -55,11 +59,18 @@ import com.netflix.servo.monitor.Monitors;
  * If cold bootstrap mode, then stop any in progress sync, reset storage backend
  * to master, and restart dynomite proxy (if necessary).
  * <li>{@link com.netflix.dynomitemanager.sidecore.backup.SnapshotTask}: If
- * backups are enabled, then add the backup snapshot task.
+ * backups are enabled, then add the backup snapshot task, at the slot of this
+ * node in the backup window.
+ * <li>{@link com.netflix.dynomitemanager.sidecore.backup.IncrementalBackupTask}:
+ * If backups are enabled with AOF persistence and an incremental interval,
+ * then upload the data appended to the AOF between snapshots.
  * <li>{@link com.netflix.dynomitemanager.monitoring.ServoMetricsTask}: Publish
  * metrics via Servo.
  * <li>{@link com.netflix.dynomitemanager.monitoring.RedisInfoMetricsTask}:
  * Update metrics obtained via Redis INFO command.
+ * <li>{@link com.netflix.dynomitemanager.monitoring.MemcachedStatsMetricsTask}:
+ * Update metrics obtained via the memcached stats commands when the data
+ * store engine is memcached.
  * <li>{@link com.netflix.dynomitemanager.sidecore.utils.ProcessMonitorTask}:
  * Monitor the dynomite and redis-server processes, and restart as necessary.
  * </ul>
@@ -74,11 +85,13 @@ public class DynomiteManagerServer {
     private final IDynomiteProcess dynProcess;
     private final StorageProcessManager storageProcess;
     private final InstanceState state;
+    private final BackupSlotCoordinator backupSlots;
     private static final Logger logger = LoggerFactory.getLogger(DynomiteManagerServer.class);
 
     @Inject
     public DynomiteManagerServer(IConfiguration config, TaskScheduler scheduler, InstanceIdentity id, Sleeper sleeper,
-	    DynomiteYamlTuneTask tuneTask, InstanceState state, IDynomiteProcess dynProcess, StorageProcessManager storageProcess) {
+	    DynomiteYamlTuneTask tuneTask, InstanceState state, IDynomiteProcess dynProcess, StorageProcessManager storageProcess,
+	    BackupSlotCoordinator backupSlots) {
 
 	this.config = config;
 	this.scheduler = scheduler;
@@ -88,6 +101,7 @@ public class DynomiteManagerServer {
 	this.state = state;
 	this.dynProcess = dynProcess;
 	this.storageProcess = storageProcess;
+	this.backupSlots = backupSlots;
 
 
 	DefaultMonitorRegistry.getInstance().register(Monitors.newObjectMonitor(state));
@@ -160,17 +174,39 @@ public class DynomiteManagerServer {
 
 	// Backup
 	if (config.isBackupEnabled() && config.getBackupHour() >= 0) {
-	    scheduler.addTask(SnapshotTask.TaskName, SnapshotTask.class, SnapshotTask.getTimer(config));
+	    scheduler.addTask(SnapshotTask.TaskName, SnapshotTask.class,
+		    SnapshotTask.getTimer(config, backupSlots.getSlotSeconds()));
+	    if (config.isRedisAofEnabled() && !config.isBackupDiskless()
+		    && config.getBackupIncrementalIntervalMinutes() > 0) {
+		// Only chunked backups can be extended, single object backups are the default
+		if ("object".equalsIgnoreCase(config.getBackupFormat())) {
+		    logger.warn("Incremental backups need the chunked backup format, they are not scheduled");
+		} else {
+		    scheduler.addTask(IncrementalBackupTask.TaskName, IncrementalBackupTask.class,
+			    IncrementalBackupTask.getTimer(config));
+		}
+	    }
 	}
 
 	// Metrics
 	scheduler.addTask(ServoMetricsTask.TaskName, ServoMetricsTask.class, ServoMetricsTask.getTimer());
-	scheduler.addTask(RedisInfoMetricsTask.TaskName, RedisInfoMetricsTask.class, RedisInfoMetricsTask.getTimer());
+	if ("memcached".equals(config.getDatastoreEngine())) {
+	    scheduler.addTask(MemcachedStatsMetricsTask.TaskName, MemcachedStatsMetricsTask.class,
+		    MemcachedStatsMetricsTask.getTimer());
+	} else {
+	    scheduler.addTask(RedisInfoMetricsTask.TaskName, RedisInfoMetricsTask.class,
+		    RedisInfoMetricsTask.getTimer());
+	}
 
 	// Routine monitoring and restarting dynomite or storage processes as
 	// needed.
 	scheduler.addTask(ProcessMonitorTask.JOBNAME, ProcessMonitorTask.class, ProcessMonitorTask.getTimer());
 
+	// Heartbeat, so that peers can tell this node is alive
+	if (config.getHeartbeatIntervalSeconds() > 0) {
+	    scheduler.addTask(HeartbeatTask.JOBNAME, HeartbeatTask.class, HeartbeatTask.getTimer(config));
+	}
+
 	logger.info("Starting task scheduler");
 	scheduler.start();
     }
@@ -47,13 +47,15 @@ import com.netflix.dynomitemanager.sidecore.aws.AWSMembership;
 import com.netflix.dynomitemanager.sidecore.aws.AwsRoleAssumptionCredential;
 import com.netflix.dynomitemanager.sidecore.aws.IAMCredential;
 import com.netflix.dynomitemanager.sidecore.backup.Backup;
+import com.netflix.dynomitemanager.sidecore.backup.ObjectStore;
 import com.netflix.dynomitemanager.sidecore.backup.Restore;
 import com.netflix.dynomitemanager.sidecore.backup.S3Backup;
+import com.netflix.dynomitemanager.sidecore.backup.S3ObjectStore;
 import com.netflix.dynomitemanager.sidecore.backup.S3Restore;
 import com.netflix.dynomitemanager.sidecore.config.InstanceDataRetriever;
 import com.netflix.dynomitemanager.sidecore.config.VpcInstanceDataRetriever;
 import com.netflix.dynomitemanager.sidecore.storage.IStorageProxy;
-import com.netflix.dynomitemanager.sidecore.storage.RedisStorageProxy;
+import com.netflix.dynomitemanager.sidecore.storage.StorageProxyProvider;
 import com.netflix.dynomitemanager.sidecore.utils.FloridaHealthCheckHandler;
 import com.netflix.dynomitemanager.sidecore.utils.ProcessTuner;
 import com.netflix.dynomitemanager.supplier.CassandraLocalHostsSupplier;
@@ -123,7 +125,7 @@ public class InjectedWebListener extends GuiceServletContextListener {
 	    binder().bind(IAppsInstanceFactory.class).to(CassandraInstanceFactory.class);
 	    binder().bind(SchedulerFactory.class).to(StdSchedulerFactory.class).asEagerSingleton();
 	    binder().bind(IDynomiteProcess.class).to(DynomiteProcessManager.class);
-	    binder().bind(IStorageProxy.class).to(RedisStorageProxy.class);
+	    binder().bind(IStorageProxy.class).toProvider(StorageProxyProvider.class);
 	    binder().bind(InstanceDataRetriever.class).to(VpcInstanceDataRetriever.class);
 	    // binder().bind(InstanceDataRetriever.class).to(LocalInstanceDataRetriever.class);
 	    // binder().bind(HostSupplier.class).to(EurekaHostsSupplier.class);
@@ -145,6 +147,8 @@ public class InjectedWebListener extends GuiceServletContextListener {
 	    binder().bind(InstanceEnvIdentity.class).to(DefaultVpcInstanceEnvIdentity.class).asEagerSingleton();
 	    bind(Backup.class).to(S3Backup.class);
 	    bind(Restore.class).to(S3Restore.class);
+	    bind(ObjectStore.class).to(S3ObjectStore.class);
+	    // bind(ObjectStore.class).to(LocalObjectStore.class);
 
 	}
     }
@@ -13,6 +13,7 @@
 package com.netflix.dynomitemanager;
 
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.inject.Singleton;
 import com.netflix.dynomitemanager.sidecore.storage.Bootstrap;
@@ -35,6 +36,8 @@ public class InstanceState implements IInstanceState {
 	private final AtomicBoolean isRestore = new AtomicBoolean(false);
 	private final AtomicBoolean isRestoreSuccessful = new AtomicBoolean(false);
 	private final AtomicBoolean firstRestore = new AtomicBoolean(true);
+	private final AtomicLong restoreBytesDone = new AtomicLong(0);
+	private final AtomicLong restoreBytesTotal = new AtomicLong(0);
 	private final AtomicBoolean isStorageProxyAlive = new AtomicBoolean(false);
 	private final AtomicBoolean isStorageProxyProcessAlive = new AtomicBoolean(false);
 	private final AtomicBoolean isStorageAlive = new AtomicBoolean(false);
@@ -183,6 +186,23 @@ public class InstanceState implements IInstanceState {
 		this.restoreTime = restoreTime.getMillis();
 	}
 
+	public long getRestoreBytesDone() {
+		return restoreBytesDone.get();
+	}
+
+	public long getRestoreBytesTotal() {
+		return restoreBytesTotal.get();
+	}
+
+	public void setRestoreProgress(long bytesDone, long bytesTotal) {
+		this.restoreBytesTotal.set(bytesTotal);
+		this.restoreBytesDone.set(bytesDone);
+	}
+
+	public void addRestoreBytesDone(long bytes) {
+		this.restoreBytesDone.addAndGet(bytes);
+	}
+
 	//@Monitor(name="bootstrapping", type=DataSourceType.GAUGE)
 	public int metricIsBootstrapping() {
 		return isBootstrapping() ? 1 : 0;
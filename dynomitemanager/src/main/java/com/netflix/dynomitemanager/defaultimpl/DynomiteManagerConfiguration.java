@@ -189,6 +189,7 @@ public class DynomiteManagerConfiguration implements IConfiguration {
     private static final String CONFIG_REDIS_PERSISTENCE_TYPE = REDIS_PROPS + ".persistence.type";
     private static final String CONFIG_REDIS_START_SCRIPT = REDIS_PROPS + ".start.script";
     private static final String CONFIG_REDIS_STOP_SCRIPT = REDIS_PROPS + ".stop.script";
+    private static final String CONFIG_REDIS_SERVER_PATH = REDIS_PROPS + ".server.path";
 
     // Data store: ARDB with RocksDB
     // =============================
@@ -234,6 +235,43 @@ public class DynomiteManagerConfiguration implements IConfiguration {
     private static final String CONFIG_BACKUP_SCHEDULE = DYNOMITEMANAGER_PRE + ".dyno.backup.schedule";
     private static final String CONFIG_RESTORE_ENABLED = DYNOMITEMANAGER_PRE + ".dyno.backup.restore.enabled";
     private static final String CONFIG_RESTORE_TIME = DYNOMITEMANAGER_PRE + ".dyno.backup.restore.date";
+    private static final String CONFIG_BACKUP_PART_SIZE_MB = DYNOMITEMANAGER_PRE + ".dyno.backup.part.size.mb";
+    private static final String CONFIG_BACKUP_UPLOAD_THREADS = DYNOMITEMANAGER_PRE + ".dyno.backup.upload.threads";
+    private static final String CONFIG_BACKUP_PART_RETRIES = DYNOMITEMANAGER_PRE + ".dyno.backup.part.retries";
+    private static final String CONFIG_BACKUP_COMPRESSION_CODEC = DYNOMITEMANAGER_PRE + ".dyno.backup.compression.codec";
+    private static final String CONFIG_BACKUP_COMPRESSION_LEVEL = DYNOMITEMANAGER_PRE + ".dyno.backup.compression.level";
+    private static final String CONFIG_RESTORE_DOWNLOAD_THREADS = DYNOMITEMANAGER_PRE + ".dyno.restore.download.threads";
+    private static final String CONFIG_BACKUP_FORMAT = DYNOMITEMANAGER_PRE + ".dyno.backup.format";
+    private static final String CONFIG_BACKUP_RETENTION_DAYS = DYNOMITEMANAGER_PRE + ".dyno.backup.retention.days";
+    private static final String CONFIG_BACKUP_INCREMENTAL_INTERVAL_MINUTES = DYNOMITEMANAGER_PRE + ".dyno.backup.incremental.interval.minutes";
+    private static final String CONFIG_BACKUP_DISKLESS = DYNOMITEMANAGER_PRE + ".dyno.backup.diskless";
+    private static final String CONFIG_BACKUP_VERIFICATION = DYNOMITEMANAGER_PRE + ".dyno.backup.verification";
+    private static final String CONFIG_MEMORY_ANALYSIS_KEY_DELIMITERS = DYNOMITEMANAGER_PRE + ".dyno.memory.analysis.delimiters";
+    private static final String CONFIG_MEMORY_ANALYSIS_PREFIX_DEPTH = DYNOMITEMANAGER_PRE + ".dyno.memory.analysis.prefix.depth";
+    private static final String CONFIG_MEMORY_ANALYSIS_MAX_PREFIXES = DYNOMITEMANAGER_PRE + ".dyno.memory.analysis.prefixes";
+    private static final String CONFIG_MEMORY_ANALYSIS_TOP_KEYS = DYNOMITEMANAGER_PRE + ".dyno.memory.analysis.topkeys";
+    private static final String CONFIG_BACKUP_LOCAL_STORE_PATH = DYNOMITEMANAGER_PRE + ".dyno.backup.local.path";
+    private static final String CONFIG_BACKUP_MAX_RATE_MB = DYNOMITEMANAGER_PRE + ".dyno.backup.rate.max.mb";
+    private static final String CONFIG_BACKUP_MIN_RATE_MB = DYNOMITEMANAGER_PRE + ".dyno.backup.rate.min.mb";
+    private static final String CONFIG_BACKUP_THROTTLE_LATENCY_MICROS = DYNOMITEMANAGER_PRE + ".dyno.backup.rate.latency.micros";
+    private static final String CONFIG_BACKUP_PAGE_CACHE_DROP = DYNOMITEMANAGER_PRE + ".dyno.backup.pagecache.drop";
+    private static final String CONFIG_BACKUP_WINDOW_MINUTES = DYNOMITEMANAGER_PRE + ".dyno.backup.window.minutes";
+    private static final String CONFIG_BACKUP_DEDUP = DYNOMITEMANAGER_PRE + ".dyno.backup.dedup";
+    private static final String CONFIG_RESTORE_SIDE_INSTANCE = DYNOMITEMANAGER_PRE + ".dyno.restore.side.instance";
+    private static final String CONFIG_RESTORE_SIDE_PORT = DYNOMITEMANAGER_PRE + ".dyno.restore.side.port";
+    private static final String CONFIG_RESTORE_LIVE = DYNOMITEMANAGER_PRE + ".dyno.restore.live";
+    private static final String CONFIG_RESTORE_LIVE_CONNECTIONS = DYNOMITEMANAGER_PRE + ".dyno.restore.live.connections";
+    private static final String CONFIG_RESTORE_LIVE_LATENCY_MS = DYNOMITEMANAGER_PRE + ".dyno.restore.live.latency.ms";
+    private static final String CONFIG_REDIS_LOAD_PREFETCH_THREADS = DYNOMITEMANAGER_PRE + ".dyno.redis.load.prefetch.threads";
+    private static final String CONFIG_MEMBERSHIP_CACHE_TTL = DYNOMITEMANAGER_PRE + ".dyno.membership.cache.ttl.seconds";
+    private static final String CONFIG_TOKEN_LOCK_ATTEMPTS = DYNOMITEMANAGER_PRE + ".dyno.token.lock.attempts";
+    private static final String CONFIG_TOKEN_LOCK_BACKOFF_MS = DYNOMITEMANAGER_PRE + ".dyno.token.lock.backoff.ms";
+    private static final String CONFIG_TOKEN_CLAIM_ORDERED = DYNOMITEMANAGER_PRE + ".dyno.token.claim.ordered";
+    private static final String CONFIG_HEARTBEAT_INTERVAL = DYNOMITEMANAGER_PRE + ".dyno.heartbeat.interval.seconds";
+    private static final String CONFIG_HEARTBEAT_TTL = DYNOMITEMANAGER_PRE + ".dyno.heartbeat.ttl.seconds";
+    private static final String CONFIG_HEARTBEAT_LIVENESS = DYNOMITEMANAGER_PRE + ".dyno.heartbeat.liveness";
+    private static final String CONFIG_CLUSTER_STATE_FILE = DYNOMITEMANAGER_PRE + ".dyno.cluster.state.file";
+    private static final String CONFIG_ASG_MEMBERSHIP_REFRESH = DYNOMITEMANAGER_PRE + ".dyno.asg.membership.refresh.seconds";
 
     // VPC
     private static final String CONFIG_INSTANCE_DATA_RETRIEVER = DYNOMITEMANAGER_PRE + ".instanceDataRetriever";
@@ -283,6 +321,43 @@ public class DynomiteManagerConfiguration implements IConfiguration {
     private static final String DEFAULT_RESTORE_TIME = "20101010";
     private static final String DEFAULT_BACKUP_SCHEDULE = "day";
     private static final int DEFAULT_BACKUP_HOUR = 12;
+    private static final int DEFAULT_BACKUP_PART_SIZE_MB = 64;
+    private static final int DEFAULT_BACKUP_UPLOAD_THREADS = 4;
+    private static final int DEFAULT_BACKUP_PART_RETRIES = 5;
+    private static final String DEFAULT_BACKUP_COMPRESSION_CODEC = "none";
+    private static final int DEFAULT_BACKUP_COMPRESSION_LEVEL = -1;
+    private static final int DEFAULT_RESTORE_DOWNLOAD_THREADS = 4;
+    private static final String DEFAULT_BACKUP_FORMAT = "object";
+    private static final int DEFAULT_BACKUP_RETENTION_DAYS = 0;
+    private static final int DEFAULT_BACKUP_INCREMENTAL_INTERVAL_MINUTES = 0;
+    private static final boolean DEFAULT_BACKUP_DISKLESS = false;
+    private static final boolean DEFAULT_BACKUP_VERIFICATION = false;
+    private static final String DEFAULT_MEMORY_ANALYSIS_KEY_DELIMITERS = ":";
+    private static final int DEFAULT_MEMORY_ANALYSIS_PREFIX_DEPTH = 1;
+    private static final int DEFAULT_MEMORY_ANALYSIS_MAX_PREFIXES = 100;
+    private static final int DEFAULT_MEMORY_ANALYSIS_TOP_KEYS = 20;
+    private static final String DEFAULT_BACKUP_LOCAL_STORE_PATH = "/mnt/backups";
+    private static final int DEFAULT_BACKUP_MAX_RATE_MB = 0;
+    private static final int DEFAULT_BACKUP_MIN_RATE_MB = 8;
+    private static final int DEFAULT_BACKUP_THROTTLE_LATENCY_MICROS = 5000;
+    private static final boolean DEFAULT_BACKUP_PAGE_CACHE_DROP = false;
+    private static final int DEFAULT_BACKUP_WINDOW_MINUTES = 60;
+    private static final boolean DEFAULT_BACKUP_DEDUP = false;
+    private static final boolean DEFAULT_RESTORE_SIDE_INSTANCE = false;
+    private static final int DEFAULT_RESTORE_SIDE_PORT = 22123;
+    private static final boolean DEFAULT_RESTORE_LIVE = false;
+    private static final int DEFAULT_RESTORE_LIVE_CONNECTIONS = 4;
+    private static final int DEFAULT_RESTORE_LIVE_LATENCY_MS = 50;
+    private static final int DEFAULT_REDIS_LOAD_PREFETCH_THREADS = 4;
+    private static final int DEFAULT_MEMBERSHIP_CACHE_TTL = 10;
+    private static final int DEFAULT_TOKEN_LOCK_ATTEMPTS = 6;
+    private static final int DEFAULT_TOKEN_LOCK_BACKOFF_MS = 50;
+    private static final boolean DEFAULT_TOKEN_CLAIM_ORDERED = false;
+    private static final int DEFAULT_HEARTBEAT_INTERVAL = 10;
+    private static final int DEFAULT_HEARTBEAT_TTL = 60;
+    private static final boolean DEFAULT_HEARTBEAT_LIVENESS = false;
+    private static final String DEFAULT_CLUSTER_STATE_FILE = "/mnt/data/dynomitemanager/cluster_state.json";
+    private static final int DEFAULT_ASG_MEMBERSHIP_REFRESH = 30;
 
     // AWS Dual Account
     private static final boolean DEFAULT_DUAL_ACCOUNT = false;
@@ -324,6 +399,7 @@ public class DynomiteManagerConfiguration implements IConfiguration {
     private static final String DEFAULT_REDIS_PERSISTENCE_TYPE = "aof";
     private static final String DEFAULT_REDIS_START_SCRIPT = "/apps/nfredis/bin/launch_nfredis.sh";
     private static final String DEFAULT_REDIS_STOP_SCRIPT = "/apps/nfredis/bin/kill_redis.sh";
+    private static final String DEFAULT_REDIS_SERVER_PATH = "/apps/nfredis/bin/redis-server";
 
     // Defaults: Data store: ARDB with RocksDB
     // =======================================
@@ -766,6 +842,191 @@ public class DynomiteManagerConfiguration implements IConfiguration {
 	return configSource.get(CONFIG_RESTORE_TIME, DEFAULT_RESTORE_TIME);
     }
 
+    @Override
+    public int getBackupPartSizeMB() {
+	return configSource.get(CONFIG_BACKUP_PART_SIZE_MB, DEFAULT_BACKUP_PART_SIZE_MB);
+    }
+
+    @Override
+    public int getBackupUploadThreads() {
+	return configSource.get(CONFIG_BACKUP_UPLOAD_THREADS, DEFAULT_BACKUP_UPLOAD_THREADS);
+    }
+
+    @Override
+    public int getBackupPartRetries() {
+	return configSource.get(CONFIG_BACKUP_PART_RETRIES, DEFAULT_BACKUP_PART_RETRIES);
+    }
+
+    @Override
+    public String getBackupCompressionCodec() {
+	return configSource.get(CONFIG_BACKUP_COMPRESSION_CODEC, DEFAULT_BACKUP_COMPRESSION_CODEC);
+    }
+
+    @Override
+    public int getBackupCompressionLevel() {
+	return configSource.get(CONFIG_BACKUP_COMPRESSION_LEVEL, DEFAULT_BACKUP_COMPRESSION_LEVEL);
+    }
+
+    @Override
+    public int getRestoreDownloadThreads() {
+	return configSource.get(CONFIG_RESTORE_DOWNLOAD_THREADS, DEFAULT_RESTORE_DOWNLOAD_THREADS);
+    }
+
+    @Override
+    public String getBackupFormat() {
+	return configSource.get(CONFIG_BACKUP_FORMAT, DEFAULT_BACKUP_FORMAT);
+    }
+
+    @Override
+    public int getBackupRetentionDays() {
+	return configSource.get(CONFIG_BACKUP_RETENTION_DAYS, DEFAULT_BACKUP_RETENTION_DAYS);
+    }
+
+    @Override
+    public int getBackupIncrementalIntervalMinutes() {
+	return configSource.get(CONFIG_BACKUP_INCREMENTAL_INTERVAL_MINUTES, DEFAULT_BACKUP_INCREMENTAL_INTERVAL_MINUTES);
+    }
+
+    @Override
+    public boolean isBackupDiskless() {
+	return configSource.get(CONFIG_BACKUP_DISKLESS, DEFAULT_BACKUP_DISKLESS);
+    }
+
+    @Override
+    public boolean isBackupVerificationEnabled() {
+	return configSource.get(CONFIG_BACKUP_VERIFICATION, DEFAULT_BACKUP_VERIFICATION);
+    }
+
+    @Override
+    public String getMemoryAnalysisKeyDelimiters() {
+	return configSource.get(CONFIG_MEMORY_ANALYSIS_KEY_DELIMITERS, DEFAULT_MEMORY_ANALYSIS_KEY_DELIMITERS);
+    }
+
+    @Override
+    public int getMemoryAnalysisPrefixDepth() {
+	return configSource.get(CONFIG_MEMORY_ANALYSIS_PREFIX_DEPTH, DEFAULT_MEMORY_ANALYSIS_PREFIX_DEPTH);
+    }
+
+    @Override
+    public int getMemoryAnalysisMaxPrefixes() {
+	return configSource.get(CONFIG_MEMORY_ANALYSIS_MAX_PREFIXES, DEFAULT_MEMORY_ANALYSIS_MAX_PREFIXES);
+    }
+
+    @Override
+    public int getMemoryAnalysisTopKeys() {
+	return configSource.get(CONFIG_MEMORY_ANALYSIS_TOP_KEYS, DEFAULT_MEMORY_ANALYSIS_TOP_KEYS);
+    }
+
+    @Override
+    public String getBackupLocalStorePath() {
+	return configSource.get(CONFIG_BACKUP_LOCAL_STORE_PATH, DEFAULT_BACKUP_LOCAL_STORE_PATH);
+    }
+
+    @Override
+    public int getBackupMaxRateMB() {
+	return configSource.get(CONFIG_BACKUP_MAX_RATE_MB, DEFAULT_BACKUP_MAX_RATE_MB);
+    }
+
+    @Override
+    public int getBackupMinRateMB() {
+	return configSource.get(CONFIG_BACKUP_MIN_RATE_MB, DEFAULT_BACKUP_MIN_RATE_MB);
+    }
+
+    @Override
+    public int getBackupThrottleLatencyMicros() {
+	return configSource.get(CONFIG_BACKUP_THROTTLE_LATENCY_MICROS, DEFAULT_BACKUP_THROTTLE_LATENCY_MICROS);
+    }
+
+    @Override
+    public boolean isBackupPageCacheDropEnabled() {
+	return configSource.get(CONFIG_BACKUP_PAGE_CACHE_DROP, DEFAULT_BACKUP_PAGE_CACHE_DROP);
+    }
+
+    @Override
+    public int getBackupWindowMinutes() {
+	return configSource.get(CONFIG_BACKUP_WINDOW_MINUTES, DEFAULT_BACKUP_WINDOW_MINUTES);
+    }
+
+    @Override
+    public boolean isBackupDedupEnabled() {
+	return configSource.get(CONFIG_BACKUP_DEDUP, DEFAULT_BACKUP_DEDUP);
+    }
+
+    @Override
+    public boolean isRestoreSideInstanceEnabled() {
+	return configSource.get(CONFIG_RESTORE_SIDE_INSTANCE, DEFAULT_RESTORE_SIDE_INSTANCE);
+    }
+
+    @Override
+    public int getRestoreSidePort() {
+	return configSource.get(CONFIG_RESTORE_SIDE_PORT, DEFAULT_RESTORE_SIDE_PORT);
+    }
+
+    @Override
+    public boolean isRestoreLiveEnabled() {
+	return configSource.get(CONFIG_RESTORE_LIVE, DEFAULT_RESTORE_LIVE);
+    }
+
+    @Override
+    public int getRestoreLiveConnections() {
+	return configSource.get(CONFIG_RESTORE_LIVE_CONNECTIONS, DEFAULT_RESTORE_LIVE_CONNECTIONS);
+    }
+
+    @Override
+    public int getRestoreLiveLatencyMs() {
+	return configSource.get(CONFIG_RESTORE_LIVE_LATENCY_MS, DEFAULT_RESTORE_LIVE_LATENCY_MS);
+    }
+
+    @Override
+    public int getRedisLoadPrefetchThreads() {
+	return configSource.get(CONFIG_REDIS_LOAD_PREFETCH_THREADS, DEFAULT_REDIS_LOAD_PREFETCH_THREADS);
+    }
+
+    @Override
+    public int getMembershipCacheTtlSeconds() {
+	return configSource.get(CONFIG_MEMBERSHIP_CACHE_TTL, DEFAULT_MEMBERSHIP_CACHE_TTL);
+    }
+
+    @Override
+    public int getTokenLockAttempts() {
+	return configSource.get(CONFIG_TOKEN_LOCK_ATTEMPTS, DEFAULT_TOKEN_LOCK_ATTEMPTS);
+    }
+
+    @Override
+    public int getTokenLockBackoffMs() {
+	return configSource.get(CONFIG_TOKEN_LOCK_BACKOFF_MS, DEFAULT_TOKEN_LOCK_BACKOFF_MS);
+    }
+
+    @Override
+    public boolean isTokenClaimOrdered() {
+	return configSource.get(CONFIG_TOKEN_CLAIM_ORDERED, DEFAULT_TOKEN_CLAIM_ORDERED);
+    }
+
+    @Override
+    public int getHeartbeatIntervalSeconds() {
+	return configSource.get(CONFIG_HEARTBEAT_INTERVAL, DEFAULT_HEARTBEAT_INTERVAL);
+    }
+
+    @Override
+    public int getHeartbeatTtlSeconds() {
+	return configSource.get(CONFIG_HEARTBEAT_TTL, DEFAULT_HEARTBEAT_TTL);
+    }
+
+    @Override
+    public boolean isHeartbeatLivenessEnabled() {
+	return configSource.get(CONFIG_HEARTBEAT_LIVENESS, DEFAULT_HEARTBEAT_LIVENESS);
+    }
+
+    @Override
+    public String getClusterStateFile() {
+	return configSource.get(CONFIG_CLUSTER_STATE_FILE, DEFAULT_CLUSTER_STATE_FILE);
+    }
+
+    @Override
+    public int getAsgMembershipRefreshSeconds() {
+	return configSource.get(CONFIG_ASG_MEMBERSHIP_REFRESH, DEFAULT_ASG_MEMBERSHIP_REFRESH);
+    }
+
     // VPC
     @Override
     public String getVpcId() {
@@ -862,6 +1123,11 @@ public class DynomiteManagerConfiguration implements IConfiguration {
         return getStringProperty("DM_REDIS_STOP_SCRIPT", CONFIG_REDIS_STOP_SCRIPT, DEFAULT_REDIS_STOP_SCRIPT);
     }
 
+    @Override
+    public String getRedisServerPath() {
+        return getStringProperty("DM_REDIS_SERVER_PATH", CONFIG_REDIS_SERVER_PATH, DEFAULT_REDIS_SERVER_PATH);
+    }
+
     @Override
     public boolean isRedisAofEnabled() {
         // Call getRedisPersistenceType() only once to simplify testing. An alternative approach is to accept
@@ -274,6 +274,295 @@ public interface IConfiguration {
 
     public String getRestoreDate();
 
+    /**
+     * Get the size of each part of a multipart backup upload, or the raw size of each chunk of a chunked backup.
+     *
+     * @return the part size in MB (S3 requires at least 5MB for parts)
+     */
+    public int getBackupPartSizeMB();
+
+    /**
+     * Get the number of parts uploaded concurrently during a backup. At most this many parts are in flight at once.
+     *
+     * @return the number of backup upload threads
+     */
+    public int getBackupUploadThreads();
+
+    /**
+     * Get the number of times a failed part is retried, with exponential backoff, before the backup is aborted.
+     *
+     * @return the number of retries per part
+     */
+    public int getBackupPartRetries();
+
+    /**
+     * Get the codec used to compress backups: none, snappy, lzf or gzip. Compressed parts are buffered in heap while
+     * they are uploaded, see {@link #getBackupUploadThreads()}.
+     *
+     * @return the backup compression codec
+     */
+    public String getBackupCompressionCodec();
+
+    /**
+     * Get the compression level, from 1 (fastest) to 9 (smallest). Only used by gzip, -1 selects the codec default.
+     *
+     * @return the backup compression level
+     */
+    public int getBackupCompressionLevel();
+
+    /**
+     * Get the number of byte ranges downloaded in parallel during a restore. Ranges follow the parts of the backup, or
+     * {@link #getBackupPartSizeMB()} for backups without a part index.
+     *
+     * @return the number of restore download threads
+     */
+    public int getRestoreDownloadThreads();
+
+    /**
+     * Get the format of new backups: "object", the default, stores the file as a single multipart object. "chunked"
+     * stores it as independently compressed chunks described by a manifest, which makes uploads resumable and restores
+     * verifiable; incremental backups and backup retention apply to it only. Restores read both formats.
+     *
+     * @return the backup format
+     */
+    public String getBackupFormat();
+
+    /**
+     * Get the number of days chunked backups are kept. Older backups of the node are deleted after each successful
+     * backup. 0 keeps every backup.
+     *
+     * @return the backup retention in days
+     */
+    public int getBackupRetentionDays();
+
+    /**
+     * Get how often the data appended to the AOF is uploaded between full backups, which lets backups be restored
+     * at any of those times. Needs AOF persistence, disk based backups and the chunked backup format. 0 disables
+     * incremental backups.
+     *
+     * @return the incremental backup interval in minutes
+     */
+    public int getBackupIncrementalIntervalMinutes();
+
+    /**
+     * Get whether backups stream a snapshot of Redis straight to S3 by syncing from it as a replica, instead of
+     * forcing a BGSAVE or BGREWRITEAOF and uploading the file. Nothing is written to the local disk by the manager, and
+     * nothing by Redis either with repl-diskless-sync enabled. Backups taken this way hold an RDB file.
+     *
+     * @return true if backups are diskless
+     */
+    public boolean isBackupDiskless();
+
+    /**
+     * Get whether RDB backups are parsed to check they can be loaded: as they are uploaded, whether read from the data
+     * file or streamed by diskless backups, and after they are downloaded by restores. Corrupt files fail the backup or
+     * restore. The key statistics collected are stored in the backup manifest.
+     *
+     * @return true if backups are verified, false by default
+     */
+    public boolean isBackupVerificationEnabled();
+
+    /**
+     * Get the characters that separate the segments of a key, which the memory analysis groups keys by.
+     *
+     * @return the key delimiters
+     */
+    public String getMemoryAnalysisKeyDelimiters();
+
+    /**
+     * Get how many segments of a key make the prefix the memory analysis groups keys by. With a depth of 2,
+     * <code>user:42:cart</code> counts towards <code>user:#</code>.
+     *
+     * @return the number of key segments of a prefix
+     */
+    public int getMemoryAnalysisPrefixDepth();
+
+    /**
+     * Get how many key prefixes the memory analysis reports. Twice as many are tracked while the snapshot is parsed.
+     *
+     * @return the number of prefixes reported
+     */
+    public int getMemoryAnalysisMaxPrefixes();
+
+    /**
+     * Get how many of the biggest keys the memory analysis reports.
+     *
+     * @return the number of big keys reported
+     */
+    public int getMemoryAnalysisTopKeys();
+
+    /**
+     * Get the directory backups are stored in when the local object store is bound in place of S3, for example an NFS
+     * mount. Buckets are directories under it.
+     *
+     * @return the root directory of the local object store
+     */
+    public String getBackupLocalStorePath();
+
+    /**
+     * Get the highest rate, in MB per second, at which a backup reads the data file. The rate drops when Dynomite
+     * latency or delayed AOF fsyncs show the node is under pressure. Backups are not throttled by default.
+     *
+     * @return the maximum backup read rate in MB/s, 0 (the default) to read at full speed
+     */
+    public int getBackupMaxRateMB();
+
+    /**
+     * Get the rate, in MB per second, a backup slows down to at most while the node is under pressure.
+     *
+     * @return the minimum backup read rate in MB/s
+     */
+    public int getBackupMinRateMB();
+
+    /**
+     * Get the 99th percentile latency of Dynomite, in microseconds, above which a backup slows down.
+     *
+     * @return the latency threshold in microseconds, 0 to ignore latency
+     */
+    public int getBackupThrottleLatencyMicros();
+
+    /**
+     * Should a backup drop the pages of the data file it read from the page cache? This keeps the pages Redis
+     * and the OS rely on cached, at the cost of evicting pages of the data file that were cached before the backup.
+     *
+     * @return true if backups advise the kernel to drop the pages they read
+     */
+    public boolean isBackupPageCacheDropEnabled();
+
+    /**
+     * Get the length of the window, starting at the backup hour, the nodes of a data center spread their backups
+     * over. Each rack backs up in its own part of the window, so replicas of a token never fork for a snapshot at
+     * the same time.
+     *
+     * @return the backup window in minutes, 0 to start every backup at the backup hour
+     */
+    public int getBackupWindowMinutes();
+
+    /**
+     * Back each token up once per data center rather than once per rack. One replica in service per token is
+     * elected, the racks taking turns by token, and the other replicas only record a pointer to its backup of the
+     * day once it exists. A replica that finds no such backup backs itself up.
+     *
+     * @return true to back up a single replica of each token
+     */
+    public boolean isBackupDedupEnabled();
+
+    /**
+     * Restore into a second Redis instance while the running one keeps serving, then restart Dynomite pointed at
+     * it while the running instance copies the restored data by replication, and restart Dynomite pointed back at the
+     * running instance. The node is unavailable only while Dynomite restarts, and needs memory for both copies of the
+     * data meanwhile.
+     *
+     * @return true to restore into a side instance when Redis is running
+     */
+    public boolean isRestoreSideInstanceEnabled();
+
+    /**
+     * @return the port of the Redis instance a restore loads the data into, on the loopback interface
+     */
+    public int getRestoreSidePort();
+
+    /**
+     * Restore RDB backups into the running Redis with pipelined RESTORE commands, streaming the backup without
+     * writing it to disk and without restarting Redis. Keys of the backup replace existing keys, other keys are kept.
+     *
+     * @return true to restore into the running Redis when it is up
+     */
+    public boolean isRestoreLiveEnabled();
+
+    /**
+     * @return the number of connections restoring batches of keys at once during a live restore
+     */
+    public int getRestoreLiveConnections();
+
+    /**
+     * @return how long Redis may take to answer a batch of a live restore before the restore slows down, 0 to never
+     *         slow down
+     */
+    public int getRestoreLiveLatencyMs();
+
+    /**
+     * Get how many ranges of the Redis data file are read ahead into the page cache at once before Redis starts, so
+     * loading the AOF or RDB file is not slowed down by cold disk reads.
+     *
+     * @return the number of ranges prefetched in parallel, 0 to not prefetch the data file
+     */
+    public int getRedisLoadPrefetchThreads();
+
+    /**
+     * Get how long a view of the cluster membership read from the token store is used before it is read again. Seeds,
+     * cluster descriptions and security group updates are served from the view, so the token store is read once per
+     * period whatever the number of callers.
+     *
+     * @return the time to live of the cached membership in seconds, 0 to read the token store on every call
+     */
+    public int getMembershipCacheTtlSeconds();
+
+    /**
+     * Get how many times a lock on a token slot is tried when other nodes contend for it, before the claim fails and
+     * the slot is looked up again.
+     *
+     * @return the attempts to lock a token slot
+     */
+    public int getTokenLockAttempts();
+
+    /**
+     * Get the base of the exponential backoff between attempts to lock a token slot. Each wait is a random time up to
+     * the base doubled for every failed attempt, capped at 5 seconds.
+     *
+     * @return the base of the backoff in milliseconds
+     */
+    public int getTokenLockBackoffMs();
+
+    /**
+     * Get whether booting nodes claim token slots in an order they all derive from the ASG membership, rather than after
+     * a random sleep of up to 15 seconds. Every node that holds no slot yet sorts those nodes by instance id and takes the
+     * free slot at its own position, so concurrent replacements claim different slots. A node falls back to the random
+     * sleep once one of its claims failed.
+     *
+     * @return true to claim slots in order, false to sleep a random interval before every claim
+     */
+    public boolean isTokenClaimOrdered();
+
+    /**
+     * Get how often the node refreshes the heartbeat column of its entry in the token store.
+     *
+     * @return the heartbeat interval in seconds, 0 to write no heartbeat
+     */
+    public int getHeartbeatIntervalSeconds();
+
+    /**
+     * Get how long a heartbeat lives in the token store. A node whose heartbeat expired missed several refreshes in a
+     * row and is considered dead when liveness comes from heartbeats.
+     *
+     * @return the time to live of the heartbeat column in seconds
+     */
+    public int getHeartbeatTtlSeconds();
+
+    /**
+     * Get whether nodes whose heartbeat expired are left out of the seeds and have their slot taken over by replacements,
+     * even while the ASG still lists them. Enable it once every node of the cluster writes heartbeats.
+     *
+     * @return true to judge liveness by heartbeats, false to judge it by the ASG membership only
+     */
+    public boolean isHeartbeatLivenessEnabled();
+
+    /**
+     * Get the file the slot and token of this node and the last known cluster membership are saved to. When the manager
+     * restarts on the same instance it boots from the file, then checks it against the token store in the background.
+     *
+     * @return the path of the cluster state file, empty to always boot from the token store
+     */
+    public String getClusterStateFile();
+
+    /**
+     * Get how long the instances and maximum size of an auto scaling group read from AWS are used before the group is
+     * described again. Token claims, replacements and rack size checks are all answered from one describe call per period.
+     *
+     * @return the refresh interval of the auto scaling group membership in seconds, 0 to describe the group on every call
+     */
+    public int getAsgMembershipRefreshSeconds();
+
     // Cassandra
     // =========
     // Cassandra is used to store the Dynomite cluster topology.
@@ -364,6 +653,14 @@ public interface IConfiguration {
      */
     public String getRedisStopScript();
 
+    /**
+     * Get the full path to the redis-server binary, used to start a second Redis instance next to the one started by
+     * the init script.
+     *
+     * @return the full path of redis-server
+     */
+    public String getRedisServerPath();
+
     /**
      * Checks if Redis append-only file (AOF) persistence is enabled.
      *
@@ -107,16 +107,8 @@ public class DynomiteStandardTuner implements ProcessTuner {
 	    entries.remove("dyn_seeds");
 	}
 
-	List servers = (List) entries.get("servers");
-	if (servers == null) {
-	    servers = new ArrayList<String>();
-	    entries.put("servers", servers);
-	} else {
-	    servers.clear();
-	}
-
 	entries.put("data_store", storageProxy.getEngineNumber());
-	servers.add(storageProxy.getIpAddress() + ":" + storageProxy.getPort()  +":" + 1);
+	setServers(entries, storageProxy.getIpAddress(), storageProxy.getPort());
 
 
 	if (!this.instanceState.getYmlWritten()) {
@@ -131,6 +123,48 @@ public class DynomiteStandardTuner implements ProcessTuner {
 	this.instanceState.setYmlWritten(true);
     }
 
+    /**
+     * Points Dynomite at the storage listening on the given address and port, such as a second Redis instance
+     * serving restored data. Dynomite reads the change when it restarts.
+     *
+     * @param yamlLocation
+     *            path to the dynomite.yaml file
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public void updateServers(String yamlLocation, String address, int port) throws IOException {
+	DumperOptions options = new DumperOptions();
+	options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+	Yaml yaml = new Yaml(options);
+	Map map;
+	InputStream in = new FileInputStream(yamlLocation);
+	try {
+	    map = (Map) yaml.load(in);
+	} finally {
+	    in.close();
+	}
+	setServers((Map) map.get(ROOT_NAME), address, port);
+	logger.info("Pointing Dynomite at the storage on " + address + ":" + port);
+	Writer out = new FileWriter(yamlLocation);
+	try {
+	    yaml.dump(map, out);
+	} finally {
+	    out.close();
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void setServers(Map entries, String address, int port) {
+	List servers = (List) entries.get("servers");
+	if (servers == null) {
+	    servers = new ArrayList<String>();
+	    entries.put("servers", servers);
+	} else {
+	    servers.clear();
+	}
+	servers.add(address + ":" + port + ":" + 1);
+    }
+
     /**
      * UNUSED METHOD
      *
@@ -20,6 +20,7 @@ public class AppsInstance implements Serializable {
 	private String hostname;
 	private long updatetime;
 	private boolean outOfService;
+	private boolean heartbeat;
 
 	private String app;
 	private int Id;
@@ -133,6 +134,17 @@ public class AppsInstance implements Serializable {
 		this.outOfService = outOfService;
 	}
 
+	/**
+	 * @return true if the token store held an unexpired heartbeat of the node when it was read
+	 */
+	public boolean hasHeartbeat() {
+		return heartbeat;
+	}
+
+	public void setHeartbeat(boolean heartbeat) {
+		this.heartbeat = heartbeat;
+	}
+
 	public String getRack() {
 		return rack;
 	}
@@ -123,6 +123,15 @@ public class CassandraInstanceFactory implements IAppsInstanceFactory {
 		}
 	}
 
+	@Override
+	public void heartbeat(AppsInstance inst, int ttlSeconds) {
+		try {
+			dao.heartbeat(inst, ttlSeconds);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	@Override
 	public void attachVolumes(AppsInstance instance, String mountPath, String device) {
 		throw new UnsupportedOperationException("Volumes not supported");
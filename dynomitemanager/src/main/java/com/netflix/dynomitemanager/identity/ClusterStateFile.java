@@ -0,0 +1,234 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.identity;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+
+/**
+ * The slot and token of this node and the last membership read from the token store, saved to a local file so that
+ * the manager restarting on the same instance can boot without reading the token store. The file holds a format
+ * version and the version of the membership snapshot it was written from.
+ */
+@Singleton
+public class ClusterStateFile {
+	private static final Logger logger = LoggerFactory.getLogger(ClusterStateFile.class);
+	static final long VERSION = 1;
+
+	/**
+	 * The state read back from the file.
+	 */
+	public static class ClusterState {
+		private final AppsInstance instance;
+		private final List<AppsInstance> instances;
+		private final long membershipVersion;
+		private final long savedAt;
+
+		ClusterState(AppsInstance instance, List<AppsInstance> instances, long membershipVersion, long savedAt) {
+			this.instance = instance;
+			this.instances = Collections.unmodifiableList(instances);
+			this.membershipVersion = membershipVersion;
+			this.savedAt = savedAt;
+		}
+
+		/**
+		 * @return this node, with its slot and token
+		 */
+		public AppsInstance getInstance() {
+			return instance;
+		}
+
+		/**
+		 * @return the nodes of the cluster, as last read from the token store
+		 */
+		public List<AppsInstance> getInstances() {
+			return instances;
+		}
+
+		public long getMembershipVersion() {
+			return membershipVersion;
+		}
+
+		/**
+		 * @return when the membership was read from the token store, in milliseconds since the epoch
+		 */
+		public long getSavedAt() {
+			return savedAt;
+		}
+	}
+
+	private final IConfiguration config;
+	private AppsInstance instance;
+	private List<AppsInstance> instances;
+	private long membershipVersion;
+	private long membershipLoadedAt;
+
+	@Inject
+	public ClusterStateFile(IConfiguration config) {
+		this.config = config;
+	}
+
+	/**
+	 * @return the saved state of this instance in this cluster, null if there is none or it cannot be read
+	 */
+	public ClusterState load() {
+		File file = getFile();
+		if (file == null || !file.isFile()) {
+			return null;
+		}
+		try (InputStream in = new FileInputStream(file)) {
+			JSONObject json = (JSONObject) new JSONParser().parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+			long version = (Long) json.get("version");
+			if (version != VERSION) {
+				logger.warn("Ignoring cluster state file of unsupported version " + version);
+				return null;
+			}
+			AppsInstance mine = fromJson((JSONObject) json.get("instance"));
+			if (!config.getDynomiteClusterName().equals(json.get("cluster"))
+					|| !config.getInstanceName().equals(mine.getInstanceId())) {
+				logger.info("Ignoring cluster state file of instance " + mine.getInstanceId() + " in cluster "
+						+ json.get("cluster"));
+				return null;
+			}
+			List<AppsInstance> all = new ArrayList<AppsInstance>();
+			for (Object o : (JSONArray) json.get("instances")) {
+				all.add(fromJson((JSONObject) o));
+			}
+			return new ClusterState(mine, all, (Long) json.get("membershipVersion"), (Long) json.get("savedAt"));
+		} catch (IOException | ParseException | ClassCastException | NullPointerException
+				| NumberFormatException e) {
+			logger.warn("Cannot read cluster state file " + file + ": " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Saves the slot and token of this node.
+	 */
+	public synchronized void saveInstance(AppsInstance instance) {
+		this.instance = instance;
+		save();
+	}
+
+	/**
+	 * Saves the membership read from the token store. Nothing is written before this node has a slot.
+	 */
+	public synchronized void saveMembership(List<AppsInstance> instances, long version, long loadedAt) {
+		this.instances = instances;
+		this.membershipVersion = version;
+		this.membershipLoadedAt = loadedAt;
+		save();
+	}
+
+	/**
+	 * Deletes the saved state, and saves nothing more until this node has a slot again, so the next restart boots from
+	 * the token store.
+	 */
+	public synchronized void delete() {
+		this.instance = null;
+		File file = getFile();
+		if (file != null && file.exists() && !file.delete()) {
+			logger.warn("Cannot delete cluster state file " + file);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void save() {
+		File file = getFile();
+		if (file == null || instance == null || instances == null) {
+			return;
+		}
+		JSONObject json = new JSONObject();
+		json.put("version", VERSION);
+		json.put("cluster", config.getDynomiteClusterName());
+		json.put("membershipVersion", membershipVersion);
+		json.put("savedAt", membershipLoadedAt);
+		json.put("instance", toJson(instance));
+		JSONArray array = new JSONArray();
+		for (AppsInstance ins : instances) {
+			array.add(toJson(ins));
+		}
+		json.put("instances", array);
+
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			File dir = file.getAbsoluteFile().getParentFile();
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Cannot create " + dir);
+			}
+			Files.write(tmp.toPath(), json.toJSONString().getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.warn("Cannot write cluster state file " + file + ": " + e);
+		}
+	}
+
+	private File getFile() {
+		String path = config.getClusterStateFile();
+		return StringUtils.isBlank(path) ? null : new File(path);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JSONObject toJson(AppsInstance instance) {
+		JSONObject json = new JSONObject();
+		json.put("app", instance.getApp());
+		json.put("id", instance.getId());
+		json.put("instanceId", instance.getInstanceId());
+		json.put("hostname", instance.getHostName());
+		json.put("ip", instance.getHostIP());
+		json.put("zone", instance.getZone());
+		json.put("rack", instance.getRack());
+		json.put("dc", instance.getDatacenter());
+		json.put("token", instance.getToken());
+		json.put("outOfService", instance.isOutOfService());
+		json.put("heartbeat", instance.hasHeartbeat());
+		return json;
+	}
+
+	private static AppsInstance fromJson(JSONObject json) {
+		AppsInstance instance = new AppsInstance();
+		instance.setApp((String) json.get("app"));
+		instance.setId(((Long) json.get("id")).intValue());
+		instance.setInstanceId((String) json.get("instanceId"));
+		instance.setHost((String) json.get("hostname"), (String) json.get("ip"));
+		instance.setZone((String) json.get("zone"));
+		instance.setRack((String) json.get("rack"));
+		instance.setDatacenter((String) json.get("dc"));
+		instance.setToken((String) json.get("token"));
+		instance.setOutOfService((Boolean) json.get("outOfService"));
+		instance.setHeartbeat((Boolean) json.get("heartbeat"));
+		return instance;
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.identity;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.sidecore.scheduler.SimpleTimer;
+import com.netflix.dynomitemanager.sidecore.scheduler.Task;
+import com.netflix.dynomitemanager.sidecore.scheduler.TaskTimer;
+
+/**
+ * Refreshes the heartbeat of this node in the token store. The heartbeat expires when the node misses refreshes, so
+ * peers can tell a dead node from a live one without waiting for the ASG to drop it.
+ */
+@Singleton
+public class HeartbeatTask extends Task {
+	public static final String JOBNAME = "Heartbeat";
+
+	private final InstanceIdentity identity;
+	private final IAppsInstanceFactory factory;
+
+	@Inject
+	public HeartbeatTask(IConfiguration config, InstanceIdentity identity, IAppsInstanceFactory factory) {
+		super(config);
+		this.identity = identity;
+		this.factory = factory;
+	}
+
+	@Override
+	public void execute() {
+		AppsInstance instance = identity.getInstance();
+		if (instance == null || instance.isOutOfService())
+			return;
+		factory.heartbeat(instance, config.getHeartbeatTtlSeconds());
+	}
+
+	@Override
+	public String getName() {
+		return JOBNAME;
+	}
+
+	public static TaskTimer getTimer(IConfiguration config) {
+		return new SimpleTimer(JOBNAME, config.getHeartbeatIntervalSeconds() * 1000L);
+	}
+}
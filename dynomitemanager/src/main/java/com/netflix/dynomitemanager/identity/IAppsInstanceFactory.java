@@ -74,6 +74,13 @@ public interface IAppsInstanceFactory {
 	 */
 	public void update(AppsInstance inst);
 
+	/**
+	 * Refresh the heartbeat of the server node in the registry
+	 * @param inst the node to refresh the heartbeat of
+	 * @param ttlSeconds how long the heartbeat lives without being refreshed
+	 */
+	public void heartbeat(AppsInstance inst, int ttlSeconds);
+
 	/**
 	 * Sort the list by instance ID
 	 * @param return_ the list of nodes to sort
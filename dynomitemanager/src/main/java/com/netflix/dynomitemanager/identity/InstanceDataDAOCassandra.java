@@ -55,6 +55,7 @@ public class InstanceDataDAOCassandra {
 	private String CN_LOCATION = "location";
 	private String CN_VOLUME_PREFIX = "ssVolumes";
 	private String CN_UPDATETIME = "updatetime";
+	private String CN_HEARTBEAT = "heartbeat";
 	private String CF_NAME_TOKENS = "tokens";
 	private String CF_NAME_LOCKS = "locks";
 
@@ -65,6 +66,7 @@ public class InstanceDataDAOCassandra {
 	private final String KS_NAME;
 	private final int thriftPortForAstyanax;
 	private final AstyanaxContext<Keyspace> ctx;
+	private final TokenLock tokenLock;
 
 	/*
 	 * Schema: create column family tokens with comparator=UTF8Type and
@@ -113,13 +115,30 @@ public class InstanceDataDAOCassandra {
 
 		ctx.start();
 		bootKeyspace = ctx.getClient();
+		tokenLock = new TokenLock(bootKeyspace, CF_LOCKS, config);
+		tokenLock.registerMonitors();
+	}
+
+	/**
+	 * Uses the given keyspace rather than connecting to the Cassandra cluster, for tests and benchmarks.
+	 */
+	public InstanceDataDAOCassandra(IConfiguration config, Keyspace keyspace) {
+		this.config = config;
+		this.hostSupplier = null;
+		this.BOOT_CLUSTER = config.getCassandraClusterName();
+		this.KS_NAME = config.getCassandraKeyspaceName();
+		this.thriftPortForAstyanax = config.getCassandraThriftPort();
+		this.ctx = null;
+		this.bootKeyspace = keyspace;
+		this.tokenLock = new TokenLock(keyspace, CF_LOCKS, config);
 	}
 
 	public void createInstanceEntry(AppsInstance instance) throws Exception {
 		logger.info("*** Creating New Instance Entry ***");
 		String key = getRowKey(instance);
-		// If the key exists throw exception
-		if (getInstance(instance.getApp(), instance.getRack(), instance.getId()) != null) {
+		// If the key exists for this instance there is nothing to do, if it exists for a dead one the slot is taken over
+		AppsInstance existing = getInstance(instance.getApp(), instance.getRack(), instance.getId());
+		if (existing != null && StringUtils.equals(existing.getInstanceId(), instance.getInstanceId())) {
 			logger.info(String.format("Key already exists: %s", key));
 			return;
 		}
@@ -139,6 +158,9 @@ public class InstanceDataDAOCassandra {
 			clm.putColumn(CN_TOKEN, instance.getToken(), null);
 			clm.putColumn(CN_LOCATION, instance.getDatacenter(), null);
 			clm.putColumn(CN_UPDATETIME, TimeUUIDUtils.getUniqueTimeUUIDinMicros(), null);
+			// the first heartbeat, so the slot looks alive until the heartbeat task runs
+			if (config.getHeartbeatIntervalSeconds() > 0)
+				clm.putColumn(CN_HEARTBEAT, instance.getInstanceId(), config.getHeartbeatTtlSeconds());
 			Map<String, Object> volumes = instance.getVolumes();
 			if (volumes != null) {
 				for (String path : volumes.keySet()) {
@@ -149,71 +171,32 @@ public class InstanceDataDAOCassandra {
 			m.execute();
 		} catch (Exception e) {
 			logger.info(e.getMessage());
-		} finally {
-			releaseLock(instance);
 		}
 	}
 
-	/*
-	 * To get a lock on the row - Create a choosing row and make sure there are
-	 * no contenders. If there are bail out. Also delete the column when bailing
-	 * out. - Once there are no contenders, grab the lock if it is not already
-	 * taken.
+	/**
+	 * Refreshes the heartbeat column of the instance, which expires after the given time. The column holds the
+	 * instance id, so the heartbeat of a node whose slot was taken over does not make the new owner look alive.
 	 */
-	private void getLock(AppsInstance instance) throws Exception {
-
-		String choosingkey = getChoosingKey(instance);
-		MutationBatch m = bootKeyspace.prepareMutationBatch();
-		ColumnListMutation<String> clm = m.withRow(CF_LOCKS, choosingkey);
-
-		// Expire in 6 sec
-		clm.putColumn(instance.getInstanceId(), instance.getInstanceId(), new Integer(6));
+	public void heartbeat(AppsInstance instance, int ttlSeconds) throws ConnectionException {
+		MutationBatch m = bootKeyspace.prepareMutationBatch().setConsistencyLevel(ConsistencyLevel.CL_LOCAL_QUORUM);
+		m.withRow(CF_TOKENS, getRowKey(instance)).putColumn(CN_HEARTBEAT, instance.getInstanceId(), ttlSeconds);
 		m.execute();
-		int count = bootKeyspace.prepareQuery(CF_LOCKS).getKey(choosingkey).getCount().execute().getResult();
-		if (count > 1) {
-			// Need to delete my entry
-			m.withRow(CF_LOCKS, choosingkey).deleteColumn(instance.getInstanceId());
-			m.execute();
-			throw new Exception(String.format("More than 1 contender for lock %s %d", choosingkey, count));
-		}
-
-		String lockKey = getLockingKey(instance);
-		OperationResult<ColumnList<String>> result = bootKeyspace.prepareQuery(CF_LOCKS).getKey(lockKey)
-				.execute();
-		if (result.getResult().size() > 0 && !result.getResult().getColumnByIndex(0).getName()
-				.equals(instance.getInstanceId()))
-			throw new Exception(String.format("Lock already taken %s", lockKey));
-
-		clm = m.withRow(CF_LOCKS, lockKey);
-		clm.putColumn(instance.getInstanceId(), instance.getInstanceId(), new Integer(600));
-		m.execute();
-		Thread.sleep(100);
-		result = bootKeyspace.prepareQuery(CF_LOCKS).getKey(lockKey).execute();
-		if (result.getResult().size() == 1 && result.getResult().getColumnByIndex(0).getName()
-				.equals(instance.getInstanceId())) {
-			logger.info("Got lock " + lockKey);
-			return;
-		} else
-			throw new Exception(String.format("Cannot insert lock %s", lockKey));
-
 	}
 
-	private void releaseLock(AppsInstance instance) throws Exception {
-		String choosingkey = getChoosingKey(instance);
-		MutationBatch m = bootKeyspace.prepareMutationBatch();
-		ColumnListMutation<String> clm = m.withRow(CF_LOCKS, choosingkey);
-
-		m.withRow(CF_LOCKS, choosingkey).deleteColumn(instance.getInstanceId());
-		m.execute();
+	private void getLock(AppsInstance instance) throws Exception {
+		tokenLock.acquire(getLockingKey(instance), instance.getInstanceId());
 	}
 
 	public void deleteInstanceEntry(AppsInstance instance) throws Exception {
 		// Acquire the lock first
 		getLock(instance);
 
-		// Delete the row
-		String key = findKey(instance.getApp(), String.valueOf(instance.getId()), instance.getDatacenter(),
-				instance.getRack());
+		// Delete the row, looked up by its columns if it is not under the key it is written with
+		String key = getRowKey(instance);
+		if (!instanceExists(instance.getApp(), instance.getRack(), instance.getId()))
+			key = findKey(instance.getApp(), String.valueOf(instance.getId()), instance.getDatacenter(),
+					instance.getRack());
 		if (key == null)
 			return;  //don't fail it
 
@@ -227,8 +210,8 @@ public class InstanceDataDAOCassandra {
 		m.withRow(CF_LOCKS, key).delete();
 		m.execute();
 
-		// Have to delete choosing key as well to avoid issues with delete
-		// followed by immediate writes
+		// Nodes running the earlier lock protocol also write a choosing key, which has to be deleted as well to avoid
+		// issues with delete followed by immediate writes
 		key = getChoosingKey(instance);
 		m = bootKeyspace.prepareMutationBatch();
 		m.withRow(CF_LOCKS, key).delete();
@@ -236,33 +219,56 @@ public class InstanceDataDAOCassandra {
 
 	}
 
+	/**
+	 * Reads the row of the instance by its key, without reading the other instances of the cluster.
+	 */
 	public AppsInstance getInstance(String app, String rack, int id) {
-		Set<AppsInstance> set = getAllInstances(app);
-		for (AppsInstance ins : set) {
-			if (ins.getId() == id && ins.getRack().equals(rack))
-				return ins;
+		try {
+			ColumnList<String> columns = bootKeyspace.prepareQuery(CF_TOKENS)
+					.setConsistencyLevel(ConsistencyLevel.CL_LOCAL_QUORUM).getKey(getRowKey(app, rack, id)).execute()
+					.getResult();
+			// A deleted row can still be listed without columns until it is compacted away.
+			if (columns == null || columns.isEmpty() || columns.getColumnByName(CN_ID) == null)
+				return null;
+			return transform(columns);
+		} catch (ConnectionException e) {
+			logger.warn("Caught an exception reading instance " + getRowKey(app, rack, id) + " -> " + e.getMessage());
+			throw new RuntimeException(e);
 		}
-		return null;
 	}
 
-	public Set<AppsInstance> getLocalDCInstances(String app, String region) {
-		Set<AppsInstance> set = getAllInstances(app);
-		Set<AppsInstance> returnSet = new HashSet<AppsInstance>();
-
-		for (AppsInstance ins : set) {
-			if (ins.getDatacenter().equals(region))
-				returnSet.add(ins);
+	/**
+	 * Checks if the row of the instance exists by counting its columns, without reading them.
+	 */
+	public boolean instanceExists(String app, String rack, int id) {
+		try {
+			Integer count = bootKeyspace.prepareQuery(CF_TOKENS).setConsistencyLevel(ConsistencyLevel.CL_LOCAL_QUORUM)
+					.getKey(getRowKey(app, rack, id)).getCount().execute().getResult();
+			return count != null && count > 0;
+		} catch (ConnectionException e) {
+			logger.warn("Caught an exception checking instance " + getRowKey(app, rack, id) + " -> " + e.getMessage());
+			throw new RuntimeException(e);
 		}
-		return returnSet;
+	}
+
+	/**
+	 * Reads the instances of a data center. Rows of the other data centers are filtered out by Cassandra rather than
+	 * returned and filtered here.
+	 */
+	public Set<AppsInstance> getLocalDCInstances(String app, String region) {
+		return selectInstances(String.format("%s = '%s' and %s = '%s'", CN_APPID, app, CN_LOCATION, region));
 	}
 
 	public Set<AppsInstance> getAllInstances(String app) {
+		return selectInstances(String.format("%s = '%s'", CN_APPID, app));
+	}
+
+	private Set<AppsInstance> selectInstances(String where) {
 		Set<AppsInstance> set = new HashSet<AppsInstance>();
 		try {
 
 			final String selectClause = String
-					.format("SELECT * FROM %s USING CONSISTENCY LOCAL_QUORUM WHERE %s = '%s' ",
-							CF_NAME_TOKENS, CN_APPID, app);
+					.format("SELECT * FROM %s USING CONSISTENCY LOCAL_QUORUM WHERE %s ", CF_NAME_TOKENS, where);
 			logger.debug(selectClause);
 
 			final ColumnFamily<String, String> CF_TOKENS_NEW = ColumnFamily
@@ -327,6 +333,7 @@ public class InstanceDataDAOCassandra {
 		ins.setDatacenter(cmap.get(CN_LOCATION));
 		ins.setRack(cmap.get(CN_DC));
 		ins.setToken(cmap.get(CN_TOKEN));
+		ins.setHeartbeat(StringUtils.equals(cmap.get(CN_HEARTBEAT), ins.getInstanceId()));
 		return ins;
 	}
 
@@ -339,7 +346,11 @@ public class InstanceDataDAOCassandra {
 	}
 
 	private String getRowKey(AppsInstance instance) {
-		return instance.getApp() + "_" + instance.getRack() + "_" + instance.getId();
+		return getRowKey(instance.getApp(), instance.getRack(), instance.getId());
+	}
+
+	private String getRowKey(String app, String rack, int id) {
+		return app + "_" + rack + "_" + id;
 	}
 
 	private AstyanaxContext<Keyspace> initWithThriftDriverWithEurekaHostsSupplier() {
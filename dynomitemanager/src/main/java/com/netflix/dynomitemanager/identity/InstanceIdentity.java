@@ -13,13 +13,17 @@
 package com.netflix.dynomitemanager.identity;
 
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
+import org.codehaus.jettison.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,6 +54,9 @@ import com.netflix.dynomitemanager.identity.InstanceIdentity;
 public class InstanceIdentity {
     private static final Logger logger = LoggerFactory.getLogger(InstanceIdentity.class);
     private static final String DUMMY_INSTANCE_ID = "new_slot";
+    // keep trying to read the token store for 10 minutes after booting from the cluster state file
+    private static final int RECONCILE_RETRIES = 60;
+    private static final long RECONCILE_WAIT_MS = 10000;
 
     private final ListMultimap<String, AppsInstance> locMap = Multimaps
 	    .newListMultimap(new HashMap<String, Collection<AppsInstance>>(), new Supplier<List<AppsInstance>>() {
@@ -58,11 +65,13 @@ public class InstanceIdentity {
 		}
 	    });
     private final IAppsInstanceFactory factory;
+    private final MembershipCache membershipCache;
     private final IMembership membership;
     private final IConfiguration config;
     private final Sleeper sleeper;
     private final ITokenManager tokenManager;
     private final InstanceEnvIdentity insEnvIdentity;
+    private final ClusterStateFile stateFile;
 
     private final Predicate<AppsInstance> differentHostPredicate = new Predicate<AppsInstance>() {
 	@Override
@@ -76,16 +85,21 @@ public class InstanceIdentity {
     private boolean isReplace = false;
     private boolean isTokenPregenerated = false;
     private String replacedIp = "";
+    // set once a claim failed, after which claims wait a random interval
+    private volatile boolean claimContended = false;
 
     @Inject
-    public InstanceIdentity(IAppsInstanceFactory factory, IMembership membership, IConfiguration config,
-	    Sleeper sleeper, ITokenManager tokenManager, InstanceEnvIdentity insEnvIdentity) throws Exception {
+    public InstanceIdentity(IAppsInstanceFactory factory, MembershipCache membershipCache, IMembership membership,
+	    IConfiguration config, Sleeper sleeper, ITokenManager tokenManager, InstanceEnvIdentity insEnvIdentity,
+	    ClusterStateFile stateFile) throws Exception {
 	this.factory = factory;
+	this.membershipCache = membershipCache;
 	this.membership = membership;
 	this.config = config;
 	this.sleeper = sleeper;
 	this.tokenManager = tokenManager;
 	this.insEnvIdentity = insEnvIdentity;
+	this.stateFile = stateFile;
 	init();
     }
 
@@ -94,27 +108,29 @@ public class InstanceIdentity {
     }
 
     public void init() throws Exception {
-	// try to grab the token which was already assigned
-	myInstance = new RetryableCallable<AppsInstance>() {
-	    @Override
-	    public AppsInstance retriableCall() throws Exception {
-		// Check if this node is decommissioned
-		for (AppsInstance ins : factory.getAllIds(config.getDynomiteClusterName() + "-dead")) {
-		    logger.debug(String.format("[Dead] Iterating though the hosts: %s", ins.getInstanceId()));
-		    if (ins.getInstanceId().equals(config.getInstanceName())) {
-			ins.setOutOfService(true);
-			return ins;
+	// The manager restarted on this instance: boot from the saved state and check it against the token store later
+	ClusterStateFile.ClusterState saved = stateFile == null ? null : stateFile.load();
+	if (saved != null) {
+	    myInstance = saved.getInstance();
+	    membershipCache.restore(saved.getInstances(), saved.getMembershipVersion(), saved.getSavedAt());
+	    logger.info("My token from the cluster state file: " + myInstance.getToken());
+	    Thread reconcile = new Thread(new Runnable() {
+		@Override
+		public void run() {
+		    try {
+			reconcile();
+		    } catch (Exception e) {
+			logger.error("Cannot check the cluster state file against the token store", e);
 		    }
 		}
-		for (AppsInstance ins : factory.getAllIds(config.getDynomiteClusterName())) {
-		    logger.debug(String.format("[Alive] Iterating though the hosts: %s My id = [%s]",
-			    ins.getInstanceId(), ins.getId()));
-		    if (ins.getInstanceId().equals(config.getInstanceName()))
-			return ins;
-		}
-		return null;
-	    }
-	}.call();
+	    }, "cluster-state-reconcile");
+	    reconcile.setDaemon(true);
+	    reconcile.start();
+	    return;
+	}
+
+	// try to grab the token which was already assigned
+	myInstance = new GetRegisteredToken().call();
 	// Grab a dead token
 	if (null == myInstance)
 	    myInstance = new GetDeadToken().call();
@@ -129,7 +145,11 @@ public class InstanceIdentity {
 	    newToken.set(100, 100);
 	    myInstance = newToken.call();
 	}
+	// Grabbing a token may have changed the membership.
+	membershipCache.invalidate();
 	logger.info("My token: " + myInstance.getToken());
+	if (stateFile != null)
+	    stateFile.saveInstance(myInstance);
 
     }
 
@@ -164,6 +184,119 @@ public class InstanceIdentity {
 	return asgInstances;
     }
 
+    /**
+     * Waits a random interval before claiming a slot, so that nodes booting together spread their claims. Claiming in
+     * order only waits once a claim failed.
+     */
+    private void sleepBeforeClaim(int minMs, int randomMs) throws InterruptedException {
+	if (config.isTokenClaimOrdered() && !claimContended)
+	    return;
+	// Sleep random interval - upto 15 sec
+	sleeper.sleep(new Random().nextInt(randomMs) + minMs);
+    }
+
+    /**
+     * @return the slots to look for a free one in: all of them, or when claiming in order only the free slot of the
+     *         rack at the position of this node in {@link SlotClaimOrder}
+     */
+    private List<AppsInstance> inClaimOrder(List<AppsInstance> allIds, List<String> asgInstances) {
+	if (!config.isTokenClaimOrdered() || claimContended)
+	    return allIds;
+	List<AppsInstance> free = new ArrayList<AppsInstance>();
+	for (AppsInstance ins : allIds) {
+	    if (isFreeSlot(ins, asgInstances))
+		free.add(ins);
+	}
+	int position = SlotClaimOrder.position(config.getInstanceName(), asgInstances, allIds);
+	AppsInstance slot = SlotClaimOrder.pick(free, position);
+	logger.info(String.format("Claim position %d among the instances without a slot, %d free slots", position,
+		free.size()));
+	return slot == null ? Collections.<AppsInstance> emptyList() : Collections.singletonList(slot);
+    }
+
+    /**
+     * @return true if the slot is in the rack of this node and its node is dead: gone from the ASG, or with an
+     *         expired heartbeat when liveness comes from heartbeats
+     */
+    private boolean isFreeSlot(AppsInstance ins, List<String> asgInstances) {
+	if (!ins.getRack().equals(config.getRack()))
+	    return false;
+	return !asgInstances.contains(ins.getInstanceId())
+		|| (config.isHeartbeatLivenessEnabled() && !ins.hasHeartbeat());
+    }
+
+    private AppsInstance claim(int id, Map<String, Object> volumes, String payload) {
+	try {
+	    return factory.create(config.getDynomiteClusterName(), id, config.getInstanceName(), config.getHostname(),
+		    config.getHostIP(), config.getZone(), volumes, payload, config.getRack());
+	} catch (RuntimeException e) {
+	    // another node holds the lock of the slot
+	    claimContended = true;
+	    throw e;
+	}
+    }
+
+    /**
+     * Checks the slot and token this node booted with from the cluster state file against the token store. A node
+     * missing from the token store is registered again, unless another node took its slot over meanwhile, in which case
+     * it is taken out of service and the cluster state file is deleted so it boots from the token store next. A node
+     * whose slot or token changed keeps running with the ones it booted with, and boots with the new ones next time.
+     */
+    void reconcile() throws Exception {
+	GetRegisteredToken getRegistered = new GetRegisteredToken();
+	getRegistered.set(RECONCILE_RETRIES, RECONCILE_WAIT_MS);
+	AppsInstance registered = getRegistered.call();
+	if (registered == null) {
+	    AppsInstance slot = factory.getInstance(config.getDynomiteClusterName(), myInstance.getRack(),
+		    myInstance.getId());
+	    if (slot != null) {
+		logger.error(String.format("Slot %d of this node was taken over by %s, taking this node out of service",
+			slot.getId(), slot.getInstanceId()));
+		stateFile.delete();
+		myInstance.setOutOfService(true);
+		return;
+	    }
+	    logger.warn("This node is missing from the token store, registering slot " + myInstance.getId());
+	    registered = claim(myInstance.getId(), myInstance.getVolumes(), myInstance.getToken());
+	} else if (registered.isOutOfService()) {
+	    logger.warn("This node was decommissioned");
+	    myInstance.setOutOfService(true);
+	} else if (registered.getId() != myInstance.getId() || !registered.getToken().equals(myInstance.getToken())) {
+	    logger.error(String.format("The token store holds slot %d token %s for this node, running with slot %d token %s"
+		    + " until restarted", registered.getId(), registered.getToken(), myInstance.getId(),
+		    myInstance.getToken()));
+	    stateFile.saveInstance(registered);
+	    return;
+	}
+	stateFile.saveInstance(myInstance);
+	membershipCache.refresh();
+	logger.info("Cluster state file matches the token store");
+    }
+
+    /**
+     * Looks up the slot already assigned to this node.
+     */
+    public class GetRegisteredToken extends RetryableCallable<AppsInstance> {
+	@Override
+	public AppsInstance retriableCall() throws Exception {
+	    // Check if this node is decommissioned
+	    for (AppsInstance ins : factory.getAllIds(config.getDynomiteClusterName() + "-dead")) {
+		logger.debug(String.format("[Dead] Iterating though the hosts: %s", ins.getInstanceId()));
+		if (ins.getInstanceId().equals(config.getInstanceName())) {
+		    ins.setOutOfService(true);
+		    return ins;
+		}
+	    }
+	    for (AppsInstance ins : factory.getAllIds(config.getDynomiteClusterName())) {
+		logger.debug(String.format("[Alive] Iterating though the hosts: %s My id = [%s]",
+			ins.getInstanceId(), ins.getId()));
+		if (ins.getInstanceId().equals(config.getInstanceName()))
+		    return ins;
+	    }
+	    return null;
+	}
+    }
+
     public class GetDeadToken extends RetryableCallable<AppsInstance> {
 	@Override
 	public AppsInstance retriableCall() throws Exception {
@@ -175,11 +308,10 @@ public class InstanceIdentity {
 		logger.info("Single Account cluster");
 	    }
 
-	    // Sleep random interval - upto 15 sec
-	    sleeper.sleep(new Random().nextInt(5000) + 10000);
-	    for (AppsInstance dead : allIds) {
+	    sleepBeforeClaim(10000, 5000);
+	    for (AppsInstance dead : inClaimOrder(allIds, asgInstances)) {
 		// test same dc and is it is alive.
-		if (!dead.getRack().equals(config.getRack()) || asgInstances.contains(dead.getInstanceId()))
+		if (!isFreeSlot(dead, asgInstances))
 		    continue;
 		logger.info("Found dead instances: " + dead.getInstanceId());
 		// AppsInstance markAsDead = factory.create(dead.getApp() +
@@ -192,8 +324,7 @@ public class InstanceIdentity {
 		replacedIp = dead.getHostIP();
 		String payLoad = dead.getToken();
 		logger.info("Trying to grab slot {} with availability zone {}", dead.getId(), dead.getZone());
-		return factory.create(config.getDynomiteClusterName(), dead.getId(), config.getInstanceName(), config.getHostname(),
-			config.getHostIP(), config.getZone(), dead.getVolumes(), payLoad, config.getRack());
+		return claim(dead.getId(), dead.getVolumes(), payLoad);
 	    }
 	    return null;
 	}
@@ -209,12 +340,10 @@ public class InstanceIdentity {
 	    logger.info("Looking for any pre-generated token");
 	    final List<AppsInstance> allIds = factory.getAllIds(config.getDynomiteClusterName());
 	    List<String> asgInstances = membership.getRacMembership();
-	    // Sleep random interval - upto 15 sec
-	    sleeper.sleep(new Random().nextInt(5000) + 10000);
-	    for (AppsInstance dead : allIds) {
+	    sleepBeforeClaim(10000, 5000);
+	    for (AppsInstance dead : inClaimOrder(allIds, asgInstances)) {
 		// test same zone and is it is alive.
-		if (!dead.getRack().equals(config.getRack()) || asgInstances.contains(dead.getInstanceId())
-			|| !isInstanceDummy(dead))
+		if (!isFreeSlot(dead, asgInstances) || !isInstanceDummy(dead))
 		    continue;
 		logger.info("Found pre-generated token: " + dead.getToken());
 		// AppsInstance markAsDead = factory.create(dead.getApp() +
@@ -228,8 +357,7 @@ public class InstanceIdentity {
 
 		String payLoad = dead.getToken();
 		logger.info("Trying to grab slot {} with availability zone {}", dead.getId(), dead.getRack());
-		return factory.create(config.getDynomiteClusterName(), dead.getId(), config.getInstanceName(), config.getHostname(),
-			config.getHostIP(), config.getZone(), dead.getVolumes(), payLoad, config.getRack());
+		return claim(dead.getId(), dead.getVolumes(), payLoad);
 	    }
 	    return null;
 	}
@@ -242,13 +370,17 @@ public class InstanceIdentity {
     public class GetNewToken extends RetryableCallable<AppsInstance> {
 
 	public AppsInstance retriableCall() throws Exception {
-	    // Sleep random interval - upto 15 sec
-	    sleeper.sleep(new Random().nextInt(15000));
+	    sleepBeforeClaim(0, 15000);
 	    int hash = tokenManager.regionOffset(config.getRack());
 	    // use this hash so that the nodes are spred far away from the other
 	    // regions.
 	    String myInstanceId = config.getInstanceName();
 	    List<String> asgInstanceIds = membership.getRacMembership();
+	    if (config.isTokenClaimOrdered()) {
+		// the same slot for the instance whatever order the ASG lists its instances in
+		asgInstanceIds = new ArrayList<String>(asgInstanceIds);
+		Collections.sort(asgInstanceIds);
+	    }
 
 	    logger.info("My Instance Id: " + myInstanceId);
 
@@ -274,8 +406,7 @@ public class InstanceIdentity {
 	    // membership.getRacCount(), membership.getRacMembershipSize(),
 	    // config.getDataCenter());
 	    String payload = tokenManager.createToken(my_slot, rackMembershipSize, config.getRack());
-	    return factory.create(config.getDynomiteClusterName(), my_slot + hash, config.getInstanceName(), config.getHostname(),
-		    config.getHostIP(), config.getZone(), null, payload, config.getRack());
+	    return claim(my_slot + hash, null, payload);
 	}
 
 	public void forEachExecution() {
@@ -312,7 +443,11 @@ public class InstanceIdentity {
 	// populateRacMap();
 	List<String> seeds = new LinkedList<String>();
 
-	for (AppsInstance ins : factory.getAllIds(config.getDynomiteClusterName())) {
+	for (AppsInstance ins : membershipCache.getAllIds()) {
+	    if (config.isHeartbeatLivenessEnabled() && !ins.hasHeartbeat()) {
+		logger.debug("Skipping node without a heartbeat: " + ins.getInstanceId());
+		continue;
+	    }
 	    if (!ins.getInstanceId().equals(myInstance.getInstanceId())) {
 		logger.debug("Adding node: " + ins.getInstanceId());
 		seeds.add(ins.getHostName() + ":" + config.getDynomitePeerPort() + ":" + ins.getRack() + ":"
@@ -326,11 +461,16 @@ public class InstanceIdentity {
     public List<String> getClusterInfo() throws UnknownHostException {
 	List<String> nodes = new LinkedList<String>();
 
-	for (AppsInstance ins : factory.getAllIds(config.getDynomiteClusterName())) {
+	for (AppsInstance ins : membershipCache.getAllIds()) {
 	    logger.debug("Adding node: " + ins.getInstanceId());
-	    nodes.add("{" + "\"token\":" + "\"" + ins.getToken() + "\"," + "\"hostname\":" + "\"" + ins.getHostName()
-		    + "\"," + "\"rack\":" + "\"" + ins.getRack() + "\"," + "\"ip\":" + "\"" + ins.getHostIP() + "\","
-		    + "\"zone\":" + "\"" + ins.getZone() + "\"," + "\"dc\":" + "\"" + ins.getDatacenter() + "\"" + "}");
+	    Map<String, String> node = new HashMap<String, String>();
+	    node.put("token", ins.getToken());
+	    node.put("hostname", ins.getHostName());
+	    node.put("rack", ins.getRack());
+	    node.put("ip", ins.getHostIP());
+	    node.put("zone", ins.getZone());
+	    node.put("dc", ins.getDatacenter());
+	    nodes.add(new JSONObject(node).toString());
 
 	}
 
@@ -338,9 +478,12 @@ public class InstanceIdentity {
     }
 
     public boolean isSeed() {
-	populateRacMap();
-	String ip = locMap.get(myInstance.getZone()).get(0).getHostName();
-	return myInstance.getHostName().equals(ip);
+	// The seed of a zone is its node with the lowest id.
+	for (AppsInstance ins : membershipCache.getAllIds()) {
+	    if (ins.getZone().equals(myInstance.getZone()))
+		return myInstance.getHostName().equals(ins.getHostName());
+	}
+	return false;
     }
 
     public boolean isReplace() {
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.identity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.sidecore.utils.CoalescingCache;
+
+/**
+ * A cached view of the nodes of the cluster, as registered in the token store.
+ *
+ * Readers get an immutable snapshot without locking, from a {@link CoalescingCache}. Once the snapshot is older than its
+ * time to live, the next reader starts a refresh on a single background thread and keeps using the previous snapshot;
+ * readers arriving while the refresh runs share it rather than query the token store again. Readers wait for the
+ * refresh only when there is no snapshot yet, when caching is disabled, or when the snapshot is so old it is no longer
+ * trusted, in which case a failed refresh still falls back to it.
+ *
+ * The version of the snapshot changes only when the membership does, so consumers can derive and cache responses
+ * per version.
+ *
+ * Every snapshot read is saved to the {@link ClusterStateFile}. A snapshot restored from the file after a restart is
+ * served whatever its age until the token store is read, so the node does not depend on the token store to start.
+ */
+@Singleton
+public class MembershipCache {
+	private static final Logger logger = LoggerFactory.getLogger(MembershipCache.class);
+
+	/**
+	 * An immutable view of the membership. The instances must not be modified.
+	 */
+	public static final class Snapshot {
+		private final List<AppsInstance> instances;
+		private final List<String> fingerprint;
+		private final long version;
+		private final long loadedAt;
+		private final boolean restored;
+
+		Snapshot(List<AppsInstance> instances, List<String> fingerprint, long version, long loadedAt,
+				boolean restored) {
+			this.instances = Collections.unmodifiableList(instances);
+			this.fingerprint = fingerprint;
+			this.version = version;
+			this.loadedAt = loadedAt;
+			this.restored = restored;
+		}
+
+		/**
+		 * @return all the nodes of the cluster, sorted by id
+		 */
+		public List<AppsInstance> getInstances() {
+			return instances;
+		}
+
+		/**
+		 * @return the nodes of the given data center, sorted by id
+		 */
+		public List<AppsInstance> getLocalDCInstances(String dc) {
+			List<AppsInstance> local = new ArrayList<AppsInstance>();
+			for (AppsInstance instance : instances) {
+				if (instance.getDatacenter().equals(dc)) {
+					local.add(instance);
+				}
+			}
+			return local;
+		}
+
+		/**
+		 * @return a number that changes whenever the membership does
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return when the snapshot was read from the token store, in milliseconds since the epoch
+		 */
+		public long getLoadedAt() {
+			return loadedAt;
+		}
+
+		/**
+		 * @return true if the snapshot was restored from the cluster state file rather than read from the token store
+		 */
+		public boolean isRestored() {
+			return restored;
+		}
+	}
+
+	private final IAppsInstanceFactory factory;
+	private final IConfiguration config;
+	private final ClusterStateFile stateFile;
+	private final CoalescingCache<Snapshot> cache = new CoalescingCache<Snapshot>("membership snapshot",
+			new Callable<Snapshot>() {
+				@Override
+				public Snapshot call() {
+					return load();
+				}
+			}, Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "membership-refresher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			}), true);
+	private Snapshot lastLoaded;
+	private long savedVersion;
+
+	public MembershipCache(IAppsInstanceFactory factory, IConfiguration config) {
+		this(factory, config, null);
+	}
+
+	@Inject
+	public MembershipCache(IAppsInstanceFactory factory, IConfiguration config, ClusterStateFile stateFile) {
+		this.factory = factory;
+		this.config = config;
+		this.stateFile = stateFile;
+	}
+
+	/**
+	 * @return the current view of the membership
+	 * @throws RuntimeException
+	 *             if the token store cannot be read and there is no usable snapshot
+	 */
+	public Snapshot getSnapshot() {
+		return cache.get(config.getMembershipCacheTtlSeconds() * 1000L);
+	}
+
+	/**
+	 * @return all the nodes of the cluster, sorted by id
+	 */
+	public List<AppsInstance> getAllIds() {
+		return getSnapshot().getInstances();
+	}
+
+	/**
+	 * Serves the membership saved before a restart until the token store is read. A membership read already is kept.
+	 */
+	public synchronized void restore(List<AppsInstance> instances, long version, long loadedAt) {
+		if (cache.peek() == null && lastLoaded == null) {
+			lastLoaded = new Snapshot(new ArrayList<AppsInstance>(instances), fingerprint(instances), version, loadedAt,
+					true);
+			cache.restore(lastLoaded, loadedAt);
+			savedVersion = version;
+			logger.info(String.format("Restored membership of %d nodes at version %d", instances.size(), version));
+		}
+	}
+
+	/**
+	 * Drops the snapshot after this node changed the membership, so the next reader sees the change. A refresh already
+	 * running when the membership changed is not kept.
+	 */
+	public void invalidate() {
+		cache.invalidate();
+	}
+
+	/**
+	 * Starts reading the membership, unless a read is running already.
+	 *
+	 * @return the running read
+	 */
+	Future<Snapshot> refresh() {
+		return cache.refresh();
+	}
+
+	private Snapshot load() {
+		List<AppsInstance> instances = factory.getAllIds(config.getDynomiteClusterName());
+		List<String> fingerprint = fingerprint(instances);
+		// Loads run one at a time on the refresher thread, restores before the first load.
+		synchronized (this) {
+			long version = lastLoaded == null ? 1 : lastLoaded.getVersion();
+			if (lastLoaded != null && !lastLoaded.fingerprint.equals(fingerprint)) {
+				version++;
+				logger.info(String.format("Membership changed, %d nodes at version %d", instances.size(), version));
+			}
+			lastLoaded = new Snapshot(new ArrayList<AppsInstance>(instances), fingerprint, version,
+					System.currentTimeMillis(), false);
+			if (stateFile != null && version != savedVersion) {
+				stateFile.saveMembership(lastLoaded.getInstances(), version, lastLoaded.getLoadedAt());
+				savedVersion = version;
+			}
+			return lastLoaded;
+		}
+	}
+
+	private static List<String> fingerprint(List<AppsInstance> instances) {
+		List<String> fingerprint = new ArrayList<String>(instances.size());
+		for (AppsInstance instance : instances) {
+			fingerprint.add(instance.getId() + "|" + instance.getInstanceId() + "|" + instance.getHostName() + "|"
+					+ instance.getHostIP() + "|" + instance.getZone() + "|" + instance.getRack() + "|"
+					+ instance.getDatacenter() + "|" + instance.getToken() + "|" + instance.isOutOfService() + "|"
+					+ instance.hasHeartbeat());
+		}
+		return fingerprint;
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.identity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The order booting nodes claim token slots in. The nodes of the rack ASG that hold no slot yet are sorted by
+ * instance id, and every node takes the free slot, sorted by slot id, at its own position in that order. All the
+ * nodes derive the order from the same ASG membership and token store content, so nodes replaced together claim
+ * different slots. As a node claims a slot it leaves both lists, which keeps the positions of the others aligned.
+ */
+public class SlotClaimOrder {
+
+	private SlotClaimOrder() {
+	}
+
+	/**
+	 * @param asgInstances
+	 *            the instance ids in the ASG of the rack
+	 * @param allIds
+	 *            the slots in the token store
+	 * @return the position of the instance among the ASG instances holding no slot, -1 if it holds one or is not in
+	 *         the ASG
+	 */
+	public static int position(String instanceId, List<String> asgInstances, List<AppsInstance> allIds) {
+		Set<String> holders = new HashSet<String>();
+		for (AppsInstance instance : allIds) {
+			holders.add(instance.getInstanceId());
+		}
+		List<String> claimants = new ArrayList<String>();
+		for (String asgInstance : asgInstances) {
+			if (!holders.contains(asgInstance) && !claimants.contains(asgInstance)) {
+				claimants.add(asgInstance);
+			}
+		}
+		Collections.sort(claimants);
+		return claimants.indexOf(instanceId);
+	}
+
+	/**
+	 * @return the candidate slot at the position when sorted by slot id, null if there are not as many candidates
+	 */
+	public static AppsInstance pick(List<AppsInstance> candidates, int position) {
+		if (position < 0 || position >= candidates.size()) {
+			return null;
+		}
+		List<AppsInstance> sorted = new ArrayList<AppsInstance>(candidates);
+		Collections.sort(sorted, new Comparator<AppsInstance>() {
+			@Override
+			public int compare(AppsInstance o1, AppsInstance o2) {
+				return Integer.compare(o1.getId(), o2.getId());
+			}
+		});
+		return sorted.get(position);
+	}
+}
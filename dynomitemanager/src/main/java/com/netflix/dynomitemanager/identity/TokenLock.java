@@ -0,0 +1,145 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.identity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.MutationBatch;
+import com.netflix.astyanax.model.Column;
+import com.netflix.astyanax.model.ColumnFamily;
+import com.netflix.astyanax.model.ColumnList;
+import com.netflix.astyanax.model.ConsistencyLevel;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicTimer;
+import com.netflix.servo.monitor.MonitorConfig;
+
+/**
+ * Lock on a token slot in the locks column family, taken in two round trips: the node writes a column named after
+ * itself to the lock row, then reads the row back. It holds the lock if its column is the only one. Both run at
+ * LOCAL_QUORUM, so of two nodes writing at the same time at least one sees the column of the other, and at most one
+ * gets the lock.
+ *
+ * A node that sees other columns removes its own and tries again after a random backoff that doubles with every
+ * attempt, so contenders spread out only when they actually collide. A column written well before this node's is a
+ * lock already held, so the attempt fails at once. The column of the holder expires after 10 minutes, which keeps
+ * the slot claimed while the node writes its token entry, and is the same lock row the earlier protocol used.
+ */
+public class TokenLock {
+	private static final Logger logger = LoggerFactory.getLogger(TokenLock.class);
+
+	static final int LOCK_TTL_SECONDS = 600;
+	private static final long MAX_BACKOFF_MS = 5000;
+	// a column older than this when the node writes its own belongs to a node that holds the lock
+	private static final long HELD_THRESHOLD_USEC = TimeUnit.SECONDS.toMicros(2);
+
+	private final Keyspace keyspace;
+	private final ColumnFamily<String, String> columnFamily;
+	private final IConfiguration config;
+	private final Random random = new Random();
+
+	private final BasicTimer acquireLatency = new BasicTimer(
+			MonitorConfig.builder("TokenLock_acquireLatency").build(), TimeUnit.MILLISECONDS);
+	private final BasicCounter acquired = new BasicCounter(MonitorConfig.builder("TokenLock_acquired").build());
+	private final BasicCounter contentions = new BasicCounter(MonitorConfig.builder("TokenLock_contentions").build());
+	private final BasicCounter failures = new BasicCounter(MonitorConfig.builder("TokenLock_failures").build());
+
+	public TokenLock(Keyspace keyspace, ColumnFamily<String, String> columnFamily, IConfiguration config) {
+		this.keyspace = keyspace;
+		this.columnFamily = columnFamily;
+		this.config = config;
+	}
+
+	/**
+	 * Publishes the lock latency and the contentions and failures counts.
+	 */
+	public void registerMonitors() {
+		DefaultMonitorRegistry.getInstance().register(acquireLatency);
+		DefaultMonitorRegistry.getInstance().register(acquired);
+		DefaultMonitorRegistry.getInstance().register(contentions);
+		DefaultMonitorRegistry.getInstance().register(failures);
+	}
+
+	/**
+	 * Takes the lock for the owner, or confirms the owner still holds it.
+	 *
+	 * @throws Exception
+	 *             if another node holds the lock, contenders kept colliding for all the attempts, or the token store
+	 *             failed
+	 */
+	public void acquire(String lockKey, String owner) throws Exception {
+		long start = System.currentTimeMillis();
+		int attempts = Math.max(1, config.getTokenLockAttempts());
+		for (int attempt = 1;; attempt++) {
+			MutationBatch m = keyspace.prepareMutationBatch().setConsistencyLevel(ConsistencyLevel.CL_LOCAL_QUORUM);
+			m.withRow(columnFamily, lockKey).putColumn(owner, owner, LOCK_TTL_SECONDS);
+			m.execute();
+
+			ColumnList<String> columns = keyspace.prepareQuery(columnFamily)
+					.setConsistencyLevel(ConsistencyLevel.CL_LOCAL_QUORUM).getKey(lockKey).execute().getResult();
+			Column<String> mine = columns.getColumnByName(owner);
+			List<String> others = new ArrayList<String>();
+			boolean held = false;
+			for (Column<String> column : columns) {
+				if (!column.getName().equals(owner)) {
+					others.add(column.getName());
+					held |= mine != null && column.getTimestamp() < mine.getTimestamp() - HELD_THRESHOLD_USEC;
+				}
+			}
+			if (mine != null && others.isEmpty()) {
+				long elapsed = System.currentTimeMillis() - start;
+				acquireLatency.record(elapsed, TimeUnit.MILLISECONDS);
+				acquired.increment();
+				logger.info(String.format("Got lock %s in %d ms after %d attempts", lockKey, elapsed, attempt));
+				return;
+			}
+
+			// Step aside, so that one of the contenders can take the lock on its next attempt.
+			contentions.increment();
+			m = keyspace.prepareMutationBatch().setConsistencyLevel(ConsistencyLevel.CL_LOCAL_QUORUM);
+			m.withRow(columnFamily, lockKey).deleteColumn(owner);
+			m.execute();
+
+			if (held) {
+				failures.increment();
+				throw new Exception(String.format("Lock already taken %s by %s", lockKey, others));
+			}
+			if (attempt >= attempts) {
+				failures.increment();
+				throw new Exception(String.format("Cannot get lock %s after %d attempts, contenders %s", lockKey,
+						attempt, others));
+			}
+			long backoff = backoff(attempt);
+			logger.info(String.format("Lock %s contended by %s, trying again in %d ms", lockKey, others, backoff));
+			Thread.sleep(backoff);
+		}
+	}
+
+	/**
+	 * @return a random wait up to the base backoff doubled for every failed attempt
+	 */
+	long backoff(int attempt) {
+		long ceiling = Math.min(MAX_BACKOFF_MS, (long) config.getTokenLockBackoffMs() << Math.min(attempt - 1, 20));
+		synchronized (random) {
+			return 1 + (long) (random.nextDouble() * ceiling);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.monitoring;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.sidecore.scheduler.SimpleTimer;
+import com.netflix.dynomitemanager.sidecore.scheduler.Task;
+import com.netflix.dynomitemanager.sidecore.scheduler.TaskTimer;
+import com.netflix.dynomitemanager.sidecore.storage.IStorageProxy;
+import com.netflix.dynomitemanager.sidecore.storage.MemcachedConnection;
+import com.netflix.dynomitemanager.sidecore.storage.MemcachedStatsParser;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.LongGauge;
+import com.netflix.servo.monitor.MonitorConfig;
+
+/**
+ * Publishes the memcached <code>stats</code>, <code>stats slabs</code> and <code>stats items</code> output as Servo
+ * gauges, the memcached counterpart of {@link RedisInfoMetricsTask}.
+ *
+ * Metric names are <code>Memcached_General_&lt;stat&gt;</code>, <code>Memcached_Slabs_&lt;stat&gt;</code> and
+ * <code>Memcached_Items_&lt;stat&gt;</code>. The parsers are kept between runs so that, once every stat has been
+ * seen, a run does not allocate per stat.
+ */
+@Singleton
+public class MemcachedStatsMetricsTask extends Task {
+
+    private static final Logger Logger = LoggerFactory.getLogger(MemcachedStatsMetricsTask.class);
+
+    // The Task name for identification
+    public static final String TaskName = "Memcached-Stats-Task";
+
+    private static final int TIMEOUT_MS = 5000;
+
+    private final ConcurrentHashMap<String, LongGauge> gauges = new ConcurrentHashMap<String, LongGauge>();
+
+    private final MemcachedStatsParser generalParser = new MemcachedStatsParser("Memcached_General_");
+    private final MemcachedStatsParser slabsParser = new MemcachedStatsParser("Memcached_Slabs_");
+    private final MemcachedStatsParser itemsParser = new MemcachedStatsParser("Memcached_Items_");
+
+    private final MemcachedStatsParser.StatListener listener = new MemcachedStatsParser.StatListener() {
+        @Override
+        public void onStat(String name, long value) {
+            processGaugeMetric(name, value);
+        }
+    };
+
+    private final IStorageProxy storageProxy;
+
+    @Inject
+    public MemcachedStatsMetricsTask(IConfiguration config, IStorageProxy storageProxy) {
+        super(config);
+        this.storageProxy = storageProxy;
+    }
+
+    @Override
+    public synchronized void execute() throws Exception {
+        MemcachedConnection conn = null;
+        try {
+            conn = new MemcachedConnection(storageProxy.getIpAddress(), storageProxy.getPort(), TIMEOUT_MS);
+            conn.stats(null, generalParser, listener);
+            conn.stats("slabs", slabsParser, listener);
+            conn.stats("items", itemsParser, listener);
+        } catch (Exception e) {
+            Logger.error("Could not get memcached stats", e);
+        } finally {
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    private void processGaugeMetric(String key, long value) {
+        LongGauge oldGauge = gauges.get(key);
+        if (oldGauge != null) {
+            oldGauge.set(value);
+            return;
+        }
+
+        // create a new long gauge
+        LongGauge newGauge = new LongGauge(MonitorConfig.builder(key).build());
+
+        oldGauge = gauges.putIfAbsent(key, newGauge);
+        if (oldGauge == null) {
+            newGauge.set(value);
+            DefaultMonitorRegistry.getInstance().register(newGauge);
+        } else {
+            // someone else beat us to it. just use the oldGauge
+            oldGauge.set(value);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return TaskName;
+    }
+
+    /**
+     * Returns a timer that enables this task to run once every 30 seconds
+     *
+     * @return TaskTimer
+     */
+    public static TaskTimer getTimer() {
+        return new SimpleTimer(TaskName, 30 * 1000);
+    }
+
+}
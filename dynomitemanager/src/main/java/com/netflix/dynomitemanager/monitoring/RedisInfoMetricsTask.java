@@ -94,6 +94,16 @@ public class RedisInfoMetricsTask extends Task {
         }
     }
 
+    /**
+     * @param key
+     *            the name of a gauge, such as Redis_Persistence_aof_delayed_fsync
+     * @return the value of the gauge at the last run of the task, or null if it has not been reported
+     */
+    public Long getGaugeValue(String key) {
+        LongGauge gauge = redisInfoGaugeMetrics.get(key);
+        return gauge == null ? null : gauge.getNumber().get();
+    }
+
     private void processMetrics(Map<String, Long> metrics) {
         for (String key : metrics.keySet()) {
 
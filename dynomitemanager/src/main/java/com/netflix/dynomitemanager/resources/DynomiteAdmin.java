@@ -13,7 +13,6 @@
 package com.netflix.dynomitemanager.resources;
 
 import java.io.IOException;
-import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 import javax.ws.rs.DefaultValue;
@@ -22,11 +21,12 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 
 import org.apache.cassandra.exceptions.ConfigurationException;
-import org.apache.commons.lang.StringUtils;
 import org.codehaus.jettison.json.JSONObject;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
@@ -37,6 +37,10 @@ import com.google.inject.Inject;
 import com.netflix.dynomitemanager.InstanceState;
 import com.netflix.dynomitemanager.dynomite.IDynomiteProcess;
 import com.netflix.dynomitemanager.identity.InstanceIdentity;
+import com.netflix.dynomitemanager.sidecore.backup.Backup;
+import com.netflix.dynomitemanager.sidecore.backup.BackupManifest;
+import com.netflix.dynomitemanager.sidecore.backup.MemoryAnalysis;
+import com.netflix.dynomitemanager.sidecore.backup.MemoryAnalyzer;
 import com.netflix.dynomitemanager.sidecore.backup.RestoreTask;
 import com.netflix.dynomitemanager.sidecore.backup.SnapshotTask;
 import com.netflix.dynomitemanager.resources.DynomiteAdmin;
@@ -61,12 +65,16 @@ public class DynomiteAdmin {
     private RestoreTask restoreBackup;
     private IStorageProxy storage;
     private StorageProcessManager storageProcessMgr;
+    private Backup backup;
+    private MemoryAnalyzer memoryAnalyzer;
+    private MembershipResponses membershipResponses;
 
 
     @Inject
     public DynomiteAdmin(IDynomiteProcess dynoProcess, InstanceIdentity ii, InstanceState instanceState,
 	    SnapshotTask snapshotBackup, RestoreTask restoreBackup, IStorageProxy storage,
-	    StorageProcessManager storageProcessMgr) {
+	    StorageProcessManager storageProcessMgr, Backup backup, MemoryAnalyzer memoryAnalyzer,
+	    MembershipResponses membershipResponses) {
 	this.dynoProcess = dynoProcess;
 	this.ii = ii;
 	this.instanceState = instanceState;
@@ -74,6 +82,9 @@ public class DynomiteAdmin {
 	this.restoreBackup = restoreBackup;
 	this.storage = storage;
 	this.storageProcessMgr = storageProcessMgr;
+	this.backup = backup;
+	this.memoryAnalyzer = memoryAnalyzer;
+	this.membershipResponses = membershipResponses;
     }
 
     @GET
@@ -160,11 +171,11 @@ public class DynomiteAdmin {
 
     @GET
     @Path("/{get_seeds : (?i)get_seeds}")
-    public Response getSeeds() {
+    public Response getSeeds(@Context Request request) {
 	try {
-	    final List<String> seeds = ii.getSeeds();
+	    final MembershipResponses.Rendered seeds = membershipResponses.getSeeds();
 	    if (!seeds.isEmpty())
-		return Response.ok(StringUtils.join(seeds, '|')).build();
+		return conditionalOk(request, seeds);
 	    logger.error("Cannot find the Seeds");
 	} catch (Exception e) {
 	    logger.error("Error while executing get_seeds", e);
@@ -175,11 +186,11 @@ public class DynomiteAdmin {
 
     @GET
     @Path("/{cluster_describe : (?i)cluster_describe}")
-    public Response getClusterDescribe() {
+    public Response getClusterDescribe(@Context Request request) {
 	try {
-	    final List<String> nodes = ii.getClusterInfo();
+	    final MembershipResponses.Rendered nodes = membershipResponses.getClusterDescribe();
 	    if (!nodes.isEmpty())
-		return Response.ok("[" + StringUtils.join(nodes, ',') + "]").build();
+		return conditionalOk(request, nodes);
 	    logger.error("Cannot find the nodes");
 	} catch (Exception e) {
 	    logger.error("Error while executing cluster_describe", e);
@@ -188,6 +199,16 @@ public class DynomiteAdmin {
 	return Response.status(500).build();
     }
 
+    /**
+     * Answers 304 Not Modified when the caller already has the response, per its If-None-Match header.
+     */
+    private static Response conditionalOk(Request request, MembershipResponses.Rendered rendered) {
+	Response.ResponseBuilder notModified = request == null ? null : request.evaluatePreconditions(rendered.getTag());
+	if (notModified != null)
+	    return notModified.build();
+	return Response.ok(rendered.getBody()).tag(rendered.getTag()).build();
+    }
+
     @GET
     @Path("/{backup : (?i)backup}")
     public Response doBackup() {
@@ -201,6 +222,35 @@ public class DynomiteAdmin {
 	}
     }
 
+    @GET
+    @Path("/{backups : (?i)backups}")
+    public Response listBackups() {
+	try {
+	    logger.info("REST call: list backups");
+	    JSONArray backupsJson = new JSONArray();
+	    for (BackupManifest manifest : this.backup.listBackups()) {
+		JSONObject backupJson = new JSONObject();
+		backupJson.put("time", manifest.getBackupTime());
+		backupJson.put("createdAt", manifest.getCreatedAt());
+		backupJson.put("fileType", manifest.getFileType().name());
+		backupJson.put("codec", manifest.getCodec().name());
+		backupJson.put("chunks", manifest.getChunks().size());
+		backupJson.put("baseChunks", manifest.getBaseChunks());
+		backupJson.put("lastChunkTime", manifest.getLastChunkTime());
+		backupJson.put("rawLength", manifest.getRawLength());
+		backupJson.put("storedLength", manifest.getStoredLength());
+		if (manifest.getRdbStats() != null) {
+		    backupJson.put("rdbStats", new JSONObject(manifest.getRdbStats().toJson().toJSONString()));
+		}
+		backupsJson.put(backupJson);
+	    }
+	    return Response.ok(backupsJson.toString(), MediaType.APPLICATION_JSON).build();
+	} catch (Exception e) {
+	    logger.error("Error while listing backups from REST call", e);
+	    return Response.serverError().build();
+	}
+    }
+
     @GET
     @Path("/{restore : (?i)restore}")
     public Response doRestore() {
@@ -227,6 +277,30 @@ public class DynomiteAdmin {
 	}
     }
 
+    /**
+     * Estimates the memory used per key prefix and per type, and lists the biggest keys, from the snapshot on disk.
+     * With snapshot=true a new snapshot is taken first; with cached=true the last analysis is returned, if any.
+     */
+    @GET
+    @Path("/{memory : (?i)memory}")
+    public Response analyzeMemory(@QueryParam("snapshot") @DefaultValue("false") boolean snapshot,
+	    @QueryParam("cached") @DefaultValue("false") boolean cached) {
+	try {
+	    logger.info("REST call: memory analysis");
+	    MemoryAnalysis analysis = cached ? this.memoryAnalyzer.getLastAnalysis() : null;
+	    if (analysis == null) {
+		analysis = this.memoryAnalyzer.analyze(snapshot);
+	    }
+	    return Response.ok(analysis.toJson().toJSONString(), MediaType.APPLICATION_JSON).build();
+	} catch (IOException e) {
+	    logger.error("Error analyzing memory from REST call: " + e.getMessage());
+	    return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(e.getMessage()).build();
+	} catch (Exception e) {
+	    logger.error("Error analyzing memory from REST call", e);
+	    return Response.serverError().build();
+	}
+    }
+
     @GET
     @Path("/{status : (?i)status}")
     public Response floridaStatus() {
@@ -293,6 +367,8 @@ public class DynomiteAdmin {
 		    restoreJson.put("status", "completed");
 		}
 		restoreJson.put("time", this.instanceState.getRestoreTime());
+		restoreJson.put("bytesRestored", this.instanceState.getRestoreBytesDone());
+		restoreJson.put("bytesTotal", this.instanceState.getRestoreBytesTotal());
 
 	    } else {
 		restoreJson.put("status", "not started");
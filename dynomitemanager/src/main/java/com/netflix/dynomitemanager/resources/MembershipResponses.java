@@ -0,0 +1,109 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.resources;
+
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+import javax.ws.rs.core.EntityTag;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.identity.InstanceIdentity;
+import com.netflix.dynomitemanager.identity.MembershipCache;
+
+/**
+ * The get_seeds and cluster_describe responses, rendered once per version of the membership rather than on every
+ * call. Every Dynomite node polls its seeds on each gossip interval, so most calls are answered with the same bytes,
+ * or with a 304 when the caller sends the entity tag of the response it already has.
+ */
+@Singleton
+public class MembershipResponses {
+
+    /**
+     * A rendered response and its entity tag, derived from its content so the tag survives restarts.
+     */
+    public static final class Rendered {
+	private final long version;
+	private final byte[] body;
+	private final EntityTag tag;
+	private final boolean empty;
+
+	Rendered(long version, List<String> items, String prefix, String separator, String suffix) {
+	    this.version = version;
+	    this.body = (prefix + StringUtils.join(items, separator) + suffix).getBytes(StandardCharsets.UTF_8);
+	    CRC32 crc = new CRC32();
+	    crc.update(body, 0, body.length);
+	    this.tag = new EntityTag(Long.toHexString(crc.getValue()) + "-" + body.length);
+	    this.empty = items.isEmpty();
+	}
+
+	public byte[] getBody() {
+	    return body;
+	}
+
+	public EntityTag getTag() {
+	    return tag;
+	}
+
+	/**
+	 * @return true if the membership has no node to list
+	 */
+	public boolean isEmpty() {
+	    return empty;
+	}
+    }
+
+    private final InstanceIdentity ii;
+    private final MembershipCache membershipCache;
+    private final AtomicReference<Rendered> seeds = new AtomicReference<Rendered>();
+    private final AtomicReference<Rendered> clusterDescribe = new AtomicReference<Rendered>();
+
+    @Inject
+    public MembershipResponses(InstanceIdentity ii, MembershipCache membershipCache) {
+	this.ii = ii;
+	this.membershipCache = membershipCache;
+    }
+
+    /**
+     * @return the seeds of this node, separated by '|'
+     */
+    public Rendered getSeeds() throws UnknownHostException {
+	long version = membershipCache.getSnapshot().getVersion();
+	Rendered current = seeds.get();
+	if (current == null || current.version != version) {
+	    // Rendered from a snapshot at least as recent as the version, a newer one is rendered again next time.
+	    current = new Rendered(version, ii.getSeeds(), "", "|", "");
+	    seeds.set(current);
+	}
+	return current;
+    }
+
+    /**
+     * @return the nodes of the cluster as a JSON array
+     */
+    public Rendered getClusterDescribe() throws UnknownHostException {
+	long version = membershipCache.getSnapshot().getVersion();
+	Rendered current = clusterDescribe.get();
+	if (current == null || current.version != version) {
+	    current = new Rendered(version, ii.getClusterInfo(), "[", ",", "]");
+	    clusterDescribe.set(current);
+	}
+	return current;
+    }
+}
@@ -26,7 +26,6 @@ import com.amazonaws.services.autoscaling.AmazonAutoScalingClient;
 import com.amazonaws.services.autoscaling.model.AutoScalingGroup;
 import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsRequest;
 import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsResult;
-import com.amazonaws.services.autoscaling.model.Instance;
 import com.amazonaws.services.autoscaling.model.UpdateAutoScalingGroupRequest;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2Client;
@@ -37,7 +36,6 @@ import com.amazonaws.services.ec2.model.Filter;
 import com.amazonaws.services.ec2.model.IpPermission;
 import com.amazonaws.services.ec2.model.RevokeSecurityGroupIngressRequest;
 import com.amazonaws.services.ec2.model.SecurityGroup;
-import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
@@ -53,6 +51,9 @@ import com.netflix.dynomitemanager.sidecore.ICredential;
  * <li>Number of availability zones (AZs)
  * <li>Methods for adding ACLs for the instances
  * </ul>
+ *
+ * The members and sizes of the ASGs are read through {@link AsgMembership}, which describes each ASG once per refresh
+ * interval.
  */
 public class AWSMembership implements IMembership {
 
@@ -61,67 +62,28 @@ public class AWSMembership implements IMembership {
     private final ICredential provider;
     private final ICredential crossAccountProvider;
     private final InstanceEnvIdentity insEnvIdentity;
+    private final AsgMembership asgMembership;
 
     @Inject
     public AWSMembership(IConfiguration config, ICredential provider,
-	    @Named("awsroleassumption") ICredential crossAccountProvider, InstanceEnvIdentity insEnvIdentity) {
+	    @Named("awsroleassumption") ICredential crossAccountProvider, InstanceEnvIdentity insEnvIdentity,
+	    AsgMembership asgMembership) {
 	this.config = config;
 	this.provider = provider;
 	this.crossAccountProvider = crossAccountProvider;
 	this.insEnvIdentity = insEnvIdentity;
+	this.asgMembership = asgMembership;
 
     }
 
     @Override
     public List<String> getRacMembership() {
-	AmazonAutoScaling client = null;
-	try {
-	    client = getAutoScalingClient();
-	    DescribeAutoScalingGroupsRequest asgReq = new DescribeAutoScalingGroupsRequest()
-		    .withAutoScalingGroupNames(config.getASGName());
-	    DescribeAutoScalingGroupsResult res = client.describeAutoScalingGroups(asgReq);
-
-	    List<String> instanceIds = Lists.newArrayList();
-	    for (AutoScalingGroup asg : res.getAutoScalingGroups()) {
-		for (Instance ins : asg.getInstances())
-		    if (!(ins.getLifecycleState().equalsIgnoreCase("Terminating")
-			    || ins.getLifecycleState().equalsIgnoreCase("shutting-down")
-			    || ins.getLifecycleState().equalsIgnoreCase("Terminated")))
-			instanceIds.add(ins.getInstanceId());
-	    }
-	    logger.info(String.format("Querying Amazon returned following instance in the ASG: %s --> %s",
-		    config.getRack(), StringUtils.join(instanceIds, ",")));
-	    return instanceIds;
-	} finally {
-	    if (client != null)
-		client.shutdown();
-	}
+	return new ArrayList<String>(asgMembership.getGroup(config.getASGName()).getInstanceIds());
     }
 
     @Override
     public List<String> getCrossAccountRacMembership() {
-	AmazonAutoScaling client = null;
-	try {
-	    client = getCrossAccountAutoScalingClient();
-	    DescribeAutoScalingGroupsRequest asgReq = new DescribeAutoScalingGroupsRequest()
-		    .withAutoScalingGroupNames(config.getASGName());
-	    DescribeAutoScalingGroupsResult res = client.describeAutoScalingGroups(asgReq);
-
-	    List<String> instanceIds = Lists.newArrayList();
-	    for (AutoScalingGroup asg : res.getAutoScalingGroups()) {
-		for (Instance ins : asg.getInstances())
-		    if (!(ins.getLifecycleState().equalsIgnoreCase("Terminating")
-			    || ins.getLifecycleState().equalsIgnoreCase("shutting-down")
-			    || ins.getLifecycleState().equalsIgnoreCase("Terminated")))
-			instanceIds.add(ins.getInstanceId());
-	    }
-	    logger.info(String.format("Querying Amazon returned following instance in the cross-account ASG: %s --> %s",
-		    config.getRack(), StringUtils.join(instanceIds, ",")));
-	    return instanceIds;
-	} finally {
-	    if (client != null)
-		client.shutdown();
-	}
+	return new ArrayList<String>(asgMembership.getCrossAccountGroup(config.getASGName()).getInstanceIds());
     }
 
     /**
@@ -129,22 +91,7 @@ public class AWSMembership implements IMembership {
      */
     @Override
     public int getRacMembershipSize() {
-	AmazonAutoScaling client = null;
-	try {
-	    client = getAutoScalingClient();
-	    DescribeAutoScalingGroupsRequest asgReq = new DescribeAutoScalingGroupsRequest()
-		    .withAutoScalingGroupNames(config.getASGName());
-	    DescribeAutoScalingGroupsResult res = client.describeAutoScalingGroups(asgReq);
-	    int size = 0;
-	    for (AutoScalingGroup asg : res.getAutoScalingGroups()) {
-		size += asg.getMaxSize();
-	    }
-	    logger.info(String.format("Query on ASG returning %d instances", size));
-	    return size;
-	} finally {
-	    if (client != null)
-		client.shutdown();
-	}
+	return asgMembership.getGroup(config.getASGName()).getMaxSize();
     }
 
     /**
@@ -152,22 +99,7 @@ public class AWSMembership implements IMembership {
      */
     @Override
     public int getCrossAccountRacMembershipSize() {
-	AmazonAutoScaling client = null;
-	try {
-	    client = getCrossAccountAutoScalingClient();
-	    DescribeAutoScalingGroupsRequest asgReq = new DescribeAutoScalingGroupsRequest()
-		    .withAutoScalingGroupNames(config.getCrossAccountRack());
-	    DescribeAutoScalingGroupsResult res = client.describeAutoScalingGroups(asgReq);
-	    int size = 0;
-	    for (AutoScalingGroup asg : res.getAutoScalingGroups()) {
-		size += asg.getMaxSize();
-	    }
-	    logger.info(String.format("Query on cross account ASG returning %d instances", size));
-	    return size;
-	} finally {
-	    if (client != null)
-		client.shutdown();
-	}
+	return asgMembership.getCrossAccountGroup(config.getCrossAccountRack()).getMaxSize();
     }
 
     @Override
@@ -361,6 +293,7 @@ public class AWSMembership implements IMembership {
 	    ureq.setMaxSize(asg.getMinSize() + 1);
 	    ureq.setDesiredCapacity(asg.getMinSize() + 1);
 	    client.updateAutoScalingGroup(ureq);
+	    asgMembership.invalidate();
 	} finally {
 	    if (client != null)
 		client.shutdown();
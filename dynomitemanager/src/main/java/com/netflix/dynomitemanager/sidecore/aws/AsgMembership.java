@@ -0,0 +1,257 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.aws;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.autoscaling.AmazonAutoScaling;
+import com.amazonaws.services.autoscaling.AmazonAutoScalingClient;
+import com.amazonaws.services.autoscaling.model.AutoScalingGroup;
+import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsRequest;
+import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsResult;
+import com.amazonaws.services.autoscaling.model.Instance;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.sidecore.ICredential;
+import com.netflix.dynomitemanager.sidecore.utils.CoalescingCache;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicTimer;
+import com.netflix.servo.monitor.MonitorConfig;
+
+/**
+ * A cached view of auto scaling groups (ASGs), as described by AWS.
+ *
+ * One describe call answers both the running instances and the maximum size of a group, and its result is used for
+ * {@link IConfiguration#getAsgMembershipRefreshSeconds()}. Callers arriving while a group is described wait for that
+ * call rather than make their own, through a {@link CoalescingCache}. When a describe call fails, throttled or not, a
+ * recent view of the group is used instead. The AutoScaling clients are created once and kept for the life of the process.
+ */
+@Singleton
+public class AsgMembership {
+    private static final Logger logger = LoggerFactory.getLogger(AsgMembership.class);
+
+    /**
+     * An immutable view of an auto scaling group.
+     */
+    public static final class Group {
+	private final List<String> instanceIds;
+	private final int maxSize;
+	private final long loadedAt;
+
+	Group(List<String> instanceIds, int maxSize, long loadedAt) {
+	    this.instanceIds = Collections.unmodifiableList(instanceIds);
+	    this.maxSize = maxSize;
+	    this.loadedAt = loadedAt;
+	}
+
+	/**
+	 * @return the ids of the instances of the group that are not shutting down
+	 */
+	public List<String> getInstanceIds() {
+	    return instanceIds;
+	}
+
+	/**
+	 * @return the maximum size of the group
+	 */
+	public int getMaxSize() {
+	    return maxSize;
+	}
+
+	/**
+	 * @return when the group was described, in milliseconds since the epoch
+	 */
+	public long getLoadedAt() {
+	    return loadedAt;
+	}
+    }
+
+    private final IConfiguration config;
+    private final ICredential provider;
+    private final ICredential crossAccountProvider;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private AmazonAutoScaling client;
+    private AmazonAutoScaling crossAccountClient;
+
+    private final BasicTimer describeLatency = new BasicTimer(
+	    MonitorConfig.builder("AsgMembership_describeLatency").build(), TimeUnit.MILLISECONDS);
+    private final BasicCounter describeCalls = new BasicCounter(
+	    MonitorConfig.builder("AsgMembership_describeCalls").build());
+    private final BasicCounter throttled = new BasicCounter(MonitorConfig.builder("AsgMembership_throttled").build());
+    private final BasicCounter failures = new BasicCounter(MonitorConfig.builder("AsgMembership_failures").build());
+
+    @Inject
+    public AsgMembership(IConfiguration config, ICredential provider,
+	    @Named("awsroleassumption") ICredential crossAccountProvider) {
+	this(config, provider, crossAccountProvider, null, null);
+	registerMonitors();
+    }
+
+    /**
+     * Describes the groups with the given clients rather than ones created from credentials.
+     */
+    public AsgMembership(IConfiguration config, AmazonAutoScaling client, AmazonAutoScaling crossAccountClient) {
+	this(config, null, null, client, crossAccountClient);
+    }
+
+    private AsgMembership(IConfiguration config, ICredential provider, ICredential crossAccountProvider,
+	    AmazonAutoScaling client, AmazonAutoScaling crossAccountClient) {
+	this.config = config;
+	this.provider = provider;
+	this.crossAccountProvider = crossAccountProvider;
+	this.client = client;
+	this.crossAccountClient = crossAccountClient;
+    }
+
+    public void registerMonitors() {
+	DefaultMonitorRegistry.getInstance().register(describeLatency);
+	DefaultMonitorRegistry.getInstance().register(describeCalls);
+	DefaultMonitorRegistry.getInstance().register(throttled);
+	DefaultMonitorRegistry.getInstance().register(failures);
+    }
+
+    /**
+     * @return the group of the given name in the account of this instance
+     * @throws AmazonServiceException
+     *             if the group cannot be described and there is no recent view of it
+     */
+    public Group getGroup(String asgName) {
+	return entry(false, asgName).get();
+    }
+
+    /**
+     * @return the group of the given name in the other account of a dual account cluster
+     * @throws AmazonServiceException
+     *             if the group cannot be described and there is no recent view of it
+     */
+    public Group getCrossAccountGroup(String asgName) {
+	return entry(true, asgName).get();
+    }
+
+    /**
+     * Drops all the views after this instance changed a group, so the next caller describes it again. A describe call
+     * already running is not kept.
+     */
+    public void invalidate() {
+	for (Entry entry : entries.values()) {
+	    entry.cache.invalidate();
+	}
+    }
+
+    private Entry entry(boolean crossAccount, String asgName) {
+	String key = (crossAccount ? "cross-account:" : "local:") + asgName;
+	Entry entry = entries.get(key);
+	if (entry == null) {
+	    Entry created = new Entry(crossAccount, asgName);
+	    entry = entries.putIfAbsent(key, created);
+	    if (entry == null) {
+		entry = created;
+	    }
+	}
+	return entry;
+    }
+
+    private synchronized AmazonAutoScaling client(boolean crossAccount) {
+	if (crossAccount) {
+	    if (crossAccountClient == null) {
+		crossAccountClient = newClient(crossAccountProvider);
+	    }
+	    return crossAccountClient;
+	}
+	if (client == null) {
+	    client = newClient(provider);
+	}
+	return client;
+    }
+
+    private AmazonAutoScaling newClient(ICredential credential) {
+	AmazonAutoScaling created = new AmazonAutoScalingClient(credential.getAwsCredentialProvider());
+	created.setEndpoint("autoscaling." + config.getDataCenter() + ".amazonaws.com");
+	return created;
+    }
+
+    /**
+     * The view of one group and the describe call running for it, if any.
+     */
+    private final class Entry {
+	private final boolean crossAccount;
+	private final String asgName;
+	private final CoalescingCache<Group> cache;
+
+	Entry(boolean crossAccount, String asgName) {
+	    this.crossAccount = crossAccount;
+	    this.asgName = asgName;
+	    this.cache = new CoalescingCache<Group>("view of ASG " + asgName, new Callable<Group>() {
+		@Override
+		public Group call() {
+		    return describe();
+		}
+	    }, null, false);
+	}
+
+	Group get() {
+	    return cache.get(config.getAsgMembershipRefreshSeconds() * 1000L);
+	}
+
+	private Group describe() {
+	    DescribeAutoScalingGroupsRequest asgReq = new DescribeAutoScalingGroupsRequest()
+		    .withAutoScalingGroupNames(asgName);
+	    long start = System.currentTimeMillis();
+	    DescribeAutoScalingGroupsResult res;
+	    try {
+		describeCalls.increment();
+		res = client(crossAccount).describeAutoScalingGroups(asgReq);
+	    } catch (AmazonServiceException e) {
+		if (RetryUtils.isThrottlingException(e)) {
+		    throttled.increment();
+		}
+		failures.increment();
+		throw e;
+	    } catch (RuntimeException e) {
+		failures.increment();
+		throw e;
+	    } finally {
+		describeLatency.record(System.currentTimeMillis() - start, TimeUnit.MILLISECONDS);
+	    }
+
+	    List<String> instanceIds = new ArrayList<String>();
+	    int maxSize = 0;
+	    for (AutoScalingGroup asg : res.getAutoScalingGroups()) {
+		maxSize += asg.getMaxSize();
+		for (Instance ins : asg.getInstances())
+		    if (!(ins.getLifecycleState().equalsIgnoreCase("Terminating")
+			    || ins.getLifecycleState().equalsIgnoreCase("shutting-down")
+			    || ins.getLifecycleState().equalsIgnoreCase("Terminated")))
+			instanceIds.add(ins.getInstanceId());
+	    }
+	    logger.info(String.format("Querying Amazon returned %d as the maximum size of %sASG %s with instances: %s",
+		    maxSize, crossAccount ? "cross-account " : "", asgName, StringUtils.join(instanceIds, ",")));
+	    return new Group(instanceIds, maxSize, System.currentTimeMillis());
+	}
+    }
+}
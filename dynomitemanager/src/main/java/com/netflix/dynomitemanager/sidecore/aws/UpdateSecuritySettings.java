@@ -20,9 +20,9 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
 import com.netflix.dynomitemanager.identity.AppsInstance;
-import com.netflix.dynomitemanager.identity.IAppsInstanceFactory;
 import com.netflix.dynomitemanager.identity.IMembership;
 import com.netflix.dynomitemanager.identity.InstanceIdentity;
+import com.netflix.dynomitemanager.identity.MembershipCache;
 import com.netflix.dynomitemanager.sidecore.scheduler.SimpleTimer;
 import com.netflix.dynomitemanager.sidecore.scheduler.Task;
 import com.netflix.dynomitemanager.sidecore.scheduler.TaskTimer;
@@ -38,13 +38,13 @@ public class UpdateSecuritySettings extends Task {
 
 	private static final Random ran = new Random();
 	private final IMembership membership;
-	private final IAppsInstanceFactory factory;
+	private final MembershipCache membershipCache;
 
 	@Inject
-	public UpdateSecuritySettings(IConfiguration config, IMembership membership, IAppsInstanceFactory factory) {
+	public UpdateSecuritySettings(IConfiguration config, IMembership membership, MembershipCache membershipCache) {
 		super(config);
 		this.membership = membership;
-		this.factory = factory;
+		this.membershipCache = membershipCache;
 	}
 
 	@Override
@@ -52,11 +52,11 @@ public class UpdateSecuritySettings extends Task {
 		// if seed does not execute.
 		int port = config.getDynomitePeerPort();
 		List<String> acls = membership.listACL(port, port);
-		List<AppsInstance> instances = factory.getAllIds(config.getDynomiteClusterName());
+		List<AppsInstance> instances = membershipCache.getAllIds();
 
 		// iterate to add...
 		List<String> add = Lists.newArrayList();
-		for (AppsInstance instance : factory.getAllIds(config.getDynomiteClusterName())) {
+		for (AppsInstance instance : instances) {
 			String range = instance.getHostIP() + "/32";
 			if (!acls.contains(range))
 				add.add(range);
@@ -13,9 +13,36 @@
 package com.netflix.dynomitemanager.sidecore.backup;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
 import org.joda.time.DateTime;
 
+import com.netflix.dynomitemanager.identity.AppsInstance;
+
 public interface Backup {
 	boolean upload(File file, DateTime todayStart);
+
+	/**
+	 * Backs up a snapshot of the storage streamed by syncing from it as a replica, without writing it to disk.
+	 */
+	boolean uploadFromReplica(String host, int port, DateTime todayStart);
+
+	/**
+	 * Extends the latest backup with the data appended to the file since it was taken.
+	 *
+	 * @return true if the backups cover the file as it is now
+	 */
+	boolean uploadIncremental(File file);
+
+	/**
+	 * Records that the backup of the day is taken by another replica of the token of this node, so restores can find
+	 * it.
+	 *
+	 * @return false if nothing was recorded, for instance because the replica holds no backup of the day, in which
+	 *         case this node must back itself up
+	 */
+	boolean linkToReplica(AppsInstance replica, DateTime todayStart);
+
+	List<BackupManifest> listBackups() throws IOException;
 }
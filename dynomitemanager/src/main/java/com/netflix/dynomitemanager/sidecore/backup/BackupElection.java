@@ -0,0 +1,161 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.identity.IAppsInstanceFactory;
+import com.netflix.dynomitemanager.identity.InstanceIdentity;
+
+/**
+ * Elects the one replica of each token of the data center that backs the token up, when backups are deduplicated.
+ * The other replicas only record a pointer to the backups of the elected one.
+ *
+ * Every node runs the same election over the nodes registered in the token store, so they agree without talking to
+ * each other. The racks of the data center take turns by token order: the first token prefers the first rack, the
+ * next token the next rack, and so on, so the backups are spread evenly across the racks. A token goes to its replica
+ * in the preferred rack or, if that replica is not live, in the next rack of the turn. The winner of a token depends
+ * only on the registered topology and the liveness of the replicas of that token, so replicas that look at the others
+ * at different times still agree on it. A replica is live when it is in service and, while nodes write heartbeats,
+ * its heartbeat has not expired: a replica that left its ASG stops heartbeating and is not elected.
+ */
+@Singleton
+public class BackupElection {
+	private static final Logger logger = LoggerFactory.getLogger(BackupElection.class);
+
+	private final IConfiguration config;
+	private final InstanceIdentity iid;
+	private final IAppsInstanceFactory factory;
+
+	@Inject
+	public BackupElection(IConfiguration config, InstanceIdentity iid, IAppsInstanceFactory factory) {
+		this.config = config;
+		this.iid = iid;
+		this.factory = factory;
+	}
+
+	/**
+	 * @return the node backing up the token of this node, this node itself if the token store cannot be read
+	 */
+	public AppsInstance getElected() {
+		AppsInstance me = iid.getInstance();
+		try {
+			AppsInstance elected = elect(me, factory.getAllIds(config.getDynomiteClusterName()),
+					requireHeartbeat());
+			if (!isSameNode(elected, me)) {
+				logger.info("Backups of token " + me.getToken() + " are taken by " + elected.getInstanceId() + " in "
+						+ elected.getRack());
+			}
+			return elected;
+		} catch (RuntimeException e) {
+			logger.warn("Backup election failed, backing up this node: " + e.getMessage());
+			return me;
+		}
+	}
+
+	/**
+	 * @return true if this node backs up its token
+	 */
+	public boolean isElected() {
+		return isSameNode(getElected(), iid.getInstance());
+	}
+
+	/**
+	 * Checks the elected node again right before relying on its backup.
+	 *
+	 * @return true if the token store still holds the given node, live, in its slot
+	 */
+	public boolean isLive(AppsInstance elected) {
+		try {
+			AppsInstance current = factory.getInstance(config.getDynomiteClusterName(), elected.getRack(),
+					elected.getId());
+			return current != null && isSameNode(current, elected) && isLive(current, requireHeartbeat());
+		} catch (RuntimeException e) {
+			logger.warn("Cannot check the elected node " + elected.getInstanceId() + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * @param instances
+	 *            the nodes of the cluster
+	 * @return the node backing up the token of the given node, among the nodes in service
+	 */
+	public static AppsInstance elect(AppsInstance me, List<AppsInstance> instances) {
+		return elect(me, instances, false);
+	}
+
+	/**
+	 * @param instances
+	 *            the nodes of the cluster
+	 * @param requireHeartbeat
+	 *            true to elect only nodes with an unexpired heartbeat
+	 * @return the node backing up the token of the given node, among the live nodes
+	 */
+	public static AppsInstance elect(AppsInstance me, List<AppsInstance> instances, boolean requireHeartbeat) {
+		// The turn of the racks is taken over every registered node of the data center, live or not.
+		List<AppsInstance> dc = new ArrayList<AppsInstance>();
+		TreeSet<String> racks = new TreeSet<String>();
+		for (AppsInstance instance : instances) {
+			if (instance.getDatacenter().equals(me.getDatacenter()) && !isSameNode(instance, me)) {
+				dc.add(instance);
+				racks.add(instance.getRack());
+			}
+		}
+		dc.add(me);
+		racks.add(me.getRack());
+		TreeMap<String, List<AppsInstance>> tokens = TokenOrder.byToken(dc);
+		List<String> turn = new ArrayList<String>(racks);
+		int index = tokens.headMap(me.getToken()).size();
+
+		for (int i = 0; i < turn.size(); i++) {
+			String rack = turn.get((index + i) % turn.size());
+			AppsInstance elected = null;
+			for (AppsInstance replica : tokens.get(me.getToken())) {
+				if (replica.getRack().equals(rack) && (isLive(replica, requireHeartbeat) || isSameNode(replica, me))
+						&& (elected == null || replica.getInstanceId().compareTo(elected.getInstanceId()) < 0)) {
+					elected = replica;
+				}
+			}
+			if (elected != null) {
+				return elected;
+			}
+		}
+		return me;
+	}
+
+	/**
+	 * Nodes write heartbeats whenever the heartbeat task runs, whether or not seeds are chosen by them.
+	 */
+	private boolean requireHeartbeat() {
+		return config.getHeartbeatIntervalSeconds() > 0;
+	}
+
+	private static boolean isLive(AppsInstance instance, boolean requireHeartbeat) {
+		return !instance.isOutOfService() && (!requireHeartbeat || instance.hasHeartbeat());
+	}
+
+	private static boolean isSameNode(AppsInstance a, AppsInstance b) {
+		return a.getInstanceId().equals(b.getInstanceId());
+	}
+}
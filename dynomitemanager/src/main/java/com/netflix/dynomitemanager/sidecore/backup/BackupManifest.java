@@ -0,0 +1,265 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Describes a chunked backup: the source file, how it was compressed and the chunks it was split in.
+ *
+ * A chunked backup is stored under its own prefix. The source file is cut in chunks of a fixed raw size, each chunk is
+ * compressed on its own and stored as <code>chunks/NNNNNNNN</code>. The manifest is written last as
+ * {@link #MANIFEST}, so a backup exists only once its manifest does. While the upload is in progress,
+ * {@link #PARTIAL_MANIFEST} lists the chunks committed so far and lets a failed upload resume.
+ *
+ * Each chunk records the MD5 of its stored bytes and the CRC32 of its raw bytes, so restores can verify both the
+ * download and the decompression.
+ *
+ * Backups of an append only file can be extended after the fact: the bytes appended since the backup are uploaded as
+ * more chunks and the manifest is rewritten to list them. Each chunk records when its bytes were read, so the backup
+ * can be restored as it was at any of those times; the first {@link #getBaseChunks()} chunks are the full backup the
+ * others extend.
+ *
+ * Backups of an RDB file may carry the {@link RdbStats} collected while verifying it.
+ */
+public class BackupManifest {
+
+	public static final String MANIFEST = "manifest.json";
+	public static final String PARTIAL_MANIFEST = "manifest.partial.json";
+	public static final String CHUNKS = "chunks/";
+
+	private static final int VERSION = 1;
+
+	public enum FileType {
+		AOF, RDB
+	}
+
+	public static class Chunk {
+		public final int index;
+		public final long offset;
+		public final long rawLength;
+		public final long storedLength;
+		public final String md5;
+		public final long crc32;
+		/** When the bytes of the chunk were read, in milliseconds since the epoch. */
+		public final long time;
+
+		public Chunk(int index, long offset, long rawLength, long storedLength, String md5, long crc32, long time) {
+			this.index = index;
+			this.offset = offset;
+			this.rawLength = rawLength;
+			this.storedLength = storedLength;
+			this.md5 = md5;
+			this.crc32 = crc32;
+			this.time = time;
+		}
+	}
+
+	private final FileType fileType;
+	private final CompressionCodec codec;
+	private final long chunkSize;
+	private final long backupTime;
+	private long createdAt;
+	private int baseChunks;
+	private RdbStats rdbStats;
+	private final List<Chunk> chunks = new ArrayList<Chunk>();
+
+	public BackupManifest(FileType fileType, CompressionCodec codec, long chunkSize, long backupTime) {
+		this.fileType = fileType;
+		this.codec = codec;
+		this.chunkSize = chunkSize;
+		this.backupTime = backupTime;
+	}
+
+	public static String chunkKey(String prefix, int index) {
+		return prefix + CHUNKS + String.format("%08d", index);
+	}
+
+	public FileType getFileType() {
+		return fileType;
+	}
+
+	public CompressionCodec getCodec() {
+		return codec;
+	}
+
+	public long getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @return the start of the day the backup belongs to, which is also the last element of its prefix
+	 */
+	public long getBackupTime() {
+		return backupTime;
+	}
+
+	/**
+	 * @return when the manifest was written, in milliseconds since the epoch
+	 */
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(long createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	/**
+	 * @return the number of chunks of the full backup, the following chunks were appended later
+	 */
+	public int getBaseChunks() {
+		return baseChunks;
+	}
+
+	public void setBaseChunks(int baseChunks) {
+		this.baseChunks = baseChunks;
+	}
+
+	/**
+	 * @return the time of the last chunk, which is when the latest data in the backup was read
+	 */
+	public long getLastChunkTime() {
+		return chunks.isEmpty() ? 0 : chunks.get(chunks.size() - 1).time;
+	}
+
+	/**
+	 * @return a copy listing the chunks read at or before the given time, or null if the full backup was not complete
+	 *         by then
+	 */
+	public BackupManifest upTo(long time) {
+		BackupManifest copy = new BackupManifest(fileType, codec, chunkSize, backupTime);
+		copy.setCreatedAt(createdAt);
+		copy.setBaseChunks(baseChunks);
+		copy.setRdbStats(rdbStats);
+		for (Chunk chunk : chunks) {
+			if (chunk.time > time) {
+				break;
+			}
+			copy.addChunk(chunk);
+		}
+		return copy.getChunks().size() < baseChunks ? null : copy;
+	}
+
+	/**
+	 * @return the statistics of the RDB file of the backup, or null if it was not verified
+	 */
+	public RdbStats getRdbStats() {
+		return rdbStats;
+	}
+
+	public void setRdbStats(RdbStats rdbStats) {
+		this.rdbStats = rdbStats;
+	}
+
+	public List<Chunk> getChunks() {
+		return Collections.unmodifiableList(chunks);
+	}
+
+	/**
+	 * Appends a chunk, which must start where the previous one ended.
+	 */
+	public void addChunk(Chunk chunk) {
+		if (chunk.index != chunks.size() || chunk.offset != getRawLength()) {
+			throw new IllegalArgumentException("Chunk " + chunk.index + " at " + chunk.offset + " does not follow "
+					+ chunks.size() + " chunks of " + getRawLength() + " bytes");
+		}
+		chunks.add(chunk);
+	}
+
+	public long getRawLength() {
+		if (chunks.isEmpty()) {
+			return 0;
+		}
+		Chunk last = chunks.get(chunks.size() - 1);
+		return last.offset + last.rawLength;
+	}
+
+	public long getStoredLength() {
+		long length = 0;
+		for (Chunk chunk : chunks) {
+			length += chunk.storedLength;
+		}
+		return length;
+	}
+
+	@SuppressWarnings("unchecked")
+	public String toJson() {
+		JSONObject json = new JSONObject();
+		json.put("version", VERSION);
+		json.put("fileType", fileType.name());
+		json.put("codec", codec.name());
+		json.put("chunkSize", chunkSize);
+		json.put("backupTime", backupTime);
+		json.put("createdAt", createdAt);
+		json.put("baseChunks", baseChunks);
+		json.put("rawLength", getRawLength());
+		json.put("storedLength", getStoredLength());
+		JSONArray array = new JSONArray();
+		for (Chunk chunk : chunks) {
+			JSONObject entry = new JSONObject();
+			entry.put("index", chunk.index);
+			entry.put("offset", chunk.offset);
+			entry.put("rawLength", chunk.rawLength);
+			entry.put("storedLength", chunk.storedLength);
+			entry.put("md5", chunk.md5);
+			entry.put("crc32", chunk.crc32);
+			entry.put("time", chunk.time);
+			array.add(entry);
+		}
+		json.put("chunks", array);
+		if (rdbStats != null) {
+			json.put("rdbStats", rdbStats.toJson());
+		}
+		return json.toJSONString();
+	}
+
+	public static BackupManifest parse(InputStream in) throws IOException {
+		try {
+			JSONObject json = (JSONObject) new JSONParser()
+					.parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+			long version = (Long) json.get("version");
+			if (version != VERSION) {
+				throw new IOException("Unsupported backup manifest version " + version);
+			}
+			BackupManifest manifest = new BackupManifest(FileType.valueOf((String) json.get("fileType")),
+					CompressionCodec.fromName((String) json.get("codec")), (Long) json.get("chunkSize"),
+					(Long) json.get("backupTime"));
+			manifest.setCreatedAt((Long) json.get("createdAt"));
+			for (Object o : (JSONArray) json.get("chunks")) {
+				JSONObject entry = (JSONObject) o;
+				manifest.addChunk(new Chunk(((Long) entry.get("index")).intValue(), (Long) entry.get("offset"),
+						(Long) entry.get("rawLength"), (Long) entry.get("storedLength"), (String) entry.get("md5"),
+						(Long) entry.get("crc32"), (Long) entry.get("time")));
+			}
+			manifest.setBaseChunks(((Long) json.get("baseChunks")).intValue());
+			if (json.get("rdbStats") != null) {
+				manifest.setRdbStats(RdbStats.fromJson((JSONObject) json.get("rdbStats")));
+			}
+			return manifest;
+		} catch (ParseException | ClassCastException | NullPointerException | IllegalArgumentException e) {
+			throw new IOException("Malformed backup manifest: " + e, e);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.inject.Singleton;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicGauge;
+import com.netflix.servo.monitor.BasicTimer;
+import com.netflix.servo.monitor.LongGauge;
+import com.netflix.servo.monitor.MonitorConfig;
+
+/**
+ * Servo metrics of the backup uploads.
+ */
+@Singleton
+public class BackupMetrics {
+
+	private final BasicCounter bytesUploaded = new BasicCounter(MonitorConfig.builder("Backup_bytesUploaded").build());
+	private final BasicCounter partAttemptFailures = new BasicCounter(
+			MonitorConfig.builder("Backup_partAttemptFailures").build());
+	private final BasicCounter partFailures = new BasicCounter(MonitorConfig.builder("Backup_partFailures").build());
+	private final BasicTimer partLatency = new BasicTimer(MonitorConfig.builder("Backup_partUploadLatency").build(),
+			TimeUnit.MILLISECONDS);
+	private final LongGauge throughput = new LongGauge(MonitorConfig.builder("Backup_throughputBytesPerSec").build());
+	private final LongGauge throttleRate = new LongGauge(
+			MonitorConfig.builder("Backup_throttleBytesPerSec").build());
+	private final LongGauge snapshotForkUsec = new LongGauge(MonitorConfig.builder("Backup_snapshotForkUsec").build());
+	private final LongGauge snapshotCowBytes = new LongGauge(MonitorConfig.builder("Backup_snapshotCowBytes").build());
+	private final LongGauge snapshotDuration = new LongGauge(MonitorConfig.builder("Backup_snapshotDurationMs").build());
+	private final LongGauge loadingPercent = new LongGauge(MonitorConfig.builder("Restore_loadingPercent").build());
+	private final LongGauge loadingEta = new LongGauge(MonitorConfig.builder("Restore_loadingEtaSeconds").build());
+
+	private final AtomicLong bytesInFlight = new AtomicLong();
+	private final BasicGauge<Long> bytesInFlightGauge = new BasicGauge<Long>(
+			MonitorConfig.builder("Backup_bytesInFlight").build(), new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					return bytesInFlight.get();
+				}
+			});
+
+	public BackupMetrics() {
+		DefaultMonitorRegistry.getInstance().register(bytesUploaded);
+		DefaultMonitorRegistry.getInstance().register(partAttemptFailures);
+		DefaultMonitorRegistry.getInstance().register(partFailures);
+		DefaultMonitorRegistry.getInstance().register(partLatency);
+		DefaultMonitorRegistry.getInstance().register(throughput);
+		DefaultMonitorRegistry.getInstance().register(throttleRate);
+		DefaultMonitorRegistry.getInstance().register(snapshotForkUsec);
+		DefaultMonitorRegistry.getInstance().register(snapshotCowBytes);
+		DefaultMonitorRegistry.getInstance().register(snapshotDuration);
+		DefaultMonitorRegistry.getInstance().register(loadingPercent);
+		DefaultMonitorRegistry.getInstance().register(loadingEta);
+		DefaultMonitorRegistry.getInstance().register(bytesInFlightGauge);
+	}
+
+	public void partStarted(long bytes) {
+		bytesInFlight.addAndGet(bytes);
+	}
+
+	public void partFinished(long bytes, long elapsedMs) {
+		bytesInFlight.addAndGet(-bytes);
+		bytesUploaded.increment(bytes);
+		partLatency.record(elapsedMs, TimeUnit.MILLISECONDS);
+	}
+
+	public void partAttemptFailed(long bytes) {
+		bytesInFlight.addAndGet(-bytes);
+		partAttemptFailures.increment();
+	}
+
+	public void partFailed() {
+		partFailures.increment();
+	}
+
+	public void uploadFinished(long bytes, long elapsedMs) {
+		throughput.set(elapsedMs > 0 ? bytes * 1000 / elapsedMs : bytes);
+	}
+
+	/**
+	 * @param bytesPerSec
+	 *            the rate backups currently read at, 0 if they are not throttled
+	 */
+	public void throttleRate(long bytesPerSec) {
+		throttleRate.set(bytesPerSec);
+	}
+
+	/**
+	 * Records the cost of the BGSAVE or BGREWRITEAOF taken for a backup, -1 where Redis does not report it.
+	 */
+	public void snapshotTaken(long forkUsec, long cowBytes, long durationMs) {
+		snapshotForkUsec.set(forkUsec);
+		snapshotCowBytes.set(cowBytes);
+		snapshotDuration.set(durationMs);
+	}
+
+	/**
+	 * Records how far Redis is in loading its data file, -1 where Redis does not report it.
+	 */
+	public void loadingProgress(long percent, long etaSeconds) {
+		loadingPercent.set(percent);
+		loadingEta.set(etaSeconds);
+	}
+
+	public long getBytesInFlight() {
+		return bytesInFlight.get();
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.identity.IAppsInstanceFactory;
+import com.netflix.dynomitemanager.identity.InstanceIdentity;
+
+/**
+ * Assigns each node of the data center its own start time in the backup window, so the nodes do not all fork for a
+ * snapshot at once.
+ *
+ * The window is split in one band per rack. The nodes of a rack start their backups in the band of the rack, spread
+ * across it by token order. The replicas of a token live in different racks, so they fork a band apart and reads of
+ * the token can always be served by a replica that is not taking a snapshot.
+ *
+ * Slots are computed from the nodes registered in the token store, so they only depend on the topology: a node that
+ * replaces another one takes over its slot.
+ */
+@Singleton
+public class BackupSlotCoordinator {
+	private static final Logger logger = LoggerFactory.getLogger(BackupSlotCoordinator.class);
+
+	private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+	/** Backups start one minute into the backup hour, as they always did. */
+	private static final int FIRST_SECOND = 60;
+
+	private final IConfiguration config;
+	private final InstanceIdentity iid;
+	private final IAppsInstanceFactory factory;
+
+	@Inject
+	public BackupSlotCoordinator(IConfiguration config, InstanceIdentity iid, IAppsInstanceFactory factory) {
+		this.config = config;
+		this.iid = iid;
+		this.factory = factory;
+	}
+
+	/**
+	 * @return the number of seconds after the start of the backup hour at which this node starts its backups
+	 */
+	public int getSlotSeconds() {
+		// The window ends before midnight, so every node files its backup under the same day.
+		int window = Math.min(config.getBackupWindowMinutes() * 60,
+				SECONDS_PER_DAY - config.getBackupHour() * 3600 - FIRST_SECOND);
+		if (window <= 0) {
+			return FIRST_SECOND;
+		}
+		AppsInstance me = iid.getInstance();
+		List<AppsInstance> dc = new ArrayList<AppsInstance>();
+		for (AppsInstance instance : factory.getAllIds(config.getDynomiteClusterName())) {
+			if (instance.getDatacenter().equals(me.getDatacenter())) {
+				dc.add(instance);
+			}
+		}
+		int slot = FIRST_SECOND + slotOffset(me, dc, window);
+		logger.info(String.format("Backup slot: %d:%02d:%02d, in a %d minute window over %d nodes",
+				config.getBackupHour() + slot / 3600, slot / 60 % 60, slot % 60, window / 60, dc.size()));
+		return slot;
+	}
+
+	/**
+	 * @param instances
+	 *            the nodes of the data center, including this one
+	 * @return the offset of the slot of the node in the window, in seconds
+	 */
+	public static int slotOffset(AppsInstance me, List<AppsInstance> instances, int windowSeconds) {
+		TreeSet<String> racks = new TreeSet<String>();
+		List<AppsInstance> rack = new ArrayList<AppsInstance>();
+		for (AppsInstance instance : instances) {
+			racks.add(instance.getRack());
+			if (instance.getRack().equals(me.getRack())) {
+				rack.add(instance);
+			}
+		}
+		racks.add(me.getRack());
+		TreeMap<String, List<AppsInstance>> tokens = TokenOrder.byToken(rack);
+		if (!tokens.containsKey(me.getToken())) {
+			tokens.put(me.getToken(), new ArrayList<AppsInstance>());
+		}
+
+		long band = windowSeconds / racks.size();
+		int rackIndex = racks.headSet(me.getRack()).size();
+		int position = tokens.headMap(me.getToken()).size();
+		return (int) (band * rackIndex + band * position / tokens.size());
+	}
+}
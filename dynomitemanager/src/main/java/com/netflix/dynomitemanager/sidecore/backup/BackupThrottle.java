@@ -0,0 +1,179 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.dynomitemanager.sidecore.utils.Sleeper;
+
+/**
+ * Limits how much a backup reading the data file competes with the node it runs on.
+ *
+ * Reads are paced by a token bucket refilled at the current rate, which holds at most one second of reads. The rate
+ * adapts to the load of the node: it is halved whenever the 99th percentile latency of Dynomite exceeds the threshold
+ * or Redis reports a delayed AOF fsync, and grows back by a tenth of the maximum rate at every calm check.
+ *
+ * Pages read by the backup can also be dropped from the page cache once read, so a backup does not evict the pages
+ * the node is using.
+ */
+public class BackupThrottle {
+	private static final Logger logger = LoggerFactory.getLogger(BackupThrottle.class);
+
+	static final long ADJUST_INTERVAL_MS = 5000;
+
+	/**
+	 * The load of the node, as last sampled by the metrics tasks.
+	 */
+	public interface LoadSignals {
+		/**
+		 * @return the 99th percentile latency of client requests in microseconds, or 0 if unknown
+		 */
+		long latency99thMicros();
+
+		/**
+		 * @return how many times Redis delayed an AOF fsync since it started, or -1 if unknown
+		 */
+		long delayedFsyncs();
+	}
+
+	private final long maxRate;
+	private final long minRate;
+	private final long latencyThresholdMicros;
+	private final LoadSignals signals;
+	private final Sleeper sleeper;
+	private final BackupMetrics metrics;
+	private volatile boolean dropPageCache;
+
+	private double rate;
+	private double tokens;
+	private long lastRefillNanos;
+	private long lastAdjustNanos;
+	private long lastDelayedFsyncs = -1;
+
+	/**
+	 * @param maxRate
+	 *            the highest rate in bytes per second, 0 to read at full speed
+	 * @param minRate
+	 *            the rate the backup slows down to at most, in bytes per second
+	 * @param metrics
+	 *            where the current rate is published, or null
+	 */
+	public BackupThrottle(long maxRate, long minRate, long latencyThresholdMicros, LoadSignals signals,
+			Sleeper sleeper, BackupMetrics metrics) {
+		this.maxRate = Math.max(0, maxRate);
+		this.minRate = Math.max(1, Math.min(minRate, this.maxRate));
+		this.latencyThresholdMicros = latencyThresholdMicros;
+		this.signals = signals;
+		this.sleeper = sleeper;
+		this.metrics = metrics;
+		this.rate = this.maxRate;
+		this.tokens = this.maxRate;
+		this.lastRefillNanos = System.nanoTime();
+		this.lastAdjustNanos = lastRefillNanos;
+		publishRate();
+	}
+
+	/**
+	 * @return a throttle that never waits nor drops pages
+	 */
+	public static BackupThrottle unlimited() {
+		return new BackupThrottle(0, 0, 0, null, null, null);
+	}
+
+	public void setDropPageCache(boolean dropPageCache) {
+		this.dropPageCache = dropPageCache && PageCache.isAvailable();
+	}
+
+	/**
+	 * @return the current rate in bytes per second, 0 if reads are not paced
+	 */
+	public synchronized long getRate() {
+		return (long) rate;
+	}
+
+	/**
+	 * Waits until the bytes can be read. Bytes asked for beyond the tokens available are borrowed from the next
+	 * refills, so concurrent readers queue up rather than race for the tokens.
+	 */
+	public void acquire(long bytes) throws IOException {
+		if (maxRate == 0 || bytes <= 0) {
+			return;
+		}
+		long waitMs;
+		synchronized (this) {
+			long now = System.nanoTime();
+			if (signals != null && now - lastAdjustNanos >= ADJUST_INTERVAL_MS * 1000000L) {
+				lastAdjustNanos = now;
+				adjust(signals.latency99thMicros(), signals.delayedFsyncs());
+			}
+			tokens = Math.min(rate, tokens + rate * (now - lastRefillNanos) / 1e9);
+			lastRefillNanos = now;
+			tokens -= bytes;
+			waitMs = tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1000 / rate);
+		}
+		if (waitMs > 0) {
+			try {
+				sleeper.sleep(waitMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while throttling the backup");
+			}
+		}
+	}
+
+	/**
+	 * Adapts the rate to the load of the node.
+	 */
+	public synchronized void adjust(long latency99thMicros, long delayedFsyncs) {
+		if (maxRate == 0) {
+			return;
+		}
+		boolean fsyncDelayed = lastDelayedFsyncs >= 0 && delayedFsyncs > lastDelayedFsyncs;
+		if (delayedFsyncs >= 0) {
+			lastDelayedFsyncs = delayedFsyncs;
+		}
+		double previous = rate;
+		if (fsyncDelayed || (latencyThresholdMicros > 0 && latency99thMicros > latencyThresholdMicros)) {
+			rate = Math.max(minRate, rate / 2);
+			if (rate < previous) {
+				logger.info(String.format("Slowing the backup down to %d KB/s: latency_99th %d us, %s",
+						(long) rate / 1024, latency99thMicros, fsyncDelayed ? "AOF fsync delayed" : "no delayed fsync"));
+			}
+		} else {
+			rate = Math.min(maxRate, rate + maxRate / 10.0);
+		}
+		// The bucket holds at most a second of reads at the new rate.
+		tokens = Math.min(tokens, rate);
+		publishRate();
+	}
+
+	/**
+	 * Drops the given range of a file from the page cache once the backup is done reading it, if enabled.
+	 */
+	public void readDone(FileDescriptor fd, long offset, long length) {
+		if (dropPageCache && fd != null) {
+			PageCache.drop(fd, offset, length);
+		}
+	}
+
+	private void publishRate() {
+		if (metrics != null) {
+			metrics.throttleRate((long) rate);
+		}
+	}
+}
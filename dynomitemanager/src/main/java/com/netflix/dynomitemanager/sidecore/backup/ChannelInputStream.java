@@ -0,0 +1,77 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a range of a file with positional reads, which leave the position of the file alone and can be issued by
+ * several threads at once. Reads are paced by a {@link BackupThrottle}, which is told about the bytes read once the
+ * range is read or the stream is closed.
+ */
+class ChannelInputStream extends InputStream {
+	private final RandomAccessFile file;
+	private final BackupThrottle throttle;
+	private final long offset;
+	private long position;
+	private final long end;
+	private boolean done;
+
+	ChannelInputStream(RandomAccessFile file, long offset, long length, BackupThrottle throttle) {
+		this.file = file;
+		this.throttle = throttle;
+		this.offset = offset;
+		this.position = offset;
+		this.end = offset + length;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (position >= end) {
+			readDone();
+			return -1;
+		}
+		int count = (int) Math.min(len, end - position);
+		throttle.acquire(count);
+		int n = file.getChannel().read(ByteBuffer.wrap(b, off, count), position);
+		if (n > 0) {
+			position += n;
+		}
+		if (position >= end) {
+			// Readers that stop at the expected length never see the end of the stream.
+			readDone();
+		}
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		readDone();
+	}
+
+	private void readDone() throws IOException {
+		if (!done && position > offset) {
+			done = true;
+			throttle.readDone(file.getFD(), offset, position - offset);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reads a chunked backup as the file it was taken from, one chunk after the other, without writing it to disk. The
+ * CRC32 of each chunk is checked once the chunk is read.
+ */
+public class ChunkedBackupInputStream extends InputStream {
+	private final ObjectStore store;
+	private final String bucket;
+	private final String prefix;
+	private final BackupManifest manifest;
+
+	private int next;
+	private BackupManifest.Chunk chunk;
+	private InputStream stored;
+	private CheckedInputStream current;
+	private long remaining;
+
+	public ChunkedBackupInputStream(ObjectStore store, String bucket, String prefix, BackupManifest manifest) {
+		this.store = store;
+		this.bucket = bucket;
+		this.prefix = prefix;
+		this.manifest = manifest;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (current == null || remaining == 0) {
+			if (current != null) {
+				finishChunk();
+			}
+			if (next == manifest.getChunks().size()) {
+				return -1;
+			}
+			openChunk(manifest.getChunks().get(next++));
+		}
+		int n = current.read(b, off, (int) Math.min(len, remaining));
+		if (n < 0) {
+			throw new IOException("Chunk " + chunk.index + " of " + prefix + " is " + remaining + " bytes short");
+		}
+		remaining -= n;
+		return n;
+	}
+
+	private void openChunk(BackupManifest.Chunk chunk) throws IOException {
+		stored = store.get(bucket, BackupManifest.chunkKey(prefix, chunk.index));
+		if (stored == null) {
+			throw new FileNotFoundException("Chunk " + chunk.index + " of " + prefix + " is missing");
+		}
+		this.chunk = chunk;
+		current = new CheckedInputStream(manifest.getCodec().decompress(stored), new CRC32());
+		remaining = chunk.rawLength;
+	}
+
+	private void finishChunk() throws IOException {
+		long crc = current.getChecksum().getValue();
+		IOUtils.closeQuietly(current);
+		IOUtils.closeQuietly(stored);
+		current = null;
+		stored = null;
+		if (crc != chunk.crc32) {
+			throw new IOException("CRC mismatch in decompressed chunk " + chunk.index + ": expected " + chunk.crc32
+					+ ", got " + crc);
+		}
+	}
+
+	@Override
+	public void close() {
+		IOUtils.closeQuietly(current);
+		IOUtils.closeQuietly(stored);
+		current = null;
+		stored = null;
+	}
+}
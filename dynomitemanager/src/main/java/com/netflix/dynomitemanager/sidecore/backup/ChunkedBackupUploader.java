@@ -0,0 +1,546 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.dynomitemanager.sidecore.scheduler.NamedThreadPoolExecutor;
+import com.netflix.dynomitemanager.sidecore.utils.BoundedExponentialRetryCallable;
+
+/**
+ * Uploads a file as a chunked backup, described by a {@link BackupManifest}.
+ *
+ * Chunks are read, compressed and uploaded by a fixed pool of threads, so compression runs in parallel and at most one
+ * compressed chunk per thread is held in heap. Uncompressed chunks are streamed from the file. Each chunk is retried
+ * on its own with exponential backoff.
+ *
+ * Every time the run of uploaded chunks starting at the first one grows, the partial manifest is rewritten. When an
+ * upload fails, the partial manifest stays in place and the next upload to the same prefix skips the chunks it lists,
+ * after checking their CRC32 against the file. An append only file that only grew since the failed attempt keeps its
+ * committed chunks; a rewritten file starts over.
+ *
+ * A complete backup of an append only file can be extended with the bytes appended since it was taken, see
+ * {@link #append}. The file is read through a single channel during an upload, so a rewrite that replaces the file
+ * halfway never mixes the old and the new file in one backup.
+ */
+public class ChunkedBackupUploader {
+	private static final Logger logger = LoggerFactory.getLogger(ChunkedBackupUploader.class);
+
+	private static final int READ_BUFFER_SIZE = 256 * 1024;
+	private static final long MIN_RETRY_SLEEP_MS = 1000;
+	private static final long MAX_RETRY_SLEEP_MS = 30000;
+
+	private final ObjectStore store;
+	private final BackupMetrics metrics;
+	private final int threads;
+	private final int retries;
+	private BackupThrottle throttle = BackupThrottle.unlimited();
+
+	public enum AppendResult {
+		/** New chunks were added to the backup. */
+		APPENDED,
+		/** Nothing was appended to the file since the last chunk. */
+		UNCHANGED,
+		/** The file no longer starts with the bytes of the backup, it has been rewritten. */
+		REWRITTEN,
+		/** Some chunks could not be uploaded, the manifest lists those that were. */
+		FAILED
+	}
+
+	public ChunkedBackupUploader(ObjectStore store, BackupMetrics metrics, int threads, int retries) {
+		this.store = store;
+		this.metrics = metrics;
+		this.threads = Math.max(1, threads);
+		this.retries = Math.max(0, retries);
+	}
+
+	/**
+	 * Paces the reads of files, which are otherwise read at full speed. Streams are not paced.
+	 */
+	public void setThrottle(BackupThrottle throttle) {
+		this.throttle = throttle;
+	}
+
+	/**
+	 * Exposes the internal buffer, so a chunk can be uploaded without copying it.
+	 */
+	private static class ChunkBuffer extends ByteArrayOutputStream {
+		ChunkBuffer(int size) {
+			super(size);
+		}
+
+		InputStream newInputStream() {
+			return new ByteArrayInputStream(buf, 0, count);
+		}
+
+		String md5() {
+			MessageDigest md5 = PartIndex.newMD5();
+			md5.update(buf, 0, count);
+			return PartIndex.toHex(md5.digest());
+		}
+	}
+
+	/**
+	 * Uploads the first <code>length</code> bytes of the file under the prefix, which should end with a '/'.
+	 *
+	 * @return the manifest of the backup, or null if the upload failed and can be resumed
+	 */
+	public BackupManifest upload(String bucket, String prefix, File file, long length,
+			BackupManifest.FileType fileType, long backupTime, CompressionCodec codec, int level, long chunkSize)
+			throws IOException {
+		RandomAccessFile source = new RandomAccessFile(file, "r");
+		try {
+			return upload(bucket, prefix, source, length, fileType, backupTime, codec, level, chunkSize);
+		} finally {
+			source.close();
+		}
+	}
+
+	private BackupManifest upload(String bucket, String prefix, RandomAccessFile source, long length,
+			BackupManifest.FileType fileType, long backupTime, CompressionCodec codec, int level, long chunkSize)
+			throws IOException {
+		BackupManifest manifest = new BackupManifest(fileType, codec, Math.max(1, chunkSize), backupTime);
+		for (BackupManifest.Chunk chunk : committedChunks(bucket, prefix, source, length, manifest)) {
+			manifest.addChunk(chunk);
+		}
+		int first = manifest.getChunks().size();
+		if (first > 0) {
+			logger.info("Resuming backup to " + prefix + ", " + first + " chunks (" + manifest.getRawLength()
+					+ " bytes) already uploaded");
+		}
+
+		long start = System.currentTimeMillis();
+		if (!uploadChunks(bucket, prefix, prefix + BackupManifest.PARTIAL_MANIFEST, manifest,
+				fileChunks(bucket, prefix, source, length, level, manifest, start))) {
+			return null;
+		}
+		return complete(bucket, prefix, manifest, start);
+	}
+
+	/**
+	 * Uploads the stream under the prefix, which should end with a '/', until the stream ends. Unlike a file, a
+	 * stream cannot be read again: a failed upload cannot be resumed and has to start over from a new stream.
+	 *
+	 * The stream is read and compressed by the calling thread, so at most two compressed chunks per thread are held
+	 * in heap while they are uploaded.
+	 *
+	 * @return the manifest of the backup, or null if the upload failed
+	 */
+	public BackupManifest upload(String bucket, String prefix, InputStream in, BackupManifest.FileType fileType,
+			long backupTime, CompressionCodec codec, int level, long chunkSize) {
+		BackupManifest manifest = new BackupManifest(fileType, codec, Math.max(1, chunkSize), backupTime);
+		long start = System.currentTimeMillis();
+		if (!uploadChunks(bucket, prefix, prefix + BackupManifest.PARTIAL_MANIFEST, manifest,
+				streamChunks(bucket, prefix, in, level, manifest, start))) {
+			return null;
+		}
+		return complete(bucket, prefix, manifest, start);
+	}
+
+	/**
+	 * Writes the manifest of a backup whose chunks are all uploaded, which makes the backup visible.
+	 *
+	 * @return the manifest, or null if it could not be written and the upload can be resumed
+	 */
+	private BackupManifest complete(String bucket, String prefix, BackupManifest manifest, long start) {
+		manifest.setBaseChunks(manifest.getChunks().size());
+		manifest.setCreatedAt(System.currentTimeMillis());
+		try {
+			putManifest(bucket, prefix + BackupManifest.MANIFEST, manifest);
+		} catch (IOException e) {
+			logger.error("Could not write the manifest of " + prefix + ", the upload can be resumed: "
+					+ e.getMessage());
+			return null;
+		}
+		try {
+			store.delete(bucket, prefix + BackupManifest.PARTIAL_MANIFEST);
+		} catch (IOException e) {
+			// A leftover partial manifest is ignored once the backup is complete.
+			logger.warn("Could not delete the partial manifest of " + prefix + ": " + e.getMessage());
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		metrics.uploadFinished(manifest.getStoredLength(), elapsed);
+		logger.info(String.format("Uploaded %d bytes (%d stored) in %d chunks to %s/%s in %d ms",
+				manifest.getRawLength(), manifest.getStoredLength(), manifest.getChunks().size(), bucket, prefix,
+				elapsed));
+		return manifest;
+	}
+
+	/**
+	 * Extends the complete backup under the prefix with the bytes appended to the file since its last chunk. The
+	 * manifest is rewritten every time the run of uploaded chunks grows, so a failed append keeps what it uploaded.
+	 */
+	public AppendResult append(String bucket, String prefix, BackupManifest manifest, File file, int level)
+			throws IOException {
+		RandomAccessFile source = new RandomAccessFile(file, "r");
+		try {
+			long length = source.length();
+			if (!continues(source, length, manifest)) {
+				return AppendResult.REWRITTEN;
+			}
+			if (length == manifest.getRawLength()) {
+				return AppendResult.UNCHANGED;
+			}
+
+			int first = manifest.getChunks().size();
+			long appended = length - manifest.getRawLength();
+			long start = System.currentTimeMillis();
+			if (!uploadChunks(bucket, prefix, prefix + BackupManifest.MANIFEST, manifest,
+					fileChunks(bucket, prefix, source, length, level, manifest, start))) {
+				return AppendResult.FAILED;
+			}
+			putManifest(bucket, prefix + BackupManifest.MANIFEST, manifest);
+			logger.info(String.format("Appended %d bytes in %d chunks to %s/%s in %d ms", appended,
+					manifest.getChunks().size() - first, bucket, prefix, System.currentTimeMillis() - start));
+			return AppendResult.APPENDED;
+		} finally {
+			source.close();
+		}
+	}
+
+	/**
+	 * @return true if the file still holds the bytes of the backup, checked on its last chunk: a rewrite starts the
+	 *         file over, an append only file that only grew keeps them
+	 */
+	private boolean continues(RandomAccessFile source, long length, BackupManifest manifest) throws IOException {
+		if (length < manifest.getRawLength()) {
+			return false;
+		}
+		if (manifest.getChunks().isEmpty()) {
+			return true;
+		}
+		BackupManifest.Chunk last = manifest.getChunks().get(manifest.getChunks().size() - 1);
+		return crc32(new ChannelInputStream(source, last.offset, last.rawLength, throttle),
+				last.rawLength) == last.crc32;
+	}
+
+	/**
+	 * @return the CRC32 of the next <code>length</code> bytes of the stream, or -1 if it ends before
+	 */
+	private static long crc32(InputStream in, long length) throws IOException {
+		byte[] buffer = new byte[READ_BUFFER_SIZE];
+		CRC32 crc = new CRC32();
+		long remaining = length;
+		while (remaining > 0) {
+			int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if (n < 0) {
+				return -1;
+			}
+			crc.update(buffer, 0, n);
+			remaining -= n;
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Produces the uploads of the chunks of a backup, in order.
+	 */
+	private interface ChunkSource {
+		/**
+		 * @return the upload of the chunk with the given index, or null once there is nothing left to upload
+		 */
+		Callable<BackupManifest.Chunk> next(int index) throws IOException;
+	}
+
+	/**
+	 * @return the chunks of the file from the end of the manifest up to <code>length</code>, of at most the chunk
+	 *         size of the manifest
+	 */
+	private ChunkSource fileChunks(final String bucket, final String prefix, final RandomAccessFile source,
+			final long length, final int level, final BackupManifest manifest, final long time) {
+		return new ChunkSource() {
+			private long offset = manifest.getRawLength();
+
+			@Override
+			public Callable<BackupManifest.Chunk> next(int index) {
+				if (offset >= length) {
+					return null;
+				}
+				long rawLength = Math.min(manifest.getChunkSize(), length - offset);
+				Callable<BackupManifest.Chunk> upload = newChunkUpload(bucket, prefix, source, index, offset,
+						rawLength, time, level, manifest.getCodec());
+				offset += rawLength;
+				return upload;
+			}
+		};
+	}
+
+	/**
+	 * @return the chunks of the stream until its end. Each chunk is read and compressed by the calling thread, only
+	 *         its upload runs in the pool.
+	 */
+	private ChunkSource streamChunks(final String bucket, final String prefix, final InputStream in, final int level,
+			final BackupManifest manifest, final long time) {
+		return new ChunkSource() {
+			private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+			private long offset = 0;
+
+			@Override
+			public Callable<BackupManifest.Chunk> next(final int index) throws IOException {
+				final ChunkBuffer buffer = new ChunkBuffer(
+						(int) Math.min(manifest.getChunkSize(), READ_BUFFER_SIZE * 4));
+				CRC32 crc = new CRC32();
+				OutputStream compressor = manifest.getCodec().compress(buffer, level);
+				final long rawLength = IOUtils.copyLarge(new CheckedInputStream(in, crc), compressor, 0,
+						manifest.getChunkSize(), readBuffer);
+				compressor.close();
+				if (rawLength == 0) {
+					return null;
+				}
+				final long chunkOffset = offset;
+				final long crc32 = crc.getValue();
+				offset += rawLength;
+				return new Callable<BackupManifest.Chunk>() {
+					@Override
+					public BackupManifest.Chunk call() throws Exception {
+						return putBuffer(bucket, BackupManifest.chunkKey(prefix, index), index, chunkOffset,
+								rawLength, crc32, time, buffer);
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Uploads the chunks of the source after those of the manifest. The manifest is written to
+	 * <code>progressKey</code> every time it grows.
+	 *
+	 * @return true if all the chunks were uploaded
+	 */
+	private boolean uploadChunks(String bucket, String prefix, String progressKey, BackupManifest manifest,
+			ChunkSource source) {
+		NamedThreadPoolExecutor executor = new NamedThreadPoolExecutor(threads, "S3BackupUpload",
+				new ArrayBlockingQueue<Runnable>(threads));
+		List<Future<BackupManifest.Chunk>> futures = new ArrayList<Future<BackupManifest.Chunk>>();
+		Map<Integer, BackupManifest.Chunk> pending = new HashMap<Integer, BackupManifest.Chunk>();
+		AtomicBoolean failed = new AtomicBoolean(false);
+		try {
+			Callable<BackupManifest.Chunk> upload;
+			for (int index = manifest.getChunks().size(); !failed.get()
+					&& (upload = source.next(index)) != null; index++) {
+				futures.add(executor.submit(committing(bucket, progressKey, manifest, pending, failed, upload)));
+			}
+			for (Future<BackupManifest.Chunk> future : futures) {
+				future.get();
+			}
+			return true;
+		} catch (IOException e) {
+			logger.error("Backup to " + prefix + " failed reading its source, " + manifest.getChunks().size()
+					+ " chunks are committed: " + e.getMessage());
+		} catch (ExecutionException e) {
+			logger.error("Backup to " + prefix + " failed after a chunk failed, " + manifest.getChunks().size()
+					+ " chunks are committed", e.getCause());
+		} catch (InterruptedException e) {
+			logger.error("Backup to " + prefix + " interrupted, " + manifest.getChunks().size()
+					+ " chunks are committed");
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+			for (Future<BackupManifest.Chunk> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the chunks of an earlier attempt that can be kept: those listed by a partial manifest with the same
+	 *         format, up to the first one whose bytes changed in the file
+	 */
+	private List<BackupManifest.Chunk> committedChunks(String bucket, String prefix, RandomAccessFile source,
+			long length, BackupManifest manifest) throws IOException {
+		List<BackupManifest.Chunk> chunks = new ArrayList<BackupManifest.Chunk>();
+		BackupManifest partial = readManifest(store, bucket, prefix + BackupManifest.PARTIAL_MANIFEST);
+		if (partial == null || partial.getFileType() != manifest.getFileType()
+				|| partial.getCodec() != manifest.getCodec() || partial.getChunkSize() != manifest.getChunkSize()) {
+			return chunks;
+		}
+
+		InputStream in = new ChannelInputStream(source, 0, length, throttle);
+		for (BackupManifest.Chunk chunk : partial.getChunks()) {
+			if (chunk.offset + chunk.rawLength > length || crc32(in, chunk.rawLength) != chunk.crc32) {
+				break;
+			}
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	/**
+	 * @return the manifest stored under the key, or null if there is none or it cannot be read
+	 */
+	static BackupManifest readManifest(ObjectStore store, String bucket, String key) {
+		InputStream in = null;
+		try {
+			in = store.get(bucket, key);
+			return in == null ? null : BackupManifest.parse(in);
+		} catch (IOException e) {
+			logger.warn("Could not read backup manifest " + key + ": " + e.getMessage());
+			return null;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Rewrites the manifest of a complete backup, after details about the backup were added to it.
+	 */
+	public void updateManifest(String bucket, String prefix, BackupManifest manifest) throws IOException {
+		putManifest(bucket, prefix + BackupManifest.MANIFEST, manifest);
+	}
+
+	private void putManifest(String bucket, String key, BackupManifest manifest) throws IOException {
+		byte[] bytes = manifest.toJson().getBytes(StandardCharsets.UTF_8);
+		store.put(bucket, key, new ByteArrayInputStream(bytes), bytes.length);
+	}
+
+	/**
+	 * Records an uploaded chunk and extends the committed run of chunks if it is the next one.
+	 */
+	private void commit(String bucket, String progressKey, BackupManifest manifest,
+			Map<Integer, BackupManifest.Chunk> pending, BackupManifest.Chunk chunk) {
+		synchronized (manifest) {
+			pending.put(chunk.index, chunk);
+			int committed = manifest.getChunks().size();
+			BackupManifest.Chunk next;
+			while ((next = pending.remove(manifest.getChunks().size())) != null) {
+				manifest.addChunk(next);
+			}
+			if (manifest.getChunks().size() > committed) {
+				try {
+					putManifest(bucket, progressKey, manifest);
+				} catch (Exception e) {
+					// Only costs a resumed upload some chunks, the final manifest is what matters.
+					logger.warn("Could not update the manifest " + progressKey + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wraps the upload of a chunk, so a successful one is committed and a failed one stops the upload.
+	 */
+	private Callable<BackupManifest.Chunk> committing(final String bucket, final String progressKey,
+			final BackupManifest manifest, final Map<Integer, BackupManifest.Chunk> pending,
+			final AtomicBoolean failed, final Callable<BackupManifest.Chunk> upload) {
+		return new Callable<BackupManifest.Chunk>() {
+			@Override
+			public BackupManifest.Chunk call() throws Exception {
+				try {
+					BackupManifest.Chunk chunk = upload.call();
+					commit(bucket, progressKey, manifest, pending, chunk);
+					return chunk;
+				} catch (Exception e) {
+					// Stop queueing more chunks, the upload is going to fail.
+					failed.set(true);
+					metrics.partFailed();
+					throw e;
+				}
+			}
+		};
+	}
+
+	private Callable<BackupManifest.Chunk> newChunkUpload(final String bucket, final String prefix,
+			final RandomAccessFile source, final int index, final long offset, final long rawLength, final long time,
+			final int level, final CompressionCodec codec) {
+		final String key = BackupManifest.chunkKey(prefix, index);
+		return new Callable<BackupManifest.Chunk>() {
+			@Override
+			public BackupManifest.Chunk call() throws Exception {
+				return codec == CompressionCodec.NONE ? uploadRaw() : uploadCompressed();
+			}
+
+			private BackupManifest.Chunk uploadRaw() throws Exception {
+				return new BoundedExponentialRetryCallable<BackupManifest.Chunk>(MIN_RETRY_SLEEP_MS,
+						MAX_RETRY_SLEEP_MS, retries) {
+					@Override
+					public BackupManifest.Chunk retriableCall() throws Exception {
+						MessageDigest md5 = PartIndex.newMD5();
+						CRC32 crc = new CRC32();
+						put(bucket, key, index, new CheckedInputStream(new DigestInputStream(
+								new ChannelInputStream(source, offset, rawLength, throttle), md5), crc), rawLength);
+						return new BackupManifest.Chunk(index, offset, rawLength, rawLength,
+								PartIndex.toHex(md5.digest()), crc.getValue(), time);
+					}
+				}.call();
+			}
+
+			private BackupManifest.Chunk uploadCompressed() throws Exception {
+				ChunkBuffer buffer = new ChunkBuffer(
+						(int) Math.min(rawLength + rawLength / 8 + 1024, Integer.MAX_VALUE));
+				CRC32 crc = new CRC32();
+				InputStream in = new CheckedInputStream(
+						new ChannelInputStream(source, offset, rawLength, throttle), crc);
+				OutputStream compressor = codec.compress(buffer, level);
+				if (IOUtils.copyLarge(in, compressor, new byte[READ_BUFFER_SIZE]) != rawLength) {
+					throw new IOException("File ended before chunk " + index + " at " + offset);
+				}
+				compressor.close();
+				return putBuffer(bucket, key, index, offset, rawLength, crc.getValue(), time, buffer);
+			}
+		};
+	}
+
+	/**
+	 * Uploads a chunk already stored in a buffer, with retries.
+	 */
+	private BackupManifest.Chunk putBuffer(final String bucket, final String key, final int index, final long offset,
+			final long rawLength, final long crc32, final long time, final ChunkBuffer buffer) throws Exception {
+		final String md5 = buffer.md5();
+		return new BoundedExponentialRetryCallable<BackupManifest.Chunk>(MIN_RETRY_SLEEP_MS, MAX_RETRY_SLEEP_MS,
+				retries) {
+			@Override
+			public BackupManifest.Chunk retriableCall() throws Exception {
+				put(bucket, key, index, buffer.newInputStream(), buffer.size());
+				return new BackupManifest.Chunk(index, offset, rawLength, buffer.size(), md5, crc32, time);
+			}
+		}.call();
+	}
+
+	private void put(String bucket, String key, int index, InputStream in, long size) throws Exception {
+		long chunkStart = System.currentTimeMillis();
+		metrics.partStarted(size);
+		try {
+			store.put(bucket, key, in, size);
+			metrics.partFinished(size, System.currentTimeMillis() - chunkStart);
+		} catch (Exception e) {
+			metrics.partAttemptFailed(size);
+			logger.warn("Upload of chunk " + index + " failed: " + e.getMessage());
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.ning.compress.lzf.LZFInputStream;
+import com.ning.compress.lzf.LZFOutputStream;
+
+/**
+ * Compression applied to backups.
+ *
+ * Every codec produces self-delimiting output: the concatenation of several independently compressed streams
+ * decompresses to the concatenation of their inputs. Backups rely on this to compress each multipart part on its own,
+ * so the compressed size of a part is known before it is uploaded and restores can still decompress the whole object
+ * as one stream.
+ */
+public enum CompressionCodec {
+	NONE {
+		@Override
+		public OutputStream compress(OutputStream out, int level) {
+			return new FilterOutputStream(out) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+				}
+			};
+		}
+
+		@Override
+		public InputStream decompress(InputStream in) {
+			return in;
+		}
+	},
+
+	/**
+	 * Fastest codec, the level is ignored.
+	 */
+	SNAPPY {
+		@Override
+		public OutputStream compress(OutputStream out, int level) {
+			return new SnappyBlockOutputStream(out);
+		}
+
+		@Override
+		public InputStream decompress(InputStream in) {
+			return new SnappyBlockInputStream(in);
+		}
+	},
+
+	/**
+	 * Similar to Snappy, the level is ignored.
+	 */
+	LZF {
+		@Override
+		public OutputStream compress(OutputStream out, int level) {
+			return new LZFOutputStream(out);
+		}
+
+		@Override
+		public InputStream decompress(InputStream in) throws IOException {
+			return new LZFInputStream(in);
+		}
+	},
+
+	/**
+	 * Slowest codec with the best ratio. The level goes from 1 (fastest) to 9 (smallest), -1 uses the zlib default.
+	 */
+	GZIP {
+		@Override
+		public OutputStream compress(OutputStream out, final int level) throws IOException {
+			return new GZIPOutputStream(out, 64 * 1024) {
+				{
+					def.setLevel(level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION
+							? Deflater.DEFAULT_COMPRESSION : level);
+				}
+			};
+		}
+
+		@Override
+		public InputStream decompress(InputStream in) throws IOException {
+			return new GZIPInputStream(in, 64 * 1024);
+		}
+	};
+
+	/**
+	 * Wraps an output stream. Closing the returned stream finishes the compressed stream and closes the wrapped one.
+	 */
+	public abstract OutputStream compress(OutputStream out, int level) throws IOException;
+
+	public abstract InputStream decompress(InputStream in) throws IOException;
+
+	/**
+	 * @return the codec with the given (case insensitive) name, NONE for null or empty names
+	 * @throws IllegalArgumentException
+	 *             for unknown names
+	 */
+	public static CompressionCodec fromName(String name) {
+		if (name == null || name.isEmpty()) {
+			return NONE;
+		}
+		return valueOf(name.trim().toUpperCase());
+	}
+}
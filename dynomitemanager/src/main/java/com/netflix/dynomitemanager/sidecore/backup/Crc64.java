@@ -0,0 +1,45 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+/**
+ * The CRC-64 variant Redis stores at the end of RDB files (Jones polynomial, reflected, no final xor).
+ */
+public final class Crc64 {
+	private static final long POLY = 0x95ac9329ac4bc9b5L;
+	private static final long[] TABLE = new long[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			long crc = i;
+			for (int bit = 0; bit < 8; bit++) {
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLY : crc >>> 1;
+			}
+			TABLE[i] = crc;
+		}
+	}
+
+	private Crc64() {
+	}
+
+	public static long update(long crc, byte[] b, int off, int len) {
+		for (int i = off; i < off + len; i++) {
+			crc = TABLE[(int) (crc ^ b[i]) & 0xff] ^ (crc >>> 8);
+		}
+		return crc;
+	}
+
+	public static long update(long crc, int b) {
+		return TABLE[(int) (crc ^ b) & 0xff] ^ (crc >>> 8);
+	}
+}
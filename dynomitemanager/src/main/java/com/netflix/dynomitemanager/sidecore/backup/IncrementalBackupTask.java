@@ -0,0 +1,79 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.File;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.InstanceState;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.sidecore.scheduler.SimpleTimer;
+import com.netflix.dynomitemanager.sidecore.scheduler.Task;
+import com.netflix.dynomitemanager.sidecore.scheduler.TaskTimer;
+
+/**
+ * Task uploading the data appended to the AOF since the last backup, so the data can be restored as it was at the time
+ * of any run and not only at the time of the daily snapshot.
+ */
+@Singleton
+public class IncrementalBackupTask extends Task {
+
+	public static final String TaskName = "IncrementalBackupTask";
+	private static final Logger logger = LoggerFactory.getLogger(IncrementalBackupTask.class);
+	private final InstanceState state;
+	private final Backup backup;
+	private final BackupElection election;
+
+	@Inject
+	public IncrementalBackupTask(IConfiguration config, InstanceState state, Backup backup, BackupElection election) {
+		super(config);
+		this.state = state;
+		this.backup = backup;
+		this.election = election;
+	}
+
+	@Override
+	public void execute() throws Exception {
+		if (!config.isRedisAofEnabled()) {
+			return;
+		}
+		if (state.isBackingup() || state.isRestoring() || state.isBootstrapping() || !state.isStorageAlive()) {
+			logger.info("Incremental backup skipped: snapshot, restore or bootstrap in progress, or storage down");
+			return;
+		}
+		File file = new File(config.getRedisDataDir() + "/appendonly.aof");
+		if (file.length() == 0) {
+			return;
+		}
+		if (config.isBackupDedupEnabled() && !election.isElected()) {
+			// The replica backing up the token extends its own backup
+			return;
+		}
+		if (!backup.uploadIncremental(file)) {
+			logger.warn("Incremental backup of " + file + " failed");
+		}
+	}
+
+	@Override
+	public String getName() {
+		return TaskName;
+	}
+
+	public static TaskTimer getTimer(IConfiguration config) {
+		return new SimpleTimer(TaskName, config.getBackupIncrementalIntervalMinutes() * 60L * 1000L);
+	}
+}
@@ -0,0 +1,361 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+
+/**
+ * Keeps backups in a local directory, which may be an NFS mount. Used to run the backup and restore pipeline without
+ * S3, to test or benchmark it, or to back up to a shared filesystem.
+ *
+ * A bucket is a directory under the root. The object with key <code>a/b</code> is stored as the file
+ * <code>a/b.obj</code> of its bucket, and its ETag and user metadata in <code>a/b.meta</code>. Objects are written to
+ * a temporary file, forced to disk and renamed into place, so readers never see a partial object. Parts of multipart
+ * uploads are kept under <code>.uploads</code> until the upload is completed or aborted.
+ */
+@Singleton
+public class LocalObjectStore implements ObjectStore {
+
+	private static final String DATA_SUFFIX = ".obj";
+	private static final String METADATA_SUFFIX = ".meta";
+	private static final String UPLOADS = ".uploads";
+	private static final String TMP = ".tmp";
+	private static final String ETAG = "etag";
+	private static final String USER_METADATA_PREFIX = "user.";
+	private static final String UPLOAD_BUCKET = "bucket";
+	private static final String UPLOAD_KEY = "key";
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	private final File root;
+
+	@Inject
+	public LocalObjectStore(IConfiguration config) {
+		this(new File(config.getBackupLocalStorePath()));
+	}
+
+	public LocalObjectStore(File root) {
+		this.root = root;
+	}
+
+	@Override
+	public boolean bucketExists(String bucket) {
+		return bucketDir(bucket).isDirectory();
+	}
+
+	@Override
+	public void put(String bucket, String key, InputStream in, long length) throws IOException {
+		MessageDigest md5 = PartIndex.newMD5();
+		File tmp = write(new DigestInputStream(new BoundedInputStream(in, length), md5), length);
+		Properties metadata = new Properties();
+		metadata.setProperty(ETAG, PartIndex.toHex(md5.digest()));
+		commit(bucket, key, tmp, metadata);
+	}
+
+	@Override
+	public InputStream get(String bucket, String key) throws IOException {
+		try {
+			return new FileInputStream(dataFile(bucket, key));
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public InputStream getRange(String bucket, String key, long offset, long length) throws IOException {
+		return getRange(dataFile(bucket, key), offset, length);
+	}
+
+	@Override
+	public ObjectInfo head(String bucket, String key) throws IOException {
+		File data = dataFile(bucket, key);
+		if (!data.isFile()) {
+			return null;
+		}
+		Properties metadata = readProperties(metadataFile(bucket, key));
+		Map<String, String> userMetadata = new HashMap<String, String>();
+		for (String name : metadata.stringPropertyNames()) {
+			if (name.startsWith(USER_METADATA_PREFIX)) {
+				userMetadata.put(name.substring(USER_METADATA_PREFIX.length()), metadata.getProperty(name));
+			}
+		}
+		return new ObjectInfo(data.length(), metadata.getProperty(ETAG), userMetadata, false);
+	}
+
+	@Override
+	public List<String> list(String bucket, String prefix) throws IOException {
+		List<String> keys = new ArrayList<String>();
+		int slash = prefix.lastIndexOf('/');
+		String dir = slash < 0 ? "" : prefix.substring(0, slash + 1);
+		collect(new File(bucketDir(bucket), dir), dir, prefix, keys);
+		Collections.sort(keys);
+		return keys;
+	}
+
+	private static void collect(File dir, String dirKey, String prefix, List<String> keys) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				collect(file, dirKey + file.getName() + "/", prefix, keys);
+			} else if (file.getName().endsWith(DATA_SUFFIX)) {
+				String key = dirKey + file.getName().substring(0, file.getName().length() - DATA_SUFFIX.length());
+				if (key.startsWith(prefix)) {
+					keys.add(key);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void delete(String bucket, String key) throws IOException {
+		File data = dataFile(bucket, key);
+		// The data goes first, an object without metadata has no ETag but is still consistent.
+		Files.deleteIfExists(data.toPath());
+		Files.deleteIfExists(metadataFile(bucket, key).toPath());
+		File bucketDir = bucketDir(bucket);
+		for (File dir = data.getParentFile(); !dir.equals(bucketDir) && dir.delete(); dir = dir.getParentFile()) {
+			// Removes the directories left empty.
+		}
+	}
+
+	@Override
+	public String initiateMultipartUpload(String bucket, String key, Map<String, String> userMetadata)
+			throws IOException {
+		checkKey(key);
+		String uploadId = UUID.randomUUID().toString();
+		File dir = uploadDir(uploadId);
+		if (!dir.mkdirs()) {
+			throw new IOException("Could not create " + dir);
+		}
+		Properties upload = new Properties();
+		upload.setProperty(UPLOAD_BUCKET, bucket);
+		upload.setProperty(UPLOAD_KEY, key);
+		for (Map.Entry<String, String> entry : userMetadata.entrySet()) {
+			upload.setProperty(USER_METADATA_PREFIX + entry.getKey(), entry.getValue());
+		}
+		writeProperties(upload, new File(dir, METADATA_SUFFIX));
+		return uploadId;
+	}
+
+	@Override
+	public String uploadPart(String bucket, String key, String uploadId, int partNumber, InputStream in, long length)
+			throws IOException {
+		File dir = uploadDir(uploadId);
+		if (!dir.isDirectory()) {
+			throw new IOException("No upload " + uploadId + " of " + key);
+		}
+		MessageDigest md5 = PartIndex.newMD5();
+		File tmp = write(new DigestInputStream(new BoundedInputStream(in, length), md5), length);
+		Files.move(tmp.toPath(), new File(dir, Integer.toString(partNumber)).toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return PartIndex.toHex(md5.digest());
+	}
+
+	@Override
+	public String uploadPart(String bucket, String key, String uploadId, int partNumber, File file, long offset,
+			long length) throws IOException {
+		InputStream in = getRange(file, offset, length);
+		try {
+			return uploadPart(bucket, key, uploadId, partNumber, in, length);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public void completeMultipartUpload(String bucket, String key, String uploadId, List<String> partETags)
+			throws IOException {
+		File dir = uploadDir(uploadId);
+		Properties metadata = readProperties(new File(dir, METADATA_SUFFIX));
+		if (!bucket.equals(metadata.getProperty(UPLOAD_BUCKET)) || !key.equals(metadata.getProperty(UPLOAD_KEY))) {
+			throw new IOException("No upload " + uploadId + " of " + key);
+		}
+
+		File tmp = newTmpFile();
+		MessageDigest composite = PartIndex.newMD5();
+		FileOutputStream file = new FileOutputStream(tmp);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			for (int i = 0; i < partETags.size(); i++) {
+				MessageDigest md5 = PartIndex.newMD5();
+				InputStream in = new FileInputStream(new File(dir, Integer.toString(i + 1)));
+				try {
+					IOUtils.copyLarge(in, new DigestOutputStream(file, md5), buffer);
+				} finally {
+					in.close();
+				}
+				byte[] digest = md5.digest();
+				if (!PartIndex.toHex(digest).equals(PartIndex.stripQuotes(partETags.get(i)))) {
+					throw new IOException("Part " + (i + 1) + " of " + key + " does not match ETag " + partETags.get(i));
+				}
+				composite.update(digest);
+			}
+			file.getChannel().force(true);
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		} finally {
+			file.close();
+		}
+		metadata.remove(UPLOAD_BUCKET);
+		metadata.remove(UPLOAD_KEY);
+		metadata.setProperty(ETAG, PartIndex.toHex(composite.digest()) + "-" + partETags.size());
+		commit(bucket, key, tmp, metadata);
+		deleteUpload(dir);
+	}
+
+	@Override
+	public void abortMultipartUpload(String bucket, String key, String uploadId) throws IOException {
+		deleteUpload(uploadDir(uploadId));
+	}
+
+	private static void deleteUpload(File dir) throws IOException {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				Files.deleteIfExists(file.toPath());
+			}
+		}
+		Files.deleteIfExists(dir.toPath());
+	}
+
+	private static InputStream getRange(File file, long offset, long length) throws IOException {
+		FileChannel channel = new FileInputStream(file).getChannel();
+		channel.position(offset);
+		return new BoundedInputStream(Channels.newInputStream(channel), length);
+	}
+
+	/**
+	 * Copies the stream to a new temporary file, forced to disk.
+	 */
+	private File write(InputStream in, long length) throws IOException {
+		File tmp = newTmpFile();
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			long copied = IOUtils.copyLarge(in, out, new byte[BUFFER_SIZE]);
+			if (copied != length) {
+				throw new IOException("Stream ended after " + copied + " of " + length + " bytes");
+			}
+			out.getChannel().force(true);
+		} catch (IOException e) {
+			out.close();
+			tmp.delete();
+			throw e;
+		}
+		out.close();
+		return tmp;
+	}
+
+	/**
+	 * Moves a complete object into place, after its metadata.
+	 */
+	private void commit(String bucket, String key, File tmp, Properties metadata) throws IOException {
+		File data = dataFile(bucket, key);
+		File parent = data.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+			tmp.delete();
+			throw new IOException("Could not create " + parent);
+		}
+		writeProperties(metadata, metadataFile(bucket, key));
+		Files.move(tmp.toPath(), data.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private File newTmpFile() throws IOException {
+		File dir = new File(root, TMP);
+		if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+			throw new IOException("Could not create " + dir);
+		}
+		return new File(dir, UUID.randomUUID().toString());
+	}
+
+	private void writeProperties(Properties properties, File file) throws IOException {
+		File tmp = newTmpFile();
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			properties.store(out, null);
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static Properties readProperties(File file) throws IOException {
+		Properties properties = new Properties();
+		InputStream in;
+		try {
+			in = new FileInputStream(file);
+		} catch (FileNotFoundException e) {
+			return properties;
+		}
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		return properties;
+	}
+
+	private File bucketDir(String bucket) {
+		return new File(root, bucket);
+	}
+
+	private File uploadDir(String uploadId) {
+		return new File(new File(root, UPLOADS), uploadId);
+	}
+
+	private File dataFile(String bucket, String key) throws IOException {
+		checkKey(key);
+		return new File(bucketDir(bucket), key + DATA_SUFFIX);
+	}
+
+	private File metadataFile(String bucket, String key) throws IOException {
+		checkKey(key);
+		return new File(bucketDir(bucket), key + METADATA_SUFFIX);
+	}
+
+	private static void checkKey(String key) throws IOException {
+		if (key.isEmpty() || key.startsWith("/") || key.endsWith("/") || ("/" + key + "/").contains("/../")
+				|| ("/" + key + "/").contains("/./")) {
+			throw new IOException("Invalid key " + key);
+		}
+	}
+}
@@ -0,0 +1,317 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Estimates where the memory of a Redis keyspace goes, from the keys of an RDB file: per key prefix, per type, and the
+ * biggest keys.
+ *
+ * The memory of a key is estimated from its serialized size plus the fixed overhead Redis has for each key and each
+ * expiry. Compact encodings take about as much memory as they take on disk, other encodings take more, so the
+ * estimates are best used to compare key families with each other.
+ *
+ * A key's prefix is made of its first segments, cut at any of the delimiters, with runs of digits replaced by
+ * <code>#</code> so <code>user:42</code> and <code>user:43</code> fall in the same family, as do <code>session42</code>
+ * and <code>session43</code>. Memory stays bounded whatever the number of keys: at most {@link #getMaxPrefixes()}
+ * prefixes are reported, the smallest are dropped when twice as many are tracked. A prefix first seen after a drop
+ * may have been dropped before, so it starts from the largest amount dropped: its bytes are an upper bound, at most its
+ * error above the actual amount. The biggest keys are kept in a heap of fixed size.
+ */
+public class MemoryAnalysis implements RdbParser.KeyListener {
+
+	/** dictEntry, the object header and the key string header. */
+	static final long KEY_OVERHEAD = 24 + 16 + 8;
+	/** The entry of the key in the expires dictionary. */
+	static final long EXPIRY_OVERHEAD = 24;
+
+	private static final String DIGITS = "#";
+
+	public static class Usage {
+		private final String name;
+		private long keys;
+		private long bytes;
+		private final long error;
+
+		Usage(String name, long error) {
+			this.name = name;
+			this.error = error;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getKeys() {
+			return keys;
+		}
+
+		/**
+		 * @return the estimated memory of the keys, in bytes
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return by how many bytes {@link #getBytes()} may overestimate the keys of the prefix
+		 */
+		public long getError() {
+			return error;
+		}
+	}
+
+	public static class BigKey {
+		private final String key;
+		private final String type;
+		private final long elements;
+		private final long bytes;
+
+		BigKey(String key, String type, long elements, long bytes) {
+			this.key = key;
+			this.type = type;
+			this.elements = elements;
+			this.bytes = bytes;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public long getElements() {
+			return elements;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+	}
+
+	private static final Comparator<Usage> BY_BYTES = new Comparator<Usage>() {
+		@Override
+		public int compare(Usage a, Usage b) {
+			return Long.compare(b.bytes, a.bytes);
+		}
+	};
+
+	private final String delimiters;
+	private final int depth;
+	private final int maxPrefixes;
+	private final int topKeys;
+	private final Map<String, Usage> prefixes = new HashMap<String, Usage>();
+	private final Map<String, Usage> types = new TreeMap<String, Usage>();
+	private final PriorityQueue<BigKey> bigKeys;
+	private long dropped;
+	private long keys;
+	private long bytes;
+	private RdbStats rdbStats;
+
+	/**
+	 * @param delimiters
+	 *            the characters that separate the segments of a key
+	 * @param depth
+	 *            how many segments make a prefix
+	 * @param maxPrefixes
+	 *            how many prefixes are reported
+	 * @param topKeys
+	 *            how many of the biggest keys are reported
+	 */
+	public MemoryAnalysis(String delimiters, int depth, int maxPrefixes, int topKeys) {
+		this.delimiters = delimiters;
+		this.depth = Math.max(depth, 1);
+		this.maxPrefixes = Math.max(maxPrefixes, 1);
+		this.topKeys = Math.max(topKeys, 1);
+		this.bigKeys = new PriorityQueue<BigKey>(this.topKeys, new Comparator<BigKey>() {
+			@Override
+			public int compare(BigKey a, BigKey b) {
+				return Long.compare(a.bytes, b.bytes);
+			}
+		});
+	}
+
+	@Override
+	public void key(byte[] key, String type, long elements, long size, long expireAt) {
+		long estimate = size + KEY_OVERHEAD + (expireAt < 0 ? 0 : EXPIRY_OVERHEAD);
+		keys++;
+		bytes += estimate;
+		add(types, type, estimate, 0);
+
+		String name = new String(key, StandardCharsets.UTF_8);
+		add(prefixes, prefix(name), estimate, dropped);
+		if (prefixes.size() >= 2 * maxPrefixes) {
+			prune();
+		}
+
+		if (bigKeys.size() < topKeys) {
+			bigKeys.add(new BigKey(name, type, elements, estimate));
+		} else if (bigKeys.peek().bytes < estimate) {
+			bigKeys.poll();
+			bigKeys.add(new BigKey(name, type, elements, estimate));
+		}
+	}
+
+	private static void add(Map<String, Usage> usages, String name, long estimate, long error) {
+		Usage usage = usages.get(name);
+		if (usage == null) {
+			usage = new Usage(name, error);
+			usage.bytes = error;
+			usages.put(name, usage);
+		}
+		usage.keys++;
+		usage.bytes += estimate;
+	}
+
+	/**
+	 * Keeps the biggest prefixes.
+	 */
+	private void prune() {
+		List<Usage> sorted = new ArrayList<Usage>(prefixes.values());
+		Collections.sort(sorted, BY_BYTES);
+		for (Usage usage : sorted.subList(maxPrefixes, sorted.size())) {
+			dropped = Math.max(dropped, usage.bytes);
+			prefixes.remove(usage.name);
+		}
+	}
+
+	String prefix(String key) {
+		StringBuilder prefix = new StringBuilder();
+		int segments = 0;
+		boolean digits = false;
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			if (delimiters.indexOf(c) >= 0 && ++segments == depth) {
+				break;
+			}
+			if (Character.isDigit(c)) {
+				if (!digits) {
+					prefix.append(DIGITS);
+				}
+				digits = true;
+			} else {
+				prefix.append(c);
+				digits = false;
+			}
+		}
+		return prefix.toString();
+	}
+
+	public long getKeys() {
+		return keys;
+	}
+
+	/**
+	 * @return the estimated memory of all keys, in bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the biggest prefixes, biggest first
+	 */
+	public List<Usage> getPrefixes() {
+		List<Usage> sorted = new ArrayList<Usage>(prefixes.values());
+		Collections.sort(sorted, BY_BYTES);
+		return sorted.subList(0, Math.min(maxPrefixes, sorted.size()));
+	}
+
+	public int getMaxPrefixes() {
+		return maxPrefixes;
+	}
+
+	/**
+	 * @return the usage of each type, biggest first
+	 */
+	public List<Usage> getTypes() {
+		List<Usage> sorted = new ArrayList<Usage>(types.values());
+		Collections.sort(sorted, BY_BYTES);
+		return sorted;
+	}
+
+	/**
+	 * @return the biggest keys, biggest first
+	 */
+	public List<BigKey> getBigKeys() {
+		List<BigKey> sorted = new ArrayList<BigKey>(bigKeys);
+		Collections.sort(sorted, new Comparator<BigKey>() {
+			@Override
+			public int compare(BigKey a, BigKey b) {
+				return Long.compare(b.bytes, a.bytes);
+			}
+		});
+		return sorted;
+	}
+
+	public RdbStats getRdbStats() {
+		return rdbStats;
+	}
+
+	public void setRdbStats(RdbStats rdbStats) {
+		this.rdbStats = rdbStats;
+	}
+
+	@SuppressWarnings("unchecked")
+	public JSONObject toJson() {
+		JSONObject json = new JSONObject();
+		json.put("keys", keys);
+		json.put("bytes", bytes);
+		json.put("types", toJson(getTypes()));
+		json.put("prefixes", toJson(getPrefixes()));
+		JSONArray bigKeysJson = new JSONArray();
+		for (BigKey bigKey : getBigKeys()) {
+			JSONObject bigKeyJson = new JSONObject();
+			bigKeyJson.put("key", bigKey.key);
+			bigKeyJson.put("type", bigKey.type);
+			bigKeyJson.put("elements", bigKey.elements);
+			bigKeyJson.put("bytes", bigKey.bytes);
+			bigKeysJson.add(bigKeyJson);
+		}
+		json.put("bigKeys", bigKeysJson);
+		if (rdbStats != null) {
+			json.put("rdbStats", rdbStats.toJson());
+		}
+		return json;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JSONArray toJson(List<Usage> usages) {
+		JSONArray array = new JSONArray();
+		for (Usage usage : usages) {
+			JSONObject usageJson = new JSONObject();
+			usageJson.put("name", usage.name);
+			usageJson.put("keys", usage.keys);
+			usageJson.put("bytes", usage.bytes);
+			if (usage.error > 0) {
+				usageJson.put("error", usage.error);
+			}
+			array.add(usageJson);
+		}
+		return array;
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.sidecore.storage.IStorageProxy;
+
+/**
+ * Analyzes the memory of the local Redis from its snapshot, see {@link MemoryAnalysis}. The snapshot is parsed as a
+ * stream from disk, so Redis serves no command for it, and the analysis takes a bounded amount of memory.
+ */
+@Singleton
+public class MemoryAnalyzer {
+
+	private static final Logger logger = LoggerFactory.getLogger(MemoryAnalyzer.class);
+
+	private final IConfiguration config;
+	private final IStorageProxy storageProxy;
+	private volatile MemoryAnalysis lastAnalysis;
+
+	@Inject
+	public MemoryAnalyzer(IConfiguration config, IStorageProxy storageProxy) {
+		this.config = config;
+		this.storageProxy = storageProxy;
+	}
+
+	/**
+	 * Analyzes the snapshot of the local Redis.
+	 *
+	 * @param snapshot
+	 *            whether to take a new snapshot first, or analyze the one on disk
+	 * @throws IOException
+	 *             if there is no snapshot or it cannot be parsed
+	 */
+	public synchronized MemoryAnalysis analyze(boolean snapshot) throws IOException {
+		if ("memcached".equals(config.getDatastoreEngine())) {
+			throw new IOException("Memory analysis needs a Redis snapshot");
+		}
+		if (snapshot && !storageProxy.takeSnapshot()) {
+			throw new IOException("Snapshot failed");
+		}
+		File file = new File(config.getRedisDataDir()
+				+ (config.isRedisAofEnabled() ? "/appendonly.aof" : "/nfredis.rdb"));
+		if (!file.exists() || !RdbParser.isRdb(file)) {
+			throw new IOException(file + " is not a snapshot, an append only file needs an RDB preamble");
+		}
+		long start = System.currentTimeMillis();
+		MemoryAnalysis analysis = analyze(file);
+		logger.info("Analyzed " + analysis.getKeys() + " keys of " + file + " in " + (System.currentTimeMillis() - start)
+				+ " ms, " + analysis.getBytes() + " bytes estimated");
+		lastAnalysis = analysis;
+		return analysis;
+	}
+
+	/**
+	 * Analyzes an RDB file, or the RDB preamble of an append only file, such as a restored backup.
+	 */
+	public MemoryAnalysis analyze(File file) throws IOException {
+		MemoryAnalysis analysis = new MemoryAnalysis(config.getMemoryAnalysisKeyDelimiters(),
+				config.getMemoryAnalysisPrefixDepth(), config.getMemoryAnalysisMaxPrefixes(),
+				config.getMemoryAnalysisTopKeys());
+		analysis.setRdbStats(RdbParser.parse(file, analysis));
+		return analysis;
+	}
+
+	/**
+	 * @return the last analysis of the local snapshot, or null if there was none
+	 */
+	public MemoryAnalysis getLastAnalysis() {
+		return lastAnalysis;
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.monitoring.RedisInfoMetricsTask;
+import com.netflix.dynomitemanager.monitoring.ServoMetricsTask;
+import com.netflix.servo.monitor.NumericMonitor;
+
+/**
+ * Reads the load of the node from the metrics last collected from Dynomite and Redis.
+ */
+@Singleton
+public class NodeLoadSignals implements BackupThrottle.LoadSignals {
+	private static final String LATENCY_99TH = "dynomite__latency_99th";
+	private static final String AOF_DELAYED_FSYNC = "Redis_Persistence_aof_delayed_fsync";
+
+	private final ServoMetricsTask servoMetrics;
+	private final RedisInfoMetricsTask redisMetrics;
+
+	@Inject
+	public NodeLoadSignals(ServoMetricsTask servoMetrics, RedisInfoMetricsTask redisMetrics) {
+		this.servoMetrics = servoMetrics;
+		this.redisMetrics = redisMetrics;
+	}
+
+	@Override
+	public long latency99thMicros() {
+		NumericMonitor<Number> latency = servoMetrics.getMetricsMap().get(LATENCY_99TH);
+		return latency == null || latency.getValue() == null ? 0 : latency.getValue().longValue();
+	}
+
+	@Override
+	public long delayedFsyncs() {
+		Long delayed = redisMetrics.getGaugeValue(AOF_DELAYED_FSYNC);
+		return delayed == null ? -1 : delayed;
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The operations backups and restores need from the store they are kept in: plain and multipart puts, whole and
+ * ranged gets, listings and deletes. Keys are grouped in buckets and separated by '/', as in S3.
+ *
+ * ETags follow the S3 conventions, which {@link PartIndex} relies on: the ETag of an object or part put in one request
+ * is the hex MD5 of its bytes, and the ETag of a multipart object is the MD5 of the concatenated binary MD5s of its
+ * parts, followed by '-' and the number of parts.
+ *
+ * Every failure to reach the store or to complete an operation is reported as an {@link IOException}.
+ */
+public interface ObjectStore {
+
+	public static class ObjectInfo {
+		public final long length;
+		public final String etag;
+		public final Map<String, String> userMetadata;
+		/** Objects encrypted with KMS keys do not have the MD5 of their parts as ETags. */
+		public final boolean kmsEncrypted;
+
+		public ObjectInfo(long length, String etag, Map<String, String> userMetadata, boolean kmsEncrypted) {
+			this.length = length;
+			this.etag = etag;
+			this.userMetadata = userMetadata == null ? Collections.<String, String>emptyMap() : userMetadata;
+			this.kmsEncrypted = kmsEncrypted;
+		}
+	}
+
+	boolean bucketExists(String bucket) throws IOException;
+
+	/**
+	 * Stores the first <code>length</code> bytes of the stream under the key, replacing any object with that key.
+	 */
+	void put(String bucket, String key, InputStream in, long length) throws IOException;
+
+	/**
+	 * @return the content of the object, to be closed by the caller, or null if there is no object with that key
+	 */
+	InputStream get(String bucket, String key) throws IOException;
+
+	/**
+	 * @return <code>length</code> bytes of the object starting at <code>offset</code>, to be closed by the caller
+	 */
+	InputStream getRange(String bucket, String key, long offset, long length) throws IOException;
+
+	/**
+	 * @return the length, ETag and user metadata of the object, or null if there is no object with that key
+	 */
+	ObjectInfo head(String bucket, String key) throws IOException;
+
+	/**
+	 * @return every key starting with the prefix
+	 */
+	List<String> list(String bucket, String prefix) throws IOException;
+
+	/**
+	 * Deletes the object, if it exists.
+	 */
+	void delete(String bucket, String key) throws IOException;
+
+	/**
+	 * Starts a multipart upload. The object appears only once the upload is completed.
+	 *
+	 * @return the id of the upload
+	 */
+	String initiateMultipartUpload(String bucket, String key, Map<String, String> userMetadata) throws IOException;
+
+	/**
+	 * Uploads a part from a stream. Uploading a part again replaces it.
+	 *
+	 * @return the ETag of the part
+	 */
+	String uploadPart(String bucket, String key, String uploadId, int partNumber, InputStream in, long length)
+			throws IOException;
+
+	/**
+	 * Uploads <code>length</code> bytes of the file starting at <code>offset</code> as a part.
+	 *
+	 * @return the ETag of the part
+	 */
+	String uploadPart(String bucket, String key, String uploadId, int partNumber, File file, long offset, long length)
+			throws IOException;
+
+	/**
+	 * Assembles the parts into the object.
+	 *
+	 * @param partETags
+	 *            the ETags of parts 1 to n, in order
+	 */
+	void completeMultipartUpload(String bucket, String key, String uploadId, List<String> partETags)
+			throws IOException;
+
+	void abortMultipartUpload(String bucket, String key, String uploadId) throws IOException;
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.FileDescriptor;
+import java.lang.reflect.Field;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+
+/**
+ * Drops file pages from the page cache with <code>posix_fadvise(POSIX_FADV_DONTNEED)</code>, or reads them ahead with
+ * <code>POSIX_FADV_WILLNEED</code>, through JNA. Where the call is not available, for example off Linux, advising the
+ * kernel does nothing.
+ */
+public final class PageCache {
+	private static final Logger logger = LoggerFactory.getLogger(PageCache.class);
+
+	private static final int POSIX_FADV_WILLNEED = 3;
+	private static final int POSIX_FADV_DONTNEED = 4;
+
+	private interface CLibrary extends Library {
+		int posix_fadvise(int fd, long offset, long len, int advice);
+	}
+
+	private static final CLibrary libc;
+	private static final Field fdField;
+
+	static {
+		CLibrary library = null;
+		Field field = null;
+		if (System.getProperty("os.name").toLowerCase().contains("linux")) {
+			try {
+				field = FileDescriptor.class.getDeclaredField("fd");
+				field.setAccessible(true);
+				library = (CLibrary) Native.loadLibrary("c", CLibrary.class);
+			} catch (Throwable t) {
+				logger.warn("posix_fadvise is not available, backups will not drop pages from the page cache: " + t);
+				library = null;
+			}
+		}
+		libc = library;
+		fdField = field;
+	}
+
+	private PageCache() {
+	}
+
+	public static boolean isAvailable() {
+		return libc != null;
+	}
+
+	/**
+	 * Advises the kernel that the range of the file will not be read again. Clean pages are dropped, dirty pages stay
+	 * until they are written back.
+	 */
+	static void drop(FileDescriptor fd, long offset, long length) {
+		advise(fd, offset, length, POSIX_FADV_DONTNEED);
+	}
+
+	/**
+	 * Advises the kernel that the range of the file will be read soon, so it starts reading it into the page cache.
+	 *
+	 * @return false if the advice could not be given
+	 */
+	public static boolean willNeed(FileDescriptor fd, long offset, long length) {
+		return advise(fd, offset, length, POSIX_FADV_WILLNEED);
+	}
+
+	private static boolean advise(FileDescriptor fd, long offset, long length, int advice) {
+		if (libc == null) {
+			return false;
+		}
+		try {
+			int result = libc.posix_fadvise(fdField.getInt(fd), offset, length, advice);
+			if (result != 0) {
+				logger.debug("posix_fadvise failed with error " + result);
+			}
+			return result == 0;
+		} catch (Throwable t) {
+			logger.debug("posix_fadvise failed: " + t);
+			return false;
+		}
+	}
+}
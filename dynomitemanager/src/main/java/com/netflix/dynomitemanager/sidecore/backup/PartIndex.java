@@ -0,0 +1,179 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lists the parts of a multipart backup object: their byte range in the object and the ETag S3 returned for each.
+ *
+ * The index is stored next to the object under {@link #SUFFIX}. Restores use it to download the object in ranges that
+ * line up with the uploaded parts, so the MD5 of each range can be checked against the ETag of its part. S3 computes
+ * the ETag of the whole object from the part ETags, which lets the restore detect an index that does not belong to
+ * the object it is reading.
+ */
+public class PartIndex {
+
+	public static final String SUFFIX = ".parts";
+
+	private static final String HEADER = "dm-part-index 1";
+
+	public static class Entry {
+		public final int number;
+		public final long offset;
+		public final long length;
+		public final String etag;
+
+		public Entry(int number, long offset, long length, String etag) {
+			this.number = number;
+			this.offset = offset;
+			this.length = length;
+			this.etag = etag;
+		}
+	}
+
+	private final List<Entry> entries = new ArrayList<Entry>();
+
+	public void add(int number, long offset, long length, String etag) {
+		entries.add(new Entry(number, offset, length, stripQuotes(etag)));
+	}
+
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * @return true if the entries are numbered from 1 and cover the first <code>length</code> bytes without gaps
+	 */
+	public boolean covers(long length) {
+		long offset = 0;
+		for (int i = 0; i < entries.size(); i++) {
+			Entry entry = entries.get(i);
+			if (entry.number != i + 1 || entry.offset != offset || entry.length <= 0) {
+				return false;
+			}
+			offset += entry.length;
+		}
+		return offset == length;
+	}
+
+	/**
+	 * @return true if every part ETag is a plain MD5, which is not the case for objects encrypted with KMS keys
+	 */
+	public boolean hasMD5ETags() {
+		for (Entry entry : entries) {
+			if (!isMD5(entry.etag)) {
+				return false;
+			}
+		}
+		return !entries.isEmpty();
+	}
+
+	/**
+	 * @return the ETag S3 gives to an object completed from these parts: the MD5 of the binary part MD5s, followed by
+	 *         the number of parts
+	 */
+	public String compositeETag() {
+		MessageDigest md5 = newMD5();
+		for (Entry entry : entries) {
+			md5.update(fromHex(entry.etag));
+		}
+		return toHex(md5.digest()) + "-" + entries.size();
+	}
+
+	public byte[] toBytes() {
+		StringBuilder sb = new StringBuilder(HEADER).append('\n');
+		for (Entry entry : entries) {
+			sb.append(entry.number).append(' ').append(entry.offset).append(' ').append(entry.length).append(' ')
+					.append(entry.etag).append('\n');
+		}
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	public static PartIndex parse(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+		if (!HEADER.equals(reader.readLine())) {
+			throw new IOException("Not a part index");
+		}
+		PartIndex index = new PartIndex();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.isEmpty()) {
+				continue;
+			}
+			String[] fields = line.split(" ");
+			if (fields.length != 4) {
+				throw new IOException("Malformed part index line: " + line);
+			}
+			try {
+				index.add(Integer.parseInt(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]);
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed part index line: " + line, e);
+			}
+		}
+		return index;
+	}
+
+	static String stripQuotes(String etag) {
+		if (etag != null && etag.length() >= 2 && etag.startsWith("\"") && etag.endsWith("\"")) {
+			return etag.substring(1, etag.length() - 1);
+		}
+		return etag;
+	}
+
+	static boolean isMD5(String etag) {
+		if (etag == null || etag.length() != 32) {
+			return false;
+		}
+		for (int i = 0; i < etag.length(); i++) {
+			if (Character.digit(etag.charAt(i), 16) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static MessageDigest newMD5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not available", e);
+		}
+	}
+
+	static String toHex(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+			hex[2 * i + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+		}
+		return new String(hex);
+	}
+
+	private static byte[] fromHex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4) | Character.digit(hex.charAt(2 * i + 1), 16));
+		}
+		return bytes;
+	}
+}
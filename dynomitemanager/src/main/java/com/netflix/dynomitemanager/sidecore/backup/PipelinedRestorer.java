@@ -0,0 +1,318 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.dynomitemanager.sidecore.utils.Sleeper;
+
+/**
+ * Restores the keys of an RDB into a running Redis with pipelined <code>RESTORE key ttl payload REPLACE</code>
+ * commands, fed by {@link RdbParser} as it reads the backup.
+ *
+ * Keys are sent in batches over a few connections. The parser waits when every connection is busy and the queue of
+ * batches is full, so reading the backup never runs ahead of Redis. A connection whose batch took longer than the
+ * latency threshold to be answered waits as long again before its next batch, leaving Redis time to serve clients.
+ *
+ * Keys keep their expiration time, passed with <code>ABSTTL</code> from Redis 5.0 on. Keys already expired are
+ * skipped. Existing keys are replaced, other keys are left alone, so a backup can be merged into a node holding part
+ * of the data.
+ */
+public class PipelinedRestorer implements RdbParser.DumpListener {
+	private static final Logger logger = LoggerFactory.getLogger(PipelinedRestorer.class);
+
+	private static final int TIMEOUT_MS = 60000;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int BATCH_KEYS = 256;
+	private static final int BATCH_BYTES = 1024 * 1024;
+	private static final byte[] RESTORE = "RESTORE".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] REPLACE = "REPLACE".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] ABSTTL = "ABSTTL".getBytes(StandardCharsets.US_ASCII);
+	private static final List<Entry> END = new ArrayList<Entry>();
+
+	private static class Entry {
+		final byte[] key;
+		final byte[] payload;
+		final long expireAt;
+
+		Entry(byte[] key, byte[] payload, long expireAt) {
+			this.key = key;
+			this.payload = payload;
+			this.expireAt = expireAt;
+		}
+	}
+
+	private final String host;
+	private final int port;
+	private final int connections;
+	private final long latencyThresholdMs;
+	private final Sleeper sleeper;
+	private final BlockingQueue<List<Entry>> batches;
+	private final AtomicLong restored = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final List<Future<Void>> workers = new ArrayList<Future<Void>>();
+	private ExecutorService executor;
+	private boolean absttl;
+
+	private List<Entry> batch = new ArrayList<Entry>();
+	private long batchBytes;
+
+	/**
+	 * @param connections
+	 *            how many batches are restored at once
+	 * @param latencyThresholdMs
+	 *            how long Redis may take to answer a batch before restores slow down, 0 to never slow down
+	 */
+	public PipelinedRestorer(String host, int port, int connections, long latencyThresholdMs, Sleeper sleeper) {
+		this.host = host;
+		this.port = port;
+		this.connections = Math.max(1, connections);
+		this.latencyThresholdMs = latencyThresholdMs;
+		this.sleeper = sleeper;
+		this.batches = new ArrayBlockingQueue<List<Entry>>(this.connections);
+	}
+
+	/**
+	 * Connects to Redis and starts the connections restoring batches.
+	 */
+	public void start() throws IOException {
+		List<Socket> sockets = new ArrayList<Socket>();
+		try {
+			for (int i = 0; i < connections; i++) {
+				sockets.add(connect());
+			}
+			absttl = majorVersion(sockets.get(0)) >= 5;
+		} catch (IOException e) {
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+			throw e;
+		}
+		logger.info("Restoring into " + host + ":" + port + " over " + connections + " connections"
+				+ (absttl ? "" : ", with relative TTLs"));
+		executor = Executors.newFixedThreadPool(connections);
+		for (final Socket socket : sockets) {
+			workers.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					try {
+						restoreBatches(socket);
+					} finally {
+						socket.close();
+					}
+					return null;
+				}
+			}));
+		}
+	}
+
+	@Override
+	public void entry(byte[] key, byte[] payload, long expireAt) throws IOException {
+		if (expireAt >= 0 && expireAt <= System.currentTimeMillis()) {
+			skipped.incrementAndGet();
+			return;
+		}
+		batch.add(new Entry(key, payload, expireAt));
+		batchBytes += key.length + payload.length;
+		if (batch.size() >= BATCH_KEYS || batchBytes >= BATCH_BYTES) {
+			send(batch);
+			batch = new ArrayList<Entry>();
+			batchBytes = 0;
+		}
+	}
+
+	/**
+	 * Sends the last batch and waits for every batch to be restored.
+	 *
+	 * @return the number of keys restored
+	 * @throws IOException
+	 *             if Redis refused a key or a connection failed
+	 */
+	public long finish() throws IOException {
+		if (!batch.isEmpty()) {
+			send(batch);
+			batch = new ArrayList<Entry>();
+		}
+		for (int i = 0; i < workers.size(); i++) {
+			send(END);
+		}
+		try {
+			for (Future<Void> worker : workers) {
+				waitFor(worker);
+			}
+		} finally {
+			executor.shutdown();
+		}
+		logger.info("Restored " + restored.get() + " keys, skipped " + skipped.get() + " expired keys");
+		return restored.get();
+	}
+
+	/**
+	 * Stops the connections without waiting for the batches queued.
+	 */
+	public void abort() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	private void send(List<Entry> entries) throws IOException {
+		try {
+			// Waits while every connection is busy, or fails if one of them stopped.
+			while (!batches.offer(entries, 1, TimeUnit.SECONDS)) {
+				for (Future<Void> worker : workers) {
+					if (worker.isDone()) {
+						abort();
+						waitFor(worker);
+						throw new IOException("Restore connection to " + host + ":" + port + " stopped");
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while restoring");
+		}
+	}
+
+	/**
+	 * Waits for a connection to stop, and rethrows what stopped it.
+	 */
+	private static void waitFor(Future<Void> worker) throws IOException {
+		try {
+			worker.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while restoring");
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		}
+	}
+
+	private void restoreBatches(Socket socket) throws IOException, InterruptedException {
+		OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+		InputStream in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+		while (true) {
+			List<Entry> entries = batches.take();
+			if (entries == END) {
+				return;
+			}
+			long start = System.currentTimeMillis();
+			for (Entry entry : entries) {
+				writeRestore(out, entry);
+			}
+			out.flush();
+			for (Entry entry : entries) {
+				String reply = ReplicaSyncStream.readLine(in);
+				if (!reply.startsWith("+")) {
+					throw new IOException("Redis refused to restore key "
+							+ new String(entry.key, StandardCharsets.UTF_8) + ": " + reply);
+				}
+			}
+			restored.addAndGet(entries.size());
+			long latencyMs = System.currentTimeMillis() - start;
+			if (latencyThresholdMs > 0 && latencyMs > latencyThresholdMs) {
+				sleeper.sleep(latencyMs);
+			}
+		}
+	}
+
+	private void writeRestore(OutputStream out, Entry entry) throws IOException {
+		long ttl = 0;
+		if (entry.expireAt >= 0) {
+			ttl = absttl ? entry.expireAt : Math.max(1, entry.expireAt - System.currentTimeMillis());
+		}
+		byte[][] args = absttl && entry.expireAt >= 0
+				? new byte[][] { RESTORE, entry.key, ascii(ttl), entry.payload, REPLACE, ABSTTL }
+				: new byte[][] { RESTORE, entry.key, ascii(ttl), entry.payload, REPLACE };
+		out.write(ascii("*" + args.length + "\r\n"));
+		for (byte[] arg : args) {
+			out.write(ascii("$" + arg.length + "\r\n"));
+			out.write(arg);
+			out.write('\r');
+			out.write('\n');
+		}
+	}
+
+	private Socket connect() throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), TIMEOUT_MS);
+			socket.setSoTimeout(TIMEOUT_MS);
+			socket.setTcpNoDelay(true);
+			return socket;
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the major version of Redis, from <code>INFO server</code>
+	 */
+	private static int majorVersion(Socket socket) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		out.write(ReplicaSyncStream.command("INFO", "server"));
+		out.flush();
+		InputStream in = new BufferedInputStream(socket.getInputStream());
+		String header = ReplicaSyncStream.readLine(in);
+		if (!header.startsWith("$")) {
+			throw new IOException("Unexpected reply to INFO: " + header);
+		}
+		byte[] info = new byte[Integer.parseInt(header.substring(1)) + 2];
+		int read = 0;
+		while (read < info.length) {
+			int n = in.read(info, read, info.length - read);
+			if (n < 0) {
+				throw new IOException("Redis closed the connection");
+			}
+			read += n;
+		}
+		for (String line : new String(info, StandardCharsets.US_ASCII).split("\r\n")) {
+			if (line.startsWith("redis_version:")) {
+				String version = line.substring("redis_version:".length());
+				try {
+					return Integer.parseInt(version.substring(0, version.indexOf('.')));
+				} catch (RuntimeException e) {
+					return 0;
+				}
+			}
+		}
+		return 0;
+	}
+
+	private static byte[] ascii(Object value) {
+		return String.valueOf(value).getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,1134 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads an RDB file as a stream, checks its structure and checksum and collects {@link RdbStats}, in constant memory.
+ *
+ * Values are walked and skipped, never loaded. Encoded values (ziplists, listpacks, intsets and zipmaps, LZF
+ * compressed or not) are checked entry by entry as they are read: their lengths, entry counts and terminators must
+ * agree. Module values are skipped through the typed opcodes the module API writes. RDB versions 1 to
+ * {@value #MAX_VERSION} are read, which covers Redis up to 7.4 with streams, functions and hash field expiration.
+ *
+ * Parsing stops after the checksum that ends the RDB, so it also reads the RDB preamble of an append only file.
+ *
+ * A {@link DumpListener} gets each value as it is stored, to restore it into a running Redis; only the value being
+ * read is then held in memory.
+ */
+public class RdbParser {
+
+	/**
+	 * Receives each key of the RDB as it is parsed.
+	 */
+	public interface KeyListener {
+		/**
+		 * @param key
+		 *            the key, cut to its first {@value RdbParser#MAX_KEY_BYTES} bytes
+		 * @param size
+		 *            the serialized size of the key and its value
+		 * @param expireAt
+		 *            when the key expires, in milliseconds since the epoch, or -1 if it does not
+		 */
+		void key(byte[] key, String type, long elements, long size, long expireAt);
+	}
+
+	/**
+	 * Receives each key of the RDB with its value serialized as by <code>DUMP</code>, ready for <code>RESTORE</code>.
+	 */
+	public interface DumpListener {
+		/**
+		 * @param key
+		 *            the whole key
+		 * @param payload
+		 *            the value in the <code>DUMP</code> format: the type, the value as stored in the RDB, the RDB
+		 *            version and a CRC64
+		 * @param expireAt
+		 *            when the key expires, in milliseconds since the epoch, or -1 if it does not
+		 */
+		void entry(byte[] key, byte[] payload, long expireAt) throws IOException;
+	}
+
+	public static final int MAX_KEY_BYTES = 256;
+
+	public static final int MAX_VERSION = 12;
+	public static final String MAGIC = "REDIS";
+
+	private static final int OPCODE_SLOT_INFO = 0xF4;
+	private static final int OPCODE_FUNCTION_PRE_GA = 0xF5;
+	private static final int OPCODE_FUNCTION2 = 0xF6;
+	private static final int OPCODE_MODULE_AUX = 0xF7;
+	private static final int OPCODE_IDLE = 0xF8;
+	private static final int OPCODE_FREQ = 0xF9;
+	private static final int OPCODE_AUX = 0xFA;
+	private static final int OPCODE_RESIZEDB = 0xFB;
+	private static final int OPCODE_EXPIRETIME_MS = 0xFC;
+	private static final int OPCODE_EXPIRETIME = 0xFD;
+	private static final int OPCODE_SELECTDB = 0xFE;
+	private static final int OPCODE_EOF = 0xFF;
+
+	private static final int TYPE_STRING = 0;
+	private static final int TYPE_LIST = 1;
+	private static final int TYPE_SET = 2;
+	private static final int TYPE_ZSET = 3;
+	private static final int TYPE_HASH = 4;
+	private static final int TYPE_ZSET_2 = 5;
+	private static final int TYPE_MODULE_2 = 7;
+	private static final int TYPE_HASH_ZIPMAP = 9;
+	private static final int TYPE_LIST_ZIPLIST = 10;
+	private static final int TYPE_SET_INTSET = 11;
+	private static final int TYPE_ZSET_ZIPLIST = 12;
+	private static final int TYPE_HASH_ZIPLIST = 13;
+	private static final int TYPE_LIST_QUICKLIST = 14;
+	private static final int TYPE_STREAM_LISTPACKS = 15;
+	private static final int TYPE_HASH_LISTPACK = 16;
+	private static final int TYPE_ZSET_LISTPACK = 17;
+	private static final int TYPE_LIST_QUICKLIST_2 = 18;
+	private static final int TYPE_STREAM_LISTPACKS_2 = 19;
+	private static final int TYPE_SET_LISTPACK = 20;
+	private static final int TYPE_STREAM_LISTPACKS_3 = 21;
+	private static final int TYPE_HASH_METADATA_PRE_GA = 22;
+	private static final int TYPE_HASH_LISTPACK_EX_PRE_GA = 23;
+	private static final int TYPE_HASH_METADATA = 24;
+	private static final int TYPE_HASH_LISTPACK_EX = 25;
+
+	private static final int ENCODING_INT8 = 0;
+	private static final int ENCODING_INT16 = 1;
+	private static final int ENCODING_INT32 = 2;
+	private static final int ENCODING_LZF = 3;
+
+	private static final int MODULE_OPCODE_EOF = 0;
+	private static final int MODULE_OPCODE_SINT = 1;
+	private static final int MODULE_OPCODE_UINT = 2;
+	private static final int MODULE_OPCODE_FLOAT = 3;
+	private static final int MODULE_OPCODE_DOUBLE = 4;
+	private static final int MODULE_OPCODE_STRING = 5;
+
+	private static final int QUICKLIST_NODE_PLAIN = 1;
+	private static final int QUICKLIST_NODE_PACKED = 2;
+
+	/** Lengths of the listpack entries holding a 16, 24, 32 or 64 bits integer. */
+	private static final int[] LISTPACK_INT_LENGTHS = { 3, 4, 5, 9 };
+
+	private static final int MAX_AUX_LENGTH = 4096;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Source in;
+	private long snapshotTime = System.currentTimeMillis();
+	private KeyListener listener;
+	private DumpListener dumpListener;
+
+	public RdbParser(InputStream in) {
+		this.in = new Source(in);
+	}
+
+	/**
+	 * Parses an RDB file, or the RDB preamble of an append only file.
+	 */
+	public static RdbStats parse(File file) throws IOException {
+		return parse(file, null);
+	}
+
+	/**
+	 * Parses an RDB file, or the RDB preamble of an append only file, and passes each key to the listener.
+	 */
+	public static RdbStats parse(File file, KeyListener listener) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			RdbParser parser = new RdbParser(in);
+			parser.setKeyListener(listener);
+			return parser.parse();
+		} finally {
+			in.close();
+		}
+	}
+
+	public void setKeyListener(KeyListener listener) {
+		this.listener = listener;
+	}
+
+	public void setDumpListener(DumpListener dumpListener) {
+		this.dumpListener = dumpListener;
+	}
+
+	/**
+	 * @return true if the file starts like an RDB file, which an append only file does when it has an RDB preamble
+	 */
+	public static boolean isRdb(File file) throws IOException {
+		byte[] magic = new byte[MAGIC.length()];
+		InputStream in = new FileInputStream(file);
+		try {
+			return in.read(magic) == magic.length && MAGIC.equals(new String(magic, StandardCharsets.US_ASCII));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the RDB up to its checksum.
+	 *
+	 * @throws IOException
+	 *             if the stream cannot be read or does not hold a valid RDB
+	 */
+	public RdbStats parse() throws IOException {
+		byte[] header = new byte[9];
+		in.readFully(header, 0, header.length);
+		String magic = new String(header, StandardCharsets.US_ASCII);
+		int version;
+		try {
+			version = Integer.parseInt(magic.substring(MAGIC.length()));
+		} catch (NumberFormatException e) {
+			throw corrupt("not an RDB file");
+		}
+		if (!magic.startsWith(MAGIC) || version < 1) {
+			throw corrupt("not an RDB file");
+		}
+		if (version > MAX_VERSION) {
+			throw new IOException("Unsupported RDB version " + version);
+		}
+
+		RdbStats stats = new RdbStats(version);
+		long expireAt = -1;
+		while (true) {
+			long start = in.position();
+			int opcode = in.readUnsignedByte();
+			switch (opcode) {
+			case OPCODE_EOF:
+				if (version >= 5) {
+					long computed = in.crc();
+					long stored = in.readLE(8);
+					if (stored != 0 && stored != computed) {
+						throw corrupt(String.format("checksum mismatch, expected %016x, computed %016x", stored,
+								computed));
+					}
+					stats.setChecksumVerified(stored != 0);
+				}
+				stats.setBytes(in.position());
+				return stats;
+			case OPCODE_SELECTDB:
+				readLength();
+				stats.addDatabase();
+				break;
+			case OPCODE_RESIZEDB:
+				readLength();
+				readLength();
+				break;
+			case OPCODE_AUX:
+				String key = readAux();
+				String value = readAux();
+				if ("ctime".equals(key)) {
+					try {
+						snapshotTime = Long.parseLong(value) * 1000L;
+					} catch (NumberFormatException e) {
+						throw corrupt("malformed ctime " + value);
+					}
+				} else if ("redis-ver".equals(key)) {
+					stats.setRedisVersion(value);
+				}
+				break;
+			case OPCODE_EXPIRETIME:
+				expireAt = in.readLE(4) * 1000L;
+				break;
+			case OPCODE_EXPIRETIME_MS:
+				expireAt = in.readLE(8);
+				break;
+			case OPCODE_FREQ:
+				in.readUnsignedByte();
+				break;
+			case OPCODE_IDLE:
+				readLength();
+				break;
+			case OPCODE_MODULE_AUX:
+				readLength();
+				if (readLength() != MODULE_OPCODE_UINT) {
+					throw corrupt("malformed module aux data at " + start);
+				}
+				readLength();
+				skipModuleValue();
+				break;
+			case OPCODE_FUNCTION2:
+				skipString();
+				break;
+			case OPCODE_SLOT_INFO:
+				readLength();
+				readLength();
+				readLength();
+				break;
+			case OPCODE_FUNCTION_PRE_GA:
+				throw new IOException("Unsupported RDB: functions saved by a pre-release of Redis 7.0");
+			default:
+				byte[] name = null;
+				if (dumpListener != null) {
+					name = readKey(Integer.MAX_VALUE);
+					in.startCapture();
+				} else if (listener != null) {
+					name = readKey(MAX_KEY_BYTES);
+				} else {
+					skipString();
+				}
+				long elements = skipValue(opcode, start);
+				long size = in.position() - start;
+				stats.addKey(typeName(opcode), elements, expireAt, snapshotTime, size);
+				if (listener != null) {
+					listener.key(name.length > MAX_KEY_BYTES ? Arrays.copyOf(name, MAX_KEY_BYTES) : name,
+							typeName(opcode), elements, size, expireAt);
+				}
+				if (dumpListener != null) {
+					dumpListener.entry(name, dumpPayload(opcode, in.endCapture(), version), expireAt);
+				}
+				expireAt = -1;
+			}
+		}
+	}
+
+	/**
+	 * @return the value in the format of <code>DUMP</code>, which Redis checks before it restores it: the type, the
+	 *         value, the RDB version in two bytes and the CRC64 of all of it, little endian
+	 */
+	static byte[] dumpPayload(int type, byte[] value, int version) {
+		byte[] payload = new byte[1 + value.length + 2 + 8];
+		payload[0] = (byte) type;
+		System.arraycopy(value, 0, payload, 1, value.length);
+		payload[value.length + 1] = (byte) version;
+		payload[value.length + 2] = (byte) (version >>> 8);
+		long crc = Crc64.update(0, payload, 0, value.length + 3);
+		for (int i = 0; i < 8; i++) {
+			payload[value.length + 3 + i] = (byte) (crc >>> (8 * i));
+		}
+		return payload;
+	}
+
+	private static String typeName(int type) {
+		switch (type) {
+		case TYPE_STRING:
+			return "string";
+		case TYPE_LIST:
+		case TYPE_LIST_ZIPLIST:
+		case TYPE_LIST_QUICKLIST:
+		case TYPE_LIST_QUICKLIST_2:
+			return "list";
+		case TYPE_SET:
+		case TYPE_SET_INTSET:
+		case TYPE_SET_LISTPACK:
+			return "set";
+		case TYPE_ZSET:
+		case TYPE_ZSET_2:
+		case TYPE_ZSET_ZIPLIST:
+		case TYPE_ZSET_LISTPACK:
+			return "zset";
+		case TYPE_STREAM_LISTPACKS:
+		case TYPE_STREAM_LISTPACKS_2:
+		case TYPE_STREAM_LISTPACKS_3:
+			return "stream";
+		case TYPE_MODULE_2:
+			return "module";
+		default:
+			return "hash";
+		}
+	}
+
+	/**
+	 * Skips a value of the given type.
+	 *
+	 * @return the number of elements of the value
+	 */
+	private long skipValue(int type, long start) throws IOException {
+		long n;
+		switch (type) {
+		case TYPE_STRING:
+			skipString();
+			return 1;
+		case TYPE_LIST:
+		case TYPE_SET:
+			n = readLength();
+			for (long i = 0; i < n; i++) {
+				skipString();
+			}
+			return n;
+		case TYPE_ZSET:
+			n = readLength();
+			for (long i = 0; i < n; i++) {
+				skipString();
+				skipDoubleString();
+			}
+			return n;
+		case TYPE_ZSET_2:
+			n = readLength();
+			for (long i = 0; i < n; i++) {
+				skipString();
+				in.skipFully(8);
+			}
+			return n;
+		case TYPE_HASH:
+			n = readLength();
+			for (long i = 0; i < n; i++) {
+				skipString();
+				skipString();
+			}
+			return n;
+		case TYPE_HASH_METADATA:
+			// The minimum expire time, then fields whose TTL is relative to it.
+			in.skipFully(8);
+			n = readLength();
+			for (long i = 0; i < n; i++) {
+				readLength();
+				skipString();
+				skipString();
+			}
+			return n;
+		case TYPE_HASH_METADATA_PRE_GA:
+			n = readLength();
+			for (long i = 0; i < n; i++) {
+				in.skipFully(8);
+				skipString();
+				skipString();
+			}
+			return n;
+		case TYPE_MODULE_2:
+			readLength();
+			skipModuleValue();
+			return 1;
+		case TYPE_HASH_ZIPMAP:
+			return zipmap(openString());
+		case TYPE_LIST_ZIPLIST:
+			return ziplist(openString(), 1);
+		case TYPE_SET_INTSET:
+			return intset(openString());
+		case TYPE_ZSET_ZIPLIST:
+		case TYPE_HASH_ZIPLIST:
+			return ziplist(openString(), 2);
+		case TYPE_SET_LISTPACK:
+			return listpack(openString(), 1);
+		case TYPE_ZSET_LISTPACK:
+		case TYPE_HASH_LISTPACK:
+			return listpack(openString(), 2);
+		case TYPE_HASH_LISTPACK_EX:
+			in.skipFully(8);
+			return listpack(openString(), 3);
+		case TYPE_HASH_LISTPACK_EX_PRE_GA:
+			return listpack(openString(), 3);
+		case TYPE_LIST_QUICKLIST:
+			n = readLength();
+			long elements = 0;
+			for (long i = 0; i < n; i++) {
+				elements += ziplist(openString(), 1);
+			}
+			return elements;
+		case TYPE_LIST_QUICKLIST_2:
+			n = readLength();
+			elements = 0;
+			for (long i = 0; i < n; i++) {
+				long container = readLength();
+				if (container == QUICKLIST_NODE_PLAIN) {
+					skipString();
+					elements++;
+				} else if (container == QUICKLIST_NODE_PACKED) {
+					elements += listpack(openString(), 1);
+				} else {
+					throw corrupt("unknown quicklist container " + container + " in key at " + start);
+				}
+			}
+			return elements;
+		case TYPE_STREAM_LISTPACKS:
+		case TYPE_STREAM_LISTPACKS_2:
+		case TYPE_STREAM_LISTPACKS_3:
+			return skipStream(type);
+		default:
+			throw corrupt("unknown value type " + type + " at " + start);
+		}
+	}
+
+	/**
+	 * @return the number of entries of the stream
+	 */
+	private long skipStream(int type) throws IOException {
+		long nodes = readLength();
+		for (long i = 0; i < nodes; i++) {
+			Blob key = openString();
+			if (key.length != 16) {
+				throw corrupt("stream node key of " + key.length + " bytes");
+			}
+			key.skipFully(16);
+			key.finish("stream node key");
+			listpack(openString(), 1);
+		}
+		long length = readLength();
+		// Last ID, then first ID, max deleted ID and entries added since 7.0.
+		readLength();
+		readLength();
+		if (type >= TYPE_STREAM_LISTPACKS_2) {
+			for (int i = 0; i < 5; i++) {
+				readLength();
+			}
+		}
+		long groups = readLength();
+		for (long g = 0; g < groups; g++) {
+			skipString();
+			readLength();
+			readLength();
+			if (type >= TYPE_STREAM_LISTPACKS_2) {
+				readLength();
+			}
+			long pending = readLength();
+			for (long p = 0; p < pending; p++) {
+				// Entry ID, delivery time and delivery count.
+				in.skipFully(16 + 8);
+				readLength();
+			}
+			long consumers = readLength();
+			for (long c = 0; c < consumers; c++) {
+				skipString();
+				in.skipFully(type >= TYPE_STREAM_LISTPACKS_3 ? 16 : 8);
+				long owned = readLength();
+				in.skipFully(owned * 16);
+			}
+		}
+		return length;
+	}
+
+	private void skipModuleValue() throws IOException {
+		while (true) {
+			long opcode = readLength();
+			switch ((int) opcode) {
+			case MODULE_OPCODE_EOF:
+				return;
+			case MODULE_OPCODE_SINT:
+			case MODULE_OPCODE_UINT:
+				readLength();
+				break;
+			case MODULE_OPCODE_FLOAT:
+				in.skipFully(4);
+				break;
+			case MODULE_OPCODE_DOUBLE:
+				in.skipFully(8);
+				break;
+			case MODULE_OPCODE_STRING:
+				skipString();
+				break;
+			default:
+				throw corrupt("unknown module opcode " + opcode);
+			}
+		}
+	}
+
+	/**
+	 * Reads a length. Encoded lengths, which introduce special string encodings, are refused.
+	 */
+	private long readLength() throws IOException {
+		int first = in.readUnsignedByte();
+		if ((first & 0xC0) == 0xC0) {
+			throw corrupt("unexpected string encoding at " + (in.position() - 1));
+		}
+		return readLength(first);
+	}
+
+	private long readLength(int first) throws IOException {
+		switch (first >> 6) {
+		case 0:
+			return first & 0x3F;
+		case 1:
+			return ((first & 0x3F) << 8) | in.readUnsignedByte();
+		default:
+			if (first == 0x80) {
+				return in.readBE(4);
+			} else if (first == 0x81) {
+				long length = in.readBE(8);
+				if (length < 0) {
+					throw corrupt("negative length at " + (in.position() - 9));
+				}
+				return length;
+			}
+			throw corrupt("unknown length encoding " + first + " at " + (in.position() - 1));
+		}
+	}
+
+	/**
+	 * Opens a string for reading, whatever its encoding: integers are read as their decimal representation, LZF
+	 * compressed strings are decompressed as they are read.
+	 */
+	private Blob openString() throws IOException {
+		int first = in.readUnsignedByte();
+		if ((first & 0xC0) != 0xC0) {
+			return new Blob(in, readLength(first));
+		}
+		switch (first & 0x3F) {
+		case ENCODING_INT8:
+			return Blob.of(Long.toString((byte) in.readUnsignedByte()));
+		case ENCODING_INT16:
+			return Blob.of(Long.toString((short) in.readLE(2)));
+		case ENCODING_INT32:
+			return Blob.of(Long.toString((int) in.readLE(4)));
+		case ENCODING_LZF:
+			long compressed = readLength();
+			long length = readLength();
+			return new Blob(new LzfSource(new Blob(in, compressed), length), length);
+		default:
+			throw corrupt("unknown string encoding " + (first & 0x3F) + " at " + (in.position() - 1));
+		}
+	}
+
+	/**
+	 * @return the first bytes of a key, the rest is skipped
+	 */
+	private byte[] readKey(int maxBytes) throws IOException {
+		Blob blob = openString();
+		byte[] key = new byte[(int) Math.min(blob.length, maxBytes)];
+		blob.readFully(key, 0, key.length);
+		blob.skipFully(blob.length - key.length);
+		blob.finish("key");
+		return key;
+	}
+
+	/**
+	 * Skips a string. Compressed strings are skipped without decompressing them, the checksum covers them.
+	 */
+	private void skipString() throws IOException {
+		int first = in.readUnsignedByte();
+		if ((first & 0xC0) != 0xC0) {
+			in.skipFully(readLength(first));
+			return;
+		}
+		switch (first & 0x3F) {
+		case ENCODING_INT8:
+			in.skipFully(1);
+			break;
+		case ENCODING_INT16:
+			in.skipFully(2);
+			break;
+		case ENCODING_INT32:
+			in.skipFully(4);
+			break;
+		case ENCODING_LZF:
+			long compressed = readLength();
+			readLength();
+			in.skipFully(compressed);
+			break;
+		default:
+			throw corrupt("unknown string encoding " + (first & 0x3F) + " at " + (in.position() - 1));
+		}
+	}
+
+	private String readAux() throws IOException {
+		Blob blob = openString();
+		if (blob.length > MAX_AUX_LENGTH) {
+			blob.skipFully(blob.length);
+			blob.finish("aux field");
+			return "";
+		}
+		byte[] value = new byte[(int) blob.length];
+		blob.readFully(value, 0, value.length);
+		blob.finish("aux field");
+		return new String(value, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Skips a score of the original sorted set encoding, stored as a string with special lengths for NaN and
+	 * infinities.
+	 */
+	private void skipDoubleString() throws IOException {
+		int length = in.readUnsignedByte();
+		if (length < 253) {
+			in.skipFully(length);
+		}
+	}
+
+	/**
+	 * Walks a ziplist.
+	 *
+	 * @return the number of entries divided by the size of the groups they are stored in
+	 */
+	private static long ziplist(Blob blob, int group) throws IOException {
+		if (blob.length < 11 || blob.readLE(4) != blob.length) {
+			throw corrupt("ziplist length does not match its string");
+		}
+		long tail = blob.readLE(4);
+		long declared = blob.readLE(2);
+		long entries = 0;
+		long last = 10;
+		while (true) {
+			long offset = blob.position();
+			int prevlen = blob.readUnsignedByte();
+			if (prevlen == 0xFF) {
+				break;
+			}
+			last = offset;
+			if (prevlen == 0xFE) {
+				blob.skipFully(4);
+			}
+			int encoding = blob.readUnsignedByte();
+			switch (encoding >> 6) {
+			case 0:
+				blob.skipFully(encoding & 0x3F);
+				break;
+			case 1:
+				blob.skipFully(((encoding & 0x3F) << 8) | blob.readUnsignedByte());
+				break;
+			case 2:
+				if (encoding != 0x80) {
+					throw corrupt("unknown ziplist string encoding " + encoding);
+				}
+				blob.skipFully(blob.readBE(4));
+				break;
+			default:
+				blob.skipFully(ziplistIntLength(encoding));
+			}
+			entries++;
+		}
+		blob.finish("ziplist");
+		if (tail != last) {
+			throw corrupt("ziplist tail at " + tail + ", last entry at " + last);
+		}
+		return groups(entries, declared == 0xFFFF ? entries : declared, group, "ziplist");
+	}
+
+	private static int ziplistIntLength(int encoding) throws IOException {
+		switch (encoding) {
+		case 0xC0:
+			return 2;
+		case 0xD0:
+			return 4;
+		case 0xE0:
+			return 8;
+		case 0xF0:
+			return 3;
+		case 0xFE:
+			return 1;
+		default:
+			if (encoding >= 0xF1 && encoding <= 0xFD) {
+				return 0;
+			}
+			throw corrupt("unknown ziplist integer encoding " + encoding);
+		}
+	}
+
+	/**
+	 * Walks a listpack.
+	 *
+	 * @return the number of entries divided by the size of the groups they are stored in
+	 */
+	private static long listpack(Blob blob, int group) throws IOException {
+		if (blob.length < 7 || blob.readLE(4) != blob.length) {
+			throw corrupt("listpack length does not match its string");
+		}
+		long declared = blob.readLE(2);
+		long entries = 0;
+		int encoding;
+		while ((encoding = blob.readUnsignedByte()) != 0xFF) {
+			// Bytes of the entry read so far, and its length without the back length that follows it.
+			int read = 1;
+			long length;
+			if ((encoding & 0x80) == 0) {
+				length = 1;
+			} else if ((encoding & 0xC0) == 0x80) {
+				length = 1 + (encoding & 0x3F);
+			} else if ((encoding & 0xE0) == 0xC0) {
+				length = 2;
+			} else if ((encoding & 0xF0) == 0xE0) {
+				length = 2 + (((encoding & 0x0F) << 8) | blob.readUnsignedByte());
+				read = 2;
+			} else if (encoding == 0xF0) {
+				length = 5 + blob.readLE(4);
+				read = 5;
+			} else if (encoding >= 0xF1 && encoding <= 0xF4) {
+				length = LISTPACK_INT_LENGTHS[encoding - 0xF1];
+			} else {
+				throw corrupt("unknown listpack encoding " + encoding);
+			}
+			blob.skipFully(length - read + backlenSize(length));
+			entries++;
+		}
+		blob.finish("listpack");
+		return groups(entries, declared == 0xFFFF ? entries : declared, group, "listpack");
+	}
+
+	/**
+	 * @return the size of the back length stored after a listpack entry of the given length
+	 */
+	private static int backlenSize(long length) {
+		if (length < 128) {
+			return 1;
+		} else if (length < 16384) {
+			return 2;
+		} else if (length < 2097152) {
+			return 3;
+		} else if (length < 268435456) {
+			return 4;
+		}
+		return 5;
+	}
+
+	private static long intset(Blob blob) throws IOException {
+		long encoding = blob.readLE(4);
+		long length = blob.readLE(4);
+		if ((encoding != 2 && encoding != 4 && encoding != 8) || blob.length != 8 + encoding * length) {
+			throw corrupt("intset of " + length + " " + encoding + " bytes integers in " + blob.length + " bytes");
+		}
+		long previous = Long.MIN_VALUE;
+		for (long i = 0; i < length; i++) {
+			long value = blob.readLE((int) encoding);
+			// Sign extension.
+			value = (value << (64 - 8 * encoding)) >> (64 - 8 * encoding);
+			if (i > 0 && value <= previous) {
+				throw corrupt("intset is not sorted");
+			}
+			previous = value;
+		}
+		blob.finish("intset");
+		return length;
+	}
+
+	private static long zipmap(Blob blob) throws IOException {
+		blob.readUnsignedByte();
+		long entries = 0;
+		while (true) {
+			long keyLength = zipmapLength(blob);
+			if (keyLength < 0) {
+				break;
+			}
+			blob.skipFully(keyLength);
+			long valueLength = zipmapLength(blob);
+			if (valueLength < 0) {
+				throw corrupt("zipmap key without value");
+			}
+			int free = blob.readUnsignedByte();
+			blob.skipFully(valueLength + free);
+			entries++;
+		}
+		blob.finish("zipmap");
+		return entries;
+	}
+
+	/**
+	 * @return the next zipmap length, or -1 at the end of the zipmap
+	 */
+	private static long zipmapLength(Blob blob) throws IOException {
+		int first = blob.readUnsignedByte();
+		if (first == 0xFF) {
+			return -1;
+		}
+		return first < 254 ? first : blob.readLE(4);
+	}
+
+	private static long groups(long entries, long declared, int group, String encoding) throws IOException {
+		if (entries != declared || entries % group != 0) {
+			throw corrupt(encoding + " of " + entries + " entries, " + declared + " declared, in groups of " + group);
+		}
+		return entries / group;
+	}
+
+	private static IOException corrupt(String message) {
+		return new IOException("Corrupt RDB: " + message);
+	}
+
+	/**
+	 * A stream of bytes with the little and big endian reads RDB files need. Reading past the end is an error.
+	 */
+	private abstract static class Reader {
+		private final byte[] one = new byte[1];
+		protected long position;
+
+		/**
+		 * @return the number of bytes read, at least one, or -1 at the end
+		 */
+		protected abstract int read(byte[] b, int off, int len) throws IOException;
+
+		long position() {
+			return position;
+		}
+
+		int readUnsignedByte() throws IOException {
+			readFully(one, 0, 1);
+			return one[0] & 0xff;
+		}
+
+		void readFully(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				int n = read(b, off, len);
+				if (n < 0) {
+					throw new EOFException("Corrupt RDB: truncated at " + position);
+				}
+				off += n;
+				len -= n;
+			}
+		}
+
+		void skipFully(long n) throws IOException {
+			if (n < 0) {
+				throw corrupt("negative length at " + position);
+			}
+			byte[] scratch = new byte[(int) Math.min(n, BUFFER_SIZE)];
+			while (n > 0) {
+				int chunk = (int) Math.min(n, scratch.length);
+				readFully(scratch, 0, chunk);
+				n -= chunk;
+			}
+		}
+
+		long readLE(int bytes) throws IOException {
+			long value = 0;
+			for (int i = 0; i < bytes; i++) {
+				value |= (long) readUnsignedByte() << (8 * i);
+			}
+			return value;
+		}
+
+		long readBE(int bytes) throws IOException {
+			long value = 0;
+			for (int i = 0; i < bytes; i++) {
+				value = (value << 8) | readUnsignedByte();
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * The RDB stream, buffered, with the CRC64 of the bytes consumed so far.
+	 */
+	private static class Source extends Reader {
+		private final InputStream in;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private int start;
+		private int end;
+		private int crcStart;
+		private long crc;
+		/** The bytes consumed since the capture started, or null. */
+		private ByteArrayOutputStream capture;
+
+		Source(InputStream in) {
+			this.in = in;
+		}
+
+		void startCapture() {
+			capture = new ByteArrayOutputStream();
+		}
+
+		byte[] endCapture() {
+			byte[] bytes = capture.toByteArray();
+			capture = null;
+			return bytes;
+		}
+
+		private boolean fill() throws IOException {
+			crc = Crc64.update(crc, buffer, crcStart, start - crcStart);
+			int n = in.read(buffer, 0, buffer.length);
+			start = 0;
+			crcStart = 0;
+			end = Math.max(n, 0);
+			return n > 0;
+		}
+
+		/**
+		 * @return the CRC64 of the bytes consumed so far
+		 */
+		long crc() {
+			crc = Crc64.update(crc, buffer, crcStart, start - crcStart);
+			crcStart = start;
+			return crc;
+		}
+
+		@Override
+		protected int read(byte[] b, int off, int len) throws IOException {
+			if (start == end && !fill()) {
+				return -1;
+			}
+			int n = Math.min(len, end - start);
+			System.arraycopy(buffer, start, b, off, n);
+			if (capture != null) {
+				capture.write(buffer, start, n);
+			}
+			start += n;
+			position += n;
+			return n;
+		}
+
+		@Override
+		int readUnsignedByte() throws IOException {
+			if (start == end && !fill()) {
+				throw new EOFException("Corrupt RDB: truncated at " + position);
+			}
+			position++;
+			if (capture != null) {
+				capture.write(buffer[start]);
+			}
+			return buffer[start++] & 0xff;
+		}
+
+		@Override
+		void skipFully(long n) throws IOException {
+			if (n < 0) {
+				throw corrupt("negative length at " + position);
+			}
+			while (n > 0) {
+				if (start == end && !fill()) {
+					throw new EOFException("Corrupt RDB: truncated at " + position);
+				}
+				int chunk = (int) Math.min(n, end - start);
+				if (capture != null) {
+					capture.write(buffer, start, chunk);
+				}
+				start += chunk;
+				position += chunk;
+				n -= chunk;
+			}
+		}
+	}
+
+	/**
+	 * A string of known length read from another reader, positioned relative to its start.
+	 */
+	private static class Blob extends Reader {
+		private final Reader in;
+		final long length;
+
+		Blob(Reader in, long length) {
+			this.in = in;
+			this.length = length;
+		}
+
+		static Blob of(String value) {
+			final byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+			return new Blob(new Reader() {
+				@Override
+				protected int read(byte[] b, int off, int len) {
+					if (position == bytes.length) {
+						return -1;
+					}
+					int n = (int) Math.min(len, bytes.length - position);
+					System.arraycopy(bytes, (int) position, b, off, n);
+					position += n;
+					return n;
+				}
+			}, bytes.length);
+		}
+
+		@Override
+		protected int read(byte[] b, int off, int len) throws IOException {
+			if (position == length) {
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, length - position));
+			if (n > 0) {
+				position += n;
+			}
+			return n;
+		}
+
+		@Override
+		int readUnsignedByte() throws IOException {
+			if (position == length) {
+				throw corrupt("read past the end of a " + length + " bytes string");
+			}
+			position++;
+			return in.readUnsignedByte();
+		}
+
+		@Override
+		void skipFully(long n) throws IOException {
+			if (n < 0 || n > length - position) {
+				throw corrupt("skip of " + n + " bytes at " + position + " of a " + length + " bytes string");
+			}
+			in.skipFully(n);
+			position += n;
+		}
+
+		/**
+		 * Checks the string was read to its end, and for a compressed string that all its compressed bytes were
+		 * consumed, so the RDB is read on from the right place.
+		 */
+		void finish(String encoding) throws IOException {
+			if (position != length) {
+				throw corrupt(encoding + " ends at " + position + " of a " + length + " bytes string");
+			}
+			if (in instanceof LzfSource) {
+				((LzfSource) in).finish();
+			}
+		}
+	}
+
+	/**
+	 * Decompresses an LZF string as it is read, keeping only the 8 KB window back references can reach.
+	 */
+	private static class LzfSource extends Reader {
+		private static final int WINDOW = 8192;
+
+		private final Blob compressed;
+		private final long length;
+		private final byte[] window = new byte[WINDOW];
+		private long produced;
+		private int literal;
+		private int copy;
+		private int distance;
+
+		LzfSource(Blob compressed, long length) {
+			this.compressed = compressed;
+			this.length = length;
+		}
+
+		void finish() throws IOException {
+			if (produced != length || literal > 0 || copy > 0) {
+				throw corrupt("LZF string longer than declared");
+			}
+			compressed.finish("LZF string");
+		}
+
+		@Override
+		protected int read(byte[] b, int off, int len) throws IOException {
+			if (produced == length) {
+				return -1;
+			}
+			int n = 0;
+			while (n < len && produced < length) {
+				if (literal == 0 && copy == 0) {
+					if (compressed.position() == compressed.length) {
+						throw corrupt("LZF string shorter than declared");
+					}
+					int ctrl = compressed.readUnsignedByte();
+					if (ctrl < 32) {
+						literal = ctrl + 1;
+					} else {
+						copy = ctrl >> 5;
+						if (copy == 7) {
+							copy += compressed.readUnsignedByte();
+						}
+						copy += 2;
+						distance = ((ctrl & 0x1F) << 8) + compressed.readUnsignedByte() + 1;
+						if (distance > produced) {
+							throw corrupt("LZF back reference before the start of the string");
+						}
+					}
+				}
+				byte value;
+				if (literal > 0) {
+					value = (byte) compressed.readUnsignedByte();
+					literal--;
+				} else {
+					value = window[(int) ((produced - distance) & (WINDOW - 1))];
+					copy--;
+				}
+				window[(int) (produced & (WINDOW - 1))] = value;
+				produced++;
+				b[off + n++] = value;
+			}
+			position += n;
+			return n;
+		}
+	}
+}
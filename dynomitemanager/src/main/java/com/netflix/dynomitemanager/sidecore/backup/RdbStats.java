@@ -0,0 +1,237 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Statistics of the keys of an RDB file, collected by {@link RdbParser}: keys and elements per type, when keys expire,
+ * and a histogram of the serialized size of the keys of each type.
+ *
+ * Expiry buckets are relative to the time the snapshot was taken. Size buckets are powers of two: the bucket
+ * <code>2^n</code> counts keys of at least <code>2^(n-1)</code> and less than <code>2^n</code> bytes.
+ */
+public class RdbStats {
+
+	/**
+	 * Names of the expiry buckets: no expiry, already expired, then expiring within 1 hour, 1 day, 7 days, 30 days, or
+	 * later.
+	 */
+	public static final String[] EXPIRY_BUCKETS = { "none", "expired", "1h", "1d", "7d", "30d", "later" };
+	private static final long[] EXPIRY_LIMITS_MS = { 3600L * 1000L, 24L * 3600L * 1000L, 7L * 24L * 3600L * 1000L,
+			30L * 24L * 3600L * 1000L };
+	private static final int SIZE_BUCKETS = 64;
+
+	public static class TypeStats {
+		private long keys;
+		private long elements;
+		private final long[] sizes = new long[SIZE_BUCKETS];
+
+		public long getKeys() {
+			return keys;
+		}
+
+		public long getElements() {
+			return elements;
+		}
+
+		/**
+		 * @return the number of keys whose serialized size is below 2^bucket bytes, and at least 2^(bucket-1)
+		 */
+		public long getSizeCount(int bucket) {
+			return sizes[bucket];
+		}
+	}
+
+	private final int version;
+	private String redisVersion;
+	private long bytes;
+	private boolean checksumVerified;
+	private int databases;
+	private final long[] expiry = new long[EXPIRY_BUCKETS.length];
+	private final Map<String, TypeStats> types = new TreeMap<String, TypeStats>();
+
+	public RdbStats(int version) {
+		this.version = version;
+	}
+
+	/**
+	 * Counts a key.
+	 *
+	 * @param expireAt
+	 *            when the key expires, in milliseconds since the epoch, or -1 if it does not
+	 * @param snapshotTime
+	 *            when the snapshot was taken, in milliseconds since the epoch
+	 * @param size
+	 *            the serialized size of the key and its value
+	 */
+	public void addKey(String type, long elements, long expireAt, long snapshotTime, long size) {
+		TypeStats stats = types.get(type);
+		if (stats == null) {
+			stats = new TypeStats();
+			types.put(type, stats);
+		}
+		stats.keys++;
+		stats.elements += elements;
+		stats.sizes[Math.min(SIZE_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(size))]++;
+		expiry[expiryBucket(expireAt, snapshotTime)]++;
+	}
+
+	private static int expiryBucket(long expireAt, long snapshotTime) {
+		if (expireAt < 0) {
+			return 0;
+		}
+		long ttl = expireAt - snapshotTime;
+		if (ttl <= 0) {
+			return 1;
+		}
+		for (int i = 0; i < EXPIRY_LIMITS_MS.length; i++) {
+			if (ttl <= EXPIRY_LIMITS_MS[i]) {
+				return i + 2;
+			}
+		}
+		return EXPIRY_BUCKETS.length - 1;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public String getRedisVersion() {
+		return redisVersion;
+	}
+
+	public void setRedisVersion(String redisVersion) {
+		this.redisVersion = redisVersion;
+	}
+
+	/**
+	 * @return the size of the RDB, up to and including its checksum
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * @return true if the file carried a checksum and it matched; Redis writes none when rdbchecksum is off
+	 */
+	public boolean isChecksumVerified() {
+		return checksumVerified;
+	}
+
+	public void setChecksumVerified(boolean checksumVerified) {
+		this.checksumVerified = checksumVerified;
+	}
+
+	public int getDatabases() {
+		return databases;
+	}
+
+	public void addDatabase() {
+		databases++;
+	}
+
+	public long getKeys() {
+		long keys = 0;
+		for (TypeStats stats : types.values()) {
+			keys += stats.keys;
+		}
+		return keys;
+	}
+
+	/**
+	 * @return the statistics of the keys of a type (string, list, set, zset, hash, stream or module), or null if there
+	 *         is no key of that type
+	 */
+	public TypeStats getTypeStats(String type) {
+		return types.get(type);
+	}
+
+	public long getExpiryCount(String bucket) {
+		for (int i = 0; i < EXPIRY_BUCKETS.length; i++) {
+			if (EXPIRY_BUCKETS[i].equals(bucket)) {
+				return expiry[i];
+			}
+		}
+		throw new IllegalArgumentException("Unknown expiry bucket " + bucket);
+	}
+
+	@SuppressWarnings("unchecked")
+	public JSONObject toJson() {
+		JSONObject json = new JSONObject();
+		json.put("version", version);
+		json.put("redisVersion", redisVersion);
+		json.put("bytes", bytes);
+		json.put("checksumVerified", checksumVerified);
+		json.put("databases", databases);
+		json.put("keys", getKeys());
+		JSONObject expiryJson = new JSONObject();
+		for (int i = 0; i < EXPIRY_BUCKETS.length; i++) {
+			expiryJson.put(EXPIRY_BUCKETS[i], expiry[i]);
+		}
+		json.put("expiry", expiryJson);
+		JSONObject typesJson = new JSONObject();
+		for (Map.Entry<String, TypeStats> type : types.entrySet()) {
+			JSONObject typeJson = new JSONObject();
+			typeJson.put("keys", type.getValue().keys);
+			typeJson.put("elements", type.getValue().elements);
+			JSONObject sizesJson = new JSONObject();
+			for (int i = 0; i < SIZE_BUCKETS; i++) {
+				if (type.getValue().sizes[i] > 0) {
+					sizesJson.put(Long.toString(1L << i), type.getValue().sizes[i]);
+				}
+			}
+			typeJson.put("sizes", sizesJson);
+			typesJson.put(type.getKey(), typeJson);
+		}
+		json.put("types", typesJson);
+		return json;
+	}
+
+	/**
+	 * @throws ClassCastException
+	 *             or NullPointerException if the JSON is malformed
+	 */
+	public static RdbStats fromJson(JSONObject json) {
+		RdbStats stats = new RdbStats(((Long) json.get("version")).intValue());
+		stats.setRedisVersion((String) json.get("redisVersion"));
+		stats.setBytes((Long) json.get("bytes"));
+		stats.setChecksumVerified((Boolean) json.get("checksumVerified"));
+		stats.databases = ((Long) json.get("databases")).intValue();
+		JSONObject expiryJson = (JSONObject) json.get("expiry");
+		for (int i = 0; i < EXPIRY_BUCKETS.length; i++) {
+			stats.expiry[i] = (Long) expiryJson.get(EXPIRY_BUCKETS[i]);
+		}
+		for (Object o : ((JSONObject) json.get("types")).entrySet()) {
+			Map.Entry<?, ?> type = (Map.Entry<?, ?>) o;
+			JSONObject typeJson = (JSONObject) type.getValue();
+			TypeStats typeStats = new TypeStats();
+			typeStats.keys = (Long) typeJson.get("keys");
+			typeStats.elements = (Long) typeJson.get("elements");
+			for (Object s : ((JSONObject) typeJson.get("sizes")).entrySet()) {
+				Map.Entry<?, ?> size = (Map.Entry<?, ?>) s;
+				typeStats.sizes[Long.numberOfTrailingZeros(Long.parseLong((String) size.getKey()))] = (Long) size
+						.getValue();
+			}
+			stats.types.put((String) type.getKey(), typeStats);
+		}
+		return stats;
+	}
+}
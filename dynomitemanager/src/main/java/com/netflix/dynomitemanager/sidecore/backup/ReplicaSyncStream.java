@@ -0,0 +1,233 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a snapshot of Redis as an RDB stream by registering as a replica, so a backup needs no fork-and-write to the
+ * local disk on the manager's side and, with <code>repl-diskless-sync yes</code>, none on Redis' side either.
+ *
+ * The connection announces the <code>eof</code> capability and sends <code>SYNC</code>. Redis answers with newlines
+ * while it prepares the snapshot, then with either <code>$&lt;length&gt;</code> followed by the RDB, or, for diskless
+ * transfers, <code>$EOF:&lt;mark&gt;</code> followed by the RDB and the 40 bytes mark. The stream ends with the RDB;
+ * closing it drops the replica, Redis then discards the replication stream it buffered for it.
+ */
+public class ReplicaSyncStream extends InputStream {
+	private static final Logger logger = LoggerFactory.getLogger(ReplicaSyncStream.class);
+
+	private static final int EOF_MARK_LENGTH = 40;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_LINE_LENGTH = 1024;
+
+	private final Socket socket;
+	private final InputStream in;
+	/** Length of the RDB, or -1 if the transfer ends with a mark. */
+	private final long length;
+	private final byte[] eofMark;
+
+	private long remaining;
+	// Diskless transfers: bytes read but not returned yet. The last EOF_MARK_LENGTH bytes are held back until it is
+	// known whether they start the mark.
+	private byte[] buffer;
+	private int start;
+	private int end;
+	private boolean eof;
+
+	private ReplicaSyncStream(Socket socket, InputStream in, long length, byte[] eofMark) {
+		this.socket = socket;
+		this.in = in;
+		this.length = length;
+		this.remaining = length;
+		this.eofMark = eofMark;
+		if (eofMark != null) {
+			this.buffer = new byte[BUFFER_SIZE + EOF_MARK_LENGTH];
+		}
+	}
+
+	/**
+	 * Connects to Redis as a replica and waits for the snapshot to start.
+	 *
+	 * @param timeoutMs
+	 *            how long a read may block; Redis sends a newline every second while it prepares the snapshot
+	 */
+	public static ReplicaSyncStream open(String host, int port, int timeoutMs) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), timeoutMs);
+			socket.setSoTimeout(timeoutMs);
+			socket.setReceiveBufferSize(BUFFER_SIZE * 4);
+			InputStream in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+			OutputStream out = socket.getOutputStream();
+
+			out.write(command("REPLCONF", "capa", "eof"));
+			out.flush();
+			String reply = readLine(in);
+			if (!reply.startsWith("+")) {
+				// Versions before 2.8 do not know REPLCONF, SYNC still works.
+				logger.info("REPLCONF refused by " + host + ":" + port + ": " + reply);
+			}
+			out.write(command("SYNC"));
+			out.flush();
+
+			String header;
+			do {
+				header = readLine(in);
+			} while (header.isEmpty());
+			if (!header.startsWith("$")) {
+				throw new IOException("Unexpected reply to SYNC from " + host + ":" + port + ": " + header);
+			}
+			ReplicaSyncStream stream;
+			if (header.startsWith("$EOF:")) {
+				byte[] mark = header.substring(5).getBytes(StandardCharsets.US_ASCII);
+				if (mark.length != EOF_MARK_LENGTH) {
+					throw new IOException("Malformed end of file mark from " + host + ":" + port + ": " + header);
+				}
+				stream = new ReplicaSyncStream(socket, in, -1, mark);
+			} else {
+				try {
+					stream = new ReplicaSyncStream(socket, in, Long.parseLong(header.substring(1)), null);
+				} catch (NumberFormatException e) {
+					throw new IOException("Malformed reply to SYNC from " + host + ":" + port + ": " + header);
+				}
+			}
+			logger.info("Receiving snapshot from " + host + ":" + port + (stream.length >= 0
+					? ", " + stream.length + " bytes" : ", diskless"));
+			return stream;
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the length of the RDB, or -1 if Redis streams it without knowing it
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (eofMark == null) {
+			if (remaining == 0) {
+				return -1;
+			}
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if (n < 0) {
+				throw new EOFException("Redis closed the connection " + remaining + " bytes before the end of the RDB");
+			}
+			remaining -= n;
+			return n;
+		}
+
+		while (true) {
+			int available = end - start - (eof ? 0 : EOF_MARK_LENGTH);
+			if (available > 0) {
+				int n = Math.min(len, available);
+				System.arraycopy(buffer, start, b, off, n);
+				start += n;
+				return n;
+			}
+			if (eof) {
+				return -1;
+			}
+			fill();
+		}
+	}
+
+	private void fill() throws IOException {
+		if (start > 0) {
+			System.arraycopy(buffer, start, buffer, 0, end - start);
+			end -= start;
+			start = 0;
+		}
+		int n = in.read(buffer, end, buffer.length - end);
+		if (n < 0) {
+			throw new EOFException("Redis closed the connection before the end of the RDB");
+		}
+		// The mark may end in the bytes just read and start in the bytes held back. Anything after it belongs to the
+		// replication stream.
+		for (int i = Math.max(start, end - EOF_MARK_LENGTH + 1); i + EOF_MARK_LENGTH <= end + n; i++) {
+			if (isMark(i)) {
+				end = i;
+				eof = true;
+				return;
+			}
+		}
+		end += n;
+	}
+
+	private boolean isMark(int offset) {
+		for (int i = 0; i < EOF_MARK_LENGTH; i++) {
+			if (buffer[offset + i] != eofMark[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	static byte[] command(String... args) {
+		StringBuilder sb = new StringBuilder();
+		sb.append('*').append(args.length).append("\r\n");
+		for (String arg : args) {
+			sb.append('$').append(arg.getBytes(StandardCharsets.UTF_8).length).append("\r\n").append(arg)
+					.append("\r\n");
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the next line without its terminator, which is "\r\n" or, for the keepalives sent by Redis, "\n"
+	 */
+	static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int c;
+		while ((c = in.read()) != '\n') {
+			if (c < 0) {
+				throw new EOFException("Redis closed the connection");
+			}
+			if (line.size() >= MAX_LINE_LENGTH) {
+				throw new IOException("Reply line longer than " + MAX_LINE_LENGTH + " bytes");
+			}
+			line.write(c);
+		}
+		String s = line.toString("US-ASCII");
+		return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+	}
+}
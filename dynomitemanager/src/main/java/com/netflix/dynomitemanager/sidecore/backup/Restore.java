@@ -14,4 +14,14 @@ package com.netflix.dynomitemanager.sidecore.backup;
 
 public interface Restore {
 	boolean restoreData(String dateString);
+
+	/**
+	 * Restores the data file into the given directory rather than the data directory of the storage.
+	 */
+	boolean restoreData(String dateString, String dataDir);
+
+	/**
+	 * Restores the keys of the backup into the running storage listening on the host and port.
+	 */
+	boolean restoreLive(String dateString, String host, int port);
 }
@@ -43,12 +43,13 @@ public class RestoreTask extends Task {
     private final IDynomiteProcess dynProcess;
     private final Sleeper sleeper;
     private final Restore restore;
+    private final SideInstanceRestore sideRestore;
     private StorageProcessManager storageProcessMgr;
 
     @Inject
     public RestoreTask(IConfiguration config, InstanceIdentity id, ICredential cred, InstanceState state,
 	    IStorageProxy storageProxy, IDynomiteProcess dynProcess, Sleeper sleeper, Restore restore,
-	    StorageProcessManager storageProcessMgr) {
+	    StorageProcessManager storageProcessMgr, SideInstanceRestore sideRestore) {
 	super(config);
 	this.cred = cred;
 	this.iid = id;
@@ -58,6 +59,7 @@ public class RestoreTask extends Task {
 	this.sleeper = sleeper;
 	this.restore = restore;
 	this.storageProcessMgr = storageProcessMgr;
+	this.sideRestore = sideRestore;
     }
 
     public void execute() throws Exception {
@@ -70,6 +72,38 @@ public class RestoreTask extends Task {
 	 */
 	this.state.setRestoreStatus(false);
 
+	// restore while Redis and Dynomite keep serving, if Redis is running
+	if (config.isRestoreLiveEnabled() && "redis".equals(storageProxy.getEngine()) && storageProxy.isAlive()) {
+	    logger.info("Restoring into the running storage");
+	    if (restore.restoreLive(config.getRestoreDate(), storageProxy.getIpAddress(), storageProxy.getPort())) {
+		logger.info("Restore Completed");
+		this.state.setRestoreStatus(true);
+	    } else {
+		logger.error("Restore not successful: the keys restored so far are kept.");
+	    }
+	    this.state.setRestoring(false);
+	    this.state.setRestoreTime(DateTime.now());
+	    return;
+	}
+	if (config.isRestoreSideInstanceEnabled() && "redis".equals(storageProxy.getEngine()) && storageProxy.isAlive()) {
+	    logger.info("Restoring into a side instance");
+	    SideInstanceRestore.RestoreResult result = sideRestore.restore(config.getRestoreDate());
+	    if (result != SideInstanceRestore.RestoreResult.DATA_LOST) {
+		if (result == SideInstanceRestore.RestoreResult.RESTORED) {
+		    logger.info("Restore Completed");
+		    this.state.setRestoreStatus(true);
+		} else {
+		    logger.error("Restore not successful: the running instance keeps its data.");
+		}
+		this.state.setRestoring(false);
+		this.state.setRestoreTime(DateTime.now());
+		return;
+	    }
+	    // the running instance may be empty or partial, restore it with the storage stopped
+	    logger.error("Restore not successful: the running instance may have lost its data,"
+		    + " restoring with the storage stopped.");
+	}
+
 	// stop dynomite process
 	this.dynProcess.stop();
 
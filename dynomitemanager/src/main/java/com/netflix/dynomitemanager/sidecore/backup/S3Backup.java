@@ -13,144 +13,399 @@
 package com.netflix.dynomitemanager.sidecore.backup;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.commons.io.IOUtils;
 import org.joda.time.DateTime;
 
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.S3ResponseMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.CreateBucketRequest;
 import com.amazonaws.services.s3.model.GetBucketLocationRequest;
-import com.amazonaws.services.s3.model.PartETag;
-import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
-import com.amazonaws.services.s3.model.UploadPartRequest;
-import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
-import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
-import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
-import com.amazonaws.AmazonClientException;
-import com.amazonaws.AmazonServiceException;
 
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
-import com.netflix.dynomitemanager.sidecore.ICredential;
 import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.identity.AppsInstance;
 import com.netflix.dynomitemanager.identity.InstanceIdentity;
+import com.netflix.dynomitemanager.sidecore.utils.Sleeper;
 
 @Singleton
 public class S3Backup implements Backup {
 
 	private static final Logger logger = LoggerFactory.getLogger(S3Backup.class);
-	private final long initPartSize =
-			500 * 1024 * 1024; // we set the part size equal to 500MB. We do not want this too large
-	// and run out of heap space
+	private static final long MB = 1024L * 1024L;
+	private static final String FORMAT_OBJECT = "object";
+	private static final int UPLOAD_ATTEMPTS = 3;
+	private static final int SYNC_TIMEOUT_MS = 60000;
+	private static final long MINUTE_MS = 60L * 1000L;
+	/** How long past the backup window a replica's backup is waited for. */
+	private static final int REPLICA_BACKUP_WAIT_MINUTES = 60;
 
 	@Inject private IConfiguration config;
 
-	@Inject private ICredential cred;
+	@Inject private ObjectStore store;
 
 	@Inject private InstanceIdentity iid;
 
+	@Inject private BackupMetrics metrics;
+
+	@Inject private NodeLoadSignals loadSignals;
+
+	@Inject private Sleeper sleeper;
+
 	/**
-	 * Uses the Amazon S3 API to upload the AOF/RDB to S3
-	 * Filename: Backup location + DC + Rack + App + Token
+	 * Uploads the AOF/RDB to the object store, S3 unless bound otherwise
+	 * Prefix: Backup location + DC + Rack + Token + Date
 	 */
 	@Override
-	public boolean upload(File file, DateTime todayStart) {
+	public synchronized boolean upload(File file, DateTime todayStart) {
 		logger.info("Snapshot backup: sending " + file.length() + " bytes to S3");
 
-        	// Key name is comprised of the backupDir + DC + Rack + token + Date
-		String keyName = config.getBackupLocation() + "/" +
-				iid.getInstance().getDatacenter() + "/" +
-				iid.getInstance().getRack() + "/" +
-				iid.getInstance().getToken() + "/" +
-				todayStart.getMillis();
-
-		// Get bucket location.
-		logger.info("Key in Bucket: " + keyName);
+		String nodePrefix = S3BackupCatalog.nodePrefix(config, iid);
 		logger.info("S3 Bucket Name:" + config.getBucketName());
 
-		AmazonS3Client s3Client = new AmazonS3Client(cred.getAwsCredentialProvider());
-
 		try {
 			// Checking if the S3 bucket exists, and if does not, then we create it
-			if (!(s3Client.doesBucketExist(config.getBucketName()))) {
+			if (!(store.bucketExists(config.getBucketName()))) {
 				logger.error("Bucket with name: " + config.getBucketName() + " does not exist");
 				return false;
-			} else {
-				logger.info("Uploading data to S3\n");
-				// Create a list of UploadPartResponse objects. You get one of these for
-				// each part upload.
-				List<PartETag> partETags = new ArrayList<PartETag>();
+			}
 
-				InitiateMultipartUploadRequest initRequest = new InitiateMultipartUploadRequest(
-						config.getBucketName(), keyName);
+			logger.info("Uploading data to S3\n");
+			CompressionCodec codec = CompressionCodec.fromName(config.getBackupCompressionCodec());
+			long length = file.length();
+			boolean verify = !config.isRedisAofEnabled() && config.isBackupVerificationEnabled();
+			if (FORMAT_OBJECT.equalsIgnoreCase(config.getBackupFormat())) {
+				return uploadObject(file, length, nodePrefix + todayStart.getMillis(), codec, verify);
+			}
 
-				InitiateMultipartUploadResult initResponse = s3Client
-						.initiateMultipartUpload(initRequest);
+			S3BackupCatalog catalog = new S3BackupCatalog(store, config.getBucketName(), nodePrefix);
+			BackupManifest manifest = verify ? uploadChunkedVerified(catalog, file, length, todayStart.getMillis(),
+					codec) : uploadChunked(catalog, file, length, todayStart.getMillis(), codec);
+			if (manifest == null) {
+				return false;
+			}
+			applyRetention(catalog, todayStart);
+			return true;
+		} catch (IOException e) {
+			logger.error("Backup of " + file + " failed: " + e.getMessage());
+			return false;
+		}
+	}
 
-				long contentLength = file.length();
-				long filePosition = 0;
-				long partSize = this.initPartSize;
+	/**
+	 * Streams a snapshot of the Redis instance listening on the host and port to S3, by syncing from it as a replica.
+	 * The backup holds an RDB file, whatever the persistence of the instance.
+	 */
+	@Override
+	public synchronized boolean uploadFromReplica(String host, int port, DateTime todayStart) {
+		logger.info("Diskless backup: syncing from " + host + ":" + port);
+		String nodePrefix = S3BackupCatalog.nodePrefix(config, iid);
+		try {
+			if (!(store.bucketExists(config.getBucketName()))) {
+				logger.error("Bucket with name: " + config.getBucketName() + " does not exist");
+				return false;
+			}
+			CompressionCodec codec = CompressionCodec.fromName(config.getBackupCompressionCodec());
+			boolean object = FORMAT_OBJECT.equalsIgnoreCase(config.getBackupFormat());
+			S3BackupCatalog catalog = new S3BackupCatalog(store, config.getBucketName(), nodePrefix);
+			String prefix = catalog.backupPrefix(todayStart.getMillis());
+			ChunkedBackupUploader chunkedUploader = new ChunkedBackupUploader(store, metrics,
+					config.getBackupUploadThreads(), config.getBackupPartRetries());
+			S3MultipartUploader objectUploader = new S3MultipartUploader(store, metrics,
+					config.getBackupUploadThreads(), config.getBackupPartRetries());
 
+			// A sync cannot be resumed, each attempt starts a new one.
+			for (int attempt = 1; attempt <= UPLOAD_ATTEMPTS; attempt++) {
+				InputStream sync;
+				long syncLength;
+				VerifyingRdbStream verifier = null;
 				try {
-					for (int i = 1; filePosition < contentLength; i++) {
-						// Last part can be less than initPartSize (500MB). Adjust part size.
-						partSize = Math.min(partSize, (contentLength - filePosition));
-
-						// Create request to upload a part.
-						UploadPartRequest uploadRequest = new UploadPartRequest()
-								.withBucketName(config.getBucketName()).withKey(keyName)
-								.withUploadId(initResponse.getUploadId())
-								.withPartNumber(i).withFileOffset(filePosition)
-								.withFile(file).withPartSize(partSize);
-
-						// Upload part and add response to our list.
-						partETags.add(s3Client.uploadPart(uploadRequest).getPartETag());
-
-						filePosition += partSize;
+					ReplicaSyncStream replica = ReplicaSyncStream.open(host, port, SYNC_TIMEOUT_MS);
+					sync = replica;
+					syncLength = replica.getLength();
+					if (config.isBackupVerificationEnabled()) {
+						sync = verifier = new VerifyingRdbStream(replica);
+					}
+				} catch (IOException e) {
+					logger.error("Could not sync from " + host + ":" + port + ", attempt " + attempt + " of "
+							+ UPLOAD_ATTEMPTS + ": " + e.getMessage());
+					continue;
+				}
+				boolean uploaded;
+				try {
+					if (object) {
+						logger.info("Key in Bucket: " + nodePrefix + todayStart.getMillis());
+						uploaded = objectUploader.upload(config.getBucketName(), nodePrefix + todayStart.getMillis(),
+								sync, syncLength, codec, config.getBackupCompressionLevel(),
+								config.getBackupPartSizeMB() * MB);
+					} else {
+						logger.info("Key prefix in Bucket: " + prefix + ", compressed with " + codec);
+						BackupManifest manifest = chunkedUploader.upload(config.getBucketName(), prefix, sync,
+								BackupManifest.FileType.RDB, todayStart.getMillis(), codec,
+								config.getBackupCompressionLevel(), config.getBackupPartSizeMB() * MB);
+						uploaded = manifest != null;
+						if (uploaded && verifier != null) {
+							manifest.setRdbStats(verifier.getStats());
+							updateManifest(chunkedUploader, prefix, manifest);
+						}
 					}
+				} finally {
+					IOUtils.closeQuietly(sync);
+				}
+				if (uploaded) {
+					if (verifier != null) {
+						logger.info("Verified the backup stream: " + verifier.getStats().getKeys() + " keys");
+					}
+					if (!object) {
+						applyRetention(catalog, todayStart);
+					}
+					return true;
+				}
+				logger.warn("Diskless backup failed, attempt " + attempt + " of " + UPLOAD_ATTEMPTS);
+			}
+			return false;
+		} catch (IOException e) {
+			logger.error("Diskless backup failed: " + e.getMessage());
+			return false;
+		}
+	}
 
-					CompleteMultipartUploadRequest compRequest = new CompleteMultipartUploadRequest(
-							config.getBucketName(), keyName, initResponse.getUploadId(),
-							partETags);
+	private void applyRetention(S3BackupCatalog catalog, DateTime todayStart) {
+		if (config.getBackupRetentionDays() > 0) {
+			try {
+				int deleted = catalog.deleteBackupsBefore(
+						todayStart.minusDays(config.getBackupRetentionDays()).getMillis());
+				logger.info("Backup retention: deleted " + deleted + " backups");
+			} catch (IOException e) {
+				logger.warn("Backup retention failed, old backups are kept: " + e.getMessage());
+			}
+		}
+	}
 
-					s3Client.completeMultipartUpload(compRequest);
+	/**
+	 * Stores a pointer to the prefix of the replica in place of the backup of the day, and expires old backups and
+	 * pointers as usual. The replica may back up later in the backup window, so its backup of the day is waited for;
+	 * no pointer is stored if it does not show up, or if the replica itself left its backup to another node, since
+	 * restores follow a single pointer.
+	 */
+	@Override
+	public synchronized boolean linkToReplica(AppsInstance replica, DateTime todayStart) {
+		String replicaPrefix = S3BackupCatalog.nodePrefix(config, replica);
+		S3BackupCatalog catalog = new S3BackupCatalog(store, config.getBucketName(),
+				S3BackupCatalog.nodePrefix(config, iid));
+		S3BackupCatalog replicaCatalog = new S3BackupCatalog(store, config.getBucketName(), replicaPrefix);
+		long time = todayStart.getMillis();
+		long deadline = System.currentTimeMillis()
+				+ (Math.max(config.getBackupWindowMinutes(), 0) + REPLICA_BACKUP_WAIT_MINUTES) * MINUTE_MS;
+		try {
+			while (!replicaCatalog.holdsBackup(time)) {
+				if (replicaCatalog.readReplicaPointer(time) != null) {
+					logger.warn("Replica " + replicaPrefix + " left its backup to another node, not linking to it");
+					return false;
+				}
+				if (System.currentTimeMillis() >= deadline) {
+					logger.warn("Replica " + replicaPrefix + " has no backup of the day, not linking to it");
+					return false;
+				}
+				sleeper.sleepQuietly(MINUTE_MS);
+			}
+			catalog.writeReplicaPointer(time, replicaPrefix);
+			logger.info("Backup of " + catalog.backupPrefix(time) + " is held by " + replicaPrefix);
+		} catch (IOException e) {
+			logger.error("Could not record the replica holding the backup: " + e.getMessage());
+			return false;
+		}
+		applyRetention(catalog, todayStart);
+		return true;
+	}
 
-				} catch (Exception e) {
-					logger.error("Abosting multipart upload due to error");
-					s3Client.abortMultipartUpload(
-							new AbortMultipartUploadRequest(config.getBucketName(), keyName,
-									initResponse.getUploadId()));
+	/**
+	 * Extends the latest backup of the append only file with the bytes appended since its last chunk. If the file was
+	 * rewritten since, the rewritten file becomes a new backup, taken now, which later calls extend.
+	 */
+	@Override
+	public synchronized boolean uploadIncremental(File file) {
+		if (FORMAT_OBJECT.equalsIgnoreCase(config.getBackupFormat())) {
+			logger.warn("Incremental backups need the chunked backup format");
+			return false;
+		}
+		S3BackupCatalog catalog = new S3BackupCatalog(store, config.getBucketName(),
+				S3BackupCatalog.nodePrefix(config, iid));
+		try {
+			BackupManifest base = null;
+			for (BackupManifest manifest : catalog.list()) {
+				if (manifest.getFileType() == BackupManifest.FileType.AOF) {
+					base = manifest;
 				}
+			}
+			if (base == null) {
+				logger.info("Incremental backup: no full AOF backup to extend yet");
+				return false;
+			}
 
+			String prefix = catalog.backupPrefix(base.getBackupTime());
+			ChunkedBackupUploader uploader = new ChunkedBackupUploader(store, metrics,
+					config.getBackupUploadThreads(), config.getBackupPartRetries());
+			uploader.setThrottle(newThrottle());
+			switch (uploader.append(config.getBucketName(), prefix, base, file,
+					config.getBackupCompressionLevel())) {
+			case APPENDED:
+			case UNCHANGED:
 				return true;
+			case REWRITTEN:
+				logger.info("Incremental backup: " + file + " was rewritten since backup " + prefix
+						+ ", starting a new backup");
+				return uploadChunked(catalog, file, file.length(), System.currentTimeMillis(),
+						base.getCodec()) != null;
+			default:
+				return false;
 			}
-		} catch (AmazonServiceException ase) {
-
-			logger.error("AmazonServiceException;"
-					+ " request made it to Amazon S3, but was rejected with an error ");
-			logger.error("Error Message:    " + ase.getMessage());
-			logger.error("HTTP Status Code: " + ase.getStatusCode());
-			logger.error("AWS Error Code:   " + ase.getErrorCode());
-			logger.error("Error Type:       " + ase.getErrorType());
-			logger.error("Request ID:       " + ase.getRequestId());
-			return false;
+		} catch (IOException e) {
+			logger.error("Incremental backup of " + file + " failed: " + e.getMessage());
+		}
+		return false;
+	}
 
-		} catch (AmazonClientException ace) {
-			logger.error("AmazonClientException;" +
-					" the client encountered " +
-					"an internal error while trying to " +
-					"communicate with S3, ");
-			logger.error("Error Message: " + ace.getMessage());
-			return false;
+	/**
+	 * Uploads the file as a chunked backup taken at the given time. Each attempt resumes from the chunks committed by
+	 * the previous one.
+	 *
+	 * @return the manifest of the backup, or null if every attempt failed
+	 */
+	private BackupManifest uploadChunked(S3BackupCatalog catalog, File file, long length, long backupTime,
+			CompressionCodec codec) throws IOException {
+		String prefix = catalog.backupPrefix(backupTime);
+		logger.info("Key prefix in Bucket: " + prefix + ", compressed with " + codec);
+		ChunkedBackupUploader uploader = new ChunkedBackupUploader(store, metrics,
+				config.getBackupUploadThreads(), config.getBackupPartRetries());
+		uploader.setThrottle(newThrottle());
+		BackupManifest.FileType fileType = config.isRedisAofEnabled() ? BackupManifest.FileType.AOF
+				: BackupManifest.FileType.RDB;
+
+		BackupManifest manifest = null;
+		for (int attempt = 1; manifest == null && attempt <= UPLOAD_ATTEMPTS; attempt++) {
+			if (attempt > 1) {
+				logger.info("Resuming backup, attempt " + attempt + " of " + UPLOAD_ATTEMPTS);
+			}
+			manifest = uploader.upload(config.getBucketName(), prefix, file, length, fileType, backupTime, codec,
+					config.getBackupCompressionLevel(), config.getBackupPartSizeMB() * MB);
+		}
+		return manifest;
+	}
+
+	/**
+	 * Uploads the RDB file as a chunked backup taken at the given time, verifying it as it is read. The file is read
+	 * once, in order, so a failed attempt starts over rather than resumes. A file that is not a valid RDB fails every
+	 * attempt before its manifest is written, and the RDB statistics are recorded in the manifest.
+	 *
+	 * @return the manifest of the backup, or null if every attempt failed
+	 */
+	private BackupManifest uploadChunkedVerified(S3BackupCatalog catalog, File file, long length, long backupTime,
+			CompressionCodec codec) throws IOException {
+		String prefix = catalog.backupPrefix(backupTime);
+		logger.info("Key prefix in Bucket: " + prefix + ", compressed with " + codec + ", verified as uploaded");
+		ChunkedBackupUploader uploader = new ChunkedBackupUploader(store, metrics,
+				config.getBackupUploadThreads(), config.getBackupPartRetries());
+
+		for (int attempt = 1; attempt <= UPLOAD_ATTEMPTS; attempt++) {
+			if (attempt > 1) {
+				logger.info("Retrying backup, attempt " + attempt + " of " + UPLOAD_ATTEMPTS);
+			}
+			RandomAccessFile source = new RandomAccessFile(file, "r");
+			VerifyingRdbStream in = new VerifyingRdbStream(new ChannelInputStream(source, 0, length, newThrottle()));
+			BackupManifest manifest;
+			try {
+				manifest = uploader.upload(config.getBucketName(), prefix, in, BackupManifest.FileType.RDB,
+						backupTime, codec, config.getBackupCompressionLevel(), config.getBackupPartSizeMB() * MB);
+			} finally {
+				IOUtils.closeQuietly(in);
+				IOUtils.closeQuietly(source);
+			}
+			if (manifest != null) {
+				logger.info("Verified " + file + ": " + in.getStats().getKeys() + " keys");
+				manifest.setRdbStats(in.getStats());
+				updateManifest(uploader, prefix, manifest);
+				return manifest;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Records details added to the manifest of a complete backup. The backup is usable without them, so a failure
+	 * only logs.
+	 */
+	private void updateManifest(ChunkedBackupUploader uploader, String prefix, BackupManifest manifest) {
+		try {
+			uploader.updateManifest(config.getBucketName(), prefix, manifest);
+		} catch (IOException e) {
+			logger.warn("Could not record the RDB statistics of " + prefix + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Stores the backup as a single multipart object, the format used before chunked backups. A verified RDB is
+	 * checked as it is read, and an invalid one aborts the upload.
+	 */
+	private boolean uploadObject(File file, long length, String keyName, CompressionCodec codec, boolean verify)
+			throws IOException {
+		logger.info("Key in Bucket: " + keyName);
+		S3MultipartUploader uploader = new S3MultipartUploader(store, metrics, config.getBackupUploadThreads(),
+				config.getBackupPartRetries());
+		BackupThrottle throttle = newThrottle();
+		uploader.setThrottle(throttle);
+		if (codec == CompressionCodec.NONE && !verify) {
+			return uploader.upload(config.getBucketName(), keyName, file, length, config.getBackupPartSizeMB() * MB);
+		}
+
+		logger.info("Compressing backup with " + codec);
+		RandomAccessFile source = new RandomAccessFile(file, "r");
+		InputStream in = new ChannelInputStream(source, 0, length, throttle);
+		VerifyingRdbStream verifier = null;
+		if (verify) {
+			in = verifier = new VerifyingRdbStream(in);
 		}
+		try {
+			boolean uploaded = uploader.upload(config.getBucketName(), keyName, in, length, codec,
+					config.getBackupCompressionLevel(), config.getBackupPartSizeMB() * MB);
+			if (uploaded && verifier != null) {
+				logger.info("Verified " + file + ": " + verifier.getStats().getKeys() + " keys");
+			}
+			return uploaded;
+		} finally {
+			IOUtils.closeQuietly(in);
+			IOUtils.closeQuietly(source);
+		}
+	}
+
+	/**
+	 * @return a throttle pacing the reads of the data file by the load of the node, so the backup does not slow down
+	 *         Redis persistence and client traffic
+	 */
+	private BackupThrottle newThrottle() {
+		BackupThrottle throttle = new BackupThrottle(config.getBackupMaxRateMB() * MB,
+				config.getBackupMinRateMB() * MB, config.getBackupThrottleLatencyMicros(), loadSignals, sleeper,
+				metrics);
+		throttle.setDropPageCache(config.isBackupPageCacheDropEnabled());
+		return throttle;
+	}
+
+	/**
+	 * Lists the chunked backups of this node.
+	 */
+	@Override
+	public List<BackupManifest> listBackups() throws IOException {
+		return new S3BackupCatalog(store, config.getBucketName(), S3BackupCatalog.nodePrefix(config, iid)).list();
 	}
 }
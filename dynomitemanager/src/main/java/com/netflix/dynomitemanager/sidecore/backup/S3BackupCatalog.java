@@ -0,0 +1,223 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.identity.InstanceIdentity;
+
+/**
+ * Lists and expires the chunked backups of a node. A backup is listed only once its manifest exists, and expiring a
+ * backup deletes its manifest before its chunks, so a backup never shows up half deleted.
+ *
+ * A node that left its backup to another replica of its token records a pointer to the backups of that replica in
+ * place of a backup.
+ */
+public class S3BackupCatalog {
+	private static final Logger logger = LoggerFactory.getLogger(S3BackupCatalog.class);
+
+	/** The object pointing to the replica holding the backup, stored under the prefix of the backup. */
+	public static final String REPLICA_POINTER = "replica";
+
+	private final ObjectStore store;
+	private final String bucket;
+	private final String nodePrefix;
+
+	/**
+	 * @param nodePrefix
+	 *            the prefix of the backups of the node, ending with a '/'
+	 */
+	public S3BackupCatalog(ObjectStore store, String bucket, String nodePrefix) {
+		this.store = store;
+		this.bucket = bucket;
+		this.nodePrefix = nodePrefix;
+	}
+
+	/**
+	 * @return the prefix of the backups of this node: backup location + DC + rack + token
+	 */
+	public static String nodePrefix(IConfiguration config, InstanceIdentity iid) {
+		return nodePrefix(config, iid.getInstance());
+	}
+
+	/**
+	 * @return the prefix of the backups of the given node
+	 */
+	public static String nodePrefix(IConfiguration config, AppsInstance instance) {
+		return config.getBackupLocation() + "/" + instance.getDatacenter() + "/" + instance.getRack() + "/"
+				+ instance.getToken() + "/";
+	}
+
+	public String getNodePrefix() {
+		return nodePrefix;
+	}
+
+	public String backupPrefix(long backupTime) {
+		return nodePrefix + backupTime + "/";
+	}
+
+	/**
+	 * @return the manifest of the backup taken at the given time, or null if there is no complete chunked backup
+	 */
+	public BackupManifest getManifest(long backupTime) {
+		return ChunkedBackupUploader.readManifest(store, bucket, backupPrefix(backupTime) + BackupManifest.MANIFEST);
+	}
+
+	/**
+	 * Records that the backup taken at the given time is held by the node with the given prefix.
+	 */
+	public void writeReplicaPointer(long backupTime, String replicaPrefix) throws IOException {
+		byte[] bytes = replicaPrefix.getBytes(StandardCharsets.UTF_8);
+		store.put(bucket, backupPrefix(backupTime) + REPLICA_POINTER, new ByteArrayInputStream(bytes), bytes.length);
+	}
+
+	/**
+	 * @return the prefix of the node holding the backup taken at the given time, or null if no pointer was recorded
+	 */
+	public String readReplicaPointer(long backupTime) throws IOException {
+		InputStream in = store.get(bucket, backupPrefix(backupTime) + REPLICA_POINTER);
+		if (in == null) {
+			return null;
+		}
+		try {
+			return IOUtils.toString(in, StandardCharsets.UTF_8).trim();
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * @return true if the node holds a backup taken at the given time, chunked or stored as a single object, rather
+	 *         than a pointer to another replica
+	 */
+	public boolean holdsBackup(long backupTime) throws IOException {
+		return getManifest(backupTime) != null || store.head(bucket, nodePrefix + backupTime) != null;
+	}
+
+	/**
+	 * @return this catalog followed by the catalogs of the replicas its pointers lead to, which together hold the
+	 *         backups of the node
+	 */
+	public List<S3BackupCatalog> withReplicas() throws IOException {
+		LinkedHashSet<String> replicas = new LinkedHashSet<String>();
+		for (Map.Entry<Long, List<String>> backup : listBackupKeys().entrySet()) {
+			if (backup.getValue().contains(backupPrefix(backup.getKey()) + REPLICA_POINTER)) {
+				String replica = readReplicaPointer(backup.getKey());
+				if (replica != null && !replica.equals(nodePrefix)) {
+					replicas.add(replica);
+				}
+			}
+		}
+		List<S3BackupCatalog> catalogs = new ArrayList<S3BackupCatalog>();
+		catalogs.add(this);
+		for (String replica : replicas) {
+			catalogs.add(new S3BackupCatalog(store, bucket, replica));
+		}
+		return catalogs;
+	}
+
+	/**
+	 * @return the manifests of the complete backups of the node, oldest first
+	 */
+	public List<BackupManifest> list() throws IOException {
+		List<BackupManifest> manifests = new ArrayList<BackupManifest>();
+		for (Map.Entry<Long, List<String>> backup : listBackupKeys().entrySet()) {
+			if (backup.getValue().contains(backupPrefix(backup.getKey()) + BackupManifest.MANIFEST)) {
+				BackupManifest manifest = getManifest(backup.getKey());
+				if (manifest != null) {
+					manifests.add(manifest);
+				}
+			}
+		}
+		Collections.sort(manifests, new Comparator<BackupManifest>() {
+			@Override
+			public int compare(BackupManifest a, BackupManifest b) {
+				return Long.compare(a.getBackupTime(), b.getBackupTime());
+			}
+		});
+		return manifests;
+	}
+
+	/**
+	 * Deletes the chunked backups, complete or not, and the replica pointers recorded before the given time. Backups
+	 * stored as a single object are left alone.
+	 *
+	 * @return the number of backups deleted
+	 */
+	public int deleteBackupsBefore(long time) throws IOException {
+		int deleted = 0;
+		for (Map.Entry<Long, List<String>> backup : listBackupKeys().entrySet()) {
+			if (backup.getKey() >= time) {
+				continue;
+			}
+			String prefix = backupPrefix(backup.getKey());
+			List<String> keys = backup.getValue();
+			// Manifests go first, so the backup stops being listed or resumed before its chunks disappear.
+			for (String manifest : new String[] { BackupManifest.MANIFEST, BackupManifest.PARTIAL_MANIFEST }) {
+				if (keys.remove(prefix + manifest)) {
+					store.delete(bucket, prefix + manifest);
+				}
+			}
+			for (String key : keys) {
+				store.delete(bucket, key);
+			}
+			logger.info("Deleted backup " + prefix + " (" + keys.size() + " chunks)");
+			deleted++;
+		}
+		return deleted;
+	}
+
+	/**
+	 * @return the keys of each chunked backup of the node, by backup time
+	 */
+	private TreeMap<Long, List<String>> listBackupKeys() throws IOException {
+		TreeMap<Long, List<String>> backups = new TreeMap<Long, List<String>>();
+		for (String key : store.list(bucket, nodePrefix)) {
+			String rest = key.substring(nodePrefix.length());
+			int slash = rest.indexOf('/');
+			if (slash <= 0) {
+				// Backups stored as a single object.
+				continue;
+			}
+			long backupTime;
+			try {
+				backupTime = Long.parseLong(rest.substring(0, slash));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			List<String> keys = backups.get(backupTime);
+			if (keys == null) {
+				keys = new ArrayList<String>();
+				backups.put(backupTime, keys);
+			}
+			keys.add(key);
+		}
+		return backups;
+	}
+}
@@ -0,0 +1,327 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.dynomitemanager.sidecore.scheduler.NamedThreadPoolExecutor;
+import com.netflix.dynomitemanager.sidecore.utils.BoundedExponentialRetryCallable;
+
+/**
+ * Uploads a file or a stream to an {@link ObjectStore} as a multipart upload, with several parts in flight at once.
+ *
+ * Parts are handed to a fixed pool of upload threads through a queue as deep as the pool, so the submitting thread
+ * blocks once <code>2 * threads</code> parts are pending and the number of parts held at any time stays bounded. Each
+ * part is retried on its own with exponential backoff; the upload is aborted only when a part still fails after all
+ * of its retries.
+ *
+ * File uploads send parts straight from the file. Stream uploads run the data through a {@link CompressionCodec} and
+ * buffer each compressed part in heap until it is uploaded, so they hold at most <code>2 * threads + 1</code> parts.
+ *
+ * Once the upload is complete, a {@link PartIndex} listing the range and ETag of every part is stored next to the
+ * object, so restores can download and verify it part by part.
+ */
+public class S3MultipartUploader {
+	private static final Logger logger = LoggerFactory.getLogger(S3MultipartUploader.class);
+
+	// S3 rejects parts smaller than 5MB, except for the last one.
+	public static final long MIN_PART_SIZE = 5L * 1024L * 1024L;
+
+	// User metadata recording how the object was written, read back by the restore.
+	public static final String METADATA_CODEC = "dm-codec";
+	public static final String METADATA_RAW_LENGTH = "dm-raw-length";
+
+	private static final int READ_BUFFER_SIZE = 256 * 1024;
+	private static final long MIN_RETRY_SLEEP_MS = 1000;
+	private static final long MAX_RETRY_SLEEP_MS = 30000;
+
+	private final ObjectStore store;
+	private final BackupMetrics metrics;
+	private final int threads;
+	private final int retries;
+	private BackupThrottle throttle;
+
+	public S3MultipartUploader(ObjectStore store, BackupMetrics metrics, int threads, int retries) {
+		this.store = store;
+		this.metrics = metrics;
+		this.threads = Math.max(1, threads);
+		this.retries = Math.max(0, retries);
+	}
+
+	/**
+	 * Paces the reads of files. Without a throttle, the object store reads the parts of files itself.
+	 */
+	public void setThrottle(BackupThrottle throttle) {
+		this.throttle = throttle;
+	}
+
+	/**
+	 * A part of the upload. Reads its bytes afresh on every attempt, so stream based parts can be retried.
+	 *
+	 * @return the ETag of the part
+	 */
+	private abstract static class Part {
+		final int number;
+		final long size;
+
+		Part(int number, long size) {
+			this.number = number;
+			this.size = size;
+		}
+
+		abstract String upload() throws IOException;
+	}
+
+	private interface PartSink {
+		boolean accepting();
+
+		void add(Part part);
+	}
+
+	private interface PartProducer {
+		void produce(String uploadId, PartSink sink) throws Exception;
+	}
+
+	/**
+	 * Exposes the internal buffer, so a part can be uploaded without copying it.
+	 */
+	private static class PartBuffer extends ByteArrayOutputStream {
+		PartBuffer(int size) {
+			super(size);
+		}
+
+		InputStream newInputStream() {
+			return new ByteArrayInputStream(buf, 0, count);
+		}
+	}
+
+	/**
+	 * Uploads the first <code>length</code> bytes of the file, uncompressed.
+	 *
+	 * @return true if the upload completed, false if it was aborted
+	 */
+	public boolean upload(final String bucket, final String key, final File file, final long length, long partSize) {
+		final long size = Math.max(partSize, MIN_PART_SIZE);
+		Map<String, String> metadata = new HashMap<String, String>();
+		metadata.put(METADATA_CODEC, CompressionCodec.NONE.name());
+		metadata.put(METADATA_RAW_LENGTH, Long.toString(length));
+
+		return upload(bucket, key, metadata, length, new PartProducer() {
+			@Override
+			public void produce(final String uploadId, PartSink sink) {
+				long filePosition = 0;
+				for (int partNumber = 1; filePosition < length && sink.accepting(); partNumber++) {
+					// Last part can be smaller than the part size.
+					final long partLength = Math.min(size, length - filePosition);
+					final long offset = filePosition;
+					sink.add(new Part(partNumber, partLength) {
+						@Override
+						String upload() throws IOException {
+							if (throttle == null) {
+								return store.uploadPart(bucket, key, uploadId, number, file, offset, partLength);
+							}
+							RandomAccessFile source = new RandomAccessFile(file, "r");
+							try {
+								return store.uploadPart(bucket, key, uploadId, number,
+										new ChannelInputStream(source, offset, partLength, throttle), partLength);
+							} finally {
+								source.close();
+							}
+						}
+					});
+					filePosition += partLength;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reads the stream until its end, compresses it with the codec and uploads it. Each part is compressed
+	 * independently and is cut once its compressed size reaches the part size.
+	 *
+	 * @param rawLength
+	 *            the expected number of bytes in the stream, recorded in the object metadata, or -1 if unknown
+	 * @return true if the upload completed, false if it was aborted
+	 */
+	public boolean upload(final String bucket, final String key, final InputStream in, long rawLength,
+			final CompressionCodec codec, final int level, long partSize) {
+		final long size = Math.max(partSize, MIN_PART_SIZE);
+		Map<String, String> metadata = new HashMap<String, String>();
+		metadata.put(METADATA_CODEC, codec.name());
+		if (rawLength >= 0) {
+			metadata.put(METADATA_RAW_LENGTH, Long.toString(rawLength));
+		}
+
+		return upload(bucket, key, metadata, rawLength, new PartProducer() {
+			@Override
+			public void produce(final String uploadId, PartSink sink) throws Exception {
+				byte[] buffer = new byte[READ_BUFFER_SIZE];
+				boolean eof = false;
+				for (int partNumber = 1; !eof && sink.accepting(); partNumber++) {
+					final PartBuffer part = new PartBuffer((int) Math.min(size + READ_BUFFER_SIZE, Integer.MAX_VALUE));
+					OutputStream compressor = codec.compress(part, level);
+					while (part.size() < size) {
+						int n = in.read(buffer);
+						if (n < 0) {
+							eof = true;
+							break;
+						}
+						compressor.write(buffer, 0, n);
+					}
+					// Finishes the compressed stream of this part; closing the buffer itself is a no-op.
+					compressor.close();
+
+					sink.add(new Part(partNumber, part.size()) {
+						@Override
+						String upload() throws IOException {
+							return store.uploadPart(bucket, key, uploadId, number, part.newInputStream(),
+									part.size());
+						}
+					});
+				}
+			}
+		});
+	}
+
+	private boolean upload(String bucket, String key, Map<String, String> metadata, long rawLength,
+			PartProducer producer) {
+		final String uploadId;
+		try {
+			uploadId = store.initiateMultipartUpload(bucket, key, metadata);
+		} catch (IOException e) {
+			logger.error("Could not start the multipart upload of " + key + ": " + e.getMessage());
+			return false;
+		}
+
+		final NamedThreadPoolExecutor executor = new NamedThreadPoolExecutor(threads, "S3BackupUpload",
+				new ArrayBlockingQueue<Runnable>(threads));
+		final List<Future<String>> futures = new ArrayList<Future<String>>();
+		final List<Long> offsets = new ArrayList<Long>();
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		final long[] uploaded = { 0 };
+		long start = System.currentTimeMillis();
+		try {
+			producer.produce(uploadId, new PartSink() {
+				@Override
+				public boolean accepting() {
+					return !failed.get();
+				}
+
+				@Override
+				public void add(Part part) {
+					offsets.add(uploaded[0]);
+					uploaded[0] += part.size;
+					futures.add(executor.submit(newPartUpload(part, failed)));
+				}
+			});
+
+			List<String> partETags = new ArrayList<String>(futures.size());
+			PartIndex index = new PartIndex();
+			for (int i = 0; i < futures.size(); i++) {
+				String partETag = futures.get(i).get();
+				partETags.add(partETag);
+				long end = i + 1 < offsets.size() ? offsets.get(i + 1) : uploaded[0];
+				index.add(i + 1, offsets.get(i), end - offsets.get(i), partETag);
+			}
+
+			store.completeMultipartUpload(bucket, key, uploadId, partETags);
+			putIndex(bucket, key, index);
+			long elapsed = System.currentTimeMillis() - start;
+			metrics.uploadFinished(uploaded[0], elapsed);
+			logger.info(String.format("Uploaded %d bytes (%d raw) in %d parts to %s/%s in %d ms", uploaded[0],
+					rawLength, partETags.size(), bucket, key, elapsed));
+			return true;
+		} catch (ExecutionException e) {
+			logger.error("Aborting multipart upload of " + key + " after a part failed", e.getCause());
+		} catch (Exception e) {
+			logger.error("Aborting multipart upload of " + key, e);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		for (Future<String> future : futures) {
+			future.cancel(true);
+		}
+		try {
+			store.abortMultipartUpload(bucket, key, uploadId);
+		} catch (IOException e) {
+			logger.warn("Could not abort the multipart upload of " + key + ": " + e.getMessage());
+		}
+		return false;
+	}
+
+	/**
+	 * Stores the part index of a completed upload. A missing index only costs the restore its part checksums, so a
+	 * failure here does not fail the backup.
+	 */
+	private void putIndex(String bucket, String key, PartIndex index) {
+		byte[] bytes = index.toBytes();
+		try {
+			store.put(bucket, key + PartIndex.SUFFIX, new ByteArrayInputStream(bytes), bytes.length);
+		} catch (Exception e) {
+			logger.warn("Could not store the part index of " + key + ": " + e.getMessage());
+		}
+	}
+
+	private Callable<String> newPartUpload(final Part part, final AtomicBoolean failed) {
+		final BoundedExponentialRetryCallable<String> retryable = new BoundedExponentialRetryCallable<String>(
+				MIN_RETRY_SLEEP_MS, MAX_RETRY_SLEEP_MS, retries) {
+			@Override
+			public String retriableCall() throws Exception {
+				long partStart = System.currentTimeMillis();
+				metrics.partStarted(part.size);
+				try {
+					String etag = part.upload();
+					metrics.partFinished(part.size, System.currentTimeMillis() - partStart);
+					return etag;
+				} catch (Exception e) {
+					metrics.partAttemptFailed(part.size);
+					logger.warn("Upload of part " + part.number + " failed: " + e.getMessage());
+					throw e;
+				}
+			}
+		};
+
+		return new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				try {
+					return retryable.call();
+				} catch (Exception e) {
+					// Stop queueing more parts, the upload is going to be aborted.
+					failed.set(true);
+					metrics.partFailed();
+					throw e;
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.sidecore.ICredential;
+
+/**
+ * Keeps backups in S3. Errors of the AWS client are reported as {@link IOException}s carrying the original exception.
+ */
+@Singleton
+public class S3ObjectStore implements ObjectStore {
+
+	private final AmazonS3 s3Client;
+
+	@Inject
+	public S3ObjectStore(ICredential cred) {
+		this(new AmazonS3Client(cred.getAwsCredentialProvider()));
+	}
+
+	public S3ObjectStore(AmazonS3 s3Client) {
+		this.s3Client = s3Client;
+	}
+
+	@Override
+	public boolean bucketExists(String bucket) throws IOException {
+		try {
+			return s3Client.doesBucketExist(bucket);
+		} catch (AmazonClientException e) {
+			throw failure("Could not check bucket " + bucket, e);
+		}
+	}
+
+	@Override
+	public void put(String bucket, String key, InputStream in, long length) throws IOException {
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(length);
+		try {
+			s3Client.putObject(bucket, key, in, metadata);
+		} catch (AmazonClientException e) {
+			throw failure("Could not put " + key, e);
+		}
+	}
+
+	@Override
+	public InputStream get(String bucket, String key) throws IOException {
+		try {
+			return s3Client.getObject(bucket, key).getObjectContent();
+		} catch (AmazonClientException e) {
+			if (isNotFound(e)) {
+				return null;
+			}
+			throw failure("Could not get " + key, e);
+		}
+	}
+
+	@Override
+	public InputStream getRange(String bucket, String key, long offset, long length) throws IOException {
+		try {
+			S3Object object = s3Client
+					.getObject(new GetObjectRequest(bucket, key).withRange(offset, offset + length - 1));
+			return object.getObjectContent();
+		} catch (AmazonClientException e) {
+			throw failure("Could not get " + key + " from " + offset, e);
+		}
+	}
+
+	@Override
+	public ObjectInfo head(String bucket, String key) throws IOException {
+		try {
+			ObjectMetadata metadata = s3Client.getObjectMetadata(bucket, key);
+			return new ObjectInfo(metadata.getContentLength(), PartIndex.stripQuotes(metadata.getETag()),
+					metadata.getUserMetadata(), "aws:kms".equals(metadata.getSSEAlgorithm()));
+		} catch (AmazonClientException e) {
+			if (isNotFound(e)) {
+				return null;
+			}
+			throw failure("Could not get the metadata of " + key, e);
+		}
+	}
+
+	@Override
+	public List<String> list(String bucket, String prefix) throws IOException {
+		List<String> keys = new ArrayList<String>();
+		try {
+			ObjectListing listing = s3Client
+					.listObjects(new ListObjectsRequest().withBucketName(bucket).withPrefix(prefix));
+			while (true) {
+				for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+					keys.add(summary.getKey());
+				}
+				if (!listing.isTruncated()) {
+					return keys;
+				}
+				listing = s3Client.listNextBatchOfObjects(listing);
+			}
+		} catch (AmazonClientException e) {
+			throw failure("Could not list " + prefix, e);
+		}
+	}
+
+	@Override
+	public void delete(String bucket, String key) throws IOException {
+		try {
+			s3Client.deleteObject(bucket, key);
+		} catch (AmazonClientException e) {
+			throw failure("Could not delete " + key, e);
+		}
+	}
+
+	@Override
+	public String initiateMultipartUpload(String bucket, String key, Map<String, String> userMetadata)
+			throws IOException {
+		ObjectMetadata metadata = new ObjectMetadata();
+		for (Map.Entry<String, String> entry : userMetadata.entrySet()) {
+			metadata.addUserMetadata(entry.getKey(), entry.getValue());
+		}
+		try {
+			return s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key, metadata))
+					.getUploadId();
+		} catch (AmazonClientException e) {
+			throw failure("Could not start the upload of " + key, e);
+		}
+	}
+
+	@Override
+	public String uploadPart(String bucket, String key, String uploadId, int partNumber, InputStream in, long length)
+			throws IOException {
+		return uploadPart(newPartRequest(bucket, key, uploadId, partNumber, length).withInputStream(in));
+	}
+
+	@Override
+	public String uploadPart(String bucket, String key, String uploadId, int partNumber, File file, long offset,
+			long length) throws IOException {
+		return uploadPart(
+				newPartRequest(bucket, key, uploadId, partNumber, length).withFile(file).withFileOffset(offset));
+	}
+
+	private static UploadPartRequest newPartRequest(String bucket, String key, String uploadId, int partNumber,
+			long length) {
+		return new UploadPartRequest().withBucketName(bucket).withKey(key).withUploadId(uploadId)
+				.withPartNumber(partNumber).withPartSize(length);
+	}
+
+	private String uploadPart(UploadPartRequest request) throws IOException {
+		try {
+			return s3Client.uploadPart(request).getPartETag().getETag();
+		} catch (AmazonClientException e) {
+			throw failure("Could not upload part " + request.getPartNumber() + " of " + request.getKey(), e);
+		}
+	}
+
+	@Override
+	public void completeMultipartUpload(String bucket, String key, String uploadId, List<String> partETags)
+			throws IOException {
+		List<PartETag> etags = new ArrayList<PartETag>(partETags.size());
+		for (int i = 0; i < partETags.size(); i++) {
+			etags.add(new PartETag(i + 1, partETags.get(i)));
+		}
+		try {
+			s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, etags));
+		} catch (AmazonClientException e) {
+			throw failure("Could not complete the upload of " + key, e);
+		}
+	}
+
+	@Override
+	public void abortMultipartUpload(String bucket, String key, String uploadId) throws IOException {
+		try {
+			s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+		} catch (AmazonClientException e) {
+			throw failure("Could not abort the upload of " + key, e);
+		}
+	}
+
+	private static boolean isNotFound(AmazonClientException e) {
+		return e instanceof AmazonServiceException && ((AmazonServiceException) e).getStatusCode() == 404;
+	}
+
+	private static IOException failure(String message, AmazonClientException e) {
+		if (e instanceof AmazonServiceException) {
+			AmazonServiceException ase = (AmazonServiceException) e;
+			return new IOException(message + ": " + ase.getMessage() + " (HTTP " + ase.getStatusCode() + ", "
+					+ ase.getErrorCode() + ", request " + ase.getRequestId() + ")", e);
+		}
+		return new IOException(message + ": " + e.getMessage(), e);
+	}
+}
@@ -0,0 +1,419 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.dynomitemanager.InstanceState;
+import com.netflix.dynomitemanager.sidecore.scheduler.NamedThreadPoolExecutor;
+import com.netflix.dynomitemanager.sidecore.utils.BoundedExponentialRetryCallable;
+
+/**
+ * Downloads a backup to a local file as byte ranges fetched in parallel, each written at its offset in the file.
+ *
+ * Chunked backups are fetched chunk by chunk, checking the MD5 of each stored chunk and the CRC32 of its decompressed
+ * bytes against the {@link BackupManifest}. Backups stored as a single object are fetched in ranges: when the object
+ * has a {@link PartIndex}, ranges follow the uploaded parts and the MD5 of each range is checked against the ETag of
+ * its part. Objects without an index are split in fixed size ranges that are not verified. A range that fails a check
+ * is downloaded again.
+ *
+ * Completed ranges are recorded in a journal next to the file, after the range has been forced to disk. If the
+ * download is interrupted, the next download of the same object to the same file only fetches the missing ranges. The
+ * journal is removed once the file is complete.
+ */
+public class S3RangedDownloader {
+	private static final Logger logger = LoggerFactory.getLogger(S3RangedDownloader.class);
+
+	public static final String JOURNAL_SUFFIX = ".journal";
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+	private static final long MIN_RETRY_SLEEP_MS = 1000;
+	private static final long MAX_RETRY_SLEEP_MS = 30000;
+	private static final int TERMINATION_TIMEOUT_SECONDS = 30;
+
+	private final ObjectStore store;
+	private final InstanceState state;
+	private final int threads;
+	private final int retries;
+
+	public S3RangedDownloader(ObjectStore store, InstanceState state, int threads, int retries) {
+		this.store = store;
+		this.state = state;
+		this.threads = Math.max(1, threads);
+		this.retries = Math.max(0, retries);
+	}
+
+	/**
+	 * Downloads a whole object.
+	 *
+	 * @param rangeSize
+	 *            the size of the ranges of objects without a part index
+	 * @return true if the file holds the whole object, false if the download failed and can be resumed
+	 */
+	public boolean download(final String bucket, final String key, File target, long rangeSize) throws IOException {
+		ObjectStore.ObjectInfo info = store.head(bucket, key);
+		if (info == null) {
+			throw new FileNotFoundException("No object " + key);
+		}
+		long length = info.length;
+		String objectETag = info.etag;
+
+		List<PartIndex.Entry> ranges;
+		final boolean verify;
+		PartIndex index = readIndex(bucket, key);
+		if (index != null && index.covers(length)
+				&& (!index.hasMD5ETags() || index.compositeETag().equals(objectETag))) {
+			ranges = index.getEntries();
+			// Parts of objects encrypted with KMS keys do not have their MD5 as ETag.
+			verify = index.hasMD5ETags() && !info.kmsEncrypted;
+		} else {
+			if (index != null) {
+				logger.warn("Ignoring the part index of " + key + ", it does not match the object");
+			}
+			ranges = fixedRanges(length, Math.max(1, rangeSize));
+			verify = false;
+		}
+		logger.info(String.format("Downloading %d bytes of %s/%s in %d ranges%s", length, bucket, key,
+				ranges.size(), verify ? ", verifying part checksums" : ""));
+
+		String header = objectETag + " " + length + " " + ranges.size() + " "
+				+ (ranges.isEmpty() ? 0 : ranges.get(0).length);
+		return download(bucket + "/" + key, target, length, header, ranges, new RangeFetcher() {
+			@Override
+			public void fetch(PartIndex.Entry range, RangeWriter out) throws IOException {
+				InputStream in = store.getRange(bucket, key, range.offset, range.length);
+				MessageDigest md5 = verify ? PartIndex.newMD5() : null;
+				try {
+					out.copy(md5 == null ? in : new DigestInputStream(in, md5));
+				} finally {
+					IOUtils.closeQuietly(in);
+				}
+				if (md5 != null) {
+					checkMD5(range, md5);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Downloads a chunked backup and decompresses it into the file. Chunks are written at their offset in the source
+	 * file, so compressed backups need no extra pass over the data.
+	 *
+	 * @return true if the file holds the whole backup, false if the download failed and can be resumed
+	 */
+	public boolean downloadBackup(final String bucket, final String prefix, final BackupManifest manifest,
+			File target) throws IOException {
+		final List<PartIndex.Entry> ranges = new ArrayList<PartIndex.Entry>(manifest.getChunks().size());
+		for (BackupManifest.Chunk chunk : manifest.getChunks()) {
+			ranges.add(new PartIndex.Entry(chunk.index + 1, chunk.offset, chunk.rawLength, chunk.md5));
+		}
+		logger.info(String.format("Downloading %d chunks of %s/%s (%d bytes, %d stored with %s)", ranges.size(),
+				bucket, prefix, manifest.getRawLength(), manifest.getStoredLength(), manifest.getCodec()));
+
+		String header = "manifest " + manifest.getBackupTime() + " " + manifest.getCreatedAt() + " "
+				+ manifest.getRawLength() + " " + ranges.size();
+		return download(bucket + "/" + prefix, target, manifest.getRawLength(), header, ranges, new RangeFetcher() {
+			@Override
+			public void fetch(PartIndex.Entry range, RangeWriter out) throws IOException {
+				BackupManifest.Chunk chunk = manifest.getChunks().get(range.number - 1);
+				InputStream in = store.get(bucket, BackupManifest.chunkKey(prefix, chunk.index));
+				if (in == null) {
+					throw new FileNotFoundException("Chunk " + chunk.index + " of " + prefix + " is missing");
+				}
+				MessageDigest md5 = PartIndex.newMD5();
+				CRC32 crc = new CRC32();
+				InputStream stored = new DigestInputStream(in, md5);
+				try {
+					out.copy(new CheckedInputStream(manifest.getCodec().decompress(stored), crc));
+					// Codecs may stop short of trailing bytes, the checksum covers all of the stored chunk.
+					IOUtils.skip(stored, Long.MAX_VALUE);
+				} finally {
+					IOUtils.closeQuietly(stored);
+				}
+				checkMD5(range, md5);
+				if (crc.getValue() != chunk.crc32) {
+					throw new IOException("CRC mismatch in decompressed chunk " + chunk.index + ": expected "
+							+ chunk.crc32 + ", got " + crc.getValue());
+				}
+			}
+		});
+	}
+
+	private static void checkMD5(PartIndex.Entry range, MessageDigest md5) throws IOException {
+		String actual = PartIndex.toHex(md5.digest());
+		if (!actual.equals(range.etag)) {
+			throw new IOException("Checksum mismatch in range " + range.number + ": expected " + range.etag + ", got "
+					+ actual);
+		}
+	}
+
+	/**
+	 * Fetches one range and writes it through the writer. Throwing makes the range be fetched again.
+	 */
+	private interface RangeFetcher {
+		void fetch(PartIndex.Entry range, RangeWriter out) throws IOException;
+	}
+
+	/**
+	 * Writes the bytes of a range at their offset in the file and counts them towards the restore progress.
+	 */
+	private class RangeWriter {
+		private final FileChannel channel;
+		private final PartIndex.Entry range;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private long written;
+
+		RangeWriter(FileChannel channel, PartIndex.Entry range) {
+			this.channel = channel;
+			this.range = range;
+		}
+
+		/**
+		 * Copies the stream until its end, which must also be the end of the range.
+		 */
+		void copy(InputStream in) throws IOException {
+			int n;
+			while ((n = in.read(buffer)) >= 0) {
+				if (written + n > range.length) {
+					throw new IOException("Range " + range.number + " is longer than " + range.length + " bytes");
+				}
+				ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, n);
+				long position = range.offset + written;
+				while (bytes.hasRemaining()) {
+					position += channel.write(bytes, position);
+				}
+				written += n;
+				state.addRestoreBytesDone(n);
+			}
+			if (written != range.length) {
+				throw new IOException("Range " + range.number + " ended after " + written + " of " + range.length
+						+ " bytes");
+			}
+		}
+	}
+
+	/**
+	 * Fetches the ranges in parallel into the file, skipping the ranges an earlier attempt recorded in the journal.
+	 */
+	private boolean download(String name, File target, long length, String header, List<PartIndex.Entry> ranges,
+			RangeFetcher fetcher) throws IOException {
+		File journalFile = new File(target.getPath() + JOURNAL_SUFFIX);
+		Set<Integer> completed = readJournal(journalFile, header, target, length);
+
+		long done = 0;
+		for (PartIndex.Entry range : ranges) {
+			if (completed.contains(range.number)) {
+				done += range.length;
+			}
+		}
+		if (done > 0) {
+			logger.info("Resuming download of " + name + ", " + completed.size() + " ranges (" + done
+					+ " bytes) already on disk");
+		}
+		state.setRestoreProgress(done, length);
+
+		RandomAccessFile file = new RandomAccessFile(target, "rw");
+		OutputStream journal = null;
+		NamedThreadPoolExecutor executor = null;
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		long start = System.currentTimeMillis();
+		try {
+			file.setLength(length);
+			FileChannel channel = file.getChannel();
+			journal = new FileOutputStream(journalFile, true);
+			if (completed.isEmpty()) {
+				journal.write((header + "\n").getBytes(StandardCharsets.US_ASCII));
+				journal.flush();
+			}
+
+			executor = new NamedThreadPoolExecutor(threads, "S3RestoreDownload",
+					new ArrayBlockingQueue<Runnable>(threads));
+			AtomicBoolean failed = new AtomicBoolean(false);
+			for (PartIndex.Entry range : ranges) {
+				if (failed.get()) {
+					break;
+				}
+				if (!completed.contains(range.number)) {
+					futures.add(executor.submit(newRangeDownload(range, fetcher, channel, journal, failed)));
+				}
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+
+			channel.force(true);
+			journal.close();
+			journal = null;
+			file.close();
+			journalFile.delete();
+			logger.info(String.format("Downloaded %s in %d ms", name, System.currentTimeMillis() - start));
+			return true;
+		} catch (ExecutionException e) {
+			logger.error("Download of " + name + " failed, it will resume from the completed ranges", e.getCause());
+		} catch (InterruptedException e) {
+			logger.error("Download of " + name + " interrupted, it will resume from the completed ranges");
+			Thread.currentThread().interrupt();
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			for (Future<Void> future : futures) {
+				future.cancel(true);
+			}
+			// Ranges still running must not update the progress once the next attempt has reset it.
+			awaitTermination(executor);
+			IOUtils.closeQuietly(journal);
+			IOUtils.closeQuietly(file);
+		}
+		return false;
+	}
+
+	private PartIndex readIndex(String bucket, String key) {
+		InputStream in = null;
+		try {
+			in = store.get(bucket, key + PartIndex.SUFFIX);
+			return in == null ? null : PartIndex.parse(in);
+		} catch (IOException e) {
+			logger.warn("Could not read the part index of " + key + ": " + e.getMessage());
+			return null;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	private static List<PartIndex.Entry> fixedRanges(long length, long rangeSize) {
+		List<PartIndex.Entry> ranges = new ArrayList<PartIndex.Entry>();
+		long offset = 0;
+		for (int number = 1; offset < length; number++) {
+			long rangeLength = Math.min(rangeSize, length - offset);
+			ranges.add(new PartIndex.Entry(number, offset, rangeLength, null));
+			offset += rangeLength;
+		}
+		return ranges;
+	}
+
+	/**
+	 * @return the ranges recorded by an earlier download of the same object to the same file, or an empty set if the
+	 *         download has to start over, in which case the file and the journal are removed
+	 */
+	private static Set<Integer> readJournal(File journalFile, String header, File target, long length)
+			throws IOException {
+		Set<Integer> completed = new HashSet<Integer>();
+		if (journalFile.exists() && target.exists() && target.length() == length) {
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.US_ASCII));
+			try {
+				if (header.equals(reader.readLine())) {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						try {
+							completed.add(Integer.parseInt(line.trim()));
+						} catch (NumberFormatException e) {
+							// Torn write at the end of the journal, that range is downloaded again.
+							break;
+						}
+					}
+					if (!completed.isEmpty()) {
+						return completed;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		journalFile.delete();
+		target.delete();
+		return completed;
+	}
+
+	private static void awaitTermination(NamedThreadPoolExecutor executor) {
+		if (executor == null) {
+			return;
+		}
+		try {
+			if (!executor.awaitTermination(TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				logger.warn("Range downloads did not stop within " + TERMINATION_TIMEOUT_SECONDS + " seconds");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private Callable<Void> newRangeDownload(final PartIndex.Entry range, final RangeFetcher fetcher,
+			final FileChannel channel, final OutputStream journal, final AtomicBoolean failed) {
+		final BoundedExponentialRetryCallable<Void> retryable = new BoundedExponentialRetryCallable<Void>(
+				MIN_RETRY_SLEEP_MS, MAX_RETRY_SLEEP_MS, retries) {
+			@Override
+			public Void retriableCall() throws Exception {
+				RangeWriter out = new RangeWriter(channel, range);
+				try {
+					fetcher.fetch(range, out);
+				} catch (Exception e) {
+					// This attempt does not count towards the progress, the range is fetched again.
+					state.addRestoreBytesDone(-out.written);
+					logger.warn("Download of range " + range.number + " failed: " + e.getMessage());
+					throw e;
+				}
+				// The journal must never list a range that is not on disk yet.
+				channel.force(false);
+				synchronized (journal) {
+					journal.write((range.number + "\n").getBytes(StandardCharsets.US_ASCII));
+					journal.flush();
+				}
+				return null;
+			}
+		};
+
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				try {
+					return retryable.call();
+				} catch (Exception e) {
+					failed.set(true);
+					throw e;
+				}
+			}
+		};
+	}
+}
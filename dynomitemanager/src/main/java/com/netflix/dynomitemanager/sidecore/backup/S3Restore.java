@@ -12,12 +12,22 @@
  */
 package com.netflix.dynomitemanager.sidecore.backup;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
@@ -25,87 +35,170 @@ import org.joda.time.format.DateTimeFormatter;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.netflix.dynomitemanager.sidecore.ICredential;
+import com.netflix.dynomitemanager.InstanceState;
 import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
 import com.netflix.dynomitemanager.identity.InstanceIdentity;
-import com.amazonaws.AmazonClientException;
-import com.amazonaws.AmazonServiceException;
-import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.model.GetObjectRequest;
-import com.amazonaws.services.s3.model.S3Object;
+import com.netflix.dynomitemanager.sidecore.utils.Sleeper;
 
 @Singleton
 public class S3Restore implements Restore {
 
 	private static final Logger logger = LoggerFactory.getLogger(S3Restore.class);
+	private static final int BUFFER_SIZE = 256 * 1024;
+	private static final long MB = 1024L * 1024L;
+	private static final String DOWNLOAD_SUFFIX = ".download";
+	private static final String COMPRESSED_SUFFIX = ".compressed";
+	private static final String POINT_IN_TIME_FORMAT = "yyyyMMddHHmm";
+	private static final long MINUTE_MS = 60L * 1000L;
+	static final String AOF_FILE = "appendonly.aof";
+	static final String RDB_FILE = "nfredis.rdb";
 
 	@Inject private IConfiguration config;
 
-	@Inject private ICredential cred;
+	@Inject private ObjectStore store;
 
 	@Inject private InstanceIdentity iid;
 
+	@Inject private InstanceState state;
+
+	@Inject private Sleeper sleeper;
+
 	/**
-	 * Uses the Amazon S3 API to restore from S3
+	 * Restores from the object store, S3 unless bound otherwise. A date formatted as yyyyMMdd restores the backup of that day, with
+	 * everything appended to it. A time formatted as yyyyMMddHHmm restores the data as it was at the end of that
+	 * minute, from the latest backup and the data appended to it up to then.
+	 *
+	 * Where the node recorded a pointer to the replica of its token that took the backup, the backup of that replica
+	 * is restored, whatever its rack.
 	 */
 	@Override
 	public boolean restoreData(String dateString) {
+		return restoreData(dateString, config.getRedisDataDir());
+	}
+
+	@Override
+	public boolean restoreData(String dateString, String dataDir) {
 		long time = restoreTime(dateString);
+		boolean pointInTime = dateString != null && dateString.length() == POINT_IN_TIME_FORMAT.length();
 		if (time > -1) {
 			logger.info("Restoring data from S3.");
-			AmazonS3Client s3Client = new AmazonS3Client(cred.getAwsCredentialProvider());
 
 			try {
-			   /* construct the key for the backup data */
-				String keyName = config.getBackupLocation() + "/" +
-						iid.getInstance().getDatacenter() + "/" +
-						iid.getInstance().getRack() + "/" +
-						iid.getInstance().getToken() + "/" +
-						time;
+				/* construct the key for the backup data */
+				String nodePrefix = S3BackupCatalog.nodePrefix(config, iid);
+				String keyName = nodePrefix + time;
 
 				logger.info("S3 Bucket Name: " + config.getBucketName());
-				logger.info("Key in Bucket: " + keyName);
 
 				// Checking if the S3 bucket exists, and if does not, then we create it
-				if (!(s3Client.doesBucketExist(config.getBucketName()))) {
+				if (!(store.bucketExists(config.getBucketName()))) {
 					logger.error("Bucket with name: " + config.getBucketName() + " does not exist");
-				} else {
-					S3Object s3object = s3Client
-							.getObject(new GetObjectRequest(config.getBucketName(),
-									keyName));
+					return false;
+				}
 
-					logger.info("Content-Type: " + s3object.getObjectMetadata().getContentType());
+				String filepath = null;
 
-					String filepath = null;
+				if (config.isRedisAofEnabled()) {
+					filepath = dataDir + "/" + AOF_FILE;
+				} else {
+					filepath = dataDir + "/" + RDB_FILE;
+				}
+
+				/*
+				 * Backups are downloaded next to the data file, so an interrupted download can be resumed and the
+				 * data file is only replaced by a complete copy.
+				 */
+				File download = new File(filepath + DOWNLOAD_SUFFIX);
+				File target = new File(filepath);
+				S3RangedDownloader downloader = new S3RangedDownloader(store, state,
+						config.getRestoreDownloadThreads(), config.getBackupPartRetries());
 
-					if (config.isRedisAofEnabled()) {
-						filepath = config.getRedisDataDir() + "/appendonly.aof";
-					} else {
-						filepath = config.getRedisDataDir() + "/nfredis.rdb";
+				S3BackupCatalog catalog = new S3BackupCatalog(store, config.getBucketName(), nodePrefix);
+				BackupManifest.FileType expected = config.isRedisAofEnabled() ? BackupManifest.FileType.AOF
+						: BackupManifest.FileType.RDB;
+				BackupManifest manifest = null;
+				if (pointInTime) {
+					S3BackupCatalog source = catalog;
+					for (S3BackupCatalog replica : catalog.withReplicas()) {
+						BackupManifest cut = pointInTimeManifest(replica, expected, time + MINUTE_MS - 1);
+						if (cut != null && (manifest == null || cut.getBackupTime() > manifest.getBackupTime())) {
+							manifest = cut;
+							source = replica;
+						}
+					}
+					catalog = source;
+					if (manifest == null) {
+						logger.error("No " + expected + " backup covers " + dateString);
+						return false;
+					}
+					logger.info("Restoring " + manifest.getChunks().size() + " chunks of backup "
+							+ manifest.getBackupTime() + ", the last one read at " + manifest.getLastChunkTime());
+				} else {
+					catalog = dailyCatalog(catalog, time);
+					manifest = catalog.getManifest(time);
+					keyName = catalog.getNodePrefix() + time;
+				}
+				if (manifest != null) {
+					if (manifest.getFileType() == BackupManifest.FileType.RDB
+							&& expected == BackupManifest.FileType.AOF) {
+						// Diskless backups are RDB files. Redis 4.0 and later load an append only file that starts
+						// with an RDB preamble, so the snapshot is restored as the AOF.
+						logger.info("Restoring an RDB backup as the append only file");
+					} else if (manifest.getFileType() != expected) {
+						logger.error("Backup holds an " + manifest.getFileType() + " file, but storage expects an "
+								+ expected + " file");
+						return false;
 					}
+					String prefix = catalog.backupPrefix(manifest.getBackupTime());
+					logger.info("Key prefix in Bucket: " + prefix);
+					if (!downloader.downloadBackup(config.getBucketName(), prefix, manifest, download)
+							|| !verify(download)) {
+						return false;
+					}
+					Files.move(download.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+					logger.info("Restored " + target.length() + " bytes to " + filepath);
+					return true;
+				}
 
-					IOUtils.copy(s3object.getObjectContent(),
-							new FileOutputStream(new File(filepath)));
+				// Backups stored as a single object.
+				logger.info("Key in Bucket: " + keyName);
+				ObjectStore.ObjectInfo info = store.head(config.getBucketName(), keyName);
+				if (info == null) {
+					logger.error("No backup found at " + keyName);
+					return false;
 				}
+
+				// Backups written before compression was added carry no codec metadata.
+				CompressionCodec codec = CompressionCodec
+						.fromName(info.userMetadata.get(S3MultipartUploader.METADATA_CODEC));
+				logger.info("Backup codec: " + codec);
+
+				if (codec == CompressionCodec.NONE) {
+					if (!downloader.download(config.getBucketName(), keyName, download,
+							config.getBackupPartSizeMB() * MB)) {
+						return false;
+					}
+				} else {
+					// Downloaded in parallel ranges like any object, then decompressed. The compressed copy is
+					// kept until it is decompressed, so an interrupted download can be resumed.
+					File compressed = new File(filepath + COMPRESSED_SUFFIX);
+					if (!downloader.download(config.getBucketName(), keyName, compressed,
+							config.getBackupPartSizeMB() * MB)) {
+						return false;
+					}
+					decompress(codec, new FileInputStream(compressed), download);
+					FileUtils.deleteQuietly(compressed);
+				}
+				if (!verify(download)) {
+					return false;
+				}
+				Files.move(download.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				logger.info("Restored " + target.length() + " bytes to " + filepath);
 				return true;
-			} catch (AmazonServiceException ase) {
-
-				logger.error("AmazonServiceException;"
-						+ " request made it to Amazon S3, but was rejected with an error ");
-				logger.error("Error Message:    " + ase.getMessage());
-				logger.error("HTTP Status Code: " + ase.getStatusCode());
-				logger.error("AWS Error Code:   " + ase.getErrorCode());
-				logger.error("Error Type:       " + ase.getErrorType());
-				logger.error("Request ID:       " + ase.getRequestId());
-
-			} catch (AmazonClientException ace) {
-				logger.error("AmazonClientException;" +
-						" the client encountered " +
-						"an internal error while trying to " +
-						"communicate with S3, ");
-				logger.error("Error Message: " + ace.getMessage());
 			} catch (IOException io) {
-				logger.error("File storing error: " + io.getMessage());
+				logger.error("Restore failed: " + io.getMessage());
 			}
 		} else {
 			logger.error("Date in FP: " + dateString);
@@ -113,11 +206,151 @@ public class S3Restore implements Restore {
 		return false;
 	}
 
+	/**
+	 * Streams the backup of the day into the running Redis, see {@link PipelinedRestorer}. Only RDB backups can be
+	 * restored this way: the commands of an append only file would need replaying, not restoring.
+	 */
+	@Override
+	public boolean restoreLive(String dateString, String host, int port) {
+		long time = restoreTime(dateString);
+		if (time < 0 || dateString.length() == POINT_IN_TIME_FORMAT.length()) {
+			logger.error("Live restores take the backup of a day, formatted as yyyyMMdd: " + dateString);
+			return false;
+		}
+		InputStream in = null;
+		try {
+			if (!(store.bucketExists(config.getBucketName()))) {
+				logger.error("Bucket with name: " + config.getBucketName() + " does not exist");
+				return false;
+			}
+			S3BackupCatalog catalog = dailyCatalog(
+					new S3BackupCatalog(store, config.getBucketName(), S3BackupCatalog.nodePrefix(config, iid)), time);
+			BackupManifest manifest = catalog.getManifest(time);
+			if (manifest != null) {
+				if (manifest.getFileType() != BackupManifest.FileType.RDB) {
+					logger.error("Backup holds an " + manifest.getFileType() + " file, only RDB backups restore live");
+					return false;
+				}
+				String prefix = catalog.backupPrefix(time);
+				logger.info("Streaming " + manifest.getChunks().size() + " chunks of " + prefix);
+				in = new ChunkedBackupInputStream(store, config.getBucketName(), prefix, manifest);
+			} else {
+				String keyName = catalog.getNodePrefix() + time;
+				ObjectStore.ObjectInfo info = store.head(config.getBucketName(), keyName);
+				if (info == null) {
+					logger.error("No backup found at " + keyName);
+					return false;
+				}
+				if (config.isRedisAofEnabled()) {
+					logger.error("Backup " + keyName + " holds an AOF file, only RDB backups restore live");
+					return false;
+				}
+				logger.info("Streaming " + keyName);
+				in = CompressionCodec.fromName(info.userMetadata.get(S3MultipartUploader.METADATA_CODEC))
+						.decompress(store.get(config.getBucketName(), keyName));
+			}
+
+			PipelinedRestorer restorer = new PipelinedRestorer(host, port, config.getRestoreLiveConnections(),
+					config.getRestoreLiveLatencyMs(), sleeper);
+			restorer.start();
+			try {
+				RdbParser parser = new RdbParser(new BufferedInputStream(in, BUFFER_SIZE));
+				parser.setDumpListener(restorer);
+				RdbStats stats = parser.parse();
+				long keys = restorer.finish();
+				logger.info("Restored " + keys + " of the " + stats.getKeys() + " keys of the backup into " + host
+						+ ":" + port);
+				return true;
+			} catch (IOException e) {
+				restorer.abort();
+				throw e;
+			}
+		} catch (IOException e) {
+			logger.error("Live restore failed: " + e.getMessage());
+			return false;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * @return the catalog holding the backup taken at the given time: the catalog of the node, or the catalog of the
+	 *         replica its pointers lead to
+	 */
+	private S3BackupCatalog dailyCatalog(S3BackupCatalog catalog, long time) throws IOException {
+		// Pointers are not recorded to a replica that points elsewhere, but a pointer loop must not hang the restore.
+		Set<String> visited = new HashSet<String>();
+		while (visited.add(catalog.getNodePrefix()) && !catalog.holdsBackup(time)) {
+			String replicaPrefix = catalog.readReplicaPointer(time);
+			if (replicaPrefix == null) {
+				return catalog;
+			}
+			logger.info("Backup is held by the replica at " + replicaPrefix);
+			catalog = new S3BackupCatalog(store, config.getBucketName(), replicaPrefix);
+		}
+		return catalog;
+	}
+
+	/**
+	 * @return the latest backup of the given type complete at the given time, cut to the chunks read by then, or null
+	 *         if there is none
+	 */
+	static BackupManifest pointInTimeManifest(S3BackupCatalog catalog, BackupManifest.FileType fileType, long time)
+			throws IOException {
+		BackupManifest selected = null;
+		for (BackupManifest manifest : catalog.list()) {
+			if (manifest.getFileType() != fileType) {
+				continue;
+			}
+			BackupManifest cut = manifest.upTo(time);
+			if (cut != null) {
+				selected = cut;
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Parses a restored RDB file before it replaces the data file, so a corrupt backup leaves the current data alone.
+	 * Append only files are not checked.
+	 *
+	 * @return false if the file is a corrupt RDB file, which is then deleted
+	 */
+	private boolean verify(File file) throws IOException {
+		if (!config.isBackupVerificationEnabled() || !RdbParser.isRdb(file)) {
+			return true;
+		}
+		try {
+			RdbStats stats = RdbParser.parse(file);
+			logger.info("Verified " + file + ": " + stats.getKeys() + " keys");
+			return true;
+		} catch (IOException e) {
+			logger.error("Not restoring " + file + ", it cannot be loaded: " + e.getMessage());
+			file.delete();
+			return false;
+		}
+	}
+
+	private static void decompress(CompressionCodec codec, InputStream source, File target) throws IOException {
+		InputStream in = codec.decompress(new BufferedInputStream(source, BUFFER_SIZE));
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(target), BUFFER_SIZE);
+		try {
+			IOUtils.copyLarge(in, out, new byte[BUFFER_SIZE]);
+			out.flush();
+		} finally {
+			IOUtils.closeQuietly(in);
+			IOUtils.closeQuietly(out);
+		}
+	}
+
 	private long restoreTime(String dateString) {
 		logger.info("Date to restore to: " + dateString);
 
 		DateTimeFormatter formatter = null;
 		try {
+			if (dateString.length() == POINT_IN_TIME_FORMAT.length()) {
+				return DateTimeFormat.forPattern(POINT_IN_TIME_FORMAT).parseDateTime(dateString).getMillis();
+			}
 			formatter = DateTimeFormat.forPattern("yyyyMMdd");
 		} catch (Exception e) {
 			logger.error("Restore fast property not formatted properly " + e.getMessage());
@@ -0,0 +1,366 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.dynomite.DynomiteStandardTuner;
+import com.netflix.dynomitemanager.dynomite.IDynomiteProcess;
+import com.netflix.dynomitemanager.sidecore.storage.IStorageProxy;
+import com.netflix.dynomitemanager.sidecore.storage.JedisUtils;
+import com.netflix.dynomitemanager.sidecore.storage.PersistenceInfo;
+import com.netflix.dynomitemanager.sidecore.utils.Sleeper;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * Restores a backup while the node keeps serving, so it is only unavailable while Dynomite restarts.
+ *
+ * The backup is downloaded next to the data directory and loaded by a second Redis instance on another port, while
+ * Redis and Dynomite keep serving the current data. Once the side instance has loaded the data, Dynomite is pointed at
+ * it through its <code>servers</code> entry and restarted, and serves the restored data from then on.
+ *
+ * The running instance then replicates from the side instance, out of the way of clients, since the rest of the
+ * manager expects the storage on its usual port. Once it has the restored data, Dynomite stops so no more writes reach
+ * the side instance, the running instance catches up with the last of them and stops replicating, and Dynomite is
+ * pointed back at it and restarted. The side instance is shut down and its files deleted.
+ *
+ * The node is unavailable during the two restarts of Dynomite. A restore that fails before the running instance
+ * started a full sync points Dynomite back at it with its data, without the writes the side instance took meanwhile.
+ * Once the sync started, the running instance may have flushed its data, and the restore is reported as having lost
+ * it.
+ */
+@Singleton
+public class SideInstanceRestore {
+	private static final Logger logger = LoggerFactory.getLogger(SideInstanceRestore.class);
+
+	private static final String SIDE_ADDRESS = "127.0.0.1";
+	private static final String SIDE_DIR_SUFFIX = ".restore";
+	private static final long FIRST_POLL_MS = 100;
+	private static final long MAX_POLL_MS = 5000;
+	private static final long START_TIMEOUT_MS = 30000;
+	private static final long SYNC_TIMEOUT_MS = 60 * 60 * 1000;
+	private static final long CATCH_UP_TIMEOUT_MS = 30000;
+
+	public enum RestoreResult {
+		/** Dynomite serves the restored data from the running instance. */
+		RESTORED,
+		/** The restore failed before the running instance replicated from the side instance, it keeps its data. */
+		UNCHANGED,
+		/** The restore failed once the running instance started a full sync, its data may be partial or gone. */
+		DATA_LOST
+	}
+
+	private final IConfiguration config;
+	private final Restore restore;
+	private final IStorageProxy storageProxy;
+	private final IDynomiteProcess dynProcess;
+	private final DynomiteStandardTuner tuner;
+	private final Sleeper sleeper;
+
+	@Inject
+	public SideInstanceRestore(IConfiguration config, Restore restore, IStorageProxy storageProxy,
+			IDynomiteProcess dynProcess, DynomiteStandardTuner tuner, Sleeper sleeper) {
+		this.config = config;
+		this.restore = restore;
+		this.storageProxy = storageProxy;
+		this.dynProcess = dynProcess;
+		this.tuner = tuner;
+		this.sleeper = sleeper;
+	}
+
+	/**
+	 * @return whether the running instance serves the restored data, kept its data or may have lost it
+	 */
+	public RestoreResult restore(String dateString) {
+		File dir = new File(config.getRedisDataDir() + SIDE_DIR_SUFFIX);
+		Process side = null;
+		try {
+			FileUtils.deleteDirectory(dir);
+			if (!dir.mkdirs()) {
+				logger.error("Could not create " + dir);
+				return RestoreResult.UNCHANGED;
+			}
+			if (!restore.restoreData(dateString, dir.getPath())) {
+				return RestoreResult.UNCHANGED;
+			}
+
+			int port = config.getRestoreSidePort();
+			logger.info("Loading the restored data into a Redis instance on port " + port);
+			side = new ProcessBuilder(sideCommand(dir, port)).directory(dir).redirectErrorStream(true)
+					.redirectOutput(new File(dir, "redis.log")).start();
+			if (!waitUntilLoaded(side, port)) {
+				return RestoreResult.UNCHANGED;
+			}
+			return swap(side, port);
+		} catch (IOException | JedisException e) {
+			logger.error("Side instance restore failed: " + e.getMessage());
+			return RestoreResult.UNCHANGED;
+		} finally {
+			if (side != null) {
+				shutdown(side, config.getRestoreSidePort());
+			}
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	/**
+	 * The side instance runs with the configuration of the running one, on its own port and files, and never saves:
+	 * the running instance holds a copy of its data once Dynomite is pointed back at it.
+	 */
+	private List<String> sideCommand(File dir, int port) {
+		return Lists.newArrayList(config.getRedisServerPath(), config.getRedisConf(), "--port", String.valueOf(port),
+				"--bind", SIDE_ADDRESS, "--dir", dir.getPath(), "--dbfilename", S3Restore.RDB_FILE, "--appendonly",
+				config.isRedisAofEnabled() ? "yes" : "no", "--appendfilename", S3Restore.AOF_FILE, "--save", "",
+				"--daemonize", "no", "--pidfile", new File(dir, "redis.pid").getPath(), "--logfile", "");
+	}
+
+	private boolean waitUntilLoaded(Process side, int port) {
+		long start = System.currentTimeMillis();
+		long pollMs = FIRST_POLL_MS;
+		Jedis jedis = null;
+		try {
+			while (true) {
+				if (!isRunning(side)) {
+					logger.error("Side instance exited with " + side.exitValue() + " while loading the data");
+					return false;
+				}
+				try {
+					if (jedis == null) {
+						jedis = new Jedis(SIDE_ADDRESS, port);
+					}
+					PersistenceInfo persistence = PersistenceInfo.parse(jedis.info("persistence"));
+					if (!persistence.isLoading()) {
+						logger.info("Side instance loaded " + jedis.dbSize() + " keys in "
+								+ (System.currentTimeMillis() - start) / 1000 + " secs");
+						return true;
+					}
+				} catch (JedisException e) {
+					// Not listening yet.
+					closeQuietly(jedis);
+					jedis = null;
+					if (System.currentTimeMillis() - start > START_TIMEOUT_MS) {
+						logger.error("Side instance is not reachable on port " + port + ": " + e.getMessage());
+						return false;
+					}
+				}
+				sleeper.sleepQuietly(pollMs);
+				pollMs = Math.min(pollMs * 2, MAX_POLL_MS);
+			}
+		} finally {
+			closeQuietly(jedis);
+		}
+	}
+
+	/**
+	 * Serves the restored data from the side instance, copies it to the running instance by replication, and serves
+	 * it from the running instance again.
+	 */
+	private RestoreResult swap(Process side, int port) {
+		String yaml = config.getDynomiteYaml();
+		try {
+			tuner.updateServers(yaml, SIDE_ADDRESS, port);
+			restartDynomite();
+		} catch (IOException e) {
+			logger.error("Could not point Dynomite at the side instance: " + e.getMessage());
+			return pointBack(RestoreResult.UNCHANGED);
+		}
+		logger.info("Dynomite serves the restored data from the side instance");
+
+		Jedis jedis = JedisUtils.connect(storageProxy.getIpAddress(), storageProxy.getPort());
+		if (jedis == null) {
+			logger.error("Cannot connect to the running Redis instance");
+			return pointBack(RestoreResult.UNCHANGED);
+		}
+		SyncProgress progress = new SyncProgress();
+		try {
+			long start = System.currentTimeMillis();
+			logger.info("Running instance: SLAVEOF " + SIDE_ADDRESS + " " + port);
+			jedis.slaveof(SIDE_ADDRESS, port);
+			long pollMs = FIRST_POLL_MS;
+			boolean synced = false;
+			while (!synced) {
+				sleeper.sleepQuietly(pollMs);
+				pollMs = Math.min(pollMs * 2, MAX_POLL_MS);
+				synced = progress.check(jedis);
+				if (!synced && (!isRunning(side) || System.currentTimeMillis() - start > SYNC_TIMEOUT_MS)) {
+					logger.error("Running instance did not sync from the side instance");
+					// A sync may have started since the last poll.
+					progress.check(jedis);
+					jedis.slaveofNoOne();
+					return pointBack(progress.started ? RestoreResult.DATA_LOST : RestoreResult.UNCHANGED);
+				}
+			}
+			logger.info("Running instance synced from the side instance in "
+					+ (System.currentTimeMillis() - start) / 1000 + " secs");
+
+			// No write reaches the side instance once Dynomite is stopped.
+			dynProcess.stop();
+			waitUntilCaughtUp(jedis, port);
+			logger.info("Running instance: SLAVEOF NO ONE");
+			jedis.slaveofNoOne();
+			tuner.updateServers(yaml, storageProxy.getIpAddress(), storageProxy.getPort());
+			dynProcess.start();
+			logger.info("Dynomite serves the restored data from the running instance, " + jedis.dbSize() + " keys");
+			return RestoreResult.RESTORED;
+		} catch (JedisException | IOException e) {
+			logger.error("Hand over to the running instance failed: " + e.getMessage());
+			// The instance may be replicating still, its data cannot be vouched for.
+			progress.started = true;
+			try {
+				jedis.slaveofNoOne();
+			} catch (JedisException ignored) {
+				// Reported as lost either way.
+			}
+			return pointBack(RestoreResult.DATA_LOST);
+		} finally {
+			closeQuietly(jedis);
+		}
+	}
+
+	/**
+	 * Points Dynomite back at the running instance. Dynomite is restarted unless the data of the running instance was
+	 * lost, in which case the storage is restored with Dynomite stopped.
+	 */
+	private RestoreResult pointBack(RestoreResult result) {
+		try {
+			tuner.updateServers(config.getDynomiteYaml(), storageProxy.getIpAddress(), storageProxy.getPort());
+			if (result == RestoreResult.DATA_LOST) {
+				dynProcess.stop();
+			} else {
+				restartDynomite();
+			}
+		} catch (IOException e) {
+			logger.error("Could not point Dynomite back at the running instance: " + e.getMessage());
+		}
+		return result;
+	}
+
+	private void restartDynomite() throws IOException {
+		dynProcess.stop();
+		dynProcess.start();
+	}
+
+	/**
+	 * Waits for the running instance to apply the writes the side instance replicated last. Dynomite is stopped, so
+	 * the side instance takes no more.
+	 */
+	private void waitUntilCaughtUp(Jedis jedis, int port) {
+		Jedis sideJedis = new Jedis(SIDE_ADDRESS, port);
+		try {
+			long target = parseLong(infoField(sideJedis.info("replication"), "master_repl_offset"));
+			long start = System.currentTimeMillis();
+			while (parseLong(infoField(jedis.info("replication"), "slave_repl_offset")) < target) {
+				if (System.currentTimeMillis() - start > CATCH_UP_TIMEOUT_MS) {
+					logger.warn("Running instance did not apply the last writes to the side instance in time,"
+							+ " they may be missing");
+					return;
+				}
+				sleeper.sleepQuietly(FIRST_POLL_MS);
+			}
+		} finally {
+			closeQuietly(sideJedis);
+		}
+	}
+
+	/**
+	 * Follows the replication of the running instance from the side instance. A replica flushes its data during a
+	 * full sync, so once a sync was seen in progress, the link up or the instance loading, the old data may be gone.
+	 */
+	private static class SyncProgress {
+		boolean started;
+
+		/**
+		 * @return true once the running instance completed its sync
+		 */
+		boolean check(Jedis jedis) {
+			try {
+				String replication = jedis.info("replication");
+				boolean linkUp = "up".equals(infoField(replication, "master_link_status"));
+				boolean syncing = "1".equals(infoField(replication, "master_sync_in_progress"));
+				started |= linkUp || syncing;
+				return linkUp && !syncing;
+			} catch (JedisException e) {
+				// The instance answers LOADING while it loads the snapshot.
+				started |= String.valueOf(e.getMessage()).startsWith("LOADING");
+				return false;
+			}
+		}
+	}
+
+	private void shutdown(Process side, int port) {
+		if (isRunning(side)) {
+			Jedis jedis = null;
+			try {
+				jedis = new Jedis(SIDE_ADDRESS, port);
+				jedis.shutdown();
+			} catch (JedisException e) {
+				// The connection drops as the instance exits.
+			} finally {
+				closeQuietly(jedis);
+			}
+		}
+		for (int i = 0; i < 50 && isRunning(side); i++) {
+			sleeper.sleepQuietly(100);
+		}
+		side.destroy();
+		logger.info("Side instance stopped");
+	}
+
+	private static String infoField(String info, String field) {
+		for (String line : info.split("\r?\n")) {
+			if (line.startsWith(field + ":")) {
+				return line.substring(field.length() + 1).trim();
+			}
+		}
+		return null;
+	}
+
+	private static long parseLong(String value) {
+		try {
+			return value == null ? -1 : Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static boolean isRunning(Process process) {
+		try {
+			process.exitValue();
+			return false;
+		} catch (IllegalThreadStateException e) {
+			return true;
+		}
+	}
+
+	private static void closeQuietly(Jedis jedis) {
+		if (jedis != null) {
+			try {
+				jedis.close();
+			} catch (JedisException e) {
+				// Nothing to release.
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.xerial.snappy.Snappy;
+
+/**
+ * Reads the block format written by {@link SnappyBlockOutputStream}, one block at a time.
+ */
+public class SnappyBlockInputStream extends InputStream {
+	private static final int MAX_COMPRESSED_LENGTH = Snappy.maxCompressedLength(SnappyBlockOutputStream.BLOCK_SIZE);
+
+	private final InputStream in;
+	private final byte[] header = new byte[8];
+	private final byte[] compressed = new byte[MAX_COMPRESSED_LENGTH];
+	private final byte[] block = new byte[SnappyBlockOutputStream.BLOCK_SIZE];
+	private int position;
+	private int count;
+
+	public SnappyBlockInputStream(InputStream in) {
+		this.in = in;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (position == count && !readBlock()) {
+			return -1;
+		}
+		return block[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (position == count && !readBlock()) {
+			return -1;
+		}
+		int n = Math.min(len, count - position);
+		System.arraycopy(block, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	private boolean readBlock() throws IOException {
+		int first = in.read();
+		if (first < 0) {
+			return false;
+		}
+		header[0] = (byte) first;
+		readFully(header, 1, 7);
+		int compressedLength = readInt(header, 0);
+		int rawLength = readInt(header, 4);
+		// Blocks are never larger than the writer makes them, whatever a corrupt header says.
+		if (compressedLength < 0 || compressedLength > MAX_COMPRESSED_LENGTH || rawLength < 0
+				|| rawLength > SnappyBlockOutputStream.BLOCK_SIZE) {
+			throw new IOException("Corrupt snappy block header: " + compressedLength + " bytes compressed, "
+					+ rawLength + " raw");
+		}
+		readFully(compressed, 0, compressedLength);
+		if (Snappy.uncompressedLength(compressed, 0, compressedLength) != rawLength) {
+			throw new IOException("Corrupt snappy block: does not hold " + rawLength + " bytes");
+		}
+		count = Snappy.uncompress(compressed, 0, compressedLength, block, 0);
+		if (count != rawLength) {
+			throw new IOException("Corrupt snappy block: expected " + rawLength + " bytes, got " + count);
+		}
+		position = 0;
+		return true;
+	}
+
+	private void readFully(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = in.read(b, off, len);
+			if (n < 0) {
+				throw new EOFException("Truncated snappy block");
+			}
+			off += n;
+			len -= n;
+		}
+	}
+
+	private static int readInt(byte[] buf, int off) {
+		return ((buf[off] & 0xff) << 24) | ((buf[off + 1] & 0xff) << 16) | ((buf[off + 2] & 0xff) << 8)
+				| (buf[off + 3] & 0xff);
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
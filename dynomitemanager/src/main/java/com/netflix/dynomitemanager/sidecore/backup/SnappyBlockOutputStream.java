@@ -0,0 +1,96 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.xerial.snappy.Snappy;
+
+/**
+ * Compresses a stream with Snappy as a sequence of independent blocks, each written as
+ * <code>[compressed length][raw length][compressed bytes]</code> with big endian int lengths.
+ *
+ * Unlike the snappy-java stream format, which starts with a stream header, block streams can be concatenated and
+ * still read back by a single {@link SnappyBlockInputStream}.
+ */
+public class SnappyBlockOutputStream extends OutputStream {
+
+	static final int BLOCK_SIZE = 64 * 1024;
+
+	private final OutputStream out;
+	private final byte[] block = new byte[BLOCK_SIZE];
+	private final byte[] compressed = new byte[8 + Snappy.maxCompressedLength(BLOCK_SIZE)];
+	private int count;
+	private boolean closed;
+
+	public SnappyBlockOutputStream(OutputStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (count == block.length) {
+			writeBlock();
+		}
+		block[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (count == block.length) {
+				writeBlock();
+			}
+			int n = Math.min(len, block.length - count);
+			System.arraycopy(b, off, block, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		if (count == 0) {
+			return;
+		}
+		int length = Snappy.compress(block, 0, count, compressed, 8);
+		writeInt(compressed, 0, length);
+		writeInt(compressed, 4, count);
+		out.write(compressed, 0, 8 + length);
+		count = 0;
+	}
+
+	private static void writeInt(byte[] buf, int off, int value) {
+		buf[off] = (byte) (value >>> 24);
+		buf[off + 1] = (byte) (value >>> 16);
+		buf[off + 2] = (byte) (value >>> 8);
+		buf[off + 3] = (byte) value;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writeBlock();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		writeBlock();
+		out.close();
+	}
+}
@@ -37,6 +37,7 @@ import redis.clients.jedis.exceptions.JedisConnectionException;
 import com.netflix.dynomitemanager.InstanceState;
 import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
 import com.netflix.dynomitemanager.sidecore.ICredential;
+import com.netflix.dynomitemanager.identity.AppsInstance;
 import com.netflix.dynomitemanager.identity.InstanceIdentity;
 import com.netflix.dynomitemanager.sidecore.scheduler.SimpleTimer;
 import com.netflix.dynomitemanager.sidecore.scheduler.Task;
@@ -60,18 +61,20 @@ public class SnapshotTask extends Task {
 	private final InstanceState state;
 	private final IStorageProxy storageProxy;
 	private final Backup backup;
+	private final BackupElection election;
 
 	private final int storageRetries = 5;
 
 	@Inject
 	public SnapshotTask(IConfiguration config, InstanceIdentity id, ICredential cred, InstanceState state,
-			IStorageProxy storageProxy, Backup backup) {
+			IStorageProxy storageProxy, Backup backup, BackupElection election) {
 		super(config);
 		this.cred = cred;
 		this.iid = id;
 		this.state = state;
 		this.storageProxy = storageProxy;
 		this.backup = backup;
+		this.election = election;
 	}
 
 	public void execute() throws Exception {
@@ -96,6 +99,42 @@ public class SnapshotTask extends Task {
 					 */
 					this.state.setBackUpStatus(false);
 
+					if (config.isBackupDedupEnabled()) {
+						// Another replica of the token backs it up, this node does not fork for a snapshot
+						AppsInstance elected = election.getElected();
+						if (!elected.getInstanceId().equals(iid.getInstance().getInstanceId())
+								&& !election.isLive(elected)) {
+							// A pointer to a node that is gone would leave the token without a backup
+							logger.warn("Elected replica " + elected.getInstanceId()
+									+ " is not live, backing up this node");
+						} else if (!elected.getInstanceId().equals(iid.getInstance().getInstanceId())) {
+							DateTime todayStart = DateTime.now().withTimeAtStartOfDay();
+							this.state.setBackupTime(todayStart);
+							if (this.backup.linkToReplica(elected, todayStart)) {
+								this.state.setBackUpStatus(true);
+								logger.info("S3 backup status: taken by replica " + elected.getInstanceId());
+								break;
+							}
+							// Without a pointer to a backup the token would be left without one
+							logger.warn("No backup of the day to link to on replica " + elected.getInstanceId()
+									+ ", backing up this node");
+						}
+					}
+
+					if (config.isBackupDiskless() && !"memcached".equals(config.getDatastoreEngine())) {
+						// Redis streams a snapshot to us as to a replica, there is no local file to upload
+						DateTime todayStart = DateTime.now().withTimeAtStartOfDay();
+						this.state.setBackupTime(todayStart);
+						if (this.backup.uploadFromReplica(storageProxy.getIpAddress(), storageProxy.getPort(),
+								todayStart)) {
+							this.state.setBackUpStatus(true);
+							logger.info("S3 diskless backup status: Completed!");
+						} else {
+							logger.error("S3 diskless backup status: Failed!");
+						}
+						break;
+					}
+
 					// the storage proxy takes a snapshot or compacts data
 					boolean snapshot = this.storageProxy.takeSnapshot();
 					File file = null;
@@ -146,11 +185,22 @@ public class SnapshotTask extends Task {
 	 * @return TaskTimer
 	 */
 	public static TaskTimer getTimer(IConfiguration config) {
-		int hour = config.getBackupHour();
+		return getTimer(config, 60);
+	}
+
+	/**
+	 * Returns a timer like {@link #getTimer(IConfiguration)}, starting the given number of seconds after the start
+	 * of the backup hour, see {@link BackupSlotCoordinator}.
+	 * @return TaskTimer
+	 */
+	public static TaskTimer getTimer(IConfiguration config, int slotSeconds) {
+		int hour = config.getBackupHour() + slotSeconds / 3600;
+		int minute = slotSeconds / 60 % 60;
+		int second = slotSeconds % 60;
 		if (config.getBackupSchedule().equals("week")) {
-			return new CronTimer(DayOfWeek.MON, hour, 1, 0);
+			return new CronTimer(DayOfWeek.MON, hour, minute, second);
 		}
-		return new CronTimer(hour, 1, 0);
+		return new CronTimer(hour, minute, second);
 
 	}
 
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+
+import com.netflix.dynomitemanager.identity.AppsInstance;
+
+/**
+ * The order of the tokens of the ring, shared by the backup election and the backup slots so that every node ranks
+ * the tokens, and the replicas of each token, the same way.
+ *
+ * Tokens are compared as numbers, so that replicas sit at the same position of their racks whatever the padding of
+ * their tokens. Tokens that are not numbers fall back to their text.
+ */
+final class TokenOrder {
+	static final Comparator<String> TOKENS = new Comparator<String>() {
+		@Override
+		public int compare(String a, String b) {
+			try {
+				return new BigInteger(a.trim()).compareTo(new BigInteger(b.trim()));
+			} catch (NumberFormatException e) {
+				return a.compareTo(b);
+			}
+		}
+	};
+
+	private TokenOrder() {
+	}
+
+	/**
+	 * @return the given nodes grouped by token, in token order
+	 */
+	static TreeMap<String, List<AppsInstance>> byToken(List<AppsInstance> instances) {
+		TreeMap<String, List<AppsInstance>> replicas = new TreeMap<String, List<AppsInstance>>(TOKENS);
+		for (AppsInstance instance : instances) {
+			List<AppsInstance> list = replicas.get(instance.getToken());
+			if (list == null) {
+				list = new ArrayList<AppsInstance>();
+				replicas.put(instance.getToken(), list);
+			}
+			list.add(instance);
+		}
+		return replicas;
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.backup;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passes an RDB stream through while an {@link RdbParser} checks it in another thread, so a backup can be verified as
+ * it is uploaded without reading it twice. The bytes are handed over through a bounded pipe: the parser keeps up with
+ * the upload or slows it down, and never holds more than the pipe.
+ *
+ * The end of the stream is only reported once the parser is done with it: a corrupt RDB makes the last read fail, so
+ * the upload fails before the backup is completed.
+ */
+public class VerifyingRdbStream extends FilterInputStream {
+	private static final Logger logger = LoggerFactory.getLogger(VerifyingRdbStream.class);
+
+	private static final int PIPE_SIZE = 1024 * 1024;
+
+	private final PipedOutputStream pipe;
+	private final Thread parser;
+	private volatile RdbStats stats;
+	private volatile IOException failure;
+	private boolean teeing = true;
+
+	public VerifyingRdbStream(InputStream in) throws IOException {
+		super(in);
+		final PipedInputStream parserInput = new PipedInputStream(PIPE_SIZE);
+		pipe = new PipedOutputStream(parserInput);
+		parser = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					stats = new RdbParser(parserInput).parse();
+				} catch (IOException e) {
+					failure = e;
+				} catch (RuntimeException e) {
+					failure = new IOException("RDB verification failed: " + e, e);
+				} finally {
+					IOUtils.closeQuietly(parserInput);
+				}
+			}
+		}, "RdbVerifier");
+		parser.setDaemon(true);
+		parser.start();
+	}
+
+	/**
+	 * @return the statistics of the RDB, once the stream was read to its end
+	 */
+	public RdbStats getStats() {
+		return stats;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if (n < 0) {
+			finish();
+		} else if (n > 0 && teeing) {
+			try {
+				pipe.write(b, off, n);
+			} catch (IOException e) {
+				// The parser stopped reading: it is done with the RDB, or it failed and says why at the end.
+				teeing = false;
+			}
+		}
+		return n;
+	}
+
+	private void finish() throws IOException {
+		IOUtils.closeQuietly(pipe);
+		teeing = false;
+		try {
+			parser.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while verifying the RDB");
+		}
+		if (failure != null) {
+			logger.error("Backup stream is not a valid RDB: " + failure.getMessage());
+			throw failure;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		IOUtils.closeQuietly(pipe);
+		parser.interrupt();
+		super.close();
+	}
+}
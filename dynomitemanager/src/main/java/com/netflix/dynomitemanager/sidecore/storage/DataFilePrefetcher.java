@@ -0,0 +1,135 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.sidecore.backup.PageCache;
+
+/**
+ * Reads the Redis data file into the page cache before Redis starts, so loading the AOF or RDB file is limited by
+ * parsing rather than by cold disk reads.
+ *
+ * The file is split in ranges read ahead in parallel, which keeps several requests in flight on network or SSD
+ * volumes where a single sequential reader does not. Ranges are read ahead with
+ * <code>posix_fadvise(POSIX_FADV_WILLNEED)</code>, or read and discarded where the call is not available.
+ */
+@Singleton
+public class DataFilePrefetcher {
+	private static final Logger logger = LoggerFactory.getLogger(DataFilePrefetcher.class);
+
+	static final String AOF_FILE = "appendonly.aof";
+	static final String RDB_FILE = "nfredis.rdb";
+	static final long RANGE_BYTES = 64L * 1024 * 1024;
+	private static final int READ_BUFFER_BYTES = 1024 * 1024;
+
+	private final IConfiguration config;
+
+	@Inject
+	public DataFilePrefetcher(IConfiguration config) {
+		this.config = config;
+	}
+
+	/**
+	 * Prefetches the data file Redis loads when it starts, if there is one and prefetching is enabled. Failures are
+	 * logged, Redis then reads the file from disk as usual.
+	 */
+	public void prefetch() {
+		int threads = config.getRedisLoadPrefetchThreads();
+		if (threads <= 0 || !config.isRedisPersistenceEnabled()) {
+			return;
+		}
+		File file = new File(config.getRedisDataDir(), config.isRedisAofEnabled() ? AOF_FILE : RDB_FILE);
+		if (!file.isFile()) {
+			return;
+		}
+		try {
+			long start = System.currentTimeMillis();
+			long bytes = prefetch(file, threads);
+			logger.info(String.format("Prefetched %d MB of %s in %d ms", bytes / (1024 * 1024), file,
+					System.currentTimeMillis() - start));
+		} catch (IOException e) {
+			logger.warn("Could not prefetch " + file + ", Redis will read it from disk", e);
+		}
+	}
+
+	/**
+	 * Reads the file into the page cache, with up to the given number of ranges read at once.
+	 *
+	 * @return the number of bytes prefetched
+	 */
+	public static long prefetch(File file, int threads) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final long length = raf.length();
+			List<Future<Void>> ranges = new ArrayList<Future<Void>>();
+			for (long offset = 0; offset < length; offset += RANGE_BYTES) {
+				final long rangeOffset = offset;
+				final long rangeLength = Math.min(RANGE_BYTES, length - offset);
+				ranges.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						if (!PageCache.willNeed(raf.getFD(), rangeOffset, rangeLength)) {
+							read(raf.getChannel(), rangeOffset, rangeLength);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> range : ranges) {
+				range.get();
+			}
+			return length;
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while prefetching " + file, e);
+		} finally {
+			executor.shutdownNow();
+			raf.close();
+		}
+	}
+
+	private static void read(FileChannel channel, long offset, long length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+		long end = offset + length;
+		for (long position = offset; position < end;) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				return;
+			}
+			position += read;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A minimal blocking connection to memcached speaking the text protocol, plus the binary protocol NOOP used as a
+ * liveness probe. Only the handful of commands needed by Dynomite Manager are implemented; the raw streams are exposed
+ * for callers that pipeline requests.
+ */
+public class MemcachedConnection implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(MemcachedConnection.class);
+
+    private static final byte[] VERSION_REQUEST = "version\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VERSION_PREFIX = "VERSION ".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int BINARY_HEADER_LENGTH = 24;
+    private static final byte BINARY_REQUEST_MAGIC = (byte) 0x80;
+    private static final byte BINARY_RESPONSE_MAGIC = (byte) 0x81;
+    private static final byte BINARY_OPCODE_NOOP = 0x0a;
+
+    private final String host;
+    private final int port;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final byte[] line = new byte[1024];
+
+    public MemcachedConnection(String host, int port, int timeoutMs) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutMs);
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+            this.in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Text protocol probe.
+     *
+     * @return the server version, or null if the reply was not a VERSION line
+     */
+    public String version() throws IOException {
+        out.write(VERSION_REQUEST);
+        out.flush();
+        int len = MemcachedStatsParser.readLine(in, line);
+        if (!MemcachedStatsParser.startsWith(line, len, VERSION_PREFIX)) {
+            return null;
+        }
+        return new String(line, VERSION_PREFIX.length, len - VERSION_PREFIX.length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Binary protocol probe. Sends a NOOP and checks that a successful NOOP response comes back. Useful when the text
+     * protocol is disabled (memcached -B binary).
+     */
+    public boolean noop() throws IOException {
+        byte[] request = new byte[BINARY_HEADER_LENGTH];
+        request[0] = BINARY_REQUEST_MAGIC;
+        request[1] = BINARY_OPCODE_NOOP;
+        out.write(request);
+        out.flush();
+
+        byte[] response = new byte[BINARY_HEADER_LENGTH];
+        readFully(response, 0, response.length);
+        int status = ((response[6] & 0xff) << 8) | (response[7] & 0xff);
+        int bodyLength = ((response[8] & 0xff) << 24) | ((response[9] & 0xff) << 16) | ((response[10] & 0xff) << 8)
+                | (response[11] & 0xff);
+        if (bodyLength > 0) {
+            skipFully(bodyLength);
+        }
+        return response[0] == BINARY_RESPONSE_MAGIC && response[1] == BINARY_OPCODE_NOOP && status == 0;
+    }
+
+    /**
+     * Sends <code>stats [group]</code> and feeds the reply to the parser.
+     *
+     * @param group
+     *            null for the general stats, otherwise e.g. "slabs" or "items"
+     */
+    public int stats(String group, MemcachedStatsParser parser, MemcachedStatsParser.StatListener listener)
+            throws IOException {
+        out.write(group == null ? "stats\r\n".getBytes(StandardCharsets.US_ASCII)
+                : ("stats " + group + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return parser.parse(in, listener);
+    }
+
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    public void readFully(byte[] buf, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = in.read(buf, off, len);
+            if (n < 0) {
+                throw new IOException("Connection to " + host + ":" + port + " closed");
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void skipFully(long len) throws IOException {
+        while (len > 0) {
+            long n = in.skip(len);
+            if (n <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("Connection to " + host + ":" + port + " closed");
+                }
+                n = 1;
+            }
+            len -= n;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.debug("Error closing memcached connection to " + host + ":" + port, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.storage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Parses the response of the memcached <code>stats</code>, <code>stats slabs</code> and <code>stats items</code>
+ * commands.
+ *
+ * The response is a sequence of <code>STAT &lt;name&gt; &lt;value&gt;\r\n</code> lines terminated by
+ * <code>END\r\n</code>. The parser reads the lines straight from the socket into a reusable buffer, parses numeric
+ * values in place and resolves stat names through an internal table of canonical strings. Once every stat name has
+ * been seen, a parse does not allocate: the same {@link String} instances are handed to the {@link StatListener} on
+ * every run so they can be used as map keys without further copies.
+ *
+ * Stat names are prefixed with the prefix passed to the constructor and the ':' separators used by the slab and item
+ * stats (e.g. <code>items:1:number</code>) are replaced with '_'. Non numeric stats (version, libevent) are skipped,
+ * and fractional values (rusage_user) are truncated to their integer part.
+ *
+ * A parser instance is not thread safe.
+ */
+public class MemcachedStatsParser {
+
+    private static final int MAX_LINE_LENGTH = 4096;
+    private static final byte[] STAT = { 'S', 'T', 'A', 'T', ' ' };
+    private static final byte[] END = { 'E', 'N', 'D' };
+
+    /**
+     * Receives every numeric stat found in a response.
+     */
+    public interface StatListener {
+        void onStat(String name, long value);
+    }
+
+    private final String prefix;
+    private final byte[] line = new byte[MAX_LINE_LENGTH];
+
+    // Open addressing table from the raw name bytes to the canonical name.
+    private byte[][] keys = new byte[64][];
+    private String[] names = new String[64];
+    private int size;
+
+    public MemcachedStatsParser(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Reads a stats response up to and including the terminating END line.
+     *
+     * @return the number of numeric stats passed to the listener
+     * @throws IOException
+     *             if the stream ends early or the server returns an error
+     */
+    public int parse(InputStream in, StatListener listener) throws IOException {
+        int count = 0;
+        while (true) {
+            int len = readLine(in, line);
+            if (len == END.length && startsWith(line, len, END)) {
+                return count;
+            }
+            if (!startsWith(line, len, STAT)) {
+                throw new IOException("Unexpected memcached stats response: " + new String(line, 0, len, "US-ASCII"));
+            }
+
+            int nameStart = STAT.length;
+            int nameEnd = nameStart;
+            while (nameEnd < len && line[nameEnd] != ' ') {
+                nameEnd++;
+            }
+            if (nameEnd == nameStart || nameEnd >= len) {
+                continue;
+            }
+
+            int valueStart = nameEnd + 1;
+            long value = 0;
+            boolean numeric = valueStart < len;
+            boolean fraction = false;
+            for (int i = valueStart; i < len; i++) {
+                byte b = line[i];
+                if (b >= '0' && b <= '9') {
+                    if (!fraction) {
+                        value = value * 10 + (b - '0');
+                    }
+                } else if (b == '.' && !fraction && i > valueStart) {
+                    fraction = true;
+                } else {
+                    numeric = false;
+                    break;
+                }
+            }
+            if (!numeric) {
+                continue;
+            }
+
+            listener.onStat(nameOf(line, nameStart, nameEnd - nameStart), value);
+            count++;
+        }
+    }
+
+    /**
+     * Reads a CRLF (or LF) terminated line into the buffer and returns its length without the terminator.
+     */
+    static int readLine(InputStream in, byte[] buf) throws IOException {
+        int len = 0;
+        while (true) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Connection closed while reading memcached response");
+            }
+            if (b == '\n') {
+                if (len > 0 && buf[len - 1] == '\r') {
+                    len--;
+                }
+                return len;
+            }
+            if (len == buf.length) {
+                throw new IOException("Memcached response line exceeds " + buf.length + " bytes");
+            }
+            buf[len++] = (byte) b;
+        }
+    }
+
+    static boolean startsWith(byte[] buf, int len, byte[] prefix) {
+        if (len < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String nameOf(byte[] buf, int off, int len) {
+        int mask = keys.length - 1;
+        int slot = hash(buf, off, len) & mask;
+        while (keys[slot] != null) {
+            if (equals(keys[slot], buf, off, len)) {
+                return names[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        byte[] key = Arrays.copyOfRange(buf, off, off + len);
+        StringBuilder sb = new StringBuilder(prefix.length() + len).append(prefix);
+        for (byte b : key) {
+            sb.append(b == ':' ? '_' : (char) b);
+        }
+        String name = sb.toString();
+
+        keys[slot] = key;
+        names[slot] = name;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+        return name;
+    }
+
+    private void grow() {
+        byte[][] oldKeys = keys;
+        String[] oldNames = names;
+        keys = new byte[oldKeys.length * 2][];
+        names = new String[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) {
+                continue;
+            }
+            int slot = hash(oldKeys[i], 0, oldKeys[i].length) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            names[slot] = oldNames[i];
+        }
+    }
+
+    private static int hash(byte[] buf, int off, int len) {
+        int h = 1;
+        for (int i = off; i < off + len; i++) {
+            h = 31 * h + buf[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals(byte[] key, byte[] buf, int off, int len) {
+        if (key.length != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (key[i] != buf[off + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -14,7 +14,28 @@ package com.netflix.dynomitemanager.sidecore.storage;
 
 import java.io.IOException;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.config.DynamicIntProperty;
+import com.netflix.config.DynamicLongProperty;
+import com.netflix.config.DynamicPropertyFactory;
+import com.netflix.config.DynamicStringProperty;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+
+/**
+ * Storage proxy for a cache-only Dynomite cluster backed by memcached.
+ *
+ * Liveness is probed with the text protocol <code>version</code> command, or with a binary protocol NOOP when
+ * <code>florida.memcached.probe.protocol</code> is set to "binary". Warm up copies the items of the longest running
+ * peer that owns the same token (see {@link MemcachedWarmUp}). Memcached keeps no data on disk, so snapshots and
+ * restores are not supported.
+ */
+@Singleton
 public class MemcachedStorageProxy implements IStorageProxy {
+    private static final Logger logger = LoggerFactory.getLogger(MemcachedStorageProxy.class);
 
     private static final String DYNO_MEMCACHED = "memcached";
     private static final int MEMCACHE_PORT = 11211;
@@ -23,6 +44,21 @@ public class MemcachedStorageProxy implements IStorageProxy {
     private final String DEFAULT_MEMCACHED_START_SCRIPT = "/apps/memcached/bin/memcached";
     private final String DEFAULT_MEMCACHED_STOP_SCRIPT = "/usr/bin/pkill memcached";
 
+    private static final DynamicStringProperty probeProtocol = DynamicPropertyFactory.getInstance()
+            .getStringProperty("florida.memcached.probe.protocol", "text");
+
+    private static final DynamicIntProperty timeoutMs = DynamicPropertyFactory.getInstance()
+            .getIntProperty("florida.memcached.timeout.ms", 5000);
+
+    private static final DynamicIntProperty warmUpBatchSize = DynamicPropertyFactory.getInstance()
+            .getIntProperty("florida.memcached.warmup.batch.size", 100);
+
+    private static final DynamicLongProperty warmUpMaxIdleSeconds = DynamicPropertyFactory.getInstance()
+            .getLongProperty("florida.memcached.warmup.max.idle.seconds", 0L);
+
+    @Inject
+    private IConfiguration config;
+
 
     @Override
     public String getEngine() {
@@ -36,16 +72,106 @@ public class MemcachedStorageProxy implements IStorageProxy {
     
     @Override
     public boolean isAlive() {
-	return false;
+	return isAlive(MEMCACHE_ADDRESS);
+    }
+
+    private boolean isAlive(String host) {
+	MemcachedConnection conn = null;
+	try {
+	    conn = new MemcachedConnection(host, MEMCACHE_PORT, timeoutMs.get());
+	    if ("binary".equalsIgnoreCase(probeProtocol.get())) {
+		return conn.noop();
+	    }
+	    return conn.version() != null;
+	} catch (IOException e) {
+	    logger.warn("Memcached at " + host + ":" + MEMCACHE_PORT + " is not responding: " + e.getMessage());
+	    return false;
+	} finally {
+	    if (conn != null) {
+		conn.close();
+	    }
+	}
     }
 
     @Override
     public long getUptime() {
-	return 0;
+	return getUptime(MEMCACHE_ADDRESS);
+    }
+
+    private long getUptime(String host) {
+	MemcachedConnection conn = null;
+	try {
+	    conn = new MemcachedConnection(host, MEMCACHE_PORT, timeoutMs.get());
+	    final long[] uptime = { 0 };
+	    conn.stats(null, new MemcachedStatsParser(""), new MemcachedStatsParser.StatListener() {
+		@Override
+		public void onStat(String name, long value) {
+		    if ("uptime".equals(name)) {
+			uptime[0] = value;
+		    }
+		}
+	    });
+	    return uptime[0];
+	} catch (IOException e) {
+	    logger.warn("Unable to read uptime of memcached at " + host + ":" + MEMCACHE_PORT + ": " + e.getMessage());
+	    return 0;
+	} finally {
+	    if (conn != null) {
+		conn.close();
+	    }
+	}
     }
 
+    /**
+     * Copies the items of the longest running peer into the local memcached.
+     */
     @Override
     public Bootstrap warmUpStorage(String[] peers) {
+	if (!isAlive()) {
+	    logger.error("Local memcached is not running, cannot warm up");
+	    return Bootstrap.CANNOT_CONNECT_FAIL;
+	}
+
+	String selectedPeer = null;
+	long selectedUptime = -1;
+	for (String peer : peers) {
+	    logger.info("Peer node [" + peer + "] has the same token!");
+	    long uptime = getUptime(peer);
+	    if (uptime > selectedUptime && isAlive(peer)) {
+		selectedPeer = peer;
+		selectedUptime = uptime;
+	    }
+	}
+
+	if (selectedPeer == null) {
+	    logger.error("Cannot connect to peer node to bootstrap");
+	    return Bootstrap.CANNOT_CONNECT_FAIL;
+	}
+	logger.info("Warming up memcached from peer [" + selectedPeer + "] up for " + selectedUptime + " seconds");
+
+	MemcachedConnection dump = null;
+	MemcachedConnection peer = null;
+	MemcachedConnection local = null;
+	try {
+	    dump = new MemcachedConnection(selectedPeer, MEMCACHE_PORT, timeoutMs.get());
+	    peer = new MemcachedConnection(selectedPeer, MEMCACHE_PORT, timeoutMs.get());
+	    local = new MemcachedConnection(MEMCACHE_ADDRESS, MEMCACHE_PORT, timeoutMs.get());
+	    MemcachedWarmUp warmUp = new MemcachedWarmUp(dump, peer, local, warmUpBatchSize.get(),
+		    warmUpMaxIdleSeconds.get());
+	    if (!warmUp.copy(System.currentTimeMillis() + config.getMaxTimeToBootstrap())) {
+		return Bootstrap.EXPIRED_BOOTSTRAPTIME_FAIL;
+	    }
+	} catch (IOException e) {
+	    logger.error("Memcached warm up from peer [" + selectedPeer + "] failed", e);
+	    return Bootstrap.WARMUP_ERROR_FAIL;
+	} finally {
+	    for (MemcachedConnection conn : new MemcachedConnection[] { dump, peer, local }) {
+		if (conn != null) {
+		    conn.close();
+		}
+	    }
+	}
+
 	return Bootstrap.IN_SYNC_SUCCESS;
     }
 
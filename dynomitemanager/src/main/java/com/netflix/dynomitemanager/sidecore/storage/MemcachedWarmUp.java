@@ -0,0 +1,283 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies the items of a peer memcached into the local memcached.
+ *
+ * Memcached has no replication, so the warm up walks the peer's LRU with <code>lru_crawler metadump all</code> on one
+ * connection, fetches the dumped keys in batches with multi-key <code>get</code> on a second connection, and writes
+ * them locally with pipelined <code>set ... noreply</code>. Expiration times are carried over (metadump reports them as
+ * absolute unix times, which memcached accepts as-is) and items that have already expired are skipped. Items idle for
+ * longer than <code>maxIdleSeconds</code> can be skipped as well, so only the hot part of the cache is copied.
+ *
+ * Keys evicted or changed on the peer between the dump and the get are simply missed; the copy is a best effort cache
+ * warm up, not a consistent snapshot.
+ */
+public class MemcachedWarmUp {
+    private static final Logger logger = LoggerFactory.getLogger(MemcachedWarmUp.class);
+
+    private static final byte[] METADUMP_REQUEST = "lru_crawler metadump all\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "END".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VALUE = "VALUE ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_FIELD = "key=".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VERSION = "VERSION".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private final MemcachedConnection dump;
+    private final MemcachedConnection peer;
+    private final MemcachedConnection local;
+    private final int batchSize;
+    private final long maxIdleSeconds;
+
+    private final byte[] line = new byte[4096];
+    private byte[] data = new byte[64 * 1024];
+
+    private long copiedItems;
+    private long copiedBytes;
+    private long skippedItems;
+
+    public MemcachedWarmUp(MemcachedConnection dump, MemcachedConnection peer, MemcachedConnection local,
+            int batchSize, long maxIdleSeconds) {
+        this.dump = dump;
+        this.peer = peer;
+        this.local = local;
+        this.batchSize = batchSize;
+        this.maxIdleSeconds = maxIdleSeconds;
+    }
+
+    /**
+     * Runs the copy.
+     *
+     * @param deadline
+     *            wall clock time (ms) after which the copy is abandoned
+     * @return true if the whole dump was copied, false if the deadline was hit
+     */
+    public boolean copy(long deadline) throws IOException {
+        OutputStream dumpOut = dump.getOutputStream();
+        dumpOut.write(METADUMP_REQUEST);
+        dumpOut.flush();
+
+        InputStream dumpIn = dump.getInputStream();
+        Map<String, Long> batch = new HashMap<String, Long>(batchSize * 2);
+        long now = System.currentTimeMillis() / 1000;
+
+        while (true) {
+            int len = MemcachedStatsParser.readLine(dumpIn, line);
+            if (len == END.length && MemcachedStatsParser.startsWith(line, len, END)) {
+                break;
+            }
+            if (!MemcachedStatsParser.startsWith(line, len, KEY_FIELD)) {
+                // BUSY, ERROR or CLIENT_ERROR: the crawler is disabled or already running
+                throw new IOException("lru_crawler metadump failed on " + dump + ": "
+                        + new String(line, 0, len, StandardCharsets.US_ASCII));
+            }
+
+            String key = null;
+            long exp = -1;
+            long lastAccess = 0;
+            int i = 0;
+            while (i < len) {
+                int end = i;
+                while (end < len && line[end] != ' ') {
+                    end++;
+                }
+                if (regionStartsWith(line, i, end, KEY_FIELD)) {
+                    key = uriDecode(line, i + KEY_FIELD.length, end);
+                } else if (end - i > 4 && line[i] == 'e' && line[i + 1] == 'x' && line[i + 2] == 'p'
+                        && line[i + 3] == '=') {
+                    exp = parseLong(line, i + 4, end);
+                } else if (end - i > 3 && line[i] == 'l' && line[i + 1] == 'a' && line[i + 2] == '=') {
+                    lastAccess = parseLong(line, i + 3, end);
+                }
+                i = end + 1;
+            }
+
+            if (key == null || (exp > 0 && exp <= now) || (maxIdleSeconds > 0 && now - lastAccess > maxIdleSeconds)) {
+                skippedItems++;
+                continue;
+            }
+            batch.put(key, exp);
+
+            if (batch.size() >= batchSize) {
+                copyBatch(batch);
+                batch.clear();
+                if (System.currentTimeMillis() > deadline) {
+                    logger.warn("Memcached warm up from " + peer + " ran out of time after " + copiedItems + " items");
+                    return false;
+                }
+                now = System.currentTimeMillis() / 1000;
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            copyBatch(batch);
+        }
+        flushLocal();
+        logger.info(String.format("Memcached warm up from %s copied %d items (%d bytes), skipped %d", peer,
+                copiedItems, copiedBytes, skippedItems));
+        return true;
+    }
+
+    /**
+     * Fetches one batch from the peer with a single multi-key get and pipelines the sets to the local memcached.
+     */
+    private void copyBatch(Map<String, Long> batch) throws IOException {
+        OutputStream peerOut = peer.getOutputStream();
+        peerOut.write('g');
+        peerOut.write('e');
+        peerOut.write('t');
+        for (String key : batch.keySet()) {
+            peerOut.write(' ');
+            peerOut.write(key.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        peerOut.write(CRLF);
+        peerOut.flush();
+
+        InputStream peerIn = peer.getInputStream();
+        OutputStream localOut = local.getOutputStream();
+        while (true) {
+            int len = MemcachedStatsParser.readLine(peerIn, line);
+            if (len == END.length && MemcachedStatsParser.startsWith(line, len, END)) {
+                break;
+            }
+            if (!MemcachedStatsParser.startsWith(line, len, VALUE)) {
+                throw new IOException("Unexpected get response from " + peer + ": "
+                        + new String(line, 0, len, StandardCharsets.US_ASCII));
+            }
+
+            // VALUE <key> <flags> <bytes>
+            int keyStart = VALUE.length;
+            int keyEnd = indexOf(line, ' ', keyStart, len);
+            int flagsEnd = indexOf(line, ' ', keyEnd + 1, len);
+            int bytesEnd = indexOf(line, ' ', flagsEnd + 1, len);
+            int bytes = (int) parseLong(line, flagsEnd + 1, bytesEnd);
+
+            if (data.length < bytes + CRLF.length) {
+                data = new byte[bytes + CRLF.length];
+            }
+            peer.readFully(data, 0, bytes + CRLF.length);
+
+            Long exp = batch.get(new String(line, keyStart, keyEnd - keyStart, StandardCharsets.ISO_8859_1));
+            long exptime = exp == null || exp < 0 ? 0 : exp;
+
+            localOut.write('s');
+            localOut.write('e');
+            localOut.write('t');
+            localOut.write(line, keyStart - 1, flagsEnd - keyStart + 1);
+            localOut.write(' ');
+            writeAscii(localOut, exptime);
+            localOut.write(' ');
+            writeAscii(localOut, bytes);
+            localOut.write(" noreply\r\n".getBytes(StandardCharsets.US_ASCII));
+            localOut.write(data, 0, bytes + CRLF.length);
+
+            copiedItems++;
+            copiedBytes += bytes;
+        }
+    }
+
+    /**
+     * The sets are sent with noreply, so finish with a version round trip to make sure memcached processed them. Any
+     * error lines emitted for rejected sets arrive before the VERSION reply.
+     */
+    private void flushLocal() throws IOException {
+        OutputStream localOut = local.getOutputStream();
+        localOut.write("version\r\n".getBytes(StandardCharsets.US_ASCII));
+        localOut.flush();
+        int errors = 0;
+        while (true) {
+            int len = MemcachedStatsParser.readLine(local.getInputStream(), line);
+            if (MemcachedStatsParser.startsWith(line, len, VERSION)) {
+                break;
+            }
+            errors++;
+        }
+        if (errors > 0) {
+            logger.warn("Local memcached rejected " + errors + " items during warm up");
+        }
+    }
+
+    public long getCopiedItems() {
+        return copiedItems;
+    }
+
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    public long getSkippedItems() {
+        return skippedItems;
+    }
+
+    private static int indexOf(byte[] buf, char c, int from, int len) {
+        for (int i = from; i < len; i++) {
+            if (buf[i] == c) {
+                return i;
+            }
+        }
+        return len;
+    }
+
+    private static boolean regionStartsWith(byte[] buf, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseLong(byte[] buf, int from, int to) {
+        boolean negative = from < to && buf[from] == '-';
+        long value = 0;
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            value = value * 10 + (buf[i] - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private static void writeAscii(OutputStream out, long value) throws IOException {
+        out.write(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * metadump URI-encodes keys; memcached keys cannot contain spaces or control characters, so the decoded bytes are
+     * kept as an ISO-8859-1 string which maps every byte to one char.
+     */
+    static String uriDecode(byte[] buf, int from, int to) {
+        StringBuilder sb = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            if (buf[i] == '%' && i + 2 < to) {
+                sb.append((char) ((Character.digit(buf[i + 1], 16) << 4) | Character.digit(buf[i + 2], 16)));
+                i += 2;
+            } else {
+                sb.append((char) (buf[i] & 0xff));
+            }
+        }
+        return sb.toString();
+    }
+}
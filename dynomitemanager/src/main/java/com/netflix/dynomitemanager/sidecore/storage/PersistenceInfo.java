@@ -0,0 +1,121 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The persistence section of the Redis INFO, as returned by <code>INFO persistence</code>, read to follow a
+ * BGSAVE or BGREWRITEAOF, or the loading of the data file.
+ */
+public class PersistenceInfo {
+
+	private final Map<String, String> fields = new HashMap<String, String>();
+
+	private PersistenceInfo() {
+	}
+
+	public static PersistenceInfo parse(String info) {
+		PersistenceInfo persistence = new PersistenceInfo();
+		for (String line : info.split("\r?\n")) {
+			int colon = line.indexOf(':');
+			if (colon > 0 && !line.startsWith("#")) {
+				persistence.fields.put(line.substring(0, colon), line.substring(colon + 1).trim());
+			}
+		}
+		return persistence;
+	}
+
+	/**
+	 * @return true while Redis loads its data file
+	 */
+	public boolean isLoading() {
+		return "1".equals(fields.get("loading"));
+	}
+
+	/**
+	 * @return how much of the data file Redis loaded, in percent, -1 if unknown
+	 */
+	public double getLoadedPercent() {
+		String value = fields.get("loading_loaded_perc");
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return how many seconds Redis expects loading the data file to take still, -1 if unknown
+	 */
+	public long getLoadingEtaSeconds() {
+		return getLong("loading_eta_seconds");
+	}
+
+	/**
+	 * @param aof
+	 *            true for an append only file rewrite, false for an RDB save
+	 * @return true if the snapshot runs, or is scheduled to run once another one completes
+	 */
+	public boolean isInProgress(boolean aof) {
+		if (aof) {
+			return "1".equals(fields.get("aof_rewrite_in_progress")) || "1".equals(fields.get("aof_rewrite_scheduled"));
+		}
+		return "1".equals(fields.get("rdb_bgsave_in_progress"));
+	}
+
+	/**
+	 * @return false if the last snapshot of the kind failed
+	 */
+	public boolean lastSucceeded(boolean aof) {
+		String status = fields.get(aof ? "aof_last_bgrewrite_status" : "rdb_last_bgsave_status");
+		return status == null || "ok".equals(status);
+	}
+
+	/**
+	 * Redis reports the fork of the latest snapshot in the stats section of the INFO, not in the persistence one.
+	 *
+	 * @param stats
+	 *            the stats section of the INFO, as returned by <code>INFO stats</code>
+	 * @return how long the latest fork took in microseconds, -1 if unknown
+	 */
+	public static long latestForkUsec(String stats) {
+		return parse(stats).getLong("latest_fork_usec");
+	}
+
+	/**
+	 * @return the bytes copied on write while the last snapshot of the kind ran, -1 if unknown (before Redis 4.0)
+	 */
+	public long getLastCowBytes(boolean aof) {
+		return getLong(aof ? "aof_last_cow_size" : "rdb_last_cow_size");
+	}
+
+	/**
+	 * @return the value of the field as a number, -1 if it is missing or not a number
+	 */
+	public long getLong(String field) {
+		String value = fields.get(field);
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -46,6 +46,7 @@ public class RedisInfoParser {
 		WHITE_LIST.add("rdb_last_save_time");
 		WHITE_LIST.add("aof_enabled");
 		WHITE_LIST.add("aof_rewrite_in_progress");
+		WHITE_LIST.add("aof_delayed_fsync");
 		WHITE_LIST.add("total_connections_received");
 		WHITE_LIST.add("total_commands_processed");
 		WHITE_LIST.add("instantaneous_ops_per_sec");
@@ -17,6 +17,7 @@ import com.google.common.base.Splitter;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.sidecore.backup.BackupMetrics;
 import com.netflix.dynomitemanager.sidecore.utils.Sleeper;
 
 import org.slf4j.Logger;
@@ -68,6 +69,14 @@ public class RedisStorageProxy implements IStorageProxy {
     private static final String REDIS_CONF_STOP_WRITES_BGSAVE_ERROR = "^stop-writes-on-bgsave-error\\s*[a-zA-Z]*";
     private static final String REDIS_CONF_SAVE_SCHEDULE = "^#\\ssave\\s[0-9]*\\s[0-9]*";
 
+    private static final long SNAPSHOT_FIRST_POLL_MS = 100;
+    private static final long SNAPSHOT_MAX_POLL_MS = 5000;
+    private static final long SNAPSHOT_TIMEOUT_MS = 10 * 60 * 1000;
+
+    private static final long LOADING_POLL_MS = 1000;
+    private static final long LOADING_LOG_INTERVAL_MS = 10000;
+    private static final long LOADING_STALL_TIMEOUT_MS = 10 * 60 * 1000;
+
     private static final Logger logger = LoggerFactory.getLogger(RedisStorageProxy.class);
 
     private Jedis localJedis;
@@ -78,6 +87,9 @@ public class RedisStorageProxy implements IStorageProxy {
     @Inject
     private Sleeper sleeper;
 
+    @Inject
+    private BackupMetrics metrics;
+
     public RedisStorageProxy() {
 	// connect();
     }
@@ -182,34 +194,36 @@ public class RedisStorageProxy implements IStorageProxy {
 	    logger.warn("Redis: There is already a pending BGREWRITEAOF/BGSAVE.");
 	}
 
-	String peerRedisInfo = null;
-	int retry = 0;
+	/*
+	 * Redis does not notify the end of a snapshot, so the persistence
+	 * section of INFO is polled, often at first as most snapshots complete
+	 * within seconds, then backing off.
+	 */
+	boolean aof = config.isRedisAofEnabled();
+	long start = System.currentTimeMillis();
+	long pollMs = SNAPSHOT_FIRST_POLL_MS;
 
 	try {
 	    while (true) {
-		peerRedisInfo = this.localJedis.info();
-		Iterable<String> result = Splitter.on('\n').split(peerRedisInfo);
-		String pendingPersistence = null;
-
-		for (String line : result) {
-		    if ((line.startsWith("aof_rewrite_in_progress") && config.isRedisAofEnabled())
-			    || (line.startsWith("rdb_bgsave_in_progress") && !config.isRedisAofEnabled())) {
-			String[] items = line.split(":");
-			pendingPersistence = items[1].trim();
-			if (pendingPersistence.equals("0")) {
-			    logger.info("Redis: BGREWRITEAOF/BGSAVE completed.");
-			    return true;
-			} else {
-			    retry++;
-			    logger.warn("Redis: BGREWRITEAOF/BGSAVE pending. Sleeping 30 secs...");
-			    sleeper.sleepQuietly(30000);
-
-			    if (retry > 20) {
-				return false;
-			    }
-			}
+		PersistenceInfo persistence = PersistenceInfo.parse(this.localJedis.info("persistence"));
+		long elapsedMs = System.currentTimeMillis() - start;
+		if (!persistence.isInProgress(aof)) {
+		    if (!persistence.lastSucceeded(aof)) {
+			logger.error("Redis: BGREWRITEAOF/BGSAVE failed.");
+			return false;
 		    }
+		    long forkUsec = PersistenceInfo.latestForkUsec(this.localJedis.info("stats"));
+		    logger.info(String.format(
+			    "Redis: BGREWRITEAOF/BGSAVE completed in %d ms, fork %d us, %d bytes copied on write", elapsedMs, forkUsec, persistence.getLastCowBytes(aof)));
+		    metrics.snapshotTaken(forkUsec, persistence.getLastCowBytes(aof), elapsedMs);
+		    return true;
+		}
+		if (elapsedMs > SNAPSHOT_TIMEOUT_MS) {
+		    logger.error("Redis: BGREWRITEAOF/BGSAVE still pending after " + elapsedMs / 1000 + " secs");
+		    return false;
 		}
+		sleeper.sleepQuietly(pollMs);
+		pollMs = Math.min(pollMs * 2, SNAPSHOT_MAX_POLL_MS);
 	    }
 
 	} catch (JedisConnectionException e) {
@@ -221,42 +235,53 @@ public class RedisStorageProxy implements IStorageProxy {
 
     }
 
+    /**
+     * Waits for Redis to load its data file. Progress is polled every second and logged with the time left as Redis
+     * estimates it. Loading fails only once it stops progressing for 10 minutes, so large data files can take as long
+     * as they need.
+     */
     @Override
     public boolean loadingData() {
-	localRedisConnect();
-	logger.info("loading AOF from the drive");
-	String peerRedisInfo = null;
-	int retry = 0;
+	logger.info("Waiting for Redis to load its data file");
+	long lastProgress = System.currentTimeMillis();
+	long lastLog = 0;
+	double loadedPercent = -1;
 
-	try {
-	    peerRedisInfo = localJedis.info();
-	    Iterable<String> result = Splitter.on('\n').split(peerRedisInfo);
-	    String pendingAOF = null;
-
-	    for (String line : result) {
-		if (line.startsWith("loading")) {
-		    String[] items = line.split(":");
-		    pendingAOF = items[1].trim();
-		    if (pendingAOF.equals("0")) {
-			logger.info("Redis: memory loading completed.");
-			return true;
-		    } else {
-			retry++;
-			logger.warn("Redis: memory pending. Sleeping 30 secs...");
-			sleeper.sleepQuietly(30000);
-
-			if (retry > 20) {
-			    return false;
-			}
-		    }
+	while (true) {
+	    long now = System.currentTimeMillis();
+	    try {
+		localRedisConnect();
+		PersistenceInfo persistence = PersistenceInfo.parse(localJedis.info("persistence"));
+		if (!persistence.isLoading()) {
+		    metrics.loadingProgress(100, 0);
+		    logger.info("Redis: memory loading completed.");
+		    return true;
+		}
+		double percent = persistence.getLoadedPercent();
+		long eta = persistence.getLoadingEtaSeconds();
+		metrics.loadingProgress((long) percent, eta);
+		if (percent > loadedPercent) {
+		    loadedPercent = percent;
+		    lastProgress = now;
+		}
+		if (now - lastLog >= LOADING_LOG_INTERVAL_MS) {
+		    lastLog = now;
+		    logger.info(String.format("Redis: loaded %.2f%% of %d MB, %d seconds left", percent,
+			    persistence.getLong("loading_total_bytes") / (1024 * 1024), eta));
 		}
+	    } catch (JedisConnectionException e) {
+		// Redis may still be starting, or the connection predates a restart.
+		logger.warn("Cannot connect to Redis to follow the loading of its data file");
+		localJedis = null;
 	    }
-	} catch (JedisConnectionException e) {
-	    logger.error("Cannot connect to Redis to load the AOF");
-	}
-
-	return false;
 
+	    if (now - lastProgress > LOADING_STALL_TIMEOUT_MS) {
+		logger.error(String.format("Redis: loading made no progress for %d seconds, giving up",
+			LOADING_STALL_TIMEOUT_MS / 1000));
+		return false;
+	    }
+	    sleeper.sleepQuietly(LOADING_POLL_MS);
+	}
     }
 
     @Override
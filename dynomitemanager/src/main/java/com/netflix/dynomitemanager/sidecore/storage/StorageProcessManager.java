@@ -41,12 +41,15 @@ public class StorageProcessManager {
     private final Sleeper sleeper;
     private final InstanceState instanceState;
     private final IStorageProxy storageProxy;
+    private final DataFilePrefetcher prefetcher;
 
     @Inject
-    public StorageProcessManager(Sleeper sleeper, InstanceState instanceState, IStorageProxy storageProxy) {
+    public StorageProcessManager(Sleeper sleeper, InstanceState instanceState, IStorageProxy storageProxy,
+	    DataFilePrefetcher prefetcher) {
 	this.sleeper = sleeper;
 	this.instanceState = instanceState;
 	this.storageProxy = storageProxy;
+	this.prefetcher = prefetcher;
     }
 
     protected void setStorageEnv(Map<String, String> env) {
@@ -54,11 +57,12 @@ public class StorageProcessManager {
     }
 
     /**
-     * Start the storage engine (Redis, Memcached).
+     * Start the storage engine (Redis, Memcached). The data file Redis loads is read into the page cache first.
      * 
      * @throws IOException
      */
     public void start() throws IOException {
+	prefetcher.prefetch();
 	logger.info(String.format("Starting Storage process"));
 	ProcessBuilder startBuilder = process(getStartCommand());
 	setStorageEnv(startBuilder.environment());
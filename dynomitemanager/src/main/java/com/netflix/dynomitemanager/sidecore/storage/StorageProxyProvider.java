@@ -0,0 +1,47 @@
+/**
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.storage;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+
+/**
+ * Provides the storage proxy of the configured datastore engine: {@link MemcachedStorageProxy} for "memcached",
+ * {@link RedisStorageProxy} for Redis and the Redis compatible engines.
+ */
+@Singleton
+public class StorageProxyProvider implements Provider<IStorageProxy> {
+    private static final String DYNO_MEMCACHED = "memcached";
+
+    private final IConfiguration config;
+    private final Provider<RedisStorageProxy> redis;
+    private final Provider<MemcachedStorageProxy> memcached;
+
+    @Inject
+    public StorageProxyProvider(IConfiguration config, Provider<RedisStorageProxy> redis,
+	    Provider<MemcachedStorageProxy> memcached) {
+	this.config = config;
+	this.redis = redis;
+	this.memcached = memcached;
+    }
+
+    @Override
+    public IStorageProxy get() {
+	if (DYNO_MEMCACHED.equals(config.getDatastoreEngine())) {
+	    return memcached.get();
+	}
+	return redis.get();
+    }
+}
@@ -17,8 +17,8 @@ import com.google.inject.Singleton;
 
 import com.netflix.dynomitemanager.InstanceState;
 import com.netflix.dynomitemanager.identity.AppsInstance;
-import com.netflix.dynomitemanager.identity.IAppsInstanceFactory;
 import com.netflix.dynomitemanager.identity.InstanceIdentity;
+import com.netflix.dynomitemanager.identity.MembershipCache;
 import com.netflix.dynomitemanager.sidecore.scheduler.SimpleTimer;
 import com.netflix.dynomitemanager.sidecore.scheduler.Task;
 import com.netflix.dynomitemanager.sidecore.scheduler.TaskTimer;
@@ -46,20 +46,20 @@ public class WarmBootstrapTask extends Task {
     public static final String JOBNAME = "Bootstrap-Task";
     private final IDynomiteProcess dynProcess;
     private final IStorageProxy storageProxy;
-    private final IAppsInstanceFactory appsInstanceFactory;
+    private final MembershipCache membershipCache;
     private final InstanceIdentity ii;
     private final InstanceState state;
     private final Sleeper sleeper;
     private final StorageProcessManager storageProcessMgr;
 
     @Inject
-    public WarmBootstrapTask(IConfiguration config, IAppsInstanceFactory appsInstanceFactory, InstanceIdentity id,
+    public WarmBootstrapTask(IConfiguration config, MembershipCache membershipCache, InstanceIdentity id,
 	    IDynomiteProcess dynProcess, IStorageProxy storageProxy, InstanceState ss, Sleeper sleeper,
 	    StorageProcessManager storageProcessMgr) {
 	super(config);
 	this.dynProcess = dynProcess;
 	this.storageProxy = storageProxy;
-	this.appsInstanceFactory = appsInstanceFactory;
+	this.membershipCache = membershipCache;
 	this.ii = id;
 	this.state = ss;
 	this.sleeper = sleeper;
@@ -161,7 +161,7 @@ public class WarmBootstrapTask extends Task {
 	String tokens = ii.getTokens();
 
 	logger.info("Warming up node's own token(s) : " + tokens);
-	List<AppsInstance> instances = appsInstanceFactory.getLocalDCIds(config.getDynomiteClusterName(), config.getDataCenter());
+	List<AppsInstance> instances = membershipCache.getSnapshot().getLocalDCInstances(config.getDataCenter());
 	List<String> peers = new ArrayList<String>();
 
 	for (AppsInstance ins : instances) {
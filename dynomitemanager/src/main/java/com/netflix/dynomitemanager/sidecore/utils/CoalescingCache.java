@@ -0,0 +1,194 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.netflix.dynomitemanager.sidecore.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A value loaded on demand and used for a time to live, shared by concurrent readers.
+ *
+ * Readers arriving while the value is loaded share that load rather than start their own. Loads run on the executor
+ * given, in which case readers keep getting a stale value while it is refreshed, or otherwise on the thread of the
+ * reader that starts them, in which case readers wait for the fresh value. A stale value is used while it is less
+ * than {@link #MAX_STALE_TTLS} times its time to live old; a failed load falls back to it within that age, or
+ * whatever its age if the cache is built to.
+ *
+ * {@link #invalidate()} starts a new generation: a load started before it is neither installed nor shared with the
+ * readers that come after it.
+ */
+public class CoalescingCache<T> {
+	private static final Logger logger = LoggerFactory.getLogger(CoalescingCache.class);
+
+	/**
+	 * How many times its time to live a value is used while loads fail.
+	 */
+	public static final int MAX_STALE_TTLS = 6;
+
+	private static final class Entry<T> {
+		private final T value;
+		private final long loadedAt;
+		private final boolean pinned;
+
+		Entry(T value, long loadedAt, boolean pinned) {
+			this.value = value;
+			this.loadedAt = loadedAt;
+			this.pinned = pinned;
+		}
+	}
+
+	private final class Load extends FutureTask<T> {
+		private final int generation;
+
+		Load(final int generation) {
+			super(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					T value = loader.call();
+					install(value, generation);
+					return value;
+				}
+			});
+			this.generation = generation;
+		}
+
+		@Override
+		protected void done() {
+			inFlight.compareAndSet(this, null);
+		}
+	}
+
+	private final String name;
+	private final Callable<T> loader;
+	private final Executor refresher;
+	private final boolean fallBackToAnyAge;
+	private final AtomicReference<Load> inFlight = new AtomicReference<Load>();
+	private volatile int generation;
+	private volatile Entry<T> entry;
+
+	/**
+	 * @param name
+	 *            what the value is, for the logs
+	 * @param refresher
+	 *            the executor loads run on, null to run them on the reader thread
+	 * @param fallBackToAnyAge
+	 *            true to use the value whatever its age when a load fails
+	 */
+	public CoalescingCache(String name, Callable<T> loader, Executor refresher, boolean fallBackToAnyAge) {
+		this.name = name;
+		this.loader = loader;
+		this.refresher = refresher;
+		this.fallBackToAnyAge = fallBackToAnyAge;
+	}
+
+	/**
+	 * @param ttlMs
+	 *            how long a value is used before it is loaded again, 0 to load it on every read
+	 * @return the value
+	 * @throws RuntimeException
+	 *             if the value cannot be loaded and there is no usable one
+	 */
+	public T get(long ttlMs) {
+		Entry<T> current = entry;
+		long age = current == null ? Long.MAX_VALUE : System.currentTimeMillis() - current.loadedAt;
+		if (age < ttlMs) {
+			return current.value;
+		}
+		boolean recent = current != null && (current.pinned || ttlMs > 0 && age < ttlMs * MAX_STALE_TTLS);
+		Future<T> load = refresh();
+		if (recent && refresher != null) {
+			return current.value;
+		}
+		try {
+			return await(load);
+		} catch (RuntimeException e) {
+			if (current == null || !(recent || fallBackToAnyAge)) {
+				throw e;
+			}
+			logger.warn("Using a " + name + " " + age / 1000 + " seconds old: " + e.getMessage());
+			return current.value;
+		}
+	}
+
+	/**
+	 * @return the value, null if there is none
+	 */
+	public T peek() {
+		Entry<T> current = entry;
+		return current == null ? null : current.value;
+	}
+
+	/**
+	 * Uses a value obtained elsewhere, whatever its age, until the value is loaded.
+	 */
+	public synchronized void restore(T value, long loadedAt) {
+		entry = new Entry<T>(value, loadedAt, true);
+	}
+
+	/**
+	 * Drops the value, so the next reader loads it again. A load already running is not used.
+	 */
+	public synchronized void invalidate() {
+		generation++;
+		entry = null;
+	}
+
+	/**
+	 * Starts loading the value, unless a load of the current generation is running already.
+	 *
+	 * @return the running load, complete already if it ran on the calling thread
+	 */
+	public Future<T> refresh() {
+		while (true) {
+			Load running = inFlight.get();
+			int current = generation;
+			if (running != null && !running.isDone() && running.generation == current) {
+				return running;
+			}
+			Load load = new Load(current);
+			if (inFlight.compareAndSet(running, load)) {
+				if (refresher != null) {
+					refresher.execute(load);
+				} else {
+					load.run();
+				}
+				return load;
+			}
+		}
+	}
+
+	private synchronized void install(T value, int loadGeneration) {
+		if (loadGeneration == generation) {
+			entry = new Entry<T>(value, System.currentTimeMillis(), false);
+		}
+	}
+
+	private T await(Future<T> load) {
+		try {
+			return load.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while loading the " + name, e);
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+					: new RuntimeException(e.getCause());
+		}
+	}
+}
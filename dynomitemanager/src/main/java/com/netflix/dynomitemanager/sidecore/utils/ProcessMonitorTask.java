@@ -18,6 +18,7 @@ import com.google.inject.Singleton;
 import com.netflix.dynomitemanager.InstanceState;
 import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
 import com.netflix.dynomitemanager.dynomite.IDynomiteProcess;
+import com.netflix.dynomitemanager.identity.InstanceIdentity;
 import com.netflix.dynomitemanager.sidecore.scheduler.SimpleTimer;
 import com.netflix.dynomitemanager.sidecore.scheduler.Task;
 import com.netflix.dynomitemanager.sidecore.scheduler.TaskTimer;
@@ -70,15 +71,17 @@ public class ProcessMonitorTask extends Task implements StatefulJob {
     private final InstanceState instanceState;
     private final IStorageProxy storageProxy;
     private final IDynomiteProcess dynomiteProcess;
+    private final InstanceIdentity instanceIdentity;
 
     @Inject
     protected ProcessMonitorTask(IConfiguration config, InstanceState instanceState, IStorageProxy storageProxy,
-            IDynomiteProcess dynomiteProcess) {
+            IDynomiteProcess dynomiteProcess, InstanceIdentity instanceIdentity) {
         super(config);
         this.config = config;
         this.instanceState = instanceState;
         this.storageProxy = storageProxy;
         this.dynomiteProcess = dynomiteProcess;
+        this.instanceIdentity = instanceIdentity;
     }
 
     @Override
@@ -88,6 +91,16 @@ public class ProcessMonitorTask extends Task implements StatefulJob {
             return;
         }
 
+        // A node taken out of service after it booted, e.g. because another node took its slot over, must not keep
+        // serving its token.
+        if (instanceIdentity.getInstance().isOutOfService()) {
+            if (this.dynomiteProcess.dynomiteProcessCheck()) {
+                logger.error("This node is out of service, stopping Dynomite");
+                this.dynomiteProcess.stop();
+            }
+            return;
+        }
+
         instanceState.setStorageProxyProcessAlive(this.dynomiteProcess.dynomiteProcessCheck());
         instanceState
                 .setStorageProxyAlive(JedisUtils.isAliveWithRetry(storageProxy.getIpAddress(), storageProxy.getPort()));
@@ -23,7 +23,7 @@ import com.netflix.dynomitemanager.identity.InstanceIdentity;
 public class FakeInstanceIdentity extends InstanceIdentity {
 
 	public FakeInstanceIdentity() throws Exception {
-		super(null, null, null, null, null, null);
+		super(null, null, null, null, null, null, null, null);
 	}
 
 	@Override
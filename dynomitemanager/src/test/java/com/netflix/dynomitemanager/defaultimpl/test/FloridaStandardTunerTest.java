@@ -55,4 +55,21 @@ public class FloridaStandardTunerTest {
         Assert.assertTrue(result.contains(new FakeInstanceIdentity().getSeeds().get(2)));
     }
 
+    @Test
+    public void testUpdateServers() throws Exception {
+        DynomiteStandardTuner tuner = new DynomiteStandardTuner(new BlankConfiguration(), new FakeInstanceIdentity(),
+                new FakeInstanceState(), new FakeStorageProxy());
+
+        String yamlPath = System.getProperty("java.io.tmpdir") + "/yaml-tunner-servers.yaml";
+        String templateYamlPath = new File(".").getCanonicalPath() + "/src/test/resources/sample-yaml.yaml";
+        Files.copy(Paths.get(templateYamlPath), Paths.get(yamlPath), REPLACE_EXISTING);
+
+        tuner.updateServers(yamlPath, "127.0.0.1", 22123);
+        String result = FileUtils.readFileToString(new File(yamlPath));
+        Assert.assertTrue(result.contains("127.0.0.1:22123:1"));
+        Assert.assertFalse(result.contains(":22122:"));
+        // the rest of the configuration is kept
+        Assert.assertTrue(result.contains("127.0.0.1:8101"));
+        new File(yamlPath).delete();
+    }
 }
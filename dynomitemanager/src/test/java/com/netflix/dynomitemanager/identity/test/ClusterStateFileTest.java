@@ -0,0 +1,155 @@
+package com.netflix.dynomitemanager.identity.test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.identity.ClusterStateFile;
+import com.netflix.dynomitemanager.identity.InstanceIdentity;
+import com.netflix.dynomitemanager.identity.MembershipCache;
+
+public class ClusterStateFileTest {
+
+    private File dir;
+    private File file;
+    private volatile String instanceName = "i-0";
+    private BlankConfiguration config;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("cluster-state").toFile();
+        file = new File(dir, "state/cluster_state.json");
+        config = new BlankConfiguration() {
+            @Override
+            public String getDynomiteClusterName() {
+                return "dyno_test";
+            }
+
+            @Override
+            public String getInstanceName() {
+                return instanceName;
+            }
+
+            @Override
+            public int getDynomitePeerPort() {
+                return 8101;
+            }
+
+            @Override
+            public int getMembershipCacheTtlSeconds() {
+                return 10;
+            }
+
+            @Override
+            public String getClusterStateFile() {
+                return file.getPath();
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testSaveAndLoad() {
+        List<AppsInstance> instances = new FakeAppsInstanceFactory().getAllIds("dyno_test");
+        ClusterStateFile stateFile = new ClusterStateFile(config);
+        Assert.assertNull(stateFile.load());
+
+        stateFile.saveMembership(instances, 3, 12345);
+        Assert.assertFalse("Written before this node has a slot", file.exists());
+        stateFile.saveInstance(instances.get(0));
+
+        ClusterStateFile.ClusterState state = new ClusterStateFile(config).load();
+        Assert.assertEquals("i-0", state.getInstance().getInstanceId());
+        Assert.assertEquals("0", state.getInstance().getToken());
+        Assert.assertEquals(3, state.getMembershipVersion());
+        Assert.assertEquals(12345, state.getSavedAt());
+        Assert.assertEquals(2, state.getInstances().size());
+        AppsInstance other = state.getInstances().get(1);
+        Assert.assertEquals("host1", other.getHostName());
+        Assert.assertEquals("10.0.0.1", other.getHostIP());
+        Assert.assertEquals("us-east-1d", other.getRack());
+        Assert.assertEquals("us-east-1", other.getDatacenter());
+        Assert.assertEquals("1000", other.getToken());
+        Assert.assertTrue(other.hasHeartbeat());
+        Assert.assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        // the state of another instance, or a file that cannot be read, is not used
+        instanceName = "i-1";
+        Assert.assertNull(stateFile.load());
+        instanceName = "i-0";
+        Assert.assertNotNull(stateFile.load());
+    }
+
+    @Test
+    public void testUnreadableFileIsIgnored() throws Exception {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), "{\"version\":1,\"instance\":".getBytes(StandardCharsets.UTF_8));
+        Assert.assertNull(new ClusterStateFile(config).load());
+    }
+
+    @Test
+    public void testRestartWithoutTokenStore() throws Exception {
+        FakeAppsInstanceFactory factory = new FakeAppsInstanceFactory();
+        ClusterStateFile stateFile = new ClusterStateFile(config);
+        MembershipCache cache = new MembershipCache(factory, config, stateFile);
+        InstanceIdentity identity = new InstanceIdentity(factory, cache, null, config, null, null, null, stateFile);
+        Assert.assertEquals("0", identity.getTokens());
+        Assert.assertEquals(Arrays.asList("host1:8101:us-east-1d:us-east-1:1000"), identity.getSeeds());
+        Assert.assertTrue(file.exists());
+
+        // the manager restarts while the token store is down
+        factory.fail = true;
+        factory.queries.set(0);
+        stateFile = new ClusterStateFile(config);
+        cache = new MembershipCache(factory, config, stateFile);
+        identity = new InstanceIdentity(factory, cache, null, config, null, null, null, stateFile);
+        Assert.assertEquals("0", identity.getTokens());
+        Assert.assertEquals(Arrays.asList("host1:8101:us-east-1d:us-east-1:1000"), identity.getSeeds());
+        Assert.assertTrue(cache.getSnapshot().isRestored());
+
+        // once the token store is back, the membership read from it replaces the restored one
+        factory.nodes = 3;
+        factory.fail = false;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getSnapshot().isRestored() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, identity.getSeeds().size());
+    }
+
+    @Test
+    public void testRestartIntoSlotTakenOver() throws Exception {
+        FakeAppsInstanceFactory factory = new FakeAppsInstanceFactory();
+        ClusterStateFile stateFile = new ClusterStateFile(config);
+        new InstanceIdentity(factory, new MembershipCache(factory, config, stateFile), null, config, null, null, null,
+                stateFile).getSeeds();
+        Assert.assertTrue(file.exists());
+
+        // another node took slot 0 over while the manager was down
+        factory.takenOver.put(0, "i-9");
+        stateFile = new ClusterStateFile(config);
+        InstanceIdentity identity = new InstanceIdentity(factory, new MembershipCache(factory, config, stateFile),
+                null, config, null, null, null, stateFile);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!identity.getInstance().isOutOfService() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(identity.getInstance().isOutOfService());
+        Assert.assertFalse("The next restart boots from the token store", file.exists());
+        Assert.assertNull(new ClusterStateFile(config).load());
+    }
+}
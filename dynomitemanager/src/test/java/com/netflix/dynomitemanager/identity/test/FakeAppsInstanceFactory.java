@@ -0,0 +1,99 @@
+package com.netflix.dynomitemanager.identity.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.identity.IAppsInstanceFactory;
+
+/**
+ * Counts the reads of the token store, which can be held until released.
+ */
+public class FakeAppsInstanceFactory implements IAppsInstanceFactory {
+    public final AtomicInteger queries = new AtomicInteger();
+    public volatile CountDownLatch release;
+    public volatile int nodes = 2;
+    public volatile boolean fail;
+    /** Instance ids read without a heartbeat. */
+    public final Set<String> expired = ConcurrentHashMap.newKeySet();
+    /** Slots registered to another instance, by slot id. */
+    public final Map<Integer, String> takenOver = new ConcurrentHashMap<Integer, String>();
+
+    @Override
+    public List<AppsInstance> getAllIds(String appName) {
+        queries.incrementAndGet();
+        if (fail) {
+            throw new RuntimeException("Token store unavailable");
+        }
+        if (release != null) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        List<AppsInstance> instances = new ArrayList<AppsInstance>();
+        if (appName != null && appName.endsWith("-dead")) {
+            return instances;
+        }
+        for (int i = 0; i < nodes; i++) {
+            AppsInstance instance = new AppsInstance();
+            instance.setId(i);
+            instance.setInstanceId(takenOver.containsKey(i) ? takenOver.get(i) : "i-" + i);
+            instance.setHost("host" + i, "10.0.0." + i);
+            instance.setDatacenter(i < 2 ? "us-east-1" : "us-east-2");
+            instance.setRack(instance.getDatacenter() + (char) ('c' + i % 3));
+            instance.setZone(instance.getRack());
+            instance.setToken(String.valueOf(i * 1000));
+            instance.setHeartbeat(!expired.contains(instance.getInstanceId()));
+            instances.add(instance);
+        }
+        return instances;
+    }
+
+    @Override
+    public List<AppsInstance> getLocalDCIds(String appName, String region) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public AppsInstance getInstance(String appName, String dc, int id) {
+        for (AppsInstance instance : getAllIds(appName)) {
+            if (instance.getId() == id && instance.getRack().equals(dc)) {
+                return instance;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public AppsInstance create(String app, int id, String instanceID, String hostname, String ip, String rac,
+            Map<String, Object> volumes, String token, String datacenter) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(AppsInstance inst) {
+    }
+
+    @Override
+    public void update(AppsInstance inst) {
+    }
+
+    @Override
+    public void heartbeat(AppsInstance inst, int ttlSeconds) {
+    }
+
+    @Override
+    public void sort(List<AppsInstance> return_) {
+    }
+
+    @Override
+    public void attachVolumes(AppsInstance instance, String mountPath, String device) {
+    }
+}
@@ -0,0 +1,342 @@
+package com.netflix.dynomitemanager.identity.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.netflix.astyanax.ColumnListMutation;
+import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.MutationBatch;
+import com.netflix.astyanax.connectionpool.OperationResult;
+import com.netflix.astyanax.model.Column;
+import com.netflix.astyanax.model.ColumnFamily;
+import com.netflix.astyanax.model.ColumnList;
+import com.netflix.astyanax.model.CqlResult;
+import com.netflix.astyanax.model.Row;
+import com.netflix.astyanax.model.Rows;
+import com.netflix.astyanax.query.ColumnCountQuery;
+import com.netflix.astyanax.query.ColumnFamilyQuery;
+import com.netflix.astyanax.query.CqlQuery;
+import com.netflix.astyanax.query.RowQuery;
+
+/**
+ * In memory stand-in for the parts of {@link Keyspace} used by the token store: row reads and column counts by key,
+ * CQL selects with equality conditions joined by <code>and</code>, and mutation batches. Column TTLs are ignored.
+ * Counts the rows every read returns and the round trips, so tests can check how much of the token store an access
+ * path reads.
+ */
+public class FakeKeyspace {
+
+    private static final Pattern TABLE = Pattern.compile("FROM (\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CONDITION = Pattern.compile("(\\w+) = '([^']*)'");
+
+    /** Column family name, then row key, then columns. */
+    public final Map<String, Map<String, TreeMap<String, String>>> tables =
+            new ConcurrentHashMap<String, Map<String, TreeMap<String, String>>>();
+    public final AtomicLong rowsRead = new AtomicLong();
+    /** Reads and mutation batches executed, each a round trip to Cassandra. */
+    public final AtomicLong roundTrips = new AtomicLong();
+    /** Write time of each column in microseconds, by column family, row key and column name. */
+    private final Map<String, Long> timestamps = new ConcurrentHashMap<String, Long>();
+
+    public Keyspace keyspace() {
+        return (Keyspace) proxy(Keyspace.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("prepareQuery")) {
+                    return query(((ColumnFamily<?, ?>) args[0]).getName());
+                } else if (method.getName().equals("prepareMutationBatch")) {
+                    return mutationBatch();
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    public synchronized void put(String table, String key, Map<String, String> columns) {
+        table(table).put(key, new TreeMap<String, String>(columns));
+        for (String column : columns.keySet()) {
+            setTimestamp(table, key, column, System.currentTimeMillis() * 1000);
+        }
+    }
+
+    public void setTimestamp(String table, String key, String column, long timestamp) {
+        timestamps.put(table + "/" + key + "/" + column, timestamp);
+    }
+
+    private synchronized Map<String, TreeMap<String, String>> table(String name) {
+        Map<String, TreeMap<String, String>> table = tables.get(name);
+        if (table == null) {
+            table = new LinkedHashMap<String, TreeMap<String, String>>();
+            tables.put(name, table);
+        }
+        return table;
+    }
+
+    private synchronized TreeMap<String, String> read(String table, String key) {
+        TreeMap<String, String> row = table(table).get(key);
+        if (row == null) {
+            return new TreeMap<String, String>();
+        }
+        rowsRead.incrementAndGet();
+        return new TreeMap<String, String>(row);
+    }
+
+    private static String tableOf(String cql) {
+        Matcher table = TABLE.matcher(cql);
+        if (!table.find()) {
+            throw new UnsupportedOperationException(cql);
+        }
+        return table.group(1);
+    }
+
+    private synchronized Map<String, TreeMap<String, String>> select(String cql) {
+        String table = tableOf(cql);
+        Map<String, String> conditions = new HashMap<String, String>();
+        Matcher condition = CONDITION.matcher(cql);
+        while (condition.find()) {
+            conditions.put(condition.group(1), condition.group(2));
+        }
+        Map<String, TreeMap<String, String>> selected = new LinkedHashMap<String, TreeMap<String, String>>();
+        for (Map.Entry<String, TreeMap<String, String>> row : table(table).entrySet()) {
+            boolean matches = true;
+            for (Map.Entry<String, String> entry : conditions.entrySet()) {
+                matches &= entry.getValue().equals(row.getValue().get(entry.getKey()));
+            }
+            if (matches) {
+                rowsRead.incrementAndGet();
+                selected.put(row.getKey(), new TreeMap<String, String>(row.getValue()));
+            }
+        }
+        return selected;
+    }
+
+    private Object query(final String table) {
+        return proxy(ColumnFamilyQuery.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("setConsistencyLevel")) {
+                    return proxy;
+                } else if (method.getName().equals("getKey")) {
+                    return rowQuery(table, (String) args[0]);
+                } else if (method.getName().equals("withCql")) {
+                    return cqlQuery((String) args[0]);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private Object rowQuery(final String table, final String key) {
+        return proxy(RowQuery.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("execute")) {
+                    roundTrips.incrementAndGet();
+                    return result(columnList(table, key, read(table, key)));
+                } else if (method.getName().equals("getCount")) {
+                    return proxy(ColumnCountQuery.class, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if (method.getName().equals("execute")) {
+                                roundTrips.incrementAndGet();
+                                TreeMap<String, String> row;
+                                synchronized (FakeKeyspace.this) {
+                                    row = table(table).get(key);
+                                }
+                                return result(row == null ? 0 : row.size());
+                            }
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private Object cqlQuery(final String cql) {
+        return proxy(CqlQuery.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("execute")) {
+                    roundTrips.incrementAndGet();
+                    final Map<String, TreeMap<String, String>> rows = select(cql);
+                    return result(proxy(CqlResult.class, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if (method.getName().equals("getRows")) {
+                                return rows(tableOf(cql), rows);
+                            } else if (method.getName().equals("hasRows")) {
+                                return true;
+                            }
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    }));
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private Object mutationBatch() {
+        final List<Runnable> pending = new ArrayList<Runnable>();
+        return proxy(MutationBatch.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("setConsistencyLevel")) {
+                    return proxy;
+                } else if (method.getName().equals("withRow")) {
+                    return rowMutation(((ColumnFamily<?, ?>) args[0]).getName(), (String) args[1], pending);
+                } else if (method.getName().equals("execute")) {
+                    roundTrips.incrementAndGet();
+                    synchronized (FakeKeyspace.this) {
+                        for (Runnable mutation : pending) {
+                            mutation.run();
+                        }
+                    }
+                    pending.clear();
+                    return result(null);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private Object rowMutation(final String table, final String key, final List<Runnable> pending) {
+        return proxy(ColumnListMutation.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, final Method method, final Object[] args) {
+                pending.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        Map<String, TreeMap<String, String>> rows = table(table);
+                        if (method.getName().equals("delete")) {
+                            rows.remove(key);
+                            return;
+                        }
+                        TreeMap<String, String> row = rows.get(key);
+                        if (row == null) {
+                            row = new TreeMap<String, String>();
+                            rows.put(key, row);
+                        }
+                        if (method.getName().equals("putColumn")) {
+                            row.put((String) args[0], String.valueOf(args[1]));
+                            setTimestamp(table, key, (String) args[0], System.currentTimeMillis() * 1000);
+                        } else if (method.getName().equals("deleteColumn")) {
+                            row.remove(args[0]);
+                            if (row.isEmpty()) {
+                                rows.remove(key);
+                            }
+                        } else {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    }
+                });
+                return proxy;
+            }
+        });
+    }
+
+    private Object rows(final String table, final Map<String, TreeMap<String, String>> rows) {
+        final List<Object> list = new ArrayList<Object>();
+        for (final Map.Entry<String, TreeMap<String, String>> entry : rows.entrySet()) {
+            list.add(proxy(Row.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("getKey")) {
+                        return entry.getKey();
+                    } else if (method.getName().equals("getColumns")) {
+                        return columnList(table, entry.getKey(), entry.getValue());
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            }));
+        }
+        return proxy(Rows.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("iterator")) {
+                    return list.iterator();
+                } else if (method.getName().equals("size")) {
+                    return list.size();
+                } else if (method.getName().equals("isEmpty")) {
+                    return list.isEmpty();
+                } else if (method.getName().equals("getRowByIndex")) {
+                    return list.get((Integer) args[0]);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private Object columnList(final String table, final String key, final TreeMap<String, String> row) {
+        final List<Object> columns = new ArrayList<Object>();
+        for (final Map.Entry<String, String> entry : row.entrySet()) {
+            columns.add(proxy(Column.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("getName")) {
+                        return entry.getKey();
+                    } else if (method.getName().equals("getStringValue")) {
+                        return entry.getValue();
+                    } else if (method.getName().equals("getTimestamp")) {
+                        Long timestamp = timestamps.get(table + "/" + key + "/" + entry.getKey());
+                        return timestamp == null ? 0L : timestamp;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            }));
+        }
+        return proxy(ColumnList.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("iterator")) {
+                    return columns.iterator();
+                } else if (method.getName().equals("size")) {
+                    return columns.size();
+                } else if (method.getName().equals("isEmpty")) {
+                    return columns.isEmpty();
+                } else if (method.getName().equals("getColumnByIndex")) {
+                    return columns.get((Integer) args[0]);
+                } else if (method.getName().equals("getColumnByName")) {
+                    Iterator<String> names = row.keySet().iterator();
+                    for (int i = 0; names.hasNext(); i++) {
+                        if (names.next().equals(args[0])) {
+                            return columns.get(i);
+                        }
+                    }
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static Object result(final Object value) {
+        return proxy(OperationResult.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getResult")) {
+                    return value;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+}
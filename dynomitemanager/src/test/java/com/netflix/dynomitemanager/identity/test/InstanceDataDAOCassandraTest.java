@@ -8,13 +8,18 @@
  */
 package com.netflix.dynomitemanager.identity.test;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 import com.google.common.base.Supplier;
 import com.netflix.astyanax.connectionpool.Host;
 import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.identity.AppsInstance;
 import com.netflix.dynomitemanager.identity.InstanceDataDAOCassandra;
 import com.netflix.dynomitemanager.supplier.HostSupplier;
 
@@ -40,4 +45,138 @@ public class InstanceDataDAOCassandraTest {
 		dao.createInstanceEntry(null);
 	}
 
+	@Test
+	public void testGetInstanceReadsOneRow() throws Exception {
+		FakeKeyspace keyspace = populate(1200);
+		InstanceDataDAOCassandra dao = new InstanceDataDAOCassandra(new BlankConfiguration(), keyspace.keyspace());
+
+		AppsInstance instance = dao.getInstance("dyno_demo", "us-east-1c", 642);
+		Assert.assertEquals(642, instance.getId());
+		Assert.assertEquals("us-east-1c", instance.getRack());
+		Assert.assertEquals("i-642", instance.getInstanceId());
+		Assert.assertEquals(1, keyspace.rowsRead.get());
+
+		Assert.assertNull(dao.getInstance("dyno_demo", "us-east-1d", 642));
+		Assert.assertTrue(dao.instanceExists("dyno_demo", "us-east-1c", 642));
+		Assert.assertFalse(dao.instanceExists("dyno_demo", "us-east-1c", 5000));
+		Assert.assertEquals(1, keyspace.rowsRead.get());
+	}
+
+	@Test
+	public void testGetLocalDCInstances() throws Exception {
+		FakeKeyspace keyspace = populate(1200);
+		InstanceDataDAOCassandra dao = new InstanceDataDAOCassandra(new BlankConfiguration(), keyspace.keyspace());
+
+		Set<AppsInstance> local = dao.getLocalDCInstances("dyno_demo", "us-west-2");
+		Assert.assertEquals(400, local.size());
+		for (AppsInstance instance : local)
+			Assert.assertEquals("us-west-2", instance.getDatacenter());
+		Assert.assertEquals(400, keyspace.rowsRead.get());
+
+		Assert.assertEquals(1200, dao.getAllInstances("dyno_demo").size());
+		Assert.assertTrue(dao.getLocalDCInstances("dyno_other", "us-west-2").isEmpty());
+	}
+
+	@Test
+	public void testCreateAndDeleteInstanceEntry() throws Exception {
+		FakeKeyspace keyspace = populate(10);
+		InstanceDataDAOCassandra dao = new InstanceDataDAOCassandra(new BlankConfiguration() {
+			@Override
+			public String getRack() {
+				return "us-east-1e";
+			}
+		}, keyspace.keyspace());
+
+		AppsInstance instance = new AppsInstance();
+		instance.setApp("dyno_demo");
+		instance.setId(77);
+		instance.setRack("us-east-1e");
+		instance.setDatacenter("us-east-1");
+		instance.setZone("us-east-1e");
+		instance.setInstanceId("i-77");
+		instance.setHost("host-77");
+		instance.setHostIP("10.0.0.77");
+		instance.setToken("77");
+		dao.createInstanceEntry(instance);
+
+		AppsInstance created = dao.getInstance("dyno_demo", "us-east-1e", 77);
+		Assert.assertEquals("i-77", created.getInstanceId());
+		Assert.assertEquals("us-east-1", created.getDatacenter());
+
+		dao.deleteInstanceEntry(instance);
+		Assert.assertNull(dao.getInstance("dyno_demo", "us-east-1e", 77));
+		Assert.assertFalse(dao.instanceExists("dyno_demo", "us-east-1e", 77));
+		Assert.assertEquals(10, dao.getAllInstances("dyno_demo").size());
+	}
+
+	@Test
+	public void testCreateTakesOverDeadSlot() throws Exception {
+		FakeKeyspace keyspace = populate(12);
+		InstanceDataDAOCassandra dao = new InstanceDataDAOCassandra(new BlankConfiguration() {
+			@Override
+			public String getRack() {
+				return "us-east-1c";
+			}
+		}, keyspace.keyspace());
+
+		AppsInstance instance = dao.getInstance("dyno_demo", "us-east-1c", 6);
+		instance.setInstanceId("i-replacement");
+		dao.createInstanceEntry(instance);
+		Assert.assertEquals("i-replacement", dao.getInstance("dyno_demo", "us-east-1c", 6).getInstanceId());
+		Assert.assertEquals(12, dao.getAllInstances("dyno_demo").size());
+
+		// a second node claiming the slot finds it locked
+		instance.setInstanceId("i-other");
+		try {
+			dao.createInstanceEntry(instance);
+			Assert.fail("Slot locked by i-replacement was taken");
+		} catch (Exception e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Cannot get lock"));
+		}
+		Assert.assertEquals("i-replacement", dao.getInstance("dyno_demo", "us-east-1c", 6).getInstanceId());
+	}
+
+	@Test
+	public void testHeartbeat() throws Exception {
+		FakeKeyspace keyspace = populate(12);
+		InstanceDataDAOCassandra dao = new InstanceDataDAOCassandra(new BlankConfiguration(), keyspace.keyspace());
+
+		AppsInstance instance = dao.getInstance("dyno_demo", "us-east-1c", 6);
+		Assert.assertFalse(instance.hasHeartbeat());
+		dao.heartbeat(instance, 60);
+		Assert.assertTrue(dao.getInstance("dyno_demo", "us-east-1c", 6).hasHeartbeat());
+		for (AppsInstance local : dao.getLocalDCInstances("dyno_demo", "us-east-1"))
+			Assert.assertEquals(local.getId() == 6, local.hasHeartbeat());
+
+		// the heartbeat of a node whose slot was taken over
+		keyspace.tables.get("tokens").get("dyno_demo_us-east-1c_6").put("instanceId", "i-replacement");
+		Assert.assertFalse(dao.getInstance("dyno_demo", "us-east-1c", 6).hasHeartbeat());
+	}
+
+	/**
+	 * Writes the token store rows of a cluster spread over three data centers, with the row keys and columns
+	 * {@link InstanceDataDAOCassandra} writes.
+	 */
+	static FakeKeyspace populate(int rows) {
+		String[] dcs = { "us-east-1", "us-west-2", "eu-west-1" };
+		FakeKeyspace keyspace = new FakeKeyspace();
+		for (int i = 0; i < rows; i++) {
+			String dc = dcs[i % dcs.length];
+			String rack = dc + (char) ('c' + i % 2);
+			Map<String, String> columns = new HashMap<String, String>();
+			columns.put("Id", Integer.toString(i));
+			columns.put("appId", "dyno_demo");
+			columns.put("availabilityZone", rack);
+			columns.put("datacenter", rack);
+			columns.put("instanceId", "i-" + i);
+			columns.put("hostname", "host-" + i);
+			columns.put("elasticIP", "10.0." + (i / 256) + "." + (i % 256));
+			columns.put("token", Long.toString(i * 1000003L));
+			columns.put("location", dc);
+			keyspace.put("tokens", "dyno_demo_" + rack + "_" + i, columns);
+		}
+		keyspace.rowsRead.set(0);
+		keyspace.roundTrips.set(0);
+		return keyspace;
+	}
 }
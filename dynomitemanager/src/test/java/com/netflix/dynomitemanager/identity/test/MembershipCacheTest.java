@@ -0,0 +1,98 @@
+package com.netflix.dynomitemanager.identity.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.identity.MembershipCache;
+
+public class MembershipCacheTest {
+
+    @Test
+    public void testConcurrentReadersShareOneQuery() throws Exception {
+        final FakeAppsInstanceFactory factory = new FakeAppsInstanceFactory();
+        factory.release = new CountDownLatch(1);
+        final MembershipCache cache = new MembershipCache(factory, new TtlConfiguration(60));
+        ExecutorService readers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<MembershipCache.Snapshot>> snapshots = new ArrayList<Future<MembershipCache.Snapshot>>();
+            for (int i = 0; i < 8; i++) {
+                snapshots.add(readers.submit(new Callable<MembershipCache.Snapshot>() {
+                    @Override
+                    public MembershipCache.Snapshot call() {
+                        return cache.getSnapshot();
+                    }
+                }));
+            }
+            Thread.sleep(200);
+            factory.release.countDown();
+            for (Future<MembershipCache.Snapshot> snapshot : snapshots) {
+                Assert.assertEquals(2, snapshot.get(5, TimeUnit.SECONDS).getInstances().size());
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+        Assert.assertEquals(1, factory.queries.get());
+
+        // Fresh snapshots are served from memory.
+        for (int i = 0; i < 100; i++) {
+            cache.getAllIds();
+        }
+        Assert.assertEquals(1, factory.queries.get());
+    }
+
+    @Test
+    public void testVersionChangesWithTheMembership() {
+        FakeAppsInstanceFactory factory = new FakeAppsInstanceFactory();
+        MembershipCache cache = new MembershipCache(factory, new TtlConfiguration(0));
+        long version = cache.getSnapshot().getVersion();
+        Assert.assertEquals(version, cache.getSnapshot().getVersion());
+        Assert.assertEquals(2, factory.queries.get());
+
+        factory.nodes = 3;
+        Assert.assertEquals(version + 1, cache.getSnapshot().getVersion());
+        Assert.assertEquals(3, cache.getSnapshot().getInstances().size());
+        Assert.assertEquals(1, cache.getSnapshot().getLocalDCInstances("us-east-2").size());
+    }
+
+    @Test
+    public void testInvalidateRereads() {
+        FakeAppsInstanceFactory factory = new FakeAppsInstanceFactory();
+        MembershipCache cache = new MembershipCache(factory, new TtlConfiguration(60));
+        Assert.assertEquals(2, cache.getAllIds().size());
+        factory.nodes = 3;
+        Assert.assertEquals(2, cache.getAllIds().size());
+        cache.invalidate();
+        Assert.assertEquals(3, cache.getAllIds().size());
+        Assert.assertEquals(2, factory.queries.get());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testFailsWithoutSnapshot() {
+        FakeAppsInstanceFactory factory = new FakeAppsInstanceFactory();
+        factory.fail = true;
+        new MembershipCache(factory, new TtlConfiguration(60)).getSnapshot();
+    }
+
+    private static class TtlConfiguration extends BlankConfiguration {
+        private final int ttlSeconds;
+
+        TtlConfiguration(int ttlSeconds) {
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        @Override
+        public int getMembershipCacheTtlSeconds() {
+            return ttlSeconds;
+        }
+    }
+}
@@ -385,4 +385,194 @@ public class SimpleTestConfiguration implements IConfiguration {
 	    return 0;
 	}
 
+	@Override
+	public int getBackupPartSizeMB() {
+	    return 64;
+	}
+
+	@Override
+	public int getBackupUploadThreads() {
+	    return 4;
+	}
+
+	@Override
+	public int getBackupPartRetries() {
+	    return 2;
+	}
+
+	@Override
+	public String getBackupCompressionCodec() {
+	    return "none";
+	}
+
+	@Override
+	public int getBackupCompressionLevel() {
+	    return -1;
+	}
+
+	@Override
+	public int getRestoreDownloadThreads() {
+	    return 2;
+	}
+
+	@Override
+	public String getBackupFormat() {
+	    return "chunked";
+	}
+
+	@Override
+	public int getBackupRetentionDays() {
+	    return 0;
+	}
+
+	@Override
+	public int getBackupIncrementalIntervalMinutes() {
+	    return 0;
+	}
+
+	@Override
+	public boolean isBackupDiskless() {
+	    return false;
+	}
+
+	@Override
+	public boolean isBackupVerificationEnabled() {
+	    return true;
+	}
+
+	@Override
+	public String getMemoryAnalysisKeyDelimiters() {
+	    return ":";
+	}
+
+	@Override
+	public int getMemoryAnalysisPrefixDepth() {
+	    return 1;
+	}
+
+	@Override
+	public int getMemoryAnalysisMaxPrefixes() {
+	    return 100;
+	}
+
+	@Override
+	public int getMemoryAnalysisTopKeys() {
+	    return 20;
+	}
+
+	@Override
+	public String getBackupLocalStorePath() {
+	    return "/mnt/backups";
+	}
+
+	@Override
+	public int getBackupMaxRateMB() {
+	    return 128;
+	}
+
+	@Override
+	public int getBackupMinRateMB() {
+	    return 8;
+	}
+
+	@Override
+	public int getBackupThrottleLatencyMicros() {
+	    return 5000;
+	}
+
+	@Override
+	public boolean isBackupPageCacheDropEnabled() {
+	    return false;
+	}
+
+	@Override
+	public int getBackupWindowMinutes() {
+	    return 60;
+	}
+
+	@Override
+	public boolean isBackupDedupEnabled() {
+	    return false;
+	}
+
+	@Override
+	public boolean isRestoreSideInstanceEnabled() {
+	    return false;
+	}
+
+	@Override
+	public int getRestoreSidePort() {
+	    return 22123;
+	}
+
+	@Override
+	public String getRedisServerPath() {
+	    return "/apps/nfredis/bin/redis-server";
+	}
+
+	@Override
+	public boolean isRestoreLiveEnabled() {
+	    return false;
+	}
+
+	@Override
+	public int getRestoreLiveConnections() {
+	    return 4;
+	}
+
+	@Override
+	public int getRestoreLiveLatencyMs() {
+	    return 50;
+	}
+
+	@Override
+	public int getRedisLoadPrefetchThreads() {
+	    return 0;
+	}
+
+	@Override
+	public int getMembershipCacheTtlSeconds() {
+	    return 10;
+	}
+
+	@Override
+	public int getTokenLockAttempts() {
+	    return 6;
+	}
+
+	@Override
+	public int getTokenLockBackoffMs() {
+	    return 1;
+	}
+
+	@Override
+	public boolean isTokenClaimOrdered() {
+	    return false;
+	}
+
+	@Override
+	public int getHeartbeatIntervalSeconds() {
+	    return 10;
+	}
+
+	@Override
+	public int getHeartbeatTtlSeconds() {
+	    return 60;
+	}
+
+	@Override
+	public boolean isHeartbeatLivenessEnabled() {
+	    return false;
+	}
+
+	@Override
+	public String getClusterStateFile() {
+	    return "";
+	}
+
+	@Override
+	public int getAsgMembershipRefreshSeconds() {
+	    return 30;
+	}
+
 }
@@ -0,0 +1,83 @@
+package com.netflix.dynomitemanager.identity.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.identity.SlotClaimOrder;
+
+public class SlotClaimOrderTest {
+
+    @Test
+    public void testReplacementsClaimDifferentSlots() {
+        // slots 0 to 9, of which 2, 3, 5, 7 and 8 belonged to terminated instances
+        List<AppsInstance> allIds = new ArrayList<AppsInstance>();
+        List<String> asg = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            boolean dead = Arrays.asList(2, 3, 5, 7, 8).contains(i);
+            allIds.add(slot(i, dead ? "i-dead" + i : "i-live" + i));
+            if (!dead) {
+                asg.add("i-live" + i);
+            }
+        }
+        List<String> replacements = Arrays.asList("i-0f3", "i-0a1", "i-0c7", "i-0b2", "i-0e9");
+        asg.addAll(replacements);
+
+        Set<Integer> claimed = new HashSet<Integer>();
+        Random random = new Random(7);
+        for (String instanceId : replacements) {
+            // every node may get the ASG instances in a different order
+            List<String> view = new ArrayList<String>(asg);
+            Collections.shuffle(view, random);
+            int position = SlotClaimOrder.position(instanceId, view, allIds);
+            AppsInstance slot = SlotClaimOrder.pick(free(allIds, view), position);
+            Assert.assertNotNull(instanceId, slot);
+            Assert.assertTrue("Slot " + slot.getId() + " claimed twice", claimed.add(slot.getId()));
+        }
+        Assert.assertEquals(new HashSet<Integer>(Arrays.asList(2, 3, 5, 7, 8)), claimed);
+    }
+
+    @Test
+    public void testPositionsStayAlignedAsSlotsAreClaimed() {
+        List<AppsInstance> allIds = new ArrayList<AppsInstance>(Arrays.asList(slot(0, "i-dead0"), slot(1, "i-dead1"),
+                slot(2, "i-live2")));
+        List<String> asg = Arrays.asList("i-live2", "i-b", "i-a");
+
+        Assert.assertEquals(0, SlotClaimOrder.position("i-a", asg, allIds));
+        Assert.assertEquals(1, SlotClaimOrder.position("i-b", asg, allIds));
+        Assert.assertEquals(-1, SlotClaimOrder.position("i-live2", asg, allIds));
+        Assert.assertEquals(1, SlotClaimOrder.pick(free(allIds, asg), 1).getId());
+
+        // i-a took over slot 0: i-b still gets slot 1
+        allIds.set(0, slot(0, "i-a"));
+        Assert.assertEquals(0, SlotClaimOrder.position("i-b", asg, allIds));
+        Assert.assertEquals(1, SlotClaimOrder.pick(free(allIds, asg), 0).getId());
+        Assert.assertNull(SlotClaimOrder.pick(free(allIds, asg), 1));
+    }
+
+    private static List<AppsInstance> free(List<AppsInstance> allIds, List<String> asg) {
+        List<AppsInstance> free = new ArrayList<AppsInstance>();
+        for (AppsInstance instance : allIds) {
+            if (!asg.contains(instance.getInstanceId())) {
+                free.add(instance);
+            }
+        }
+        return free;
+    }
+
+    private static AppsInstance slot(int id, String instanceId) {
+        AppsInstance instance = new AppsInstance();
+        instance.setId(id);
+        instance.setInstanceId(instanceId);
+        instance.setRack("us-east-1c");
+        return instance;
+    }
+}
@@ -0,0 +1,95 @@
+package com.netflix.dynomitemanager.identity.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.astyanax.model.ColumnFamily;
+import com.netflix.astyanax.serializers.StringSerializer;
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.identity.TokenLock;
+
+public class TokenLockTest {
+
+    private static final ColumnFamily<String, String> LOCKS = new ColumnFamily<String, String>("locks",
+            StringSerializer.get(), StringSerializer.get());
+
+    @Test
+    public void testAcquireInTwoRoundTrips() throws Exception {
+        FakeKeyspace keyspace = new FakeKeyspace();
+        TokenLock lock = new TokenLock(keyspace.keyspace(), LOCKS, new BlankConfiguration());
+
+        lock.acquire("dyno_demo_us-east-1c_7-lock", "i-1");
+        Assert.assertEquals(2, keyspace.roundTrips.get());
+        Assert.assertEquals(Collections.singleton("i-1"),
+                keyspace.tables.get("locks").get("dyno_demo_us-east-1c_7-lock").keySet());
+
+        // the holder can take its lock again
+        lock.acquire("dyno_demo_us-east-1c_7-lock", "i-1");
+        Assert.assertEquals(4, keyspace.roundTrips.get());
+    }
+
+    @Test
+    public void testHeldLockFailsAtOnce() throws Exception {
+        FakeKeyspace keyspace = new FakeKeyspace();
+        TokenLock lock = new TokenLock(keyspace.keyspace(), LOCKS, new BlankConfiguration());
+        lock.acquire("dyno_demo_us-east-1c_7-lock", "i-1");
+        keyspace.setTimestamp("locks", "dyno_demo_us-east-1c_7-lock", "i-1",
+                (System.currentTimeMillis() - 60000) * 1000);
+        keyspace.roundTrips.set(0);
+
+        try {
+            lock.acquire("dyno_demo_us-east-1c_7-lock", "i-2");
+            Assert.fail("Lock held by i-1 was taken");
+        } catch (Exception e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Lock already taken"));
+        }
+        // write, read and remove the column, without backing off and trying again
+        Assert.assertEquals(3, keyspace.roundTrips.get());
+        Assert.assertEquals(Collections.singleton("i-1"),
+                keyspace.tables.get("locks").get("dyno_demo_us-east-1c_7-lock").keySet());
+    }
+
+    @Test
+    public void testOneOfManyContendersGetsTheLock() throws Exception {
+        final FakeKeyspace keyspace = new FakeKeyspace();
+        final TokenLock lock = new TokenLock(keyspace.keyspace(), LOCKS, new BlankConfiguration());
+        final CountDownLatch ready = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 8; i++) {
+                final String owner = "i-" + i;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        ready.await();
+                        try {
+                            lock.acquire("dyno_demo_us-east-1c_7-lock", owner);
+                            return true;
+                        } catch (Exception e) {
+                            return false;
+                        }
+                    }
+                }));
+            }
+            ready.countDown();
+            int winners = 0;
+            for (Future<Boolean> result : results) {
+                winners += result.get() ? 1 : 0;
+            }
+            Assert.assertTrue("Winners: " + winners, winners <= 1);
+            Assert.assertEquals(winners, keyspace.tables.get("locks").get("dyno_demo_us-east-1c_7-lock").size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.netflix.dynomitemanager.identity.test;
+
+import java.util.Set;
+
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.identity.InstanceDataDAOCassandra;
+
+/**
+ * Compares the token store lookups of {@link InstanceDataDAOCassandra} against a {@link FakeKeyspace} holding a
+ * cluster spread over three data centers: an instance found by scanning all the instances of the cluster, as
+ * <code>getInstance</code> used to, against an instance read by its row key, and the instances of a data center
+ * filtered here against filtered by the query. The rows each lookup reads stand for what it costs against Cassandra,
+ * where every row returned crosses the network; the times only cover the work done in the JVM.
+ *
+ * Run with <code>gradle tokenStoreBenchmark -PbenchmarkArgs="ROWS LOOKUPS"</code>, both optional.
+ */
+public class TokenStoreBenchmark {
+
+    private static final String APP = "dyno_demo";
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        FakeKeyspace keyspace = InstanceDataDAOCassandraTest.populate(rows);
+        InstanceDataDAOCassandra dao = new InstanceDataDAOCassandra(new BlankConfiguration(), keyspace.keyspace());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            int id = i * 7919 % rows;
+            AppsInstance found = null;
+            for (AppsInstance instance : dao.getAllInstances(APP)) {
+                if (instance.getId() == id && instance.getRack().equals(rack(id))) {
+                    found = instance;
+                }
+            }
+            check(found, id);
+        }
+        report("instance by scan", lookups, keyspace, start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            int id = i * 7919 % rows;
+            check(dao.getInstance(APP, rack(id), id), id);
+        }
+        report("instance by key", lookups, keyspace, start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            int local = 0;
+            for (AppsInstance instance : dao.getAllInstances(APP)) {
+                if (instance.getDatacenter().equals("us-west-2")) {
+                    local++;
+                }
+            }
+            check(local, rows);
+        }
+        report("data center filtered here", lookups, keyspace, start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            Set<AppsInstance> local = dao.getLocalDCInstances(APP, "us-west-2");
+            check(local.size(), rows);
+        }
+        report("data center filtered by query", lookups, keyspace, start);
+    }
+
+    /**
+     * @return the rack {@link InstanceDataDAOCassandraTest#populate(int)} puts the instance in
+     */
+    private static String rack(int id) {
+        String[] dcs = { "us-east-1", "us-west-2", "eu-west-1" };
+        return dcs[id % dcs.length] + (char) ('c' + id % 2);
+    }
+
+    private static void check(AppsInstance instance, int id) {
+        if (instance == null || instance.getId() != id) {
+            throw new IllegalStateException("Instance " + id + " not found");
+        }
+    }
+
+    private static void check(int local, int rows) {
+        if (local != (rows + 1) / 3) {
+            throw new IllegalStateException(local + " instances found in us-west-2");
+        }
+    }
+
+    private static void report(String name, int lookups, FakeKeyspace keyspace, long start) {
+        double ms = (System.nanoTime() - start) / 1e6;
+        System.out.println(String.format("%-30s %8d rows read per lookup %10.3f ms per lookup", name,
+                keyspace.rowsRead.getAndSet(0) / lookups, ms / lookups));
+    }
+}
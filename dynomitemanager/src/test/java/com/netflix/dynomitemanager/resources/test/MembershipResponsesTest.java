@@ -0,0 +1,103 @@
+package com.netflix.dynomitemanager.resources.test;
+
+import java.nio.charset.StandardCharsets;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.identity.InstanceIdentity;
+import com.netflix.dynomitemanager.identity.MembershipCache;
+import com.netflix.dynomitemanager.identity.test.FakeAppsInstanceFactory;
+import com.netflix.dynomitemanager.resources.MembershipResponses;
+
+public class MembershipResponsesTest {
+
+    private FakeAppsInstanceFactory factory;
+    private MembershipCache cache;
+    private MembershipResponses responses;
+    private volatile boolean liveness;
+
+    @Before
+    public void setUp() throws Exception {
+        factory = new FakeAppsInstanceFactory();
+        BlankConfiguration config = new BlankConfiguration() {
+            @Override
+            public String getDynomiteClusterName() {
+                return "dyno_test";
+            }
+
+            @Override
+            public String getInstanceName() {
+                return "i-0";
+            }
+
+            @Override
+            public int getDynomitePeerPort() {
+                return 8101;
+            }
+
+            @Override
+            public int getMembershipCacheTtlSeconds() {
+                return 60;
+            }
+
+            @Override
+            public boolean isHeartbeatLivenessEnabled() {
+                return liveness;
+            }
+        };
+        cache = new MembershipCache(factory, config);
+        InstanceIdentity ii = new InstanceIdentity(factory, cache, null, config, null, null, null, null);
+        responses = new MembershipResponses(ii, cache);
+    }
+
+    @Test
+    public void testSeedsAreRenderedOncePerVersion() throws Exception {
+        MembershipResponses.Rendered seeds = responses.getSeeds();
+        Assert.assertEquals("host1:8101:us-east-1d:us-east-1:1000",
+                new String(seeds.getBody(), StandardCharsets.UTF_8));
+        Assert.assertSame(seeds, responses.getSeeds());
+
+        // Same content, same tag, even when rendered again.
+        cache.invalidate();
+        MembershipResponses.Rendered reread = responses.getSeeds();
+        Assert.assertEquals(seeds.getTag(), reread.getTag());
+
+        factory.nodes = 3;
+        cache.invalidate();
+        MembershipResponses.Rendered changed = responses.getSeeds();
+        Assert.assertEquals("host1:8101:us-east-1d:us-east-1:1000|host2:8101:us-east-2e:us-east-2:2000",
+                new String(changed.getBody(), StandardCharsets.UTF_8));
+        Assert.assertNotEquals(seeds.getTag(), changed.getTag());
+    }
+
+    @Test
+    public void testSeedsLeaveOutNodesWithoutHeartbeat() throws Exception {
+        liveness = true;
+        factory.nodes = 3;
+        factory.expired.add("i-1");
+        cache.invalidate();
+        Assert.assertEquals("host2:8101:us-east-2e:us-east-2:2000",
+                new String(responses.getSeeds().getBody(), StandardCharsets.UTF_8));
+
+        // a heartbeat coming back changes the membership version
+        factory.expired.clear();
+        cache.invalidate();
+        Assert.assertEquals("host1:8101:us-east-1d:us-east-1:1000|host2:8101:us-east-2e:us-east-2:2000",
+                new String(responses.getSeeds().getBody(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testClusterDescribeIsJson() throws Exception {
+        MembershipResponses.Rendered nodes = responses.getClusterDescribe();
+        JSONArray array = new JSONArray(new String(nodes.getBody(), StandardCharsets.UTF_8));
+        Assert.assertEquals(2, array.length());
+        Assert.assertEquals("host0", array.getJSONObject(0).getString("hostname"));
+        Assert.assertEquals("10.0.0.1", array.getJSONObject(1).getString("ip"));
+        Assert.assertEquals("us-east-1", array.getJSONObject(1).getString("dc"));
+        Assert.assertFalse(nodes.isEmpty());
+    }
+}
@@ -0,0 +1,167 @@
+package com.netflix.dynomitemanager.sidecore.aws.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.autoscaling.AmazonAutoScaling;
+import com.amazonaws.services.autoscaling.model.AutoScalingGroup;
+import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsRequest;
+import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsResult;
+import com.amazonaws.services.autoscaling.model.Instance;
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.sidecore.aws.AsgMembership;
+
+public class AsgMembershipTest {
+
+    private final AtomicInteger describes = new AtomicInteger();
+    private volatile int refreshSeconds = 60;
+    private volatile boolean throttle;
+    private volatile CountDownLatch gate;
+    private AsgMembership membership;
+
+    @Before
+    public void setUp() {
+        BlankConfiguration config = new BlankConfiguration() {
+            @Override
+            public int getAsgMembershipRefreshSeconds() {
+                return refreshSeconds;
+            }
+        };
+        membership = new AsgMembership(config, client("i-"), client("x-"));
+    }
+
+    private AmazonAutoScaling client(final String prefix) {
+        return (AmazonAutoScaling) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { AmazonAutoScaling.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (!method.getName().equals("describeAutoScalingGroups")) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        describes.incrementAndGet();
+                        CountDownLatch waitFor = gate;
+                        if (waitFor != null) {
+                            waitFor.await(10, TimeUnit.SECONDS);
+                        }
+                        if (throttle) {
+                            AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+                            e.setErrorCode("Throttling");
+                            e.setStatusCode(400);
+                            throw e;
+                        }
+                        String name = ((DescribeAutoScalingGroupsRequest) args[0]).getAutoScalingGroupNames().get(0);
+                        AutoScalingGroup asg = new AutoScalingGroup().withAutoScalingGroupName(name).withMaxSize(3)
+                                .withInstances(new Instance().withInstanceId(prefix + "1").withLifecycleState("InService"),
+                                        new Instance().withInstanceId(prefix + "2").withLifecycleState("Terminating"),
+                                        new Instance().withInstanceId(prefix + "3").withLifecycleState("Pending"));
+                        return new DescribeAutoScalingGroupsResult().withAutoScalingGroups(asg);
+                    }
+                });
+    }
+
+    @Test
+    public void testInstancesAndSizeFromOneDescribe() {
+        AsgMembership.Group group = membership.getGroup("dyno_demo-useast1c");
+        Assert.assertEquals(2, group.getInstanceIds().size());
+        Assert.assertEquals("i-1", group.getInstanceIds().get(0));
+        Assert.assertEquals("i-3", group.getInstanceIds().get(1));
+        Assert.assertEquals(3, membership.getGroup("dyno_demo-useast1c").getMaxSize());
+        Assert.assertEquals(1, describes.get());
+
+        // each account and group is described on its own
+        Assert.assertEquals("x-1", membership.getCrossAccountGroup("dyno_demo-useast1c").getInstanceIds().get(0));
+        Assert.assertEquals(3, membership.getGroup("dyno_demo-useast1d").getMaxSize());
+        Assert.assertEquals(3, describes.get());
+
+        membership.invalidate();
+        membership.getGroup("dyno_demo-useast1c");
+        Assert.assertEquals(4, describes.get());
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneDescribe() throws Exception {
+        gate = new CountDownLatch(1);
+        final List<AsgMembership.Group> groups = new ArrayList<AsgMembership.Group>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    AsgMembership.Group group = membership.getGroup("dyno_demo-useast1c");
+                    synchronized (groups) {
+                        groups.add(group);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        while (describes.get() == 0) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(100);
+        gate.countDown();
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+
+        Assert.assertEquals(8, groups.size());
+        Assert.assertEquals(1, describes.get());
+        for (AsgMembership.Group group : groups) {
+            Assert.assertSame(groups.get(0), group);
+        }
+    }
+
+    @Test
+    public void testDescribeRunningDuringInvalidateIsNotKept() throws Exception {
+        gate = new CountDownLatch(1);
+        Thread before = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                membership.getGroup("dyno_demo-useast1c");
+            }
+        });
+        before.start();
+        while (describes.get() == 0) {
+            Thread.sleep(5);
+        }
+        // the group is resized while the describe call started before runs
+        membership.invalidate();
+        gate.countDown();
+        before.join(10000);
+
+        membership.getGroup("dyno_demo-useast1c");
+        Assert.assertEquals(2, describes.get());
+        membership.getGroup("dyno_demo-useast1c");
+        Assert.assertEquals(2, describes.get());
+    }
+
+    @Test
+    public void testThrottledDescribeFallsBackToRecentView() throws Exception {
+        refreshSeconds = 1;
+        AsgMembership.Group group = membership.getGroup("dyno_demo-useast1c");
+
+        throttle = true;
+        Thread.sleep(1100);
+        Assert.assertSame(group, membership.getGroup("dyno_demo-useast1c"));
+        Assert.assertEquals(2, describes.get());
+
+        try {
+            membership.getGroup("dyno_demo-useast1d");
+            Assert.fail("a group never described has no view to fall back to");
+        } catch (AmazonServiceException e) {
+            Assert.assertEquals("Throttling", e.getErrorCode());
+        }
+    }
+}
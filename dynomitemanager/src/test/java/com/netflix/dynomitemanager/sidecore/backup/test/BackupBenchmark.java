@@ -0,0 +1,152 @@
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+
+import com.netflix.dynomitemanager.InstanceState;
+import com.netflix.dynomitemanager.sidecore.backup.BackupManifest;
+import com.netflix.dynomitemanager.sidecore.backup.BackupMetrics;
+import com.netflix.dynomitemanager.sidecore.backup.ChunkedBackupUploader;
+import com.netflix.dynomitemanager.sidecore.backup.CompressionCodec;
+import com.netflix.dynomitemanager.sidecore.backup.LocalObjectStore;
+import com.netflix.dynomitemanager.sidecore.backup.ObjectStore;
+import com.netflix.dynomitemanager.sidecore.backup.S3MultipartUploader;
+import com.netflix.dynomitemanager.sidecore.backup.S3RangedDownloader;
+
+/**
+ * Measures the throughput of the backup and restore pipelines against a {@link LocalObjectStore}, so changes to
+ * chunking, compression or concurrency can be compared without S3. A synthetic file shaped like an append only file is
+ * backed up and restored both as a chunked backup and as a single object, and the restored copies are checked against
+ * it.
+ *
+ * Run with <code>gradle backupBenchmark -PbenchmarkArgs="SIZE_GB DIR CODEC THREADS"</code>, all optional. The
+ * directory needs room for about three times the file size.
+ */
+public class BackupBenchmark {
+
+    private static final long MB = 1024L * 1024L;
+    private static final long PART_SIZE = 64 * MB;
+    private static final String BUCKET = "benchmark";
+
+    public static void main(String[] args) throws IOException {
+        double sizeGB = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        File dir = new File(args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir"), "backup-benchmark");
+        CompressionCodec codec = CompressionCodec.fromName(args.length > 2 ? args[2] : "SNAPPY");
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+        FileUtils.deleteDirectory(dir);
+        File root = new File(dir, "store");
+        if (!new File(root, BUCKET).mkdirs()) {
+            throw new IOException("Could not create " + root);
+        }
+        try {
+            File source = new File(dir, "appendonly.aof");
+            File target = new File(dir, "appendonly.aof.download");
+            long length = (long) (sizeGB * 1024 * MB);
+            long start = System.nanoTime();
+            long crc = generate(source, length);
+            report("generate", length, start);
+
+            ObjectStore store = new LocalObjectStore(root);
+            BackupMetrics metrics = new BackupMetrics();
+
+            start = System.nanoTime();
+            BackupManifest manifest = new ChunkedBackupUploader(store, metrics, threads, 0).upload(BUCKET, "chunked/",
+                    source, length, BackupManifest.FileType.AOF, 0, codec, -1, PART_SIZE);
+            if (manifest == null) {
+                throw new IOException("Chunked backup failed");
+            }
+            report("chunked backup (" + codec + ", " + manifest.getStoredLength() / MB + " MB stored)", length, start);
+
+            start = System.nanoTime();
+            if (!new S3RangedDownloader(store, new InstanceState(), threads, 0).downloadBackup(BUCKET, "chunked/",
+                    manifest, target)) {
+                throw new IOException("Chunked restore failed");
+            }
+            report("chunked restore", length, start);
+            check(target, crc);
+
+            start = System.nanoTime();
+            if (!new S3MultipartUploader(store, metrics, threads, 0).upload(BUCKET, "object", source, length,
+                    PART_SIZE)) {
+                throw new IOException("Object backup failed");
+            }
+            report("object backup", length, start);
+
+            start = System.nanoTime();
+            if (!new S3RangedDownloader(store, new InstanceState(), threads, 0).download(BUCKET, "object", target,
+                    PART_SIZE)) {
+                throw new IOException("Object restore failed");
+            }
+            report("object restore", length, start);
+            check(target, crc);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    /**
+     * Writes commands with random keys and values, which compress about as well as a real append only file.
+     *
+     * @return the CRC32 of the file
+     */
+    private static long generate(File file, long length) throws IOException {
+        Random random = new Random(length);
+        CRC32 crc = new CRC32();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024);
+        try {
+            byte[] value = new byte[64];
+            long written = 0;
+            while (written < length) {
+                random.nextBytes(value);
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = (byte) ('a' + (value[i] & 0x0f));
+                }
+                byte[] command = ("*3\r\n$3\r\nSET\r\n$12\r\nuser:" + (1000000 + random.nextInt(9000000))
+                        + "\r\n$64\r\n" + new String(value, StandardCharsets.US_ASCII) + "\r\n")
+                                .getBytes(StandardCharsets.US_ASCII);
+                int count = (int) Math.min(command.length, length - written);
+                out.write(command, 0, count);
+                crc.update(command, 0, count);
+                written += count;
+            }
+        } finally {
+            out.close();
+        }
+        return crc.getValue();
+    }
+
+    private static void check(File file, long expected) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 1024 * 1024);
+        try {
+            byte[] buf = new byte[1024 * 1024];
+            for (int n; (n = in.read(buf)) > 0;) {
+                crc.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        if (crc.getValue() != expected) {
+            throw new IOException(file + " does not match the source file");
+        }
+        file.delete();
+        new File(file.getPath() + S3RangedDownloader.JOURNAL_SUFFIX).delete();
+    }
+
+    private static void report(String step, long length, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%-50s %8.1f s %8.1f MB/s", step, seconds, length / (double) MB / seconds));
+    }
+}
@@ -0,0 +1,152 @@
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.identity.test.FakeAppsInstanceFactory;
+import com.netflix.dynomitemanager.sidecore.backup.BackupElection;
+
+public class BackupElectionTest {
+
+    private static final String[] RACKS = { "us-east-1c", "us-east-1d", "us-east-1e" };
+    private static final String[] TOKENS = { "101134286", "1073741824", "2147483648", "3221225472", "3758096384",
+            "4026531840" };
+
+    @Test
+    public void testOneReplicaPerTokenSpreadAcrossRacks() {
+        List<AppsInstance> instances = cluster();
+        Map<String, AppsInstance> electedByToken = new HashMap<String, AppsInstance>();
+        Map<String, Integer> electedByRack = new HashMap<String, Integer>();
+        for (AppsInstance instance : instances) {
+            AppsInstance elected = BackupElection.elect(instance, instances);
+            Assert.assertEquals(instance.getToken(), elected.getToken());
+            AppsInstance previous = electedByToken.put(instance.getToken(), elected);
+            // Every replica agrees on the elected one.
+            Assert.assertTrue(previous == null || previous == elected);
+        }
+        for (AppsInstance elected : electedByToken.values()) {
+            Integer count = electedByRack.get(elected.getRack());
+            electedByRack.put(elected.getRack(), count == null ? 1 : count + 1);
+        }
+        Assert.assertEquals(TOKENS.length, electedByToken.size());
+        for (String rack : RACKS) {
+            Assert.assertEquals(Integer.valueOf(TOKENS.length / RACKS.length), electedByRack.get(rack));
+        }
+    }
+
+    @Test
+    public void testOutOfServiceReplicaIsNotElected() {
+        List<AppsInstance> instances = cluster();
+        AppsInstance me = instances.get(0);
+        Assert.assertSame(me, BackupElection.elect(me, instances));
+
+        me.setOutOfService(true);
+        AppsInstance elected = BackupElection.elect(instances.get(TOKENS.length), instances);
+        Assert.assertEquals(me.getToken(), elected.getToken());
+        Assert.assertNotEquals(me.getRack(), elected.getRack());
+    }
+
+    @Test
+    public void testReplicaWithoutHeartbeatIsNotElected() {
+        List<AppsInstance> instances = cluster();
+        for (AppsInstance instance : instances) {
+            instance.setHeartbeat(true);
+        }
+        AppsInstance me = instances.get(0);
+        Assert.assertSame(me, BackupElection.elect(instances.get(TOKENS.length), instances, true));
+
+        // gone from its ASG, the node stopped heartbeating
+        me.setHeartbeat(false);
+        AppsInstance elected = BackupElection.elect(instances.get(TOKENS.length), instances, true);
+        Assert.assertEquals(me.getToken(), elected.getToken());
+        Assert.assertNotEquals(me.getRack(), elected.getRack());
+        // heartbeats are not looked at when nodes do not write them
+        Assert.assertSame(me, BackupElection.elect(instances.get(TOKENS.length), instances, false));
+    }
+
+    @Test
+    public void testElectedNodeIsCheckedAgainBeforeUse() {
+        FakeAppsInstanceFactory factory = new FakeAppsInstanceFactory();
+        BackupElection election = new BackupElection(new BlankConfiguration() {
+            @Override
+            public String getDynomiteClusterName() {
+                return "dyno_test";
+            }
+        }, null, factory);
+        AppsInstance elected = factory.getAllIds("dyno_test").get(1);
+        Assert.assertTrue(election.isLive(elected));
+
+        factory.expired.add("i-1");
+        Assert.assertFalse(election.isLive(elected));
+
+        factory.expired.clear();
+        factory.takenOver.put(1, "i-9");
+        Assert.assertFalse(election.isLive(elected));
+    }
+
+    @Test
+    public void testTokensAreComparedAsNumbers() {
+        List<AppsInstance> instances = cluster();
+        // the same token, written with padding in one rack
+        AppsInstance padded = instances.get(2 * TOKENS.length);
+        padded.setToken("0" + padded.getToken());
+        for (int i = 0; i < TOKENS.length; i++) {
+            AppsInstance elected = BackupElection.elect(instances.get(i), instances);
+            Assert.assertSame(elected, BackupElection.elect(instances.get(TOKENS.length + i), instances));
+            Assert.assertSame(elected, BackupElection.elect(instances.get(2 * TOKENS.length + i), instances));
+        }
+    }
+
+    @Test
+    public void testWinnerDependsOnlyOnReplicasOfItsToken() {
+        List<AppsInstance> instances = cluster();
+        Map<String, AppsInstance> electedByToken = new HashMap<String, AppsInstance>();
+        for (AppsInstance instance : instances) {
+            electedByToken.put(instance.getToken(), BackupElection.elect(instance, instances));
+        }
+        // replicas of other tokens going out of service move none of the winners of the remaining tokens
+        instances.get(0).setOutOfService(true);
+        instances.get(TOKENS.length + 2).setOutOfService(true);
+        for (int i = 0; i < instances.size(); i++) {
+            AppsInstance instance = instances.get(i);
+            if (instance.getToken().equals(TOKENS[0]) || instance.getToken().equals(TOKENS[2])) {
+                continue;
+            }
+            Assert.assertSame(electedByToken.get(instance.getToken()), BackupElection.elect(instance, instances));
+        }
+    }
+
+    @Test
+    public void testOtherDatacentersAreIgnored() {
+        List<AppsInstance> instances = cluster();
+        AppsInstance remote = instance("eu-west-1", "eu-west-1a", TOKENS[0]);
+        instances.add(remote);
+        Assert.assertSame(remote, BackupElection.elect(remote, instances));
+    }
+
+    private static List<AppsInstance> cluster() {
+        List<AppsInstance> instances = new ArrayList<AppsInstance>();
+        for (String rack : RACKS) {
+            for (String token : TOKENS) {
+                instances.add(instance("us-east-1", rack, token));
+            }
+        }
+        return instances;
+    }
+
+    private static AppsInstance instance(String dc, String rack, String token) {
+        AppsInstance instance = new AppsInstance();
+        instance.setDatacenter(dc);
+        instance.setRack(rack);
+        instance.setToken(token);
+        instance.setInstanceId("i-" + rack + "-" + token);
+        return instance;
+    }
+}
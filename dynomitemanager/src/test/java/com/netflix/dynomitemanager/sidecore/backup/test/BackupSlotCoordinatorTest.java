@@ -0,0 +1,77 @@
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.identity.AppsInstance;
+import com.netflix.dynomitemanager.sidecore.backup.BackupSlotCoordinator;
+
+public class BackupSlotCoordinatorTest {
+
+    private static final int WINDOW = 3600;
+    private static final String[] RACKS = { "us-east-1e", "us-east-1c", "us-east-1d" };
+    private static final String[] TOKENS = { "3221225472", "101134286", "1073741824", "2147483648" };
+
+    @Test
+    public void testReplicasBackUpABandApart() {
+        List<AppsInstance> instances = cluster();
+        int band = WINDOW / RACKS.length;
+        for (AppsInstance a : instances) {
+            for (AppsInstance b : instances) {
+                if (a != b && a.getToken().equals(b.getToken())) {
+                    int distance = Math.abs(BackupSlotCoordinator.slotOffset(a, instances, WINDOW)
+                            - BackupSlotCoordinator.slotOffset(b, instances, WINDOW));
+                    Assert.assertTrue(distance >= band);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSlotsAreSpreadAcrossTheWindow() {
+        List<AppsInstance> instances = cluster();
+        Set<Integer> slots = new HashSet<Integer>();
+        for (AppsInstance instance : instances) {
+            int slot = BackupSlotCoordinator.slotOffset(instance, instances, WINDOW);
+            Assert.assertTrue(slot >= 0 && slot < WINDOW);
+            slots.add(slot);
+        }
+        Assert.assertEquals(instances.size(), slots.size());
+        // Racks are sorted by name, tokens as numbers.
+        Assert.assertEquals(0, BackupSlotCoordinator.slotOffset(instance("us-east-1c", "101134286"), instances, WINDOW));
+        Assert.assertEquals(2 * 1200 + 300,
+                BackupSlotCoordinator.slotOffset(instance("us-east-1e", "1073741824"), instances, WINDOW));
+    }
+
+    @Test
+    public void testNodeMissingFromTheTokenStore() {
+        List<AppsInstance> instances = new ArrayList<AppsInstance>();
+        instances.add(instance("us-east-1c", "1073741824"));
+        Assert.assertEquals(WINDOW / 2, BackupSlotCoordinator.slotOffset(instance("us-east-1d", "1073741824"),
+                instances, WINDOW));
+    }
+
+    private static List<AppsInstance> cluster() {
+        List<AppsInstance> instances = new ArrayList<AppsInstance>();
+        for (String rack : RACKS) {
+            for (String token : TOKENS) {
+                instances.add(instance(rack, token));
+            }
+        }
+        return instances;
+    }
+
+    private static AppsInstance instance(String rack, String token) {
+        AppsInstance instance = new AppsInstance();
+        instance.setRack(rack);
+        instance.setToken(token);
+        instance.setDatacenter("us-east-1");
+        instance.setInstanceId("i-" + rack + "-" + token);
+        return instance;
+    }
+}
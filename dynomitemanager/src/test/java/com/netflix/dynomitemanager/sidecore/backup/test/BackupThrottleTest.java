@@ -0,0 +1,124 @@
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.backup.BackupManifest;
+import com.netflix.dynomitemanager.sidecore.backup.BackupMetrics;
+import com.netflix.dynomitemanager.sidecore.backup.BackupThrottle;
+import com.netflix.dynomitemanager.sidecore.backup.ChunkedBackupUploader;
+import com.netflix.dynomitemanager.sidecore.backup.CompressionCodec;
+import com.netflix.dynomitemanager.sidecore.backup.LocalObjectStore;
+import com.netflix.dynomitemanager.sidecore.utils.Sleeper;
+
+public class BackupThrottleTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private final RecordingSleeper sleeper = new RecordingSleeper();
+
+    @Test
+    public void testLatencySlowsDownUntilTheMinimumRate() {
+        BackupThrottle throttle = new BackupThrottle(100 * MB, 20 * MB, 5000, null, sleeper, null);
+        Assert.assertEquals(100 * MB, throttle.getRate());
+
+        throttle.adjust(8000, -1);
+        Assert.assertEquals(50 * MB, throttle.getRate());
+        throttle.adjust(8000, -1);
+        throttle.adjust(8000, -1);
+        Assert.assertEquals(20 * MB, throttle.getRate());
+
+        throttle.adjust(1000, -1);
+        Assert.assertEquals(30 * MB, throttle.getRate());
+        for (int i = 0; i < 10; i++) {
+            throttle.adjust(1000, -1);
+        }
+        Assert.assertEquals(100 * MB, throttle.getRate());
+    }
+
+    @Test
+    public void testDelayedFsyncSlowsDown() {
+        BackupThrottle throttle = new BackupThrottle(100 * MB, 10 * MB, 5000, null, sleeper, null);
+        // The first sample is the baseline, Redis counts delayed fsyncs since it started.
+        throttle.adjust(0, 7);
+        Assert.assertEquals(100 * MB, throttle.getRate());
+        throttle.adjust(0, 7);
+        Assert.assertEquals(100 * MB, throttle.getRate());
+        throttle.adjust(0, 9);
+        Assert.assertEquals(50 * MB, throttle.getRate());
+    }
+
+    @Test
+    public void testWaitsForTokens() throws IOException {
+        BackupThrottle throttle = new BackupThrottle(MB, MB, 0, null, sleeper, null);
+        // The bucket starts with a second of reads.
+        throttle.acquire(MB);
+        Assert.assertEquals(0, sleeper.slept.get());
+
+        throttle.acquire(MB / 2);
+        Assert.assertTrue(sleeper.slept.get() > 400);
+        Assert.assertTrue(sleeper.slept.get() <= 500);
+    }
+
+    @Test
+    public void testUnlimitedNeverWaits() throws IOException {
+        BackupThrottle throttle = BackupThrottle.unlimited();
+        for (int i = 0; i < 10; i++) {
+            throttle.acquire(100 * MB);
+        }
+        Assert.assertEquals(0, throttle.getRate());
+    }
+
+    @Test
+    public void testPacesChunkedBackups() throws IOException {
+        File root = Files.createTempDirectory("objectstore").toFile();
+        File file = File.createTempFile("appendonly", ".aof");
+        try {
+            Assert.assertTrue(new File(root, "bucket").mkdir());
+            byte[] data = new byte[(int) (4 * MB)];
+            new Random(1).nextBytes(data);
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(data);
+            out.close();
+
+            ChunkedBackupUploader uploader = new ChunkedBackupUploader(new LocalObjectStore(root),
+                    new BackupMetrics(), 2, 0);
+            BackupThrottle throttle = new BackupThrottle(MB, MB, 0, null, sleeper, null);
+            throttle.setDropPageCache(true);
+            uploader.setThrottle(throttle);
+            Assert.assertNotNull(uploader.upload("bucket", "backup/", file, data.length, BackupManifest.FileType.AOF,
+                    0, CompressionCodec.NONE, -1, MB));
+
+            // Four seconds of reads, less the second held by the bucket.
+            Assert.assertTrue(sleeper.slept.get() > 2500);
+        } finally {
+            FileUtils.deleteDirectory(root);
+            file.delete();
+        }
+    }
+
+    /**
+     * Records how long it was asked to sleep, without sleeping.
+     */
+    private static class RecordingSleeper implements Sleeper {
+        final AtomicLong slept = new AtomicLong();
+
+        @Override
+        public void sleep(long waitTimeMs) {
+            slept.addAndGet(waitTimeMs);
+        }
+
+        @Override
+        public void sleepQuietly(long waitTimeMs) {
+            slept.addAndGet(waitTimeMs);
+        }
+    }
+}
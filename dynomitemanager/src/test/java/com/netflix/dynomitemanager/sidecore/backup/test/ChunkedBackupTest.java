@@ -0,0 +1,306 @@
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.InstanceState;
+import com.netflix.dynomitemanager.sidecore.backup.BackupManifest;
+import com.netflix.dynomitemanager.sidecore.backup.BackupMetrics;
+import com.netflix.dynomitemanager.sidecore.backup.ChunkedBackupUploader;
+import com.netflix.dynomitemanager.sidecore.backup.CompressionCodec;
+import com.netflix.dynomitemanager.sidecore.backup.ObjectStore;
+import com.netflix.dynomitemanager.sidecore.backup.S3BackupCatalog;
+import com.netflix.dynomitemanager.sidecore.backup.S3ObjectStore;
+import com.netflix.dynomitemanager.sidecore.backup.S3RangedDownloader;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Monitor;
+
+public class ChunkedBackupTest {
+
+    private static final long CHUNK_SIZE = 1024 * 1024;
+    private static final String NODE = "backup/us-east-1/rack/1234/";
+
+    private byte[] content;
+    private File file;
+    private File target;
+    private FakeS3 s3;
+    private ObjectStore store;
+    private BackupMetrics metrics;
+    private S3BackupCatalog catalog;
+
+    @Before
+    public void setUp() throws IOException {
+        content = aofLike((int) (CHUNK_SIZE * 5 + CHUNK_SIZE / 2), 7);
+        file = File.createTempFile("appendonly", ".aof");
+        write(file, content);
+        target = File.createTempFile("appendonly", ".aof.download");
+
+        s3 = new FakeS3();
+        store = new S3ObjectStore(s3.client());
+        metrics = new BackupMetrics();
+        catalog = new S3BackupCatalog(store, "bucket", NODE);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        target.delete();
+        new File(target.getPath() + S3RangedDownloader.JOURNAL_SUFFIX).delete();
+        for (Monitor<?> monitor : DefaultMonitorRegistry.getInstance().getRegisteredMonitors()) {
+            if (monitor.getConfig().getName().startsWith("Backup_")) {
+                DefaultMonitorRegistry.getInstance().unregister(monitor);
+            }
+        }
+    }
+
+    private static byte[] aofLike(int size, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(size + 64);
+        while (sb.length() < size) {
+            sb.append("*3\r\n$3\r\nSET\r\n$10\r\nkey:").append(100000 + random.nextInt(900000)).append("\r\n$5\r\nv")
+                    .append(random.nextInt(9999)).append("\r\n");
+        }
+        return sb.substring(0, size).getBytes();
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+    }
+
+    private static byte[] append(File file, byte[] content, byte[] appended) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(appended);
+        out.close();
+        byte[] all = Arrays.copyOf(content, content.length + appended.length);
+        System.arraycopy(appended, 0, all, content.length, appended.length);
+        return all;
+    }
+
+    private ChunkedBackupUploader.AppendResult appendBackup(long backupTime) throws IOException {
+        ChunkedBackupUploader uploader = new ChunkedBackupUploader(store, metrics, 3, 0);
+        return uploader.append("bucket", catalog.backupPrefix(backupTime), catalog.getManifest(backupTime), file, -1);
+    }
+
+    private BackupManifest upload(long backupTime, CompressionCodec codec, int threads, int retries)
+            throws IOException {
+        ChunkedBackupUploader uploader = new ChunkedBackupUploader(store, metrics, threads, retries);
+        return uploader.upload("bucket", catalog.backupPrefix(backupTime), file, file.length(),
+                BackupManifest.FileType.AOF, backupTime, codec, -1, CHUNK_SIZE);
+    }
+
+    private boolean restore(long backupTime, int retries) throws IOException {
+        S3RangedDownloader downloader = new S3RangedDownloader(store, new InstanceState(), 3, retries);
+        return downloader.downloadBackup("bucket", catalog.backupPrefix(backupTime), catalog.getManifest(backupTime),
+                target);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            long backupTime = 1000 + codec.ordinal();
+            BackupManifest manifest = upload(backupTime, codec, 3, 0);
+
+            Assert.assertNotNull(codec.name(), manifest);
+            Assert.assertEquals(6, manifest.getChunks().size());
+            Assert.assertEquals(content.length, manifest.getRawLength());
+            if (codec != CompressionCodec.NONE) {
+                Assert.assertTrue(codec.name(), manifest.getStoredLength() < content.length / 2);
+            }
+            String prefix = catalog.backupPrefix(backupTime);
+            Assert.assertNull(s3.objects.get(prefix + BackupManifest.PARTIAL_MANIFEST));
+
+            BackupManifest stored = catalog.getManifest(backupTime);
+            Assert.assertEquals(codec, stored.getCodec());
+            Assert.assertEquals(manifest.getStoredLength(), stored.getStoredLength());
+
+            Assert.assertTrue(codec.name(), restore(backupTime, 0));
+            Assert.assertArrayEquals(codec.name(), content, Files.readAllBytes(target.toPath()));
+        }
+    }
+
+    @Test
+    public void testFailedUploadResumesFromCommittedChunks() throws IOException {
+        String failing = BackupManifest.chunkKey(catalog.backupPrefix(1000), 3);
+        s3.putFailures.put(failing, new AtomicInteger(Integer.MAX_VALUE));
+
+        Assert.assertNull(upload(1000, CompressionCodec.SNAPPY, 1, 0));
+        Assert.assertNull(catalog.getManifest(1000));
+        BackupManifest partial = BackupManifest.parse(new ByteArrayInputStream(
+                s3.objects.get(catalog.backupPrefix(1000) + BackupManifest.PARTIAL_MANIFEST)));
+        Assert.assertEquals(3, partial.getChunks().size());
+
+        s3.putFailures.clear();
+        s3.puts.clear();
+        Assert.assertNotNull(upload(1000, CompressionCodec.SNAPPY, 1, 0));
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNull(s3.puts.get(BackupManifest.chunkKey(catalog.backupPrefix(1000), i)));
+        }
+        Assert.assertEquals(1, s3.puts.get(failing).get());
+        Assert.assertTrue(restore(1000, 0));
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testRewrittenFileIsUploadedAgain() throws IOException {
+        s3.putFailures.put(BackupManifest.chunkKey(catalog.backupPrefix(1000), 3),
+                new AtomicInteger(Integer.MAX_VALUE));
+        Assert.assertNull(upload(1000, CompressionCodec.NONE, 1, 0));
+
+        content = aofLike(content.length, 8);
+        write(file, content);
+        s3.putFailures.clear();
+        s3.puts.clear();
+        Assert.assertNotNull(upload(1000, CompressionCodec.NONE, 1, 0));
+
+        Assert.assertEquals(1, s3.puts.get(BackupManifest.chunkKey(catalog.backupPrefix(1000), 0)).get());
+        Assert.assertTrue(restore(1000, 0));
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testAppendedDataIsRestoredUpToATime() throws Exception {
+        BackupManifest base = upload(1000, CompressionCodec.SNAPPY, 3, 0);
+        Assert.assertEquals(6, base.getBaseChunks());
+        Assert.assertEquals(ChunkedBackupUploader.AppendResult.UNCHANGED, appendBackup(1000));
+
+        Thread.sleep(5);
+        byte[] first = append(file, content, aofLike((int) (CHUNK_SIZE * 2 + 100), 9));
+        Assert.assertEquals(ChunkedBackupUploader.AppendResult.APPENDED, appendBackup(1000));
+        long firstTime = catalog.getManifest(1000).getLastChunkTime();
+        Thread.sleep(5);
+        byte[] second = append(file, first, aofLike(1000, 10));
+        Assert.assertEquals(ChunkedBackupUploader.AppendResult.APPENDED, appendBackup(1000));
+
+        BackupManifest manifest = catalog.getManifest(1000);
+        Assert.assertEquals(6, manifest.getBaseChunks());
+        Assert.assertEquals(6 + 3 + 1, manifest.getChunks().size());
+        Assert.assertEquals(second.length, manifest.getRawLength());
+        Assert.assertTrue(restore(1000, 0));
+        Assert.assertArrayEquals(second, Files.readAllBytes(target.toPath()));
+
+        BackupManifest cut = manifest.upTo(firstTime);
+        Assert.assertEquals(first.length, cut.getRawLength());
+        S3RangedDownloader downloader = new S3RangedDownloader(store, new InstanceState(), 3, 0);
+        Assert.assertTrue(downloader.downloadBackup("bucket", catalog.backupPrefix(1000), cut, target));
+        Assert.assertArrayEquals(first, Files.readAllBytes(target.toPath()));
+
+        // Nothing can be restored before the full backup was complete.
+        Assert.assertNull(manifest.upTo(base.getChunks().get(0).time - 1));
+    }
+
+    @Test
+    public void testRewrittenFileIsNotAppended() throws IOException {
+        Assert.assertNotNull(upload(1000, CompressionCodec.NONE, 3, 0));
+        write(file, aofLike(content.length + 100, 8));
+
+        Assert.assertEquals(ChunkedBackupUploader.AppendResult.REWRITTEN, appendBackup(1000));
+        Assert.assertEquals(content.length, catalog.getManifest(1000).getRawLength());
+    }
+
+    @Test
+    public void testStreamRoundTrip() throws IOException {
+        ChunkedBackupUploader uploader = new ChunkedBackupUploader(store, metrics, 2, 0);
+        BackupManifest manifest = uploader.upload("bucket", catalog.backupPrefix(1000),
+                new ByteArrayInputStream(content), BackupManifest.FileType.RDB, 1000, CompressionCodec.LZF, -1,
+                CHUNK_SIZE);
+
+        Assert.assertNotNull(manifest);
+        Assert.assertEquals(BackupManifest.FileType.RDB, catalog.getManifest(1000).getFileType());
+        Assert.assertEquals(6, manifest.getChunks().size());
+        Assert.assertTrue(restore(1000, 0));
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testCorruptChunkIsDownloadedAgain() throws IOException {
+        Assert.assertNotNull(upload(1000, CompressionCodec.GZIP, 3, 0));
+        s3.getCorruptions.put(BackupManifest.chunkKey(catalog.backupPrefix(1000), 2), new AtomicInteger(1));
+
+        Assert.assertTrue(restore(1000, 1));
+
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        // One corrupted download, then a good one.
+        Assert.assertEquals(-1, s3.getCorruptions.get(BackupManifest.chunkKey(catalog.backupPrefix(1000), 2)).get());
+    }
+
+    @Test
+    public void testCorruptChunkFailsRestore() throws IOException {
+        Assert.assertNotNull(upload(1000, CompressionCodec.NONE, 3, 0));
+        s3.getCorruptions.put(BackupManifest.chunkKey(catalog.backupPrefix(1000), 2),
+                new AtomicInteger(Integer.MAX_VALUE));
+
+        Assert.assertFalse(restore(1000, 0));
+    }
+
+    @Test
+    public void testRetention() throws IOException {
+        for (long backupTime : new long[] { 1000, 2000, 3000 }) {
+            Assert.assertNotNull(upload(backupTime, CompressionCodec.LZF, 3, 0));
+        }
+        s3.putFailures.put(BackupManifest.chunkKey(catalog.backupPrefix(1500), 1),
+                new AtomicInteger(Integer.MAX_VALUE));
+        Assert.assertNull(upload(1500, CompressionCodec.LZF, 1, 0));
+        // Backups stored as a single object are not managed by the catalog.
+        s3.objects.put(NODE + "500", new byte[1]);
+
+        List<BackupManifest> backups = catalog.list();
+        Assert.assertEquals(3, backups.size());
+        Assert.assertEquals(1000, backups.get(0).getBackupTime());
+
+        Assert.assertEquals(3, catalog.deleteBackupsBefore(2500));
+
+        backups = catalog.list();
+        Assert.assertEquals(1, backups.size());
+        Assert.assertEquals(3000, backups.get(0).getBackupTime());
+        for (String key : s3.objects.keySet()) {
+            Assert.assertTrue(key, key.startsWith(catalog.backupPrefix(3000)) || key.equals(NODE + "500"));
+        }
+    }
+
+    @Test
+    public void testReplicaPointers() throws IOException {
+        String replica = "backup/us-east-1/other-rack/1234/";
+        S3BackupCatalog replicaCatalog = new S3BackupCatalog(store, "bucket", replica);
+        Assert.assertNotNull(new ChunkedBackupUploader(store, metrics, 2, 0).upload("bucket",
+                replicaCatalog.backupPrefix(1000), file, content.length, BackupManifest.FileType.AOF, 1000,
+                CompressionCodec.NONE, -1, CHUNK_SIZE));
+        catalog.writeReplicaPointer(1000, replica);
+        catalog.writeReplicaPointer(2000, replica);
+
+        // A pointer is not a backup.
+        Assert.assertTrue(catalog.list().isEmpty());
+        Assert.assertNull(catalog.getManifest(1000));
+        Assert.assertEquals(replica, catalog.readReplicaPointer(1000));
+        Assert.assertNull(catalog.readReplicaPointer(3000));
+        Assert.assertFalse(catalog.holdsBackup(1000));
+        Assert.assertTrue(replicaCatalog.holdsBackup(1000));
+        // a backup stored as a single object
+        store.put("bucket", replica + "2000", new ByteArrayInputStream(content), content.length);
+        Assert.assertTrue(replicaCatalog.holdsBackup(2000));
+
+        List<S3BackupCatalog> catalogs = catalog.withReplicas();
+        Assert.assertEquals(2, catalogs.size());
+        Assert.assertEquals(replica, catalogs.get(1).getNodePrefix());
+        Assert.assertEquals(1000, catalogs.get(1).list().get(0).getBackupTime());
+
+        Assert.assertEquals(1, catalog.deleteBackupsBefore(1500));
+        Assert.assertNull(catalog.readReplicaPointer(1000));
+        Assert.assertEquals(replica, catalog.readReplicaPointer(2000));
+        Assert.assertNotNull(replicaCatalog.getManifest(1000));
+    }
+}
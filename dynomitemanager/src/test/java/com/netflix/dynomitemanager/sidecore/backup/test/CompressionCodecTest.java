@@ -0,0 +1,93 @@
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.backup.CompressionCodec;
+
+public class CompressionCodecTest {
+
+    private static byte[] aofLike(int size) {
+        // Repetitive RESP commands with some random payload, roughly what an AOF looks like.
+        Random random = new Random(7);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        while (out.size() < size) {
+            String cmd = "*3\r\n$3\r\nSET\r\n$10\r\nkey:" + (100000 + random.nextInt(900000)) + "\r\n$5\r\nv"
+                    + random.nextInt(9999) + "\r\n";
+            byte[] bytes = cmd.getBytes();
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] compress(CompressionCodec codec, byte[] data, int off, int len) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        OutputStream out = codec.compress(buffer, 6);
+        out.write(data, off, len);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    private static byte[] decompress(CompressionCodec codec, byte[] data) throws IOException {
+        InputStream in = codec.decompress(new ByteArrayInputStream(data));
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] data = aofLike(1024 * 1024);
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            byte[] compressed = compress(codec, data, 0, data.length);
+            Assert.assertArrayEquals(codec.name(), data, decompress(codec, compressed));
+            if (codec != CompressionCodec.NONE) {
+                Assert.assertTrue(codec.name(), compressed.length < data.length / 2);
+            }
+        }
+    }
+
+    @Test
+    public void testConcatenatedPartsDecompressAsOneStream() throws IOException {
+        byte[] data = aofLike(300 * 1024);
+        int[] cuts = { 0, 70001, 70001, 200000, data.length };
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            ByteArrayOutputStream object = new ByteArrayOutputStream();
+            for (int i = 0; i + 1 < cuts.length; i++) {
+                object.write(compress(codec, data, cuts[i], cuts[i + 1] - cuts[i]));
+            }
+            Assert.assertArrayEquals(codec.name(), data, decompress(codec, object.toByteArray()));
+        }
+    }
+
+    @Test
+    public void testFromName() {
+        Assert.assertEquals(CompressionCodec.NONE, CompressionCodec.fromName(null));
+        Assert.assertEquals(CompressionCodec.NONE, CompressionCodec.fromName(""));
+        Assert.assertEquals(CompressionCodec.SNAPPY, CompressionCodec.fromName("snappy"));
+        Assert.assertEquals(CompressionCodec.GZIP, CompressionCodec.fromName(" GZip "));
+    }
+
+    @Test
+    public void testCorruptSnappyHeaderIsRejected() throws IOException {
+        byte[] data = compress(CompressionCodec.SNAPPY, aofLike(1024), 0, 1024);
+        // a raw length of nearly 2 GB
+        data[4] = 0x7f;
+        try {
+            decompress(CompressionCodec.SNAPPY, data);
+            Assert.fail("A block larger than the writer makes is corrupt");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt snappy block"));
+        }
+    }
+}
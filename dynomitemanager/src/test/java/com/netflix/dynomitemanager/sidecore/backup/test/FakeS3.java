@@ -0,0 +1,290 @@
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+/**
+ * In memory stand-in for the parts of {@link AmazonS3} used by the backup code. Unsupported calls throw
+ * {@link UnsupportedOperationException}.
+ */
+public class FakeS3 implements InvocationHandler {
+
+    public final Map<String, byte[]> objects = new ConcurrentHashMap<String, byte[]>();
+    public final Map<String, String> etags = new ConcurrentHashMap<String, String>();
+    public final Map<String, Map<String, String>> userMetadata = new ConcurrentHashMap<String, Map<String, String>>();
+    public final AtomicInteger uploadPartCalls = new AtomicInteger();
+    public final AtomicInteger aborts = new AtomicInteger();
+    public final AtomicInteger maxConcurrentParts = new AtomicInteger();
+
+    /** Part numbers that fail this many more times before succeeding. */
+    public final Map<Integer, AtomicInteger> partFailures = new ConcurrentHashMap<Integer, AtomicInteger>();
+
+    /** Keys whose PUTs fail this many more times before succeeding. */
+    public final Map<String, AtomicInteger> putFailures = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /** Keys whose GETs return a corrupted copy of the object this many more times. */
+    public final Map<String, AtomicInteger> getCorruptions = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /** PUTs by key. */
+    public final Map<String, AtomicInteger> puts = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /** Ranged GETs by start offset. */
+    public final Map<Long, AtomicInteger> rangeGets = new ConcurrentHashMap<Long, AtomicInteger>();
+
+    /** Ranged GETs, by start offset, that fail this many more times before succeeding. */
+    public final Map<Long, AtomicInteger> rangeFailures = new ConcurrentHashMap<Long, AtomicInteger>();
+
+    /** Ranged GETs, by start offset, that return a corrupted copy of the range this many more times. */
+    public final Map<Long, AtomicInteger> rangeCorruptions = new ConcurrentHashMap<Long, AtomicInteger>();
+
+    // Parts of an upload are stored by concurrent upload threads.
+    private final Map<String, ConcurrentSkipListMap<Integer, byte[]>> uploads =
+            new ConcurrentHashMap<String, ConcurrentSkipListMap<Integer, byte[]>>();
+    private final Map<String, String> uploadKeys = new ConcurrentHashMap<String, String>();
+    private final Map<String, Map<String, String>> uploadMetadata = new ConcurrentHashMap<String, Map<String, String>>();
+    private final AtomicInteger concurrentParts = new AtomicInteger();
+    private final AtomicInteger uploadIds = new AtomicInteger();
+
+    public AmazonS3 client() {
+        return (AmazonS3) Proxy.newProxyInstance(AmazonS3.class.getClassLoader(), new Class<?>[] { AmazonS3.class },
+                this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("initiateMultipartUpload")) {
+            InitiateMultipartUploadRequest request = (InitiateMultipartUploadRequest) args[0];
+            String uploadId = "upload-" + uploadIds.incrementAndGet();
+            uploads.put(uploadId, new ConcurrentSkipListMap<Integer, byte[]>());
+            uploadKeys.put(uploadId, request.getKey());
+            uploadMetadata.put(uploadId, request.getObjectMetadata() == null ? new HashMap<String, String>()
+                    : request.getObjectMetadata().getUserMetadata());
+            InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+            result.setUploadId(uploadId);
+            result.setKey(request.getKey());
+            return result;
+        } else if (name.equals("uploadPart")) {
+            return uploadPart((UploadPartRequest) args[0]);
+        } else if (name.equals("completeMultipartUpload")) {
+            CompleteMultipartUploadRequest request = (CompleteMultipartUploadRequest) args[0];
+            ConcurrentSkipListMap<Integer, byte[]> parts = uploads.remove(request.getUploadId());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MessageDigest composite = MessageDigest.getInstance("MD5");
+            for (PartETag etag : request.getPartETags()) {
+                byte[] part = parts.get(etag.getPartNumber());
+                out.write(part);
+                composite.update(MessageDigest.getInstance("MD5").digest(part));
+            }
+            objects.put(request.getKey(), out.toByteArray());
+            etags.put(request.getKey(), toHex(composite.digest()) + "-" + request.getPartETags().size());
+            userMetadata.put(request.getKey(), uploadMetadata.remove(request.getUploadId()));
+            return new CompleteMultipartUploadResult();
+        } else if (name.equals("abortMultipartUpload")) {
+            uploads.remove(((AbortMultipartUploadRequest) args[0]).getUploadId());
+            aborts.incrementAndGet();
+            return null;
+        } else if (name.equals("doesBucketExist")) {
+            return true;
+        } else if (name.equals("putObject") && args.length == 4) {
+            String key = (String) args[1];
+            increment(puts, key);
+            AtomicInteger failures = putFailures.get(key);
+            if (failures != null && failures.getAndDecrement() > 0) {
+                throw new AmazonServiceException("Injected failure of " + key);
+            }
+            byte[] data = readFully((InputStream) args[2]);
+            objects.put(key, data);
+            etags.put(key, md5(data));
+            userMetadata.put(key, ((ObjectMetadata) args[3]).getUserMetadata());
+            return new PutObjectResult();
+        } else if (name.equals("getObjectMetadata") && args.length == 2) {
+            String key = (String) args[1];
+            byte[] data = get(key);
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(data.length);
+            metadata.setHeader(Headers.ETAG, etags.get(key));
+            metadata.setUserMetadata(userMetadata.get(key));
+            return metadata;
+        } else if (name.equals("getObject") && args.length == 2) {
+            String key = (String) args[1];
+            byte[] data = get(key);
+            AtomicInteger corruptions = getCorruptions.get(key);
+            if (corruptions != null && corruptions.getAndDecrement() > 0) {
+                data = data.clone();
+                data[data.length / 2] ^= 1;
+            }
+            return s3Object(data);
+        } else if (name.equals("deleteObject") && args.length == 2) {
+            objects.remove((String) args[1]);
+            etags.remove((String) args[1]);
+            return null;
+        } else if (name.equals("listObjects") && args[0] instanceof ListObjectsRequest) {
+            ListObjectsRequest request = (ListObjectsRequest) args[0];
+            ObjectListing listing = new ObjectListing();
+            for (String key : new TreeMap<String, byte[]>(objects).keySet()) {
+                if (key.startsWith(request.getPrefix())) {
+                    S3ObjectSummary summary = new S3ObjectSummary();
+                    summary.setBucketName(request.getBucketName());
+                    summary.setKey(key);
+                    summary.setSize(objects.get(key).length);
+                    listing.getObjectSummaries().add(summary);
+                }
+            }
+            return listing;
+        } else if (name.equals("getObject") && args[0] instanceof GetObjectRequest) {
+            return getRange((GetObjectRequest) args[0]);
+        }
+        throw new UnsupportedOperationException(name);
+    }
+
+    private UploadPartResult uploadPart(UploadPartRequest request) throws Exception {
+        uploadPartCalls.incrementAndGet();
+        int concurrent = concurrentParts.incrementAndGet();
+        try {
+            int max;
+            while (concurrent > (max = maxConcurrentParts.get())) {
+                if (maxConcurrentParts.compareAndSet(max, concurrent)) {
+                    break;
+                }
+            }
+            // Give the other upload threads a chance to overlap.
+            Thread.sleep(20);
+
+            AtomicInteger failures = partFailures.get(request.getPartNumber());
+            if (failures != null && failures.getAndDecrement() > 0) {
+                throw new AmazonServiceException("Injected failure of part " + request.getPartNumber());
+            }
+
+            byte[] data = new byte[(int) request.getPartSize()];
+            InputStream in = request.getInputStream();
+            if (in == null) {
+                in = new FileInputStream(request.getFile());
+                in.skip(request.getFileOffset());
+            }
+            try {
+                int off = 0;
+                while (off < data.length) {
+                    int n = in.read(data, off, data.length - off);
+                    if (n < 0) {
+                        break;
+                    }
+                    off += n;
+                }
+            } finally {
+                if (request.getFile() != null) {
+                    in.close();
+                }
+            }
+            uploads.get(request.getUploadId()).put(request.getPartNumber(), data);
+
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag(md5(data));
+            return result;
+        } finally {
+            concurrentParts.decrementAndGet();
+        }
+    }
+
+    private S3Object getRange(GetObjectRequest request) {
+        byte[] data = get(request.getKey());
+        long[] range = request.getRange();
+        long start = range[0];
+        increment(rangeGets, start);
+        if (decrement(rangeFailures, start)) {
+            throw new AmazonServiceException("Injected failure of range " + start);
+        }
+        byte[] slice = Arrays.copyOfRange(data, (int) start, (int) Math.min(range[1] + 1, data.length));
+        if (decrement(rangeCorruptions, start)) {
+            slice[slice.length / 2] ^= 1;
+        }
+        return s3Object(slice);
+    }
+
+    private byte[] get(String key) {
+        byte[] data = objects.get(key);
+        if (data == null) {
+            AmazonS3Exception e = new AmazonS3Exception("No such key: " + key);
+            e.setStatusCode(404);
+            throw e;
+        }
+        return data;
+    }
+
+    private static S3Object s3Object(byte[] data) {
+        S3Object object = new S3Object();
+        object.setObjectContent(new ByteArrayInputStream(data));
+        return object;
+    }
+
+    private static <K> void increment(Map<K, AtomicInteger> counters, K key) {
+        synchronized (counters) {
+            if (!counters.containsKey(key)) {
+                counters.put(key, new AtomicInteger());
+            }
+        }
+        counters.get(key).incrementAndGet();
+    }
+
+    private static boolean decrement(Map<Long, AtomicInteger> counters, long key) {
+        AtomicInteger counter = counters.get(key);
+        return counter != null && counter.getAndDecrement() > 0;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static String md5(byte[] data) throws Exception {
+        return toHex(MessageDigest.getInstance("MD5").digest(data));
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
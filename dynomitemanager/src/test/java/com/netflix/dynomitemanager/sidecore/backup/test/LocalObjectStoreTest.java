@@ -0,0 +1,187 @@
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.InstanceState;
+import com.netflix.dynomitemanager.sidecore.backup.BackupManifest;
+import com.netflix.dynomitemanager.sidecore.backup.BackupMetrics;
+import com.netflix.dynomitemanager.sidecore.backup.ChunkedBackupUploader;
+import com.netflix.dynomitemanager.sidecore.backup.CompressionCodec;
+import com.netflix.dynomitemanager.sidecore.backup.LocalObjectStore;
+import com.netflix.dynomitemanager.sidecore.backup.ObjectStore;
+import com.netflix.dynomitemanager.sidecore.backup.PartIndex;
+import com.netflix.dynomitemanager.sidecore.backup.S3BackupCatalog;
+import com.netflix.dynomitemanager.sidecore.backup.S3MultipartUploader;
+import com.netflix.dynomitemanager.sidecore.backup.S3RangedDownloader;
+
+public class LocalObjectStoreTest {
+
+    private static final String NODE = "backup/us-east-1/rack/1234/";
+
+    private File root;
+    private File file;
+    private File target;
+    private ObjectStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("objectstore").toFile();
+        Assert.assertTrue(new File(root, "bucket").mkdir());
+        file = File.createTempFile("nfredis", ".rdb");
+        target = File.createTempFile("nfredis", ".rdb.download");
+        store = new LocalObjectStore(root);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+        file.delete();
+        target.delete();
+        new File(target.getPath() + S3RangedDownloader.JOURNAL_SUFFIX).delete();
+    }
+
+    @Test
+    public void testPutGetAndDelete() throws IOException {
+        Assert.assertTrue(store.bucketExists("bucket"));
+        Assert.assertFalse(store.bucketExists("other"));
+
+        byte[] data = "0123456789".getBytes(StandardCharsets.US_ASCII);
+        store.put("bucket", "a/b/key", new ByteArrayInputStream(data), data.length);
+        store.put("bucket", "a/other", new ByteArrayInputStream(data), 4);
+
+        Assert.assertArrayEquals(data, read(store.get("bucket", "a/b/key")));
+        Assert.assertEquals("3456", new String(read(store.getRange("bucket", "a/b/key", 3, 4)),
+                StandardCharsets.US_ASCII));
+        ObjectStore.ObjectInfo info = store.head("bucket", "a/b/key");
+        Assert.assertEquals(data.length, info.length);
+        Assert.assertEquals(DigestUtils.md5Hex(data), info.etag);
+        Assert.assertEquals(4, store.head("bucket", "a/other").length);
+
+        Assert.assertEquals(Arrays.asList("a/b/key", "a/other"), store.list("bucket", "a/"));
+        Assert.assertEquals(Collections.singletonList("a/other"), store.list("bucket", "a/o"));
+
+        store.delete("bucket", "a/b/key");
+        Assert.assertNull(store.get("bucket", "a/b/key"));
+        Assert.assertNull(store.head("bucket", "a/b/key"));
+        Assert.assertFalse(new File(root, "bucket/a/b").exists());
+        Assert.assertEquals(Collections.singletonList("a/other"), store.list("bucket", ""));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsKeysOutsideTheBucket() throws IOException {
+        store.put("bucket", "../escaped", new ByteArrayInputStream(new byte[1]), 1);
+    }
+
+    @Test
+    public void testMultipartUploadHasACompositeETag() throws IOException {
+        byte[] data = random(3000, 1);
+        String uploadId = store.initiateMultipartUpload("bucket", "key",
+                Collections.singletonMap(S3MultipartUploader.METADATA_CODEC, "NONE"));
+        List<String> etags = new ArrayList<String>();
+        etags.add(store.uploadPart("bucket", "key", uploadId, 1, new ByteArrayInputStream(data, 0, 1000), 1000));
+        write(file, data);
+        etags.add(store.uploadPart("bucket", "key", uploadId, 2, file, 1000, 2000));
+        Assert.assertNull(store.head("bucket", "key"));
+
+        store.completeMultipartUpload("bucket", "key", uploadId, etags);
+
+        Assert.assertArrayEquals(data, read(store.get("bucket", "key")));
+        ObjectStore.ObjectInfo info = store.head("bucket", "key");
+        PartIndex index = new PartIndex();
+        index.add(1, 0, 1000, etags.get(0));
+        index.add(2, 1000, 2000, etags.get(1));
+        Assert.assertEquals(index.compositeETag(), info.etag);
+        Assert.assertEquals("NONE", info.userMetadata.get(S3MultipartUploader.METADATA_CODEC));
+        Assert.assertEquals(Collections.singletonList("key"), store.list("bucket", ""));
+    }
+
+    @Test
+    public void testAbortedUploadLeavesNothing() throws IOException {
+        String uploadId = store.initiateMultipartUpload("bucket", "key", Collections.<String, String> emptyMap());
+        store.uploadPart("bucket", "key", uploadId, 1, new ByteArrayInputStream(new byte[10]), 10);
+        store.abortMultipartUpload("bucket", "key", uploadId);
+
+        Assert.assertNull(store.head("bucket", "key"));
+        Assert.assertTrue(store.list("bucket", "").isEmpty());
+        try {
+            store.completeMultipartUpload("bucket", "key", uploadId, Collections.singletonList("etag"));
+            Assert.fail("Aborted upload was completed");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testObjectBackupRoundTrip() throws IOException {
+        byte[] data = random((int) (S3MultipartUploader.MIN_PART_SIZE * 2 + 1234), 2);
+        write(file, data);
+        S3MultipartUploader uploader = new S3MultipartUploader(store, new BackupMetrics(), 2, 0);
+        Assert.assertTrue(uploader.upload("bucket", "key", file, data.length, S3MultipartUploader.MIN_PART_SIZE));
+
+        S3RangedDownloader downloader = new S3RangedDownloader(store, new InstanceState(), 2, 0);
+        Assert.assertTrue(downloader.download("bucket", "key", target, S3MultipartUploader.MIN_PART_SIZE));
+        Assert.assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testChunkedBackupRoundTrip() throws IOException {
+        byte[] data = random(3 * 1024 * 1024 + 17, 3);
+        write(file, data);
+        S3BackupCatalog catalog = new S3BackupCatalog(store, "bucket", NODE);
+        ChunkedBackupUploader uploader = new ChunkedBackupUploader(store, new BackupMetrics(), 2, 0);
+        BackupManifest manifest = uploader.upload("bucket", catalog.backupPrefix(1000), file, data.length,
+                BackupManifest.FileType.RDB, 1000, CompressionCodec.LZF, -1, 1024 * 1024);
+        Assert.assertNotNull(manifest);
+        Assert.assertEquals(1, catalog.list().size());
+
+        S3RangedDownloader downloader = new S3RangedDownloader(store, new InstanceState(), 2, 0);
+        Assert.assertTrue(downloader.downloadBackup("bucket", catalog.backupPrefix(1000), catalog.getManifest(1000),
+                target));
+        Assert.assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+
+        Assert.assertEquals(1, catalog.deleteBackupsBefore(2000));
+        Assert.assertTrue(store.list("bucket", NODE).isEmpty());
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
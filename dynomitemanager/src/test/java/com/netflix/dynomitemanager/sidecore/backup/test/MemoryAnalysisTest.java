@@ -0,0 +1,83 @@
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.backup.MemoryAnalysis;
+
+public class MemoryAnalysisTest {
+
+    @Test
+    public void testGroupsKeysByPrefix() {
+        MemoryAnalysis analysis = new MemoryAnalysis(":", 1, 10, 5);
+        key(analysis, "user:1", "hash", 100);
+        key(analysis, "user:2", "hash", 100);
+        key(analysis, "session42", "string", 10);
+        key(analysis, "session43", "string", 10);
+        key(analysis, "cart:1:items", "list", 500);
+
+        List<MemoryAnalysis.Usage> prefixes = analysis.getPrefixes();
+        Assert.assertEquals(3, prefixes.size());
+        Assert.assertEquals("cart", prefixes.get(0).getName());
+        Assert.assertEquals("user", prefixes.get(1).getName());
+        Assert.assertEquals(2, prefixes.get(1).getKeys());
+        Assert.assertEquals("session#", prefixes.get(2).getName());
+        Assert.assertEquals(0, prefixes.get(2).getError());
+
+        Assert.assertEquals(5, analysis.getKeys());
+        Assert.assertEquals("list", analysis.getTypes().get(0).getName());
+    }
+
+    @Test
+    public void testPrefixDepth() {
+        MemoryAnalysis analysis = new MemoryAnalysis(":/", 2, 10, 5);
+        key(analysis, "cart:17:items", "list", 500);
+        key(analysis, "cart/18/items", "list", 500);
+        key(analysis, "cart", "list", 500);
+
+        List<MemoryAnalysis.Usage> prefixes = analysis.getPrefixes();
+        Assert.assertEquals(3, prefixes.size());
+        Assert.assertEquals("cart", prefixes.get(2).getName());
+        Assert.assertEquals(1, prefixes.get(0).getKeys());
+    }
+
+    @Test
+    public void testKeepsTheBiggestKeys() {
+        MemoryAnalysis analysis = new MemoryAnalysis(":", 1, 10, 3);
+        for (int i = 0; i < 100; i++) {
+            key(analysis, "k:" + i, "string", i);
+        }
+
+        List<MemoryAnalysis.BigKey> bigKeys = analysis.getBigKeys();
+        Assert.assertEquals(3, bigKeys.size());
+        Assert.assertEquals("k:99", bigKeys.get(0).getKey());
+        Assert.assertEquals("k:97", bigKeys.get(2).getKey());
+    }
+
+    @Test
+    public void testPrefixesStayBounded() {
+        MemoryAnalysis analysis = new MemoryAnalysis(":", 1, 10, 3);
+        for (int i = 0; i < 10000; i++) {
+            key(analysis, "small" + (char) ('a' + i % 26) + (char) ('a' + i / 26 % 26) + ":x", "string", 10);
+        }
+        for (int i = 0; i < 100; i++) {
+            key(analysis, "big:" + i, "hash", 10000);
+        }
+
+        List<MemoryAnalysis.Usage> prefixes = analysis.getPrefixes();
+        Assert.assertEquals(10, prefixes.size());
+        MemoryAnalysis.Usage big = prefixes.get(0);
+        Assert.assertEquals("big", big.getName());
+        Assert.assertEquals(100, big.getKeys());
+        // The estimate is an upper bound, off by at most the reported error.
+        Assert.assertTrue(big.getBytes() - big.getError() <= analysis.getBytes());
+        Assert.assertTrue(big.getBytes() - big.getError() >= 100 * 10000);
+    }
+
+    private static void key(MemoryAnalysis analysis, String key, String type, long size) {
+        analysis.key(key.getBytes(StandardCharsets.UTF_8), type, 1, size, -1);
+    }
+}
@@ -0,0 +1,159 @@
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.backup.PipelinedRestorer;
+import com.netflix.dynomitemanager.sidecore.utils.ThreadSleeper;
+
+public class PipelinedRestorerTest {
+
+    private ServerSocket server;
+    private final List<List<String>> commands = Collections.synchronizedList(new ArrayList<List<String>>());
+    private volatile String refusedKey;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try {
+                        final Socket socket = server.accept();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }).start();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        }).start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Answers like Redis 6.2: INFO with the version, RESTORE with OK unless the key is refused.
+     */
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                List<String> command = readCommand(in);
+                if (command == null) {
+                    return;
+                }
+                if (command.get(0).equals("INFO")) {
+                    String info = "# Server\r\nredis_version:6.2.6\r\n";
+                    out.write(("$" + info.length() + "\r\n" + info + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                } else {
+                    commands.add(command);
+                    out.write((command.get(1).equals(refusedKey) ? "-ERR DUMP payload version or checksum are wrong\r\n"
+                            : "+OK\r\n").getBytes(StandardCharsets.US_ASCII));
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The restorer closed the connection.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closed already.
+            }
+        }
+    }
+
+    private static List<String> readCommand(InputStream in) throws IOException {
+        String header = readLine(in);
+        if (header == null) {
+            return null;
+        }
+        List<String> args = new ArrayList<String>();
+        for (int i = Integer.parseInt(header.substring(1)); i > 0; i--) {
+            byte[] arg = new byte[Integer.parseInt(readLine(in).substring(1)) + 2];
+            for (int read = 0; read < arg.length;) {
+                read += in.read(arg, read, arg.length - read);
+            }
+            args.add(new String(arg, 0, arg.length - 2, StandardCharsets.ISO_8859_1));
+        }
+        return args;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                return null;
+            }
+            line.write(c);
+        }
+        String s = line.toString("US-ASCII");
+        return s.substring(0, s.length() - 1);
+    }
+
+    @Test
+    public void testRestoresEveryKey() throws IOException {
+        PipelinedRestorer restorer = new PipelinedRestorer("127.0.0.1", server.getLocalPort(), 3, 0,
+                new ThreadSleeper());
+        restorer.start();
+        long expireAt = System.currentTimeMillis() + 3600000;
+        for (int i = 0; i < 1000; i++) {
+            restorer.entry(("key" + i).getBytes(StandardCharsets.US_ASCII), new byte[] { 0, 1, (byte) i },
+                    i == 7 ? expireAt : -1);
+        }
+        // Already expired.
+        restorer.entry("gone".getBytes(StandardCharsets.US_ASCII), new byte[] { 0 }, 1000);
+        Assert.assertEquals(1000, restorer.finish());
+
+        Assert.assertEquals(1000, commands.size());
+        for (List<String> command : commands) {
+            Assert.assertEquals("RESTORE", command.get(0));
+            if (command.get(1).equals("key7")) {
+                Assert.assertEquals(String.valueOf(expireAt), command.get(2));
+                Assert.assertEquals(6, command.size());
+                Assert.assertEquals("ABSTTL", command.get(5));
+            } else {
+                Assert.assertEquals("0", command.get(2));
+                Assert.assertEquals(5, command.size());
+            }
+            Assert.assertEquals("REPLACE", command.get(4));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailsWhenRedisRefusesAKey() throws IOException {
+        refusedKey = "key500";
+        PipelinedRestorer restorer = new PipelinedRestorer("127.0.0.1", server.getLocalPort(), 2, 0,
+                new ThreadSleeper());
+        restorer.start();
+        for (int i = 0; i < 1000; i++) {
+            restorer.entry(("key" + i).getBytes(StandardCharsets.US_ASCII), new byte[] { 0 }, -1);
+        }
+        restorer.finish();
+    }
+}
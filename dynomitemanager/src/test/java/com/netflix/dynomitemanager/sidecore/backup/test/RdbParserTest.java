@@ -0,0 +1,290 @@
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.backup.BackupManifest;
+import com.netflix.dynomitemanager.sidecore.backup.CompressionCodec;
+import com.netflix.dynomitemanager.sidecore.backup.Crc64;
+import com.netflix.dynomitemanager.sidecore.backup.RdbParser;
+import com.netflix.dynomitemanager.sidecore.backup.RdbStats;
+import com.netflix.dynomitemanager.sidecore.backup.VerifyingRdbStream;
+
+public class RdbParserTest {
+
+    private static final long CTIME = 1500000000L;
+
+    @Test
+    public void testCrc64CheckValue() {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        Assert.assertEquals(0xe9c6d914c4b8d9caL, Crc64.update(0, check, 0, check.length));
+    }
+
+    @Test
+    public void testParsesEveryEncoding() throws IOException {
+        RdbStats stats = new RdbParser(new ByteArrayInputStream(rdb())).parse();
+
+        Assert.assertEquals(11, stats.getVersion());
+        Assert.assertEquals("7.2.4", stats.getRedisVersion());
+        Assert.assertTrue(stats.isChecksumVerified());
+        Assert.assertEquals(1, stats.getDatabases());
+        Assert.assertEquals(7, stats.getKeys());
+        Assert.assertEquals(4, stats.getTypeStats("string").getKeys());
+        Assert.assertEquals(3, stats.getTypeStats("set").getElements());
+        Assert.assertEquals(2, stats.getTypeStats("hash").getElements());
+        Assert.assertEquals(2, stats.getTypeStats("list").getElements());
+        Assert.assertEquals(6, stats.getExpiryCount("none"));
+        Assert.assertEquals(1, stats.getExpiryCount("1d"));
+    }
+
+    @Test
+    public void testPassesKeysToTheListener() throws IOException {
+        final List<String> keys = new ArrayList<String>();
+        RdbParser parser = new RdbParser(new ByteArrayInputStream(rdb()));
+        parser.setKeyListener(new RdbParser.KeyListener() {
+            @Override
+            public void key(byte[] key, String type, long elements, long size, long expireAt) {
+                keys.add(new String(key, StandardCharsets.US_ASCII) + "/" + type + "/" + elements
+                        + (expireAt < 0 ? "" : "/expiring"));
+            }
+        });
+        parser.parse();
+
+        Assert.assertEquals(Arrays.asList("a/string/1", "n/string/1", "z/string/1", "e/string/1/expiring",
+                "s/set/3", "h/hash/2", "l/list/2"), keys);
+    }
+
+    @Test
+    public void testPassesDumpPayloads() throws IOException {
+        StringBuilder longKey = new StringBuilder();
+        while (longKey.length() < 300) {
+            longKey.append("long");
+        }
+        RdbWriter rdb = new RdbWriter(10);
+        rdb.key(0, "mykey").bytes(0xC0, 10);
+        rdb.bytes(0xFC).le(CTIME * 1000L, 8);
+        // A key longer than the keys passed to key listeners, with a 14 bits length.
+        rdb.bytes(0, 0x40 | (longKey.length() >> 8), longKey.length() & 0xFF).ascii(longKey.toString());
+        rdb.string("hello");
+
+        final List<byte[]> keys = new ArrayList<byte[]>();
+        final List<byte[]> payloads = new ArrayList<byte[]>();
+        final List<Long> expirations = new ArrayList<Long>();
+        RdbParser parser = new RdbParser(new ByteArrayInputStream(rdb.finish()));
+        parser.setDumpListener(new RdbParser.DumpListener() {
+            @Override
+            public void entry(byte[] key, byte[] payload, long expireAt) {
+                keys.add(key);
+                payloads.add(payload);
+                expirations.add(expireAt);
+            }
+        });
+        Assert.assertEquals(2, parser.parse().getKeys());
+
+        Assert.assertEquals("mykey", new String(keys.get(0), StandardCharsets.US_ASCII));
+        // DUMP of the integer 10 by Redis 6.0, as shown in the documentation of DUMP.
+        Assert.assertArrayEquals(new byte[] { 0x00, (byte) 0xC0, 0x0A, 0x0A, 0x00, 0x6E, (byte) 0x9F, 0x57, 0x45,
+                0x0E, (byte) 0xAE, 0x63, (byte) 0xBB }, payloads.get(0));
+        Assert.assertEquals(Long.valueOf(-1), expirations.get(0));
+
+        Assert.assertEquals(longKey.toString(), new String(keys.get(1), StandardCharsets.US_ASCII));
+        Assert.assertEquals(1 + 6 + 2 + 8, payloads.get(1).length);
+        Assert.assertEquals(Long.valueOf(CTIME * 1000L), expirations.get(1));
+    }
+
+    @Test
+    public void testRejectsCorruptChecksum() {
+        byte[] rdb = rdb();
+        int value = indexOf(rdb, "hello");
+        rdb[value] = 'j';
+        assertCorrupt(rdb);
+    }
+
+    @Test
+    public void testRejectsTruncatedFile() {
+        byte[] rdb = rdb();
+        assertCorrupt(Arrays.copyOf(rdb, rdb.length - 12));
+    }
+
+    @Test
+    public void testRejectsMalformedListpack() {
+        RdbWriter rdb = new RdbWriter();
+        // A listpack that claims three entries but holds two.
+        rdb.key(20, "s").blob(listpack(3, entry("x"), entry("y")));
+        assertCorrupt(rdb.finish());
+    }
+
+    @Test
+    public void testStatsAreStoredInTheManifest() throws IOException {
+        RdbStats stats = new RdbParser(new ByteArrayInputStream(rdb())).parse();
+        BackupManifest manifest = new BackupManifest(BackupManifest.FileType.RDB, CompressionCodec.NONE, 1024, 0);
+        manifest.setRdbStats(stats);
+
+        BackupManifest parsed = BackupManifest
+                .parse(new ByteArrayInputStream(manifest.toJson().getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(7, parsed.getRdbStats().getKeys());
+        Assert.assertEquals(2, parsed.getRdbStats().getTypeStats("hash").getElements());
+        Assert.assertEquals(1, parsed.getRdbStats().getExpiryCount("1d"));
+        Assert.assertEquals(stats.getBytes(), parsed.getRdbStats().getBytes());
+    }
+
+    @Test
+    public void testVerifyingStreamPassesTheRdbThrough() throws IOException {
+        byte[] rdb = rdb();
+        VerifyingRdbStream in = new VerifyingRdbStream(new ByteArrayInputStream(rdb));
+        try {
+            Assert.assertArrayEquals(rdb, IOUtils.toByteArray(in));
+        } finally {
+            in.close();
+        }
+        Assert.assertEquals(7, in.getStats().getKeys());
+    }
+
+    @Test(expected = IOException.class)
+    public void testVerifyingStreamFailsOnACorruptRdb() throws IOException {
+        byte[] rdb = rdb();
+        rdb[indexOf(rdb, "hello")] = 'j';
+        InputStream in = new VerifyingRdbStream(new ByteArrayInputStream(rdb));
+        try {
+            IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void assertCorrupt(byte[] rdb) {
+        try {
+            new RdbParser(new ByteArrayInputStream(rdb)).parse();
+            Assert.fail("Corrupt RDB was accepted");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    private static int indexOf(byte[] data, String s) {
+        byte[] needle = s.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i + needle.length <= data.length; i++) {
+            if (Arrays.equals(needle, Arrays.copyOfRange(data, i, i + needle.length))) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(s);
+    }
+
+    /**
+     * @return an RDB with a key of each common encoding, one of them expiring in two hours
+     */
+    private static byte[] rdb() {
+        RdbWriter rdb = new RdbWriter();
+        rdb.key(0, "a").string("hello");
+        // An integer encoded string.
+        rdb.key(0, "n").bytes(0xC0, 123);
+        // "abcabcabcabc" compressed with LZF: a literal run, then a back reference overlapping itself.
+        rdb.key(0, "z").bytes(0xC3, 7, 12, 2, 'a', 'b', 'c', 0xE0, 0x00, 0x02);
+        rdb.bytes(0xFC).le((CTIME + 2 * 3600) * 1000L, 8);
+        rdb.key(0, "e").string("soon");
+        // An intset of three 16 bit integers.
+        ByteArrayOutputStream intset = new ByteArrayOutputStream();
+        write(intset, 2, 0, 0, 0, 3, 0, 0, 0, 1, 0, 2, 0, 0, 1);
+        rdb.key(11, "s").blob(intset.toByteArray());
+        rdb.key(16, "h").blob(listpack(4, entry("f1"), new byte[] { 0x01, 0x01 }, entry("f2"), entry("v")));
+        // A quicklist with a single packed node.
+        rdb.key(18, "l").bytes(1, 2).blob(listpack(2, entry("x"), entry("y")));
+        return rdb.finish();
+    }
+
+    private static byte[] entry(String s) {
+        byte[] value = s.getBytes(StandardCharsets.US_ASCII);
+        byte[] entry = new byte[value.length + 2];
+        entry[0] = (byte) (0x80 | value.length);
+        System.arraycopy(value, 0, entry, 1, value.length);
+        entry[entry.length - 1] = (byte) (value.length + 1);
+        return entry;
+    }
+
+    private static byte[] listpack(int count, byte[]... entries) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] entry : entries) {
+            body.write(entry, 0, entry.length);
+        }
+        int total = 6 + body.size() + 1;
+        ByteArrayOutputStream listpack = new ByteArrayOutputStream();
+        write(listpack, total, total >> 8, 0, 0, count, count >> 8);
+        listpack.write(body.toByteArray(), 0, body.size());
+        listpack.write(0xFF);
+        return listpack.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, int... bytes) {
+        for (int b : bytes) {
+            out.write(b);
+        }
+    }
+
+    /**
+     * Writes an RDB in the version 11 format, with its checksum.
+     */
+    private static class RdbWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        RdbWriter() {
+            this(11);
+        }
+
+        RdbWriter(int version) {
+            ascii(String.format("REDIS%04d", version));
+            bytes(0xFA).string("redis-ver").string("7.2.4");
+            bytes(0xFA).string("ctime").bytes(0xC2).le(CTIME, 4);
+            bytes(0xFE, 0);
+        }
+
+        RdbWriter bytes(int... bytes) {
+            write(out, bytes);
+            return this;
+        }
+
+        RdbWriter le(long value, int length) {
+            for (int i = 0; i < length; i++) {
+                out.write((int) (value >>> (8 * i)));
+            }
+            return this;
+        }
+
+        RdbWriter string(String s) {
+            return blob(s.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        RdbWriter blob(byte[] b) {
+            out.write(b.length);
+            out.write(b, 0, b.length);
+            return this;
+        }
+
+        RdbWriter key(int type, String key) {
+            return bytes(type).string(key);
+        }
+
+        byte[] finish() {
+            out.write(0xFF);
+            byte[] body = out.toByteArray();
+            le(Crc64.update(0, body, 0, body.length), 8);
+            return out.toByteArray();
+        }
+
+        RdbWriter ascii(String s) {
+            byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+            out.write(b, 0, b.length);
+            return this;
+        }
+    }
+}
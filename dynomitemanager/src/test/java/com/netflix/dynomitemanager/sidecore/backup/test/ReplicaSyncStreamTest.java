@@ -0,0 +1,128 @@
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.backup.ReplicaSyncStream;
+
+public class ReplicaSyncStreamTest {
+
+    private static final String MARK = "0123456789abcdef0123456789abcdef01234567";
+
+    private ServerSocket server;
+    private byte[] rdb;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0);
+        rdb = new byte[300 * 1024];
+        new Random(3).nextBytes(rdb);
+        // Starts like the mark, which must not end the stream.
+        System.arraycopy(MARK.getBytes(StandardCharsets.US_ASCII), 0, rdb, 1000, 39);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Answers a single replica like a Redis master: OK to REPLCONF, keepalives, then the given header and payload,
+     * followed by the replication stream.
+     */
+    private void serve(final String header, final byte[] payload, final boolean closeEarly) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Socket socket = server.accept()) {
+                    InputStream in = socket.getInputStream();
+                    OutputStream out = socket.getOutputStream();
+                    readCommand(in);
+                    out.write("+OK\r\n".getBytes(StandardCharsets.US_ASCII));
+                    Assert.assertEquals("SYNC", readCommand(in));
+                    out.write(("\n\n" + header + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                    if (closeEarly) {
+                        out.write(payload, 0, payload.length / 2);
+                        return;
+                    }
+                    out.write(payload);
+                    out.write("*1\r\n$4\r\nPING\r\n".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    // Keeps the connection open, like a master streaming to its replica.
+                    in.read();
+                } catch (IOException e) {
+                    // The test fails on the client side.
+                }
+            }
+        }).start();
+    }
+
+    private static String readCommand(InputStream in) throws IOException {
+        ByteArrayOutputStream command = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) >= 0) {
+            command.write(c);
+            String s = command.toString("US-ASCII");
+            String[] lines = s.split("\r\n");
+            if (s.endsWith("\r\n") && lines.length == 1 + 2 * Integer.parseInt(lines[0].substring(1))) {
+                return lines[2];
+            }
+        }
+        throw new IOException("Connection closed");
+    }
+
+    private byte[] readAll() throws IOException {
+        ReplicaSyncStream stream = ReplicaSyncStream.open("127.0.0.1", server.getLocalPort(), 5000);
+        try {
+            return IOUtils.toByteArray(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testDiskBasedSync() throws IOException {
+        serve("$" + rdb.length, rdb, false);
+        Assert.assertArrayEquals(rdb, readAll());
+    }
+
+    @Test
+    public void testDisklessSync() throws IOException {
+        byte[] payload = Arrays.copyOf(rdb, rdb.length + MARK.length());
+        System.arraycopy(MARK.getBytes(StandardCharsets.US_ASCII), 0, payload, rdb.length, MARK.length());
+        serve("$EOF:" + MARK, payload, false);
+
+        ReplicaSyncStream stream = ReplicaSyncStream.open("127.0.0.1", server.getLocalPort(), 5000);
+        Assert.assertEquals(-1, stream.getLength());
+        try {
+            Assert.assertArrayEquals(rdb, IOUtils.toByteArray(stream));
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedSyncFails() throws IOException {
+        serve("$" + rdb.length, rdb, true);
+        readAll();
+    }
+
+    @Test(expected = IOException.class)
+    public void testErrorReplyFails() throws IOException {
+        serve("-ERR not allowed", new byte[0], false);
+        readAll();
+    }
+}
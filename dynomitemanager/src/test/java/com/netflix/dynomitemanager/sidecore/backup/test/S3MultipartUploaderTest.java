@@ -0,0 +1,112 @@
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.backup.BackupMetrics;
+import com.netflix.dynomitemanager.sidecore.backup.CompressionCodec;
+import com.netflix.dynomitemanager.sidecore.backup.ObjectStore;
+import com.netflix.dynomitemanager.sidecore.backup.S3MultipartUploader;
+import com.netflix.dynomitemanager.sidecore.backup.S3ObjectStore;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Monitor;
+
+public class S3MultipartUploaderTest {
+
+    private static final long PART_SIZE = S3MultipartUploader.MIN_PART_SIZE;
+
+    private File file;
+    private byte[] content;
+    private FakeS3 s3;
+    private ObjectStore store;
+    private BackupMetrics metrics;
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[(int) (PART_SIZE * 4 + 1234)];
+        new Random(42).nextBytes(content);
+        file = File.createTempFile("appendonly", ".aof");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content);
+        out.close();
+
+        s3 = new FakeS3();
+        store = new S3ObjectStore(s3.client());
+        metrics = new BackupMetrics();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        // Keep the global registry clean for the other metrics tests.
+        for (Monitor<?> monitor : DefaultMonitorRegistry.getInstance().getRegisteredMonitors()) {
+            if (monitor.getConfig().getName().startsWith("Backup_")) {
+                DefaultMonitorRegistry.getInstance().unregister(monitor);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelUpload() {
+        S3MultipartUploader uploader = new S3MultipartUploader(store, metrics, 3, 0);
+
+        Assert.assertTrue(uploader.upload("bucket", "key", file, file.length(), PART_SIZE));
+
+        Assert.assertArrayEquals(content, s3.objects.get("key"));
+        Assert.assertEquals(5, s3.uploadPartCalls.get());
+        Assert.assertTrue(s3.maxConcurrentParts.get() > 1);
+        Assert.assertTrue(s3.maxConcurrentParts.get() <= 3);
+        Assert.assertEquals(0, metrics.getBytesInFlight());
+    }
+
+    @Test
+    public void testFailedPartIsRetried() {
+        s3.partFailures.put(2, new AtomicInteger(1));
+        S3MultipartUploader uploader = new S3MultipartUploader(store, metrics, 2, 1);
+
+        Assert.assertTrue(uploader.upload("bucket", "key", file, file.length(), PART_SIZE));
+
+        Assert.assertArrayEquals(content, s3.objects.get("key"));
+        Assert.assertEquals(6, s3.uploadPartCalls.get());
+        Assert.assertEquals(0, s3.aborts.get());
+    }
+
+    @Test
+    public void testCompressedStreamUpload() throws IOException {
+        S3MultipartUploader uploader = new S3MultipartUploader(store, metrics, 3, 0);
+        InputStream in = new FileInputStream(file);
+        try {
+            Assert.assertTrue(uploader.upload("bucket", "key", in, file.length(), CompressionCodec.SNAPPY, -1,
+                    PART_SIZE));
+        } finally {
+            in.close();
+        }
+
+        Assert.assertTrue(s3.uploadPartCalls.get() > 1);
+        InputStream restored = CompressionCodec.SNAPPY.decompress(new ByteArrayInputStream(s3.objects.get("key")));
+        Assert.assertArrayEquals(content, IOUtils.toByteArray(restored));
+    }
+
+    @Test
+    public void testUploadAbortedWhenRetriesExhausted() {
+        s3.partFailures.put(1, new AtomicInteger(Integer.MAX_VALUE));
+        S3MultipartUploader uploader = new S3MultipartUploader(store, metrics, 2, 0);
+
+        Assert.assertFalse(uploader.upload("bucket", "key", file, file.length(), PART_SIZE));
+
+        Assert.assertNull(s3.objects.get("key"));
+        Assert.assertEquals(1, s3.aborts.get());
+    }
+}
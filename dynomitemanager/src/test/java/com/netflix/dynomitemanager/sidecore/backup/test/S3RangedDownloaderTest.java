@@ -0,0 +1,120 @@
+package com.netflix.dynomitemanager.sidecore.backup.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.InstanceState;
+import com.netflix.dynomitemanager.sidecore.backup.BackupMetrics;
+import com.netflix.dynomitemanager.sidecore.backup.ObjectStore;
+import com.netflix.dynomitemanager.sidecore.backup.PartIndex;
+import com.netflix.dynomitemanager.sidecore.backup.S3MultipartUploader;
+import com.netflix.dynomitemanager.sidecore.backup.S3ObjectStore;
+import com.netflix.dynomitemanager.sidecore.backup.S3RangedDownloader;
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.monitor.Monitor;
+
+public class S3RangedDownloaderTest {
+
+    private static final long PART_SIZE = S3MultipartUploader.MIN_PART_SIZE;
+
+    private byte[] content;
+    private File source;
+    private File target;
+    private FakeS3 s3;
+    private ObjectStore store;
+    private InstanceState state;
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[(int) (PART_SIZE * 4 + 1234)];
+        new Random(42).nextBytes(content);
+        source = File.createTempFile("appendonly", ".aof");
+        FileOutputStream out = new FileOutputStream(source);
+        out.write(content);
+        out.close();
+        target = File.createTempFile("appendonly", ".aof.download");
+
+        s3 = new FakeS3();
+        store = new S3ObjectStore(s3.client());
+        state = new InstanceState();
+        S3MultipartUploader uploader = new S3MultipartUploader(store, new BackupMetrics(), 3, 0);
+        Assert.assertTrue(uploader.upload("bucket", "key", source, source.length(), PART_SIZE));
+    }
+
+    @After
+    public void tearDown() {
+        source.delete();
+        target.delete();
+        new File(target.getPath() + S3RangedDownloader.JOURNAL_SUFFIX).delete();
+        for (Monitor<?> monitor : DefaultMonitorRegistry.getInstance().getRegisteredMonitors()) {
+            if (monitor.getConfig().getName().startsWith("Backup_")) {
+                DefaultMonitorRegistry.getInstance().unregister(monitor);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelDownload() throws IOException {
+        S3RangedDownloader downloader = new S3RangedDownloader(store, state, 3, 0);
+
+        Assert.assertTrue(downloader.download("bucket", "key", target, PART_SIZE));
+
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        Assert.assertEquals(5, s3.rangeGets.size());
+        Assert.assertFalse(new File(target.getPath() + S3RangedDownloader.JOURNAL_SUFFIX).exists());
+        Assert.assertEquals(content.length, state.getRestoreBytesTotal());
+        Assert.assertEquals(content.length, state.getRestoreBytesDone());
+    }
+
+    @Test
+    public void testCorruptRangeIsDownloadedAgain() throws IOException {
+        s3.rangeCorruptions.put(PART_SIZE, new AtomicInteger(1));
+        S3RangedDownloader downloader = new S3RangedDownloader(store, state, 3, 1);
+
+        Assert.assertTrue(downloader.download("bucket", "key", target, PART_SIZE));
+
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        Assert.assertEquals(2, s3.rangeGets.get(PART_SIZE).get());
+        Assert.assertEquals(content.length, state.getRestoreBytesDone());
+    }
+
+    @Test
+    public void testInterruptedDownloadResumes() throws IOException {
+        s3.rangeFailures.put(2 * PART_SIZE, new AtomicInteger(Integer.MAX_VALUE));
+        S3RangedDownloader downloader = new S3RangedDownloader(store, state, 1, 0);
+
+        Assert.assertFalse(downloader.download("bucket", "key", target, PART_SIZE));
+        Assert.assertTrue(new File(target.getPath() + S3RangedDownloader.JOURNAL_SUFFIX).exists());
+
+        s3.rangeFailures.clear();
+        s3.rangeGets.clear();
+        Assert.assertTrue(downloader.download("bucket", "key", target, PART_SIZE));
+
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        // Ranges before the failure were not downloaded again.
+        Assert.assertNull(s3.rangeGets.get(0L));
+        Assert.assertNull(s3.rangeGets.get(PART_SIZE));
+        Assert.assertEquals(1, s3.rangeGets.get(2 * PART_SIZE).get());
+        Assert.assertEquals(content.length, state.getRestoreBytesDone());
+    }
+
+    @Test
+    public void testDownloadWithoutPartIndex() throws IOException {
+        s3.objects.remove("key" + PartIndex.SUFFIX);
+        S3RangedDownloader downloader = new S3RangedDownloader(store, state, 3, 0);
+
+        Assert.assertTrue(downloader.download("bucket", "key", target, 3 * 1024 * 1024));
+
+        Assert.assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        Assert.assertEquals(7, s3.rangeGets.size());
+    }
+}
@@ -0,0 +1,38 @@
+package com.netflix.dynomitemanager.sidecore.storage.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.storage.DataFilePrefetcher;
+
+public class DataFilePrefetcherTest {
+
+    @Test
+    public void testPrefetchesEveryRange() throws IOException {
+        File file = File.createTempFile("appendonly", ".aof");
+        try {
+            // Three ranges, the last one partial.
+            long length = 2 * 64L * 1024 * 1024 + 12345;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(length);
+            raf.close();
+            Assert.assertEquals(length, DataFilePrefetcher.prefetch(file, 2));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testPrefetchesEmptyFiles() throws IOException {
+        File file = File.createTempFile("nfredis", ".rdb");
+        try {
+            Assert.assertEquals(0, DataFilePrefetcher.prefetch(file, 4));
+        } finally {
+            file.delete();
+        }
+    }
+}
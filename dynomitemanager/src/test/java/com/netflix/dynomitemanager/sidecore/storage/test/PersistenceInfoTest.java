@@ -0,0 +1,82 @@
+package com.netflix.dynomitemanager.sidecore.storage.test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.storage.PersistenceInfo;
+
+public class PersistenceInfoTest {
+
+    private static final String REWRITING = "# Persistence\r\nloading:0\r\nrdb_bgsave_in_progress:0\r\n"
+            + "rdb_last_bgsave_status:ok\r\naof_enabled:1\r\naof_rewrite_in_progress:1\r\naof_rewrite_scheduled:0\r\n"
+            + "aof_last_bgrewrite_status:ok\r\n";
+
+    private static final String SCHEDULED = "# Persistence\r\nrdb_bgsave_in_progress:1\r\naof_rewrite_in_progress:0\r\n"
+            + "aof_rewrite_scheduled:1\r\n";
+
+    private static final String DONE = "# Persistence\r\nrdb_bgsave_in_progress:0\r\nrdb_last_bgsave_status:err\r\n"
+            + "rdb_last_cow_size:4096\r\naof_rewrite_in_progress:0\r\naof_rewrite_scheduled:0\r\n"
+            + "aof_last_bgrewrite_status:ok\r\naof_last_cow_size:1048576\r\n";
+
+    @Test
+    public void testInProgress() {
+        Assert.assertTrue(PersistenceInfo.parse(REWRITING).isInProgress(true));
+        Assert.assertFalse(PersistenceInfo.parse(REWRITING).isInProgress(false));
+        // A rewrite asked for during a BGSAVE waits for it to complete.
+        Assert.assertTrue(PersistenceInfo.parse(SCHEDULED).isInProgress(true));
+        Assert.assertTrue(PersistenceInfo.parse(SCHEDULED).isInProgress(false));
+        Assert.assertFalse(PersistenceInfo.parse(DONE).isInProgress(true));
+        Assert.assertFalse(PersistenceInfo.parse(DONE).isInProgress(false));
+    }
+
+    @Test
+    public void testLoading() {
+        Assert.assertFalse(PersistenceInfo.parse(REWRITING).isLoading());
+        Assert.assertTrue(PersistenceInfo.parse("# Persistence\r\nloading:1\r\nloading_loaded_perc:42.10\r\n").isLoading());
+    }
+
+    @Test
+    public void testLoadingProgress() {
+        PersistenceInfo info = PersistenceInfo.parse(
+                "# Persistence\r\nloading:1\r\nloading_total_bytes:1073741824\r\nloading_loaded_perc:42.10\r\nloading_eta_seconds:37\r\n");
+        Assert.assertEquals(42.1, info.getLoadedPercent(), 0.001);
+        Assert.assertEquals(37, info.getLoadingEtaSeconds());
+        Assert.assertEquals(-1, PersistenceInfo.parse(DONE).getLoadedPercent(), 0.001);
+        Assert.assertEquals(-1, PersistenceInfo.parse(DONE).getLoadingEtaSeconds());
+    }
+
+    @Test
+    public void testSnapshotCost() {
+        PersistenceInfo info = PersistenceInfo.parse(DONE);
+        Assert.assertTrue(info.lastSucceeded(true));
+        Assert.assertFalse(info.lastSucceeded(false));
+        Assert.assertEquals(1048576, info.getLastCowBytes(true));
+        Assert.assertEquals(4096, info.getLastCowBytes(false));
+        // Redis before 4.0 does not report the copy on write size.
+        Assert.assertEquals(-1, PersistenceInfo.parse(REWRITING).getLastCowBytes(true));
+    }
+
+    @Test
+    public void testForkIsReadFromStats() throws Exception {
+        // INFO as returned by Redis
+        String info = new String(Files.readAllBytes(new File("src/test/resources/redis_info.txt").toPath()),
+                StandardCharsets.UTF_8);
+        Assert.assertEquals(0, PersistenceInfo.latestForkUsec(section(info, "Stats")));
+        Assert.assertEquals(-1, PersistenceInfo.latestForkUsec(section(info, "Persistence")));
+
+        PersistenceInfo persistence = PersistenceInfo.parse(section(info, "Persistence"));
+        Assert.assertFalse(persistence.isInProgress(false));
+        Assert.assertTrue(persistence.lastSucceeded(false));
+        Assert.assertEquals(-1, persistence.getLastCowBytes(false));
+    }
+
+    private static String section(String info, String name) {
+        int start = info.indexOf("# " + name);
+        int end = info.indexOf("\n#", start);
+        return end < 0 ? info.substring(start) : info.substring(start, end);
+    }
+}
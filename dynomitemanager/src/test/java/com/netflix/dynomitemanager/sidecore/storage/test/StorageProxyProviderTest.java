@@ -0,0 +1,47 @@
+package com.netflix.dynomitemanager.sidecore.storage.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.util.Modules;
+import com.netflix.dynomitemanager.InjectedWebListener;
+import com.netflix.dynomitemanager.defaultimpl.IConfiguration;
+import com.netflix.dynomitemanager.defaultimpl.test.BlankConfiguration;
+import com.netflix.dynomitemanager.sidecore.storage.IStorageProxy;
+import com.netflix.dynomitemanager.sidecore.storage.MemcachedStorageProxy;
+import com.netflix.dynomitemanager.sidecore.storage.RedisStorageProxy;
+
+public class StorageProxyProviderTest {
+
+    private static Injector injector(final String engine) {
+        return Guice.createInjector(Modules.override(new InjectedWebListener.DynomiteGuiceModule())
+                .with(new AbstractModule() {
+                    @Override
+                    protected void configure() {
+                        bind(IConfiguration.class).toInstance(new BlankConfiguration() {
+                            @Override
+                            public String getDatastoreEngine() {
+                                return engine;
+                            }
+                        });
+                    }
+                }));
+    }
+
+    @Test
+    public void testMemcachedEngineGetsMemcachedProxy() {
+        IStorageProxy proxy = injector("memcached").getInstance(IStorageProxy.class);
+        Assert.assertTrue(proxy instanceof MemcachedStorageProxy);
+        Assert.assertEquals("memcached", proxy.getEngine());
+        Assert.assertEquals(1, proxy.getEngineNumber());
+    }
+
+    @Test
+    public void testRedisCompatibleEnginesGetRedisProxy() {
+        Assert.assertTrue(injector("redis").getInstance(IStorageProxy.class) instanceof RedisStorageProxy);
+        Assert.assertTrue(injector("rocksdb").getInstance(IStorageProxy.class) instanceof RedisStorageProxy);
+    }
+}
@@ -1,8 +1,11 @@
 package com.netflix.dynomitemanager.sidecore.utils.test;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Scanner;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -20,12 +23,20 @@ public class ArdbConfParserTest {
         int minWriteBufferToMerge = 4;
         long storeMaxMem = 10000000;
 
-        String configPathName = "./src/test/resources/rocksdb.conf";
-        ArdbRocksDbRedisCompatible checkConf = new ArdbRocksDbRedisCompatible(storeMaxMem, writeBufferSize,
-                maxWriteBufferNumber, minWriteBufferToMerge);
-        checkConf.updateConfiguration(configPathName);
+        // the configuration is rewritten in place, so the fixture is copied first
+        File dir = Files.createTempDirectory("ardb").toFile();
+        String conf;
+        try {
+            String configPathName = new File(dir, "rocksdb.conf").getPath();
+            Files.copy(Paths.get("./src/test/resources/rocksdb.conf"), Paths.get(configPathName));
+            ArdbRocksDbRedisCompatible checkConf = new ArdbRocksDbRedisCompatible(storeMaxMem, writeBufferSize,
+                    maxWriteBufferNumber, minWriteBufferToMerge);
+            checkConf.updateConfiguration(configPathName);
 
-        String conf = new Scanner(new File(configPathName)).useDelimiter("\\Z").next();
+            conf = new Scanner(new File(configPathName)).useDelimiter("\\Z").next();
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
         
         final String bufSize = "write_buffer_size=" + writeBufferSize + "MB;";
         int occurrences = 0;
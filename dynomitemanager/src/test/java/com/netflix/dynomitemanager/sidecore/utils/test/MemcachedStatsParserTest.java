@@ -0,0 +1,85 @@
+package com.netflix.dynomitemanager.sidecore.utils.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.netflix.dynomitemanager.sidecore.storage.MemcachedStatsParser;
+
+public class MemcachedStatsParserTest {
+
+    private static final String STATS = "STAT pid 1234\r\n" + "STAT uptime 3600\r\n" + "STAT version 1.6.9\r\n"
+            + "STAT libevent 2.1.8-stable\r\n" + "STAT rusage_user 12.345678\r\n" + "STAT curr_items 42\r\n"
+            + "STAT get_hits 1000\r\n" + "END\r\n";
+
+    private static final String SLABS = "STAT 1:chunk_size 96\r\n" + "STAT 1:used_chunks 10\r\n"
+            + "STAT active_slabs 1\r\n" + "STAT total_malloced 1048576\r\n" + "END\r\n";
+
+    private static class Collector implements MemcachedStatsParser.StatListener {
+        final Map<String, Long> stats = new HashMap<String, Long>();
+
+        @Override
+        public void onStat(String name, long value) {
+            stats.put(name, value);
+        }
+    }
+
+    @Test
+    public void testGeneralStats() throws IOException {
+        MemcachedStatsParser parser = new MemcachedStatsParser("Memcached_General_");
+        Collector collector = new Collector();
+
+        int count = parser.parse(new ByteArrayInputStream(STATS.getBytes(StandardCharsets.US_ASCII)), collector);
+
+        Assert.assertEquals(5, count);
+        Assert.assertEquals(Long.valueOf(3600), collector.stats.get("Memcached_General_uptime"));
+        Assert.assertEquals(Long.valueOf(12), collector.stats.get("Memcached_General_rusage_user"));
+        Assert.assertEquals(Long.valueOf(42), collector.stats.get("Memcached_General_curr_items"));
+        Assert.assertFalse(collector.stats.containsKey("Memcached_General_version"));
+        Assert.assertFalse(collector.stats.containsKey("Memcached_General_libevent"));
+    }
+
+    @Test
+    public void testSlabStatNames() throws IOException {
+        MemcachedStatsParser parser = new MemcachedStatsParser("Memcached_Slabs_");
+        Collector collector = new Collector();
+
+        parser.parse(new ByteArrayInputStream(SLABS.getBytes(StandardCharsets.US_ASCII)), collector);
+
+        Assert.assertEquals(Long.valueOf(96), collector.stats.get("Memcached_Slabs_1_chunk_size"));
+        Assert.assertEquals(Long.valueOf(1), collector.stats.get("Memcached_Slabs_active_slabs"));
+    }
+
+    @Test
+    public void testNamesAreReusedAcrossRuns() throws IOException {
+        MemcachedStatsParser parser = new MemcachedStatsParser("Memcached_General_");
+        final Map<String, String> seen = new HashMap<String, String>();
+
+        for (int run = 0; run < 3; run++) {
+            parser.parse(new ByteArrayInputStream(STATS.getBytes(StandardCharsets.US_ASCII)),
+                    new MemcachedStatsParser.StatListener() {
+                        @Override
+                        public void onStat(String name, long value) {
+                            String previous = seen.get(name);
+                            if (previous == null) {
+                                seen.put(name, name);
+                            } else {
+                                Assert.assertSame(previous, name);
+                            }
+                        }
+                    });
+        }
+        Assert.assertEquals(5, seen.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testErrorResponse() throws IOException {
+        new MemcachedStatsParser("").parse(new ByteArrayInputStream("ERROR\r\n".getBytes(StandardCharsets.US_ASCII)),
+                new Collector());
+    }
+}